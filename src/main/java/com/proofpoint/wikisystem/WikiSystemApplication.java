@@ -1,13 +1,21 @@
 package com.proofpoint.wikisystem;
 
-import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+
+import java.util.Arrays;
 
 @SpringBootApplication
 public class WikiSystemApplication {
 
     public static void main(String[] args) {
-        SpringApplication.run(WikiSystemApplication.class, args);
+        // Archive imports and exports from the command line run without the web server, see ArchiveCommandLineRunner
+        final boolean archiveCommand = Arrays.stream(args).anyMatch(arg -> arg.startsWith("--wikisystem.archive.import=")
+                || arg.startsWith("--wikisystem.archive.export="));
+        new SpringApplicationBuilder(WikiSystemApplication.class)
+                .web(archiveCommand ? WebApplicationType.NONE : WebApplicationType.SERVLET)
+                .run(args);
     }
 
 }
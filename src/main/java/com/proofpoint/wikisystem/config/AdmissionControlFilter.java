@@ -0,0 +1,138 @@
+package com.proofpoint.wikisystem.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.proofpoint.wikisystem.model.RequestClass;
+import com.proofpoint.wikisystem.service.AdmissionService;
+import com.proofpoint.wikisystem.service.ShardService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static com.proofpoint.wikisystem.util.Constants.STATUS_FAILED_WITH_MESSAGE;
+
+/**
+ * Runs ahead of every other filter, so a rejected request costs a map lookup and never reaches routing or the
+ * services. Requests forwarded by another shard node were already admitted there and pass through, but only when they
+ * come from a configured node's address; a hop header alone admits nothing.
+ */
+@Slf4j
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class AdmissionControlFilter extends OncePerRequestFilter {
+
+    @Autowired
+    private AdmissionService admissionService;
+
+    @Autowired
+    private ShardService shardService;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Override
+    protected boolean shouldNotFilter(final HttpServletRequest request) {
+        final String path = request.getRequestURI();
+        return !admissionService.isEnabled() || !path.startsWith("/wikisystem/")
+                || path.startsWith("/wikisystem/shard") || path.startsWith("/wikisystem/replication")
+                || path.startsWith("/wikisystem/admission")
+                // Event streams stay open for as long as the client listens
+                || path.startsWith("/wikisystem/events")
+                // Archives are streamed, not buffered, and may take minutes
+                || path.startsWith("/wikisystem/archive")
+                || request.getHeader(ShardService.HOPS_HEADER) != null
+                && shardService.isPeerAddress(request.getRemoteAddr());
+    }
+
+    @Override
+    protected void doFilterInternal(final HttpServletRequest request, final HttpServletResponse response,
+                                    final FilterChain chain) throws ServletException, IOException {
+        final HttpMethod method = HttpMethod.resolve(request.getMethod());
+        final boolean isRead = method == HttpMethod.GET || method == HttpMethod.HEAD;
+        final CachedBodyRequest cached = isRead ? null : CachedBodyRequest.of(request);
+        final JsonNode body = cached == null ? null : readBody(cached);
+
+        String requesterId = firstNonNull(request.getParameter("requesterId"), request.getParameter("collaboratorId"),
+                text(body, "requesterId"), text(body, "ownerId"));
+        if (requesterId == null) {
+            requesterId = "addr:" + request.getRemoteAddr();
+        }
+        final String isIndividualUser = firstNonNull(request.getParameter("isIndividualUser"), text(body, "isIndividualUser"),
+                text(body, "individualUser"));
+        final boolean isTeam = "false".equalsIgnoreCase(isIndividualUser);
+
+        final long wait = admissionService.admit(requesterId, isTeam, classify(request.getRequestURI(), method, body));
+        if (wait > 0) {
+            reject(response, HttpStatus.TOO_MANY_REQUESTS, Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + 999_999_999L)),
+                    "Rate limit exceeded for " + requesterId);
+            return;
+        }
+        if (!admissionService.tryEnter()) {
+            log.info("Shedding " + request.getMethod() + " " + request.getRequestURI() + ", concurrency limit reached");
+            reject(response, HttpStatus.SERVICE_UNAVAILABLE, 1, "Server busy");
+            return;
+        }
+        final long start = System.nanoTime();
+        try {
+            chain.doFilter(cached == null ? request : cached, response);
+        } finally {
+            admissionService.exit(start);
+        }
+    }
+
+    /*
+    Bulk requests fan out over many components, so they get a budget of their own
+     */
+    private RequestClass classify(final String path, final HttpMethod method, final JsonNode body) {
+        if (path.equals("/wikisystem/access/check") || path.equals("/wikisystem/access/components")
+                || path.equals("/wikisystem/attachment/list") || path.equals("/wikisystem/page/view/batch")
+                || path.equals("/wikisystem/access/subtree") && method != HttpMethod.GET
+                || method == HttpMethod.DELETE && "true".equalsIgnoreCase(text(body, "isRecursive"))) {
+            return RequestClass.BULK;
+        }
+        return method == HttpMethod.GET || method == HttpMethod.HEAD ? RequestClass.READ : RequestClass.WRITE;
+    }
+
+    private void reject(final HttpServletResponse response, final HttpStatus status, final long retryAfterSeconds,
+                        final String message) throws IOException {
+        response.setStatus(status.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        response.getWriter().write(STATUS_FAILED_WITH_MESSAGE + message);
+    }
+
+    private JsonNode readBody(final CachedBodyRequest request) {
+        try {
+            return request.getBody().length == 0 ? null : mapper.readTree(request.getBody());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private String text(final JsonNode body, final String field) {
+        if (body == null || !body.hasNonNull(field)) {
+            return null;
+        }
+        return body.get(field).asText();
+    }
+
+    private String firstNonNull(final String... values) {
+        for (String value : values) {
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,72 @@
+package com.proofpoint.wikisystem.config;
+
+import com.proofpoint.wikisystem.payload.ArchiveSummaryDto;
+import com.proofpoint.wikisystem.service.ArchiveService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Imports and exports archives from the command line with --wikisystem.archive.import and --wikisystem.archive.export,
+ * then exits. The import runs first, so both together load an archive into the configured storage and write back
+ * what it holds.
+ */
+@Slf4j
+@Component
+public class ArchiveCommandLineRunner implements ApplicationRunner {
+
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    @Autowired
+    private ArchiveService archiveService;
+
+    @Autowired
+    private ApplicationContext context;
+
+    @Value("${wikisystem.archive.import:}")
+    private String importFile;
+
+    @Value("${wikisystem.archive.export:}")
+    private String exportFile;
+
+    @Override
+    public void run(final ApplicationArguments args) {
+        if (importFile.isEmpty() && exportFile.isEmpty()) {
+            return;
+        }
+        int exitCode = 0;
+        try {
+            if (!importFile.isEmpty()) {
+                try (InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(importFile)), BUFFER_BYTES)) {
+                    final ArchiveSummaryDto summary = archiveService.importArchive(in);
+                    log.info("Imported " + importFile + ": " + summary.getUsers() + " users, " + summary.getTeams()
+                            + " teams, " + summary.getPages() + " pages, " + summary.getAttachments() + " attachments");
+                }
+            }
+            if (!exportFile.isEmpty()) {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(exportFile)), BUFFER_BYTES)) {
+                    final ArchiveSummaryDto summary = archiveService.export(out);
+                    log.info("Exported " + exportFile + ": " + summary.getUsers() + " users, " + summary.getTeams()
+                            + " teams, " + summary.getPages() + " pages, " + summary.getAttachments() + " attachments");
+                }
+            }
+        } catch (final Exception e) {
+            log.error("Archive command failed: " + e.getMessage(), e);
+            exitCode = 1;
+        }
+        final int code = exitCode;
+        System.exit(SpringApplication.exit(context, () -> code));
+    }
+}
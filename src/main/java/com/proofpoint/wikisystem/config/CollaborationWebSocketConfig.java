@@ -0,0 +1,69 @@
+package com.proofpoint.wikisystem.config;
+
+import com.proofpoint.wikisystem.controller.CollaborationEndpoint;
+import com.proofpoint.wikisystem.service.CollaborationService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.context.ServletContextAware;
+
+import javax.servlet.ServletContext;
+import javax.websocket.DeploymentException;
+import javax.websocket.server.ServerContainer;
+import javax.websocket.server.ServerEndpointConfig;
+
+/**
+ * Registers the collaborative editing endpoint with the servlet container's own WebSocket support. The embedded
+ * server has set up its ServerContainer by the time all singletons exist; without one, as when the application runs
+ * without the web server, there is nothing to register.
+ */
+@Slf4j
+@Configuration
+public class CollaborationWebSocketConfig implements ServletContextAware, SmartInitializingSingleton {
+
+    /*
+    Largest operation a client may send, a paste of this size still fits in one frame
+     */
+    @Value("${wikisystem.collab.max-frame-bytes:1048576}")
+    private int maxFrameBytes;
+
+    @Value("${wikisystem.collab.max-queued-frames:1000}")
+    private int maxQueuedFrames;
+
+    @Autowired
+    private CollaborationService collaborationService;
+
+    private ServletContext servletContext;
+
+    @Override
+    public void setServletContext(final ServletContext servletContext) {
+        this.servletContext = servletContext;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        final ServerContainer container = servletContext == null ? null
+                : (ServerContainer) servletContext.getAttribute(ServerContainer.class.getName());
+        if (container == null) {
+            log.warn("No WebSocket support in the servlet container, collaborative editing is unavailable");
+            return;
+        }
+        final ServerEndpointConfig config = ServerEndpointConfig.Builder
+                .create(CollaborationEndpoint.class, CollaborationEndpoint.PATH)
+                .configurator(new ServerEndpointConfig.Configurator() {
+                    @Override
+                    public <T> T getEndpointInstance(final Class<T> endpointClass) {
+                        return endpointClass.cast(new CollaborationEndpoint(collaborationService, maxFrameBytes,
+                                maxQueuedFrames));
+                    }
+                })
+                .build();
+        try {
+            container.addEndpoint(config);
+        } catch (DeploymentException e) {
+            throw new IllegalStateException("Cannot register the collaborative editing endpoint", e);
+        }
+    }
+}
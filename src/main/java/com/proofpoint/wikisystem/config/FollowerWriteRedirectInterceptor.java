@@ -0,0 +1,47 @@
+package com.proofpoint.wikisystem.config;
+
+import com.proofpoint.wikisystem.service.ReplicationService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * On a follower, answers every request that could change state with a 307 to the same URL on the leader. 307 makes
+ * clients repeat the method and body, so POST, PUT, PATCH and DELETE requests reach the leader unchanged.
+ */
+@Slf4j
+@Component
+public class FollowerWriteRedirectInterceptor implements HandlerInterceptor {
+
+    @Autowired
+    private ReplicationService replicationService;
+
+    @Override
+    public boolean preHandle(final HttpServletRequest request, final HttpServletResponse response, final Object handler) {
+        if (!replicationService.isFollower() || isReadOnly(request)) {
+            return true;
+        }
+        final StringBuilder location = new StringBuilder(replicationService.getLeaderUrl()).append(request.getRequestURI());
+        if (request.getQueryString() != null) {
+            location.append('?').append(request.getQueryString());
+        }
+        log.info("Redirecting " + request.getMethod() + " " + request.getRequestURI() + " to leader");
+        response.setStatus(HttpStatus.TEMPORARY_REDIRECT.value());
+        response.setHeader(HttpHeaders.LOCATION, location.toString());
+        return false;
+    }
+
+    private boolean isReadOnly(final HttpServletRequest request) {
+        final String method = request.getMethod();
+        return HttpMethod.GET.matches(method) || HttpMethod.HEAD.matches(method) || HttpMethod.OPTIONS.matches(method)
+                || HttpMethod.POST.matches(method) && (request.getRequestURI().endsWith("/access/check")
+                || request.getRequestURI().endsWith("/page/view/batch"));
+    }
+}
@@ -0,0 +1,251 @@
+package com.proofpoint.wikisystem.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.proofpoint.wikisystem.service.AttachmentService;
+import com.proofpoint.wikisystem.service.PageService;
+import com.proofpoint.wikisystem.service.ShardService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.locks.Lock;
+
+import static com.proofpoint.wikisystem.util.Constants.STATUS_FAILED_WITH_MESSAGE;
+
+/**
+ * Routes page, attachment and access requests to the node holding the page tree they are about, proxying them there
+ * when it is another node, and repeats user and team changes on every node. Controllers are unaware of sharding.
+ */
+@Slf4j
+@Component
+public class ShardRoutingFilter extends OncePerRequestFilter {
+
+    private static final String PAGE_PATH = "/wikisystem/page";
+    private static final String ATTACHMENT_PATH = "/wikisystem/attachment";
+    private static final String ACCESS_PATH = "/wikisystem/access";
+
+    @Autowired
+    private ShardService shardService;
+
+    @Autowired
+    private PageService pageService;
+
+    @Autowired
+    private AttachmentService attachmentService;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Override
+    protected boolean shouldNotFilter(final HttpServletRequest request) {
+        final String path = request.getRequestURI();
+        return !shardService.isEnabled() || !path.startsWith("/wikisystem/") || path.startsWith("/wikisystem/shard")
+                // Each node exports and imports its own data, archives are too large to buffer for forwarding
+                || path.startsWith("/wikisystem/archive");
+    }
+
+    @Override
+    protected void doFilterInternal(final HttpServletRequest request, final HttpServletResponse response,
+                                    final FilterChain chain) throws ServletException, IOException {
+        final CachedBodyRequest cached = CachedBodyRequest.of(restoreMethod(request));
+        final HttpMethod method = HttpMethod.resolve(cached.getMethod());
+        final int hops = parseHops(request.getHeader(ShardService.HOPS_HEADER));
+
+        if (isCollaboratorChange(request.getRequestURI(), method)) {
+            chain.doFilter(cached, response);
+            if (hops == 0 && HttpStatus.valueOf(response.getStatus()).is2xxSuccessful()) {
+                shardService.broadcast(method, pathAndQuery(request), forwardedHeaders(request, hops), cached.getBody());
+            }
+            return;
+        }
+
+        final Target target = targetOf(cached, method);
+        if (target == null) {
+            chain.doFilter(cached, response);
+            return;
+        }
+
+        // Resolved before locking, it may ask other nodes and never changes for an existing page
+        final String rootPageID = target.pageID == null ? ShardService.SHARED_TREE
+                : target.newTree ? target.pageID : shardService.locateRoot(target.pageID);
+        final Lock lock = shardService.getRoutingLock();
+        lock.lock();
+        boolean locked = true;
+        try {
+            final String node = shardService.route(rootPageID, target.newTree, isHeldLocally(target), hops);
+            if (shardService.getNodeId().equals(node)) {
+                chain.doFilter(cached, response);
+                return;
+            }
+            lock.unlock();
+            locked = false;
+            forward(node, cached, response, target, hops);
+        } finally {
+            if (locked) {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void forward(final String node, final CachedBodyRequest request, final HttpServletResponse response,
+                         final Target target, final int hops) throws IOException {
+        log.info("Routing " + request.getMethod() + " " + request.getRequestURI() + " to node " + node);
+        final ResponseEntity<byte[]> output;
+        try {
+            output = shardService.forward(node, HttpMethod.resolve(request.getMethod()), pathAndQuery(request),
+                    forwardedHeaders(request, hops), request.getBody());
+        } catch (RestClientException e) {
+            log.error("Failed to reach node " + node + ":" + e.getMessage());
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.getWriter().write(STATUS_FAILED_WITH_MESSAGE + "Node " + node + " is unavailable");
+            return;
+        }
+
+        if (output.getStatusCode() == HttpStatus.NOT_FOUND && target.pageID != null) {
+            shardService.forgetRoot(target.pageID);
+        }
+        response.setStatus(output.getStatusCodeValue());
+        for (String header : new String[]{HttpHeaders.CONTENT_TYPE, HttpHeaders.LOCATION, HttpHeaders.RETRY_AFTER, HttpHeaders.ETAG}) {
+            final String value = output.getHeaders().getFirst(header);
+            if (value != null) {
+                response.setHeader(header, value);
+            }
+        }
+        if (output.getBody() != null) {
+            response.getOutputStream().write(output.getBody());
+        }
+    }
+
+    /*
+    The page the request is about, or null if the request is not bound to a page tree
+     */
+    private Target targetOf(final CachedBodyRequest request, final HttpMethod method) {
+        final String path = request.getRequestURI();
+        if (PAGE_PATH.equals(path) || (PAGE_PATH + "/render").equals(path) || (PAGE_PATH + "/view").equals(path)) {
+            if (method == HttpMethod.POST) {
+                final JsonNode body = readBody(request);
+                if (body == null) {
+                    return null;
+                }
+                final String parentPageID = body.path("parentPageId").textValue();
+                return parentPageID != null ? new Target(parentPageID, false) : new Target(body.path("pageId").textValue(), true);
+            }
+            final String pageID = request.getParameter("pageId");
+            return pageID == null ? null : new Target(pageID, false);
+        }
+        if (ATTACHMENT_PATH.equals(path) || (ATTACHMENT_PATH + "/list").equals(path)) {
+            if (method == HttpMethod.POST) {
+                final JsonNode body = readBody(request);
+                if (body == null) {
+                    return null;
+                }
+                final String pageID = body.path("pageId").textValue();
+                return new Target(pageID, pageID == null);
+            }
+            return new Target(request.getParameter("pageId"), false);
+        }
+        if ((ACCESS_PATH + "/subtree").equals(path)) {
+            if (method == HttpMethod.GET) {
+                final String rootPageID = request.getParameter("rootPageId");
+                return rootPageID == null ? null : new Target(rootPageID, false);
+            }
+            final JsonNode body = readBody(request);
+            return body == null || body.path("rootPageId").textValue() == null
+                    ? null : new Target(body.path("rootPageId").textValue(), false);
+        }
+        if (ACCESS_PATH.equals(path) && method != HttpMethod.GET) {
+            final JsonNode body = readBody(request);
+            if (body == null || body.path("componentId").textValue() == null) {
+                return null;
+            }
+            final String componentId = body.path("componentId").textValue();
+            if (body.path("page").asBoolean(body.path("isPage").asBoolean())) {
+                return new Target(componentId, false);
+            }
+            final int separator = componentId.lastIndexOf('/');
+            return new Target(separator < 0 ? null : componentId.substring(0, separator), false);
+        }
+        return null;
+    }
+
+    private boolean isHeldLocally(final Target target) {
+        return target.pageID == null
+                ? !attachmentService.listForPage(null).isEmpty()
+                : pageService.read(target.pageID) != null;
+    }
+
+    private boolean isCollaboratorChange(final String path, final HttpMethod method) {
+        return method != HttpMethod.GET && (path.equals("/wikisystem/user") || path.startsWith("/wikisystem/team"));
+    }
+
+    private JsonNode readBody(final CachedBodyRequest request) {
+        try {
+            return request.getBody().length == 0 ? null : mapper.readTree(request.getBody());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private HttpHeaders forwardedHeaders(final HttpServletRequest request, final int hops) {
+        final HttpHeaders headers = new HttpHeaders();
+        if (request.getContentType() != null) {
+            headers.set(HttpHeaders.CONTENT_TYPE, request.getContentType());
+        }
+        if (request.getHeader(HttpHeaders.ACCEPT) != null) {
+            headers.set(HttpHeaders.ACCEPT, request.getHeader(HttpHeaders.ACCEPT));
+        }
+        headers.set(ShardService.HOPS_HEADER, String.valueOf(hops + 1));
+        return headers;
+    }
+
+    /*
+    Forwarded patches arrive as POST, see ShardService.METHOD_OVERRIDE_HEADER. Only honoured between nodes.
+     */
+    private HttpServletRequest restoreMethod(final HttpServletRequest request) {
+        final String override = request.getHeader(ShardService.METHOD_OVERRIDE_HEADER);
+        if (override == null || request.getHeader(ShardService.HOPS_HEADER) == null
+                || !HttpMethod.POST.matches(request.getMethod()) || !HttpMethod.PATCH.matches(override)) {
+            return request;
+        }
+        return new HttpServletRequestWrapper(request) {
+            @Override
+            public String getMethod() {
+                return override;
+            }
+        };
+    }
+
+    private String pathAndQuery(final HttpServletRequest request) {
+        return request.getQueryString() == null ? request.getRequestURI() : request.getRequestURI() + "?" + request.getQueryString();
+    }
+
+    private int parseHops(final String hops) {
+        try {
+            return hops == null ? 0 : Integer.parseInt(hops);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static final class Target {
+        private final String pageID;
+        private final boolean newTree;
+
+        private Target(final String pageID, final boolean newTree) {
+            this.pageID = pageID;
+            this.newTree = newTree;
+        }
+    }
+}
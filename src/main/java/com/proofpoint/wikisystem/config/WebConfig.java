@@ -0,0 +1,18 @@
+package com.proofpoint.wikisystem.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    @Autowired
+    private FollowerWriteRedirectInterceptor followerWriteRedirectInterceptor;
+
+    @Override
+    public void addInterceptors(final InterceptorRegistry registry) {
+        registry.addInterceptor(followerWriteRedirectInterceptor).addPathPatterns("/wikisystem/**");
+    }
+}
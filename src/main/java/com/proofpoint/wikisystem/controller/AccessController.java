@@ -1,15 +1,26 @@
 package com.proofpoint.wikisystem.controller;
 
+import com.proofpoint.wikisystem.exceptions.AccessDeniedException;
+import com.proofpoint.wikisystem.payload.AccessCheckResultDto;
+import com.proofpoint.wikisystem.payload.AccessibleComponentsDto;
+import com.proofpoint.wikisystem.payload.BatchAccessCheckDto;
 import com.proofpoint.wikisystem.payload.CreateAccessDto;
+import com.proofpoint.wikisystem.payload.DeleteAccessDto;
+import com.proofpoint.wikisystem.payload.SubtreeAccessDto;
+import com.proofpoint.wikisystem.payload.SubtreeOperationDto;
+import com.proofpoint.wikisystem.payload.TransferOwnershipDto;
+import com.proofpoint.wikisystem.payload.UpdateAccessDto;
+import com.proofpoint.wikisystem.model.OperationState;
 import com.proofpoint.wikisystem.service.AccessService;
+import com.proofpoint.wikisystem.service.SubtreeAccessService;
+import com.proofpoint.wikisystem.util.Action;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.web.bind.annotation.RequestBody;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RequestMethod;
-import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
 
 import static com.proofpoint.wikisystem.util.Constants.STATUS_FAILED_WITH_MESSAGE;
 import static com.proofpoint.wikisystem.util.Constants.STATUS_SUCCESS;
@@ -22,6 +33,9 @@ public class AccessController {
     @Autowired
     private AccessService accessService;
 
+    @Autowired
+    private SubtreeAccessService subtreeAccessService;
+
     @RequestMapping(method = RequestMethod.POST, consumes = "application/json")
     public ResponseEntity<String> create(@RequestBody final CreateAccessDto payload) {
 
@@ -37,4 +51,114 @@ public class AccessController {
 
     }
 
+    @RequestMapping(value = "/check", method = RequestMethod.POST, consumes = "application/json", produces = "application/json")
+    public ResponseEntity<List<AccessCheckResultDto>> check(@RequestBody final BatchAccessCheckDto payload) {
+        log.info("Received request to check access in batch");
+        return new ResponseEntity<>(accessService.checkAccess(payload), HttpStatus.OK);
+    }
+
+    @RequestMapping(value = "/components", method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<AccessibleComponentsDto> listComponents(@RequestParam final String collaboratorId,
+                                                                  @RequestParam final String isIndividualUser,
+                                                                  @RequestParam(defaultValue = "READ") final String action,
+                                                                  @RequestParam(required = false) final String cursor,
+                                                                  @RequestParam(defaultValue = "50") final int limit) {
+        log.info("Received request to list accessible components");
+        try {
+            AccessibleComponentsDto output = accessService.listAccessibleComponents(collaboratorId,
+                    Boolean.parseBoolean(isIndividualUser), Action.valueOf(action), cursor, Math.min(Math.max(limit, 1), 500));
+            return new ResponseEntity<>(output, HttpStatus.OK);
+        } catch (final Exception e) {
+            log.error(e.getMessage());
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+    }
+
+    @RequestMapping(method = RequestMethod.PUT, consumes = "application/json")
+    public ResponseEntity<String> update(@RequestBody final UpdateAccessDto payload) {
+
+        try {
+            log.info("Received request to change access level");
+            int affected = accessService.changeAccessLevel(payload);
+            return new ResponseEntity<>("Access updated on " + affected + " components", HttpStatus.OK);
+
+        } catch (final Exception e) {
+            log.error(e.getMessage());
+            return new ResponseEntity<>(STATUS_FAILED_WITH_MESSAGE + e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @RequestMapping(method = RequestMethod.DELETE, consumes = "application/json")
+    public ResponseEntity<String> delete(@RequestBody final DeleteAccessDto payload) {
+
+        try {
+            log.info("Received request to revoke access");
+            int affected = accessService.revokeAccess(payload);
+            return new ResponseEntity<>("Access revoked on " + affected + " components", HttpStatus.OK);
+
+        } catch (final Exception e) {
+            log.error(e.getMessage());
+            return new ResponseEntity<>(STATUS_FAILED_WITH_MESSAGE + e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /*
+    Everything fromUserId owns goes to toUserId, in one write. Only fromUserId itself or a member of an admin team
+    may ask for it.
+     */
+    @RequestMapping(value = "/owner", method = RequestMethod.PUT, consumes = "application/json")
+    public ResponseEntity<String> transferOwnership(@RequestBody final TransferOwnershipDto payload) {
+
+        try {
+            log.info("Received request to transfer ownership");
+            int affected = accessService.transferOwnership(payload);
+            return new ResponseEntity<>("Ownership transferred on " + affected + " components", HttpStatus.OK);
+
+        } catch (final AccessDeniedException e) {
+            log.error(e.getMessage());
+            return new ResponseEntity<>(STATUS_FAILED_WITH_MESSAGE + e.getMessage(), HttpStatus.FORBIDDEN);
+        } catch (final Exception e) {
+            log.error(e.getMessage());
+            return new ResponseEntity<>(STATUS_FAILED_WITH_MESSAGE + e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @RequestMapping(value = "/subtree", method = RequestMethod.POST, consumes = "application/json", produces = "application/json")
+    public ResponseEntity<SubtreeOperationDto> createOnSubtree(@RequestBody final SubtreeAccessDto payload) {
+        try {
+            log.info("Received request to grant access on a subtree");
+            return new ResponseEntity<>(subtreeAccessService.grant(payload), HttpStatus.ACCEPTED);
+        } catch (final Exception e) {
+            log.error(e.getMessage());
+            return new ResponseEntity<>(failed(e), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @RequestMapping(value = "/subtree", method = RequestMethod.DELETE, consumes = "application/json", produces = "application/json")
+    public ResponseEntity<SubtreeOperationDto> deleteOnSubtree(@RequestBody final SubtreeAccessDto payload) {
+        try {
+            log.info("Received request to revoke access on a subtree");
+            return new ResponseEntity<>(subtreeAccessService.revoke(payload), HttpStatus.ACCEPTED);
+        } catch (final Exception e) {
+            log.error(e.getMessage());
+            return new ResponseEntity<>(failed(e), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /*
+    rootPageId is not needed here, it lets a sharded deployment route the poll to the node running the operation
+     */
+    @RequestMapping(value = "/subtree", method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<SubtreeOperationDto> getSubtreeOperation(@RequestParam final String operationId,
+                                                                   @RequestParam(required = false) final String rootPageId) {
+        final SubtreeOperationDto output = subtreeAccessService.getOperation(operationId);
+        return output == null ? new ResponseEntity<>(HttpStatus.NOT_FOUND) : new ResponseEntity<>(output, HttpStatus.OK);
+    }
+
+    private SubtreeOperationDto failed(final Exception e) {
+        final SubtreeOperationDto output = new SubtreeOperationDto();
+        output.setState(OperationState.FAILED);
+        output.setMessage(STATUS_FAILED_WITH_MESSAGE + e.getMessage());
+        return output;
+    }
 }
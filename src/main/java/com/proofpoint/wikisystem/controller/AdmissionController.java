@@ -0,0 +1,26 @@
+package com.proofpoint.wikisystem.controller;
+
+import com.proofpoint.wikisystem.payload.AdmissionStatusDto;
+import com.proofpoint.wikisystem.service.AdmissionService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+@Slf4j
+@RestController
+@RequestMapping("/wikisystem/admission")
+public class AdmissionController {
+
+    @Autowired
+    private AdmissionService admissionService;
+
+    @RequestMapping(value = "/status", method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<AdmissionStatusDto> status() {
+        log.info("Received request for admission status");
+        return new ResponseEntity<>(admissionService.getStatus(), HttpStatus.OK);
+    }
+}
@@ -0,0 +1,50 @@
+package com.proofpoint.wikisystem.controller;
+
+import com.proofpoint.wikisystem.payload.ArchiveSummaryDto;
+import com.proofpoint.wikisystem.service.ArchiveService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+@Slf4j
+@RestController
+@RequestMapping("/wikisystem/archive")
+public class ArchiveController {
+
+    @Autowired
+    private ArchiveService archiveService;
+
+    /*
+    Streamed straight into the response, the archive is never held in memory as a whole
+     */
+    @RequestMapping(method = RequestMethod.GET)
+    public void export(final HttpServletResponse response) throws IOException {
+        log.info("Received request to export the wiki");
+        response.setContentType("application/gzip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=\"wiki-" + System.currentTimeMillis() + ".ndjson.gz\"");
+        archiveService.export(response.getOutputStream());
+    }
+
+    @RequestMapping(method = RequestMethod.POST, produces = "application/json")
+    public ResponseEntity<ArchiveSummaryDto> importArchive(final HttpServletRequest request) {
+        log.info("Received request to import a wiki archive");
+        try {
+            return new ResponseEntity<>(archiveService.importArchive(request.getInputStream()), HttpStatus.OK);
+        } catch (final Exception e) {
+            log.error(e.getMessage());
+            final ArchiveSummaryDto output = new ArchiveSummaryDto();
+            output.setMessage(e.getMessage());
+            return new ResponseEntity<>(output, HttpStatus.BAD_REQUEST);
+        }
+    }
+}
@@ -2,17 +2,25 @@ package com.proofpoint.wikisystem.controller;
 
 import com.proofpoint.wikisystem.model.Attachment;
 import com.proofpoint.wikisystem.model.User;
+import com.proofpoint.wikisystem.payload.AttachmentSummaryDto;
 import com.proofpoint.wikisystem.payload.CreateAttachmentDto;
 import com.proofpoint.wikisystem.payload.DeleteComponentDto;
 import com.proofpoint.wikisystem.payload.UpdateComponentDto;
 import com.proofpoint.wikisystem.service.AttachmentService;
+import com.proofpoint.wikisystem.service.ReadCoalescingService;
 import com.proofpoint.wikisystem.service.UserService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+
+import static com.proofpoint.wikisystem.util.Constants.MAX_SUGGESTIONS;
+import static com.proofpoint.wikisystem.util.Constants.MAX_SUGGESTION_EDITS;
 import static com.proofpoint.wikisystem.util.Constants.STATUS_FAILED_WITH_MESSAGE;
 import static com.proofpoint.wikisystem.util.Constants.STATUS_SUCCESS;
 
@@ -27,6 +35,9 @@ public class AttachmentController {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private ReadCoalescingService readCoalescingService;
+
     @RequestMapping(method = RequestMethod.POST, consumes = "application/json")
     public ResponseEntity<String> create(@RequestBody final CreateAttachmentDto payload) {
 
@@ -35,7 +46,8 @@ public class AttachmentController {
             log.info("Payload:" + payload.toString());
 
             User owner = userService.read(payload.getOwnerId());
-            attachmentService.create(payload.getFilename(), payload.getContents(), owner, payload.getAccessMap());
+            attachmentService.create(payload.getPageId(), payload.getFilename(), payload.getContents(), owner,
+                    payload.getAccessMap(), payload.isInheritAccess());
 
             return new ResponseEntity<>(STATUS_SUCCESS, HttpStatus.CREATED);
 
@@ -47,24 +59,29 @@ public class AttachmentController {
     }
 
     @RequestMapping(method = RequestMethod.GET, produces = "application/json")
-    public ResponseEntity<Attachment> read(@RequestParam final String fileName, @RequestParam final String requesterId, @RequestParam final String isIndividualUser) {
+    public ResponseEntity<byte[]> read(@RequestParam(required = false) final String pageId, @RequestParam final String fileName,
+                                           @RequestParam final String requesterId, @RequestParam final String isIndividualUser) {
         log.info("Received request to read attachment");
 
-        final Attachment output = attachmentService.accessAttachment(fileName, requesterId, Boolean.parseBoolean(isIndividualUser));
-        ResponseEntity<Attachment> response;
+        final Attachment output = attachmentService.accessAttachment(pageId, fileName, requesterId, Boolean.parseBoolean(isIndividualUser));
+        ResponseEntity<byte[]> response;
         if (output != null) {
-            response = new ResponseEntity<>(output, HttpStatus.OK);
+            final HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            headers.setETag("\"" + output.getVersion() + "\"");
+            response = new ResponseEntity<>(readCoalescingService.toJson(output), headers, HttpStatus.OK);
         } else {
-            response = new ResponseEntity<>(output, HttpStatus.NOT_FOUND);
+            response = new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
 
         return response;
     }
 
     @RequestMapping(method = RequestMethod.PUT, consumes = "application/json")
-    public ResponseEntity<String> update(@RequestParam final String fileName, @RequestBody final UpdateComponentDto payload, @RequestParam final String requesterId) {
+    public ResponseEntity<String> update(@RequestParam(required = false) final String pageId, @RequestParam final String fileName,
+                                         @RequestBody final UpdateComponentDto payload, @RequestParam final String requesterId) {
         log.info("Received request to update attachment");
-        String output = attachmentService.update(fileName, payload, requesterId);
+        String output = attachmentService.update(pageId, fileName, payload, requesterId);
 
         ResponseEntity<String> response;
         if (output != null) {
@@ -77,12 +94,13 @@ public class AttachmentController {
     }
 
     @RequestMapping(method = RequestMethod.DELETE, produces = "application/json")
-    public ResponseEntity<String> delete(@RequestParam final String fileName, @RequestBody final DeleteComponentDto payload) {
+    public ResponseEntity<String> delete(@RequestParam(required = false) final String pageId, @RequestParam final String fileName,
+                                         @RequestBody final DeleteComponentDto payload) {
 
         log.info("Received request to delete attachment");
 
         ResponseEntity<String> response;
-        if (attachmentService.delete(fileName, payload.getRequesterId(), Boolean.parseBoolean(payload.getIsIndividualUser()))) {
+        if (attachmentService.delete(pageId, fileName, payload.getRequesterId(), Boolean.parseBoolean(payload.getIsIndividualUser()))) {
             response = new ResponseEntity<>("File deleted successfully", HttpStatus.OK);
         } else {
             response = new ResponseEntity<>("File not found", HttpStatus.NOT_FOUND);
@@ -91,4 +109,25 @@ public class AttachmentController {
         return response;
 
     }
+
+    @RequestMapping(value = "/list", method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<List<AttachmentSummaryDto>> list(@RequestParam final String pageId, @RequestParam final String requesterId,
+                                                           @RequestParam final String isIndividualUser) {
+        log.info("Received request to list attachments of page");
+        return new ResponseEntity<>(attachmentService.listAttachments(pageId, requesterId, Boolean.parseBoolean(isIndividualUser)),
+                HttpStatus.OK);
+    }
+
+    /*
+    Completes a filename, or with maxEdits of 1 or 2 finds filenames close to a misspelt one
+     */
+    @RequestMapping(value = "/suggest", method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<List<AttachmentSummaryDto>> suggest(@RequestParam final String query, @RequestParam final String requesterId,
+                                                              @RequestParam final String isIndividualUser,
+                                                              @RequestParam(defaultValue = "0") final int maxEdits,
+                                                              @RequestParam(defaultValue = "10") final int limit) {
+        log.info("Received request to suggest attachments");
+        return new ResponseEntity<>(attachmentService.suggest(query, Math.min(Math.max(maxEdits, 0), MAX_SUGGESTION_EDITS),
+                Math.min(Math.max(limit, 1), MAX_SUGGESTIONS), requesterId, Boolean.parseBoolean(isIndividualUser)), HttpStatus.OK);
+    }
 }
@@ -0,0 +1,53 @@
+package com.proofpoint.wikisystem.controller;
+
+import com.proofpoint.wikisystem.model.AuditRecord;
+import com.proofpoint.wikisystem.model.ComponentType;
+import com.proofpoint.wikisystem.payload.AuditStatusDto;
+import com.proofpoint.wikisystem.service.AuditService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@Slf4j
+@RestController
+@RequestMapping("/wikisystem/audit")
+public class AuditController {
+
+    @Autowired
+    private AuditService auditService;
+
+    /*
+    Any combination of requester, component and time range, from inclusive and to exclusive in epoch millis
+     */
+    @RequestMapping(method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<List<AuditRecord>> query(@RequestParam(required = false) final String requesterId,
+                                                   @RequestParam(required = false) final String componentId,
+                                                   @RequestParam(defaultValue = "true") final String isPage,
+                                                   @RequestParam(required = false) final Long from,
+                                                   @RequestParam(required = false) final Long to,
+                                                   @RequestParam(defaultValue = "100") final int limit) {
+        log.info("Received request to query the audit log");
+        try {
+            final String componentKey = componentId == null ? null
+                    : (Boolean.parseBoolean(isPage) ? ComponentType.PAGE : ComponentType.ATTACHMENT).keyOf(componentId);
+            return new ResponseEntity<>(auditService.query(requesterId, componentKey, from, to,
+                    Math.min(Math.max(limit, 1), 1000)), HttpStatus.OK);
+        } catch (final Exception e) {
+            log.error(e.getMessage());
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @RequestMapping(value = "/status", method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<AuditStatusDto> status() {
+        log.info("Received request for audit log status");
+        return new ResponseEntity<>(auditService.getStatus(), HttpStatus.OK);
+    }
+}
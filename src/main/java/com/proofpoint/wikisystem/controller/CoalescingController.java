@@ -0,0 +1,26 @@
+package com.proofpoint.wikisystem.controller;
+
+import com.proofpoint.wikisystem.payload.CoalescingStatusDto;
+import com.proofpoint.wikisystem.service.ReadCoalescingService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+@Slf4j
+@RestController
+@RequestMapping("/wikisystem/coalescing")
+public class CoalescingController {
+
+    @Autowired
+    private ReadCoalescingService readCoalescingService;
+
+    @RequestMapping(value = "/status", method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<CoalescingStatusDto> status() {
+        log.info("Received request for read coalescing status");
+        return new ResponseEntity<>(readCoalescingService.getStatus(), HttpStatus.OK);
+    }
+}
@@ -0,0 +1,157 @@
+package com.proofpoint.wikisystem.controller;
+
+import com.proofpoint.wikisystem.exceptions.AccessDeniedException;
+import com.proofpoint.wikisystem.exceptions.PageNotFoundException;
+import com.proofpoint.wikisystem.service.CollaborationService;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.websocket.CloseReason;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * WebSocket endpoint of collaborative editing sessions, one instance per connection:
+ * ws://host:8081/wikisystem/page/collab?pageId=...&requesterId=...&isIndividualUser=true
+ * <p>
+ * Text frames from the client are operations as CollaborationService.submit reads them, frames to the client are
+ * CollaborationMessageDto. A connection that cannot join is closed with the reason.
+ */
+@Slf4j
+public class CollaborationEndpoint extends Endpoint {
+
+    public static final String PATH = "/wikisystem/page/collab";
+
+    /*
+    Close reasons are limited to 123 bytes of UTF-8
+     */
+    private static final int MAX_REASON_BYTES = 123;
+
+    private final CollaborationService collaborationService;
+    private final int maxFrameBytes;
+    private final int maxQueuedFrames;
+
+    private Connection connection;
+
+    public CollaborationEndpoint(final CollaborationService collaborationService, final int maxFrameBytes,
+                                 final int maxQueuedFrames) {
+        this.collaborationService = collaborationService;
+        this.maxFrameBytes = maxFrameBytes;
+        this.maxQueuedFrames = maxQueuedFrames;
+    }
+
+    @Override
+    public void onOpen(final Session session, final EndpointConfig config) {
+        final String pageId = parameter(session, "pageId");
+        final String requesterId = parameter(session, "requesterId");
+        final boolean isIndividualUser = Boolean.parseBoolean(parameter(session, "isIndividualUser"));
+        log.info("Received request to join the editing session on page " + pageId);
+        session.setMaxTextMessageBufferSize(maxFrameBytes);
+
+        final Connection joining = new Connection(session, requesterId, isIndividualUser);
+        try {
+            collaborationService.join(pageId, joining);
+        } catch (PageNotFoundException | AccessDeniedException | IllegalStateException e) {
+            log.error(e.getMessage());
+            close(session, CloseReason.CloseCodes.VIOLATED_POLICY, e.getMessage());
+            return;
+        }
+        connection = joining;
+        session.addMessageHandler(String.class, frame -> collaborationService.submit(joining, frame));
+    }
+
+    @Override
+    public void onClose(final Session session, final CloseReason closeReason) {
+        if (connection != null) {
+            collaborationService.leave(connection);
+        }
+    }
+
+    @Override
+    public void onError(final Session session, final Throwable error) {
+        log.warn("Editing session connection " + session.getId() + " failed: " + error);
+    }
+
+    private static String parameter(final Session session, final String name) {
+        final List<String> values = session.getRequestParameterMap().get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    private static void close(final Session session, final CloseReason.CloseCode code, final String reason) {
+        String shortened = reason == null ? "" : reason;
+        while (shortened.getBytes(StandardCharsets.UTF_8).length > MAX_REASON_BYTES) {
+            shortened = shortened.substring(0, shortened.length() - 1);
+        }
+        try {
+            session.close(new CloseReason(code, shortened));
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Cannot close editing session connection " + session.getId() + ": " + e.getMessage());
+        }
+    }
+
+    /*
+    Frames are sent one at a time without blocking the sender; the ones sent meanwhile queue up behind. A client that
+    falls maxQueuedFrames behind is disconnected, it can join again and start from the current text.
+     */
+    private final class Connection extends CollaborationService.Participant {
+        private final Session session;
+        /*
+        Guarded by this
+         */
+        private final Queue<String> queued = new ArrayDeque<>();
+        private boolean sending;
+
+        private Connection(final Session session, final String requesterId, final boolean isIndividualUser) {
+            super(requesterId, isIndividualUser);
+            this.session = session;
+        }
+
+        @Override
+        protected void send(final String frame) {
+            synchronized (this) {
+                if (sending) {
+                    if (queued.size() < maxQueuedFrames) {
+                        queued.add(frame);
+                        return;
+                    }
+                    queued.clear();
+                } else {
+                    sending = true;
+                    session.getAsyncRemote().sendText(frame, this::sent);
+                    return;
+                }
+            }
+            close("Too far behind, join again");
+            collaborationService.leave(this);
+        }
+
+        @Override
+        protected void close(final String reason) {
+            CollaborationEndpoint.close(session, CloseReason.CloseCodes.NORMAL_CLOSURE, reason);
+        }
+
+        private void sent(final SendResult result) {
+            synchronized (this) {
+                if (!result.isOK()) {
+                    // The connection is going away; sending stays set, so nothing more is sent until it has left
+                    log.debug("Cannot send to editing session connection " + session.getId() + ": "
+                            + result.getException().getMessage());
+                    queued.clear();
+                    return;
+                }
+                final String next = queued.poll();
+                if (next == null) {
+                    sending = false;
+                    return;
+                }
+                session.getAsyncRemote().sendText(next, this::sent);
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.proofpoint.wikisystem.controller;
+
+import com.proofpoint.wikisystem.service.ChangeEventService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+@Slf4j
+@RestController
+@RequestMapping("/wikisystem/events")
+public class EventController {
+
+    @Autowired
+    private ChangeEventService changeEventService;
+
+    @Value("${wikisystem.events.emitter-timeout-ms:1800000}")
+    private long emitterTimeoutMs;
+
+    /*
+    Clients resume either through the standard Last-Event-ID header sent by EventSource on reconnect,
+    or explicitly with the since parameter. Both hold the last sequence the client has processed.
+     */
+    @RequestMapping(method = RequestMethod.GET, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribe(@RequestHeader(value = "Last-Event-ID", required = false) final Long lastEventId,
+                                @RequestParam(required = false) final Long since) {
+        log.info("Received request to subscribe to change events");
+        final SseEmitter emitter = new SseEmitter(emitterTimeoutMs);
+        changeEventService.subscribe(emitter, lastEventId != null ? lastEventId : since);
+        return emitter;
+    }
+}
@@ -0,0 +1,32 @@
+package com.proofpoint.wikisystem.controller;
+
+import com.proofpoint.wikisystem.payload.HotComponentDto;
+import com.proofpoint.wikisystem.service.HotKeyService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@Slf4j
+@RestController
+@RequestMapping("/wikisystem/hot")
+public class HotKeyController {
+
+    @Autowired
+    private HotKeyService hotKeyService;
+
+    /*
+    Most read pages and attachments by key, hottest first
+     */
+    @RequestMapping(method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<List<HotComponentDto>> hotComponents(@RequestParam(defaultValue = "20") final int limit) {
+        log.info("Received request for hot components");
+        return new ResponseEntity<>(hotKeyService.getHotComponents(Math.min(Math.max(limit, 1), 1000)), HttpStatus.OK);
+    }
+}
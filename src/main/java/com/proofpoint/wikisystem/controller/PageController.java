@@ -1,18 +1,40 @@
 package com.proofpoint.wikisystem.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.proofpoint.wikisystem.exceptions.AccessDeniedException;
+import com.proofpoint.wikisystem.exceptions.PageAlreadyExistsException;
+import com.proofpoint.wikisystem.exceptions.PageNotFoundException;
+import com.proofpoint.wikisystem.exceptions.VersionConflictException;
 import com.proofpoint.wikisystem.model.Page;
 import com.proofpoint.wikisystem.model.User;
+import com.proofpoint.wikisystem.payload.BatchPageViewDto;
+import com.proofpoint.wikisystem.payload.BrokenLinkDto;
 import com.proofpoint.wikisystem.payload.CreatePageDto;
 import com.proofpoint.wikisystem.payload.DeleteComponentDto;
+import com.proofpoint.wikisystem.payload.PatchComponentDto;
+import com.proofpoint.wikisystem.payload.PageViewDto;
 import com.proofpoint.wikisystem.payload.UpdateComponentDto;
 import com.proofpoint.wikisystem.service.PageService;
+import com.proofpoint.wikisystem.service.ReadCoalescingService;
+import com.proofpoint.wikisystem.service.RenderService;
 import com.proofpoint.wikisystem.service.UserService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+import static com.proofpoint.wikisystem.util.Constants.MAX_BATCH_PAGE_VIEWS;
+import static com.proofpoint.wikisystem.util.Constants.MAX_SUGGESTIONS;
+import static com.proofpoint.wikisystem.util.Constants.MAX_SUGGESTION_EDITS;
 import static com.proofpoint.wikisystem.util.Constants.STATUS_FAILED_WITH_MESSAGE;
 import static com.proofpoint.wikisystem.util.Constants.STATUS_SUCCESS;
 
@@ -27,6 +49,15 @@ public class PageController {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private RenderService renderService;
+
+    @Autowired
+    private ReadCoalescingService readCoalescingService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     @RequestMapping(method = RequestMethod.POST, consumes = "application/json")
     public ResponseEntity<String> create(@RequestBody final CreatePageDto payload) {
 
@@ -39,6 +70,8 @@ public class PageController {
 
             return new ResponseEntity<>(STATUS_SUCCESS, HttpStatus.CREATED);
 
+        } catch (final PageAlreadyExistsException e) {
+            return new ResponseEntity<>(STATUS_FAILED_WITH_MESSAGE + e.getMessage(), HttpStatus.CONFLICT);
         } catch (final Exception e) {
             log.error(e.getMessage());
             return new ResponseEntity<>(STATUS_FAILED_WITH_MESSAGE + e.getMessage(), HttpStatus.BAD_REQUEST);
@@ -47,15 +80,130 @@ public class PageController {
     }
 
     @RequestMapping(method = RequestMethod.GET, produces = "application/json")
-    public ResponseEntity<Page> read(@RequestParam final String pageId, @RequestParam final String requesterId, @RequestParam final String isIndividualUser) {
+    public ResponseEntity<byte[]> read(@RequestParam final String pageId, @RequestParam final String requesterId, @RequestParam final String isIndividualUser) {
         log.info("Received request to read page");
         Page output = pageService.accessPage(pageId, requesterId, Boolean.parseBoolean(isIndividualUser));
 
+        if (output != null) {
+            final HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            headers.setETag("\"" + output.getVersion() + "\"");
+            return new ResponseEntity<>(readCoalescingService.toJson(output), headers, HttpStatus.OK);
+        } else {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+    }
+
+    @RequestMapping(value = "/render", method = RequestMethod.GET, produces = "text/html")
+    public ResponseEntity<String> render(@RequestParam final String pageId, @RequestParam final String requesterId, @RequestParam final String isIndividualUser) {
+        log.info("Received request to render page");
+        Page page = pageService.accessPage(pageId, requesterId, Boolean.parseBoolean(isIndividualUser));
+
+        if (page != null) {
+            return new ResponseEntity<>(renderService.render(page, requesterId, Boolean.parseBoolean(isIndividualUser)),
+                    HttpStatus.OK);
+        } else {
+            return new ResponseEntity<>("", HttpStatus.NOT_FOUND);
+        }
+    }
+
+    /*
+    The page with its attachments, owner, children and breadcrumb, instead of one request for each
+     */
+    @RequestMapping(value = "/view", method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<PageViewDto> view(@RequestParam final String pageId, @RequestParam final String requesterId, @RequestParam final String isIndividualUser) {
+        log.info("Received request for page view");
+        final PageViewDto output = pageService.readView(pageId, requesterId, Boolean.parseBoolean(isIndividualUser));
         if (output != null) {
             return new ResponseEntity<>(output, HttpStatus.OK);
         } else {
-            return new ResponseEntity<>(output, HttpStatus.NOT_FOUND);
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+    }
+
+    /*
+    Views of many pages as newline delimited JSON, one line per requested page in request order, each written as
+    soon as it is read
+     */
+    @RequestMapping(value = "/view/batch", method = RequestMethod.POST, consumes = "application/json")
+    public void views(@RequestBody final BatchPageViewDto payload, final HttpServletResponse response) throws IOException {
+        log.info("Received request for page views: " + payload.toString());
+        final List<String> pageIds = payload.getPageIds();
+        if (pageIds == null || pageIds.size() > MAX_BATCH_PAGE_VIEWS) {
+            response.sendError(HttpStatus.BAD_REQUEST.value(), "Between 0 and " + MAX_BATCH_PAGE_VIEWS + " page ids expected");
+            return;
         }
+        response.setContentType("application/x-ndjson");
+        final OutputStream out = response.getOutputStream();
+        pageService.readViews(pageIds, payload.getRequesterId(), payload.isIndividualUser(), view -> {
+            try {
+                out.write(objectMapper.writeValueAsBytes(view));
+                out.write('\n');
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /*
+    Page ids from the root down to the page, for requesters who may read the page
+     */
+    @RequestMapping(value = "/breadcrumbs", method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<List<String>> breadcrumbs(@RequestParam final String pageId, @RequestParam final String requesterId, @RequestParam final String isIndividualUser) {
+        log.info("Received request for page breadcrumbs");
+        if (pageService.accessPage(pageId, requesterId, Boolean.parseBoolean(isIndividualUser)) != null) {
+            return new ResponseEntity<>(pageService.getBreadcrumbs(pageId), HttpStatus.OK);
+        } else {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+    }
+
+    /*
+    Whether the page lies anywhere below ancestorId, for requesters who may read the page
+     */
+    @RequestMapping(value = "/ancestor", method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<Boolean> isAncestor(@RequestParam final String pageId, @RequestParam final String ancestorId, @RequestParam final String requesterId, @RequestParam final String isIndividualUser) {
+        log.info("Received request to check page ancestry");
+        if (pageService.accessPage(pageId, requesterId, Boolean.parseBoolean(isIndividualUser)) != null) {
+            return new ResponseEntity<>(pageService.isAncestor(ancestorId, pageId), HttpStatus.OK);
+        } else {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+    }
+
+    /*
+    Completes a page id, or with maxEdits of 1 or 2 finds page ids close to a misspelt one
+     */
+    @RequestMapping(value = "/suggest", method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<List<String>> suggest(@RequestParam final String query, @RequestParam final String requesterId, @RequestParam final String isIndividualUser,
+                                                @RequestParam(defaultValue = "0") final int maxEdits,
+                                                @RequestParam(defaultValue = "10") final int limit) {
+        log.info("Received request to suggest pages");
+        return new ResponseEntity<>(pageService.suggest(query, Math.min(Math.max(maxEdits, 0), MAX_SUGGESTION_EDITS),
+                Math.min(Math.max(limit, 1), MAX_SUGGESTIONS), requesterId, Boolean.parseBoolean(isIndividualUser)), HttpStatus.OK);
+    }
+
+    /*
+    What links here: pages linking to pageId that the requester can read. pageId need not exist.
+     */
+    @RequestMapping(value = "/backlinks", method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<List<String>> backlinks(@RequestParam final String pageId, @RequestParam final String requesterId, @RequestParam final String isIndividualUser) {
+        log.info("Received request for backlinks of page");
+        return new ResponseEntity<>(pageService.getBacklinks(pageId, requesterId, Boolean.parseBoolean(isIndividualUser)), HttpStatus.OK);
+    }
+
+    /*
+    Links to missing pages, on one page or across the wiki with the last target returned as cursor
+     */
+    @RequestMapping(value = "/brokenlinks", method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<List<BrokenLinkDto>> brokenLinks(@RequestParam(required = false) final String pageId,
+                                                           @RequestParam(required = false) final String after,
+                                                           @RequestParam(defaultValue = "100") final int limit,
+                                                           @RequestParam final String requesterId, @RequestParam final String isIndividualUser) {
+        log.info("Received request for broken links");
+        return new ResponseEntity<>(pageService.getBrokenLinks(pageId, after, Math.min(Math.max(limit, 1), 1000), requesterId,
+                Boolean.parseBoolean(isIndividualUser)), HttpStatus.OK);
     }
 
     @RequestMapping(method = RequestMethod.PUT, consumes = "application/json")
@@ -73,11 +221,35 @@ public class PageController {
         return response;
     }
 
+    /*
+    Positional edits to the content instead of the whole content. The ETag of the response is the new version, the
+    base version for the next patch, which is required.
+     */
+    @RequestMapping(method = RequestMethod.PATCH, consumes = "application/json")
+    public ResponseEntity<String> patch(@RequestParam final String pageId, @RequestBody final PatchComponentDto payload) {
+        log.info("Received request to patch page: " + payload.toString());
+        final HttpHeaders headers = new HttpHeaders();
+        try {
+            headers.setETag("\"" + pageService.patch(pageId, payload) + "\"");
+            return new ResponseEntity<>("Successfully updated page", headers, HttpStatus.OK);
+        } catch (final PageNotFoundException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND);
+        } catch (final AccessDeniedException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.FORBIDDEN);
+        } catch (final VersionConflictException e) {
+            headers.setETag("\"" + e.getCurrentVersion() + "\"");
+            return new ResponseEntity<>(e.getMessage(), headers, HttpStatus.CONFLICT);
+        } catch (final IllegalArgumentException e) {
+            return new ResponseEntity<>(STATUS_FAILED_WITH_MESSAGE + e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
     @RequestMapping(method = RequestMethod.DELETE, produces = "application/json")
     public ResponseEntity<String> delete(@RequestParam final String pageId, @RequestBody final DeleteComponentDto payload) {
         log.info("Received request to delete page");
 
-        if (pageService.delete(pageId, payload.getRequesterId(), Boolean.parseBoolean(payload.getIsIndividualUser()))) {
+        if (pageService.delete(pageId, payload.getRequesterId(), Boolean.parseBoolean(payload.getIsIndividualUser()),
+                Boolean.parseBoolean(payload.getIsRecursive()))) {
             return new ResponseEntity<>("Page deleted successfully", HttpStatus.OK);
         } else {
             return new ResponseEntity<>("Page not found", HttpStatus.NOT_FOUND);
@@ -0,0 +1,26 @@
+package com.proofpoint.wikisystem.controller;
+
+import com.proofpoint.wikisystem.payload.ReplicationStatusDto;
+import com.proofpoint.wikisystem.service.ReplicationService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+@Slf4j
+@RestController
+@RequestMapping("/wikisystem/replication")
+public class ReplicationController {
+
+    @Autowired
+    private ReplicationService replicationService;
+
+    @RequestMapping(value = "/status", method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<ReplicationStatusDto> status() {
+        log.info("Received request for replication status");
+        return new ResponseEntity<>(replicationService.getStatus(), HttpStatus.OK);
+    }
+}
@@ -0,0 +1,81 @@
+package com.proofpoint.wikisystem.controller;
+
+import com.proofpoint.wikisystem.payload.ReplicationRecordDto;
+import com.proofpoint.wikisystem.payload.ShardNodeDto;
+import com.proofpoint.wikisystem.payload.ShardStatusDto;
+import com.proofpoint.wikisystem.service.ShardService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+import static com.proofpoint.wikisystem.util.Constants.STATUS_FAILED_WITH_MESSAGE;
+import static com.proofpoint.wikisystem.util.Constants.STATUS_SUCCESS;
+
+/**
+ * Endpoints the nodes of a sharded deployment use to talk to each other, plus a status view for operators.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/wikisystem/shard")
+public class ShardController {
+
+    @Autowired
+    private ShardService shardService;
+
+    @RequestMapping(value = "/status", method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<ShardStatusDto> status() {
+        log.info("Received request for shard status");
+        return new ResponseEntity<>(shardService.getStatus(), HttpStatus.OK);
+    }
+
+    @RequestMapping(value = "/locate", method = RequestMethod.GET)
+    public ResponseEntity<String> locate(@RequestParam final String pageId) {
+        final String rootPageID = shardService.findLocalRoot(pageId);
+        if (rootPageID != null) {
+            return new ResponseEntity<>(rootPageID, HttpStatus.OK);
+        } else {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+    }
+
+    @RequestMapping(value = "/collaborators", method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<List<ReplicationRecordDto>> collaborators() {
+        log.info("Received request for users and teams");
+        return new ResponseEntity<>(shardService.getCollaboratorRecords(), HttpStatus.OK);
+    }
+
+    @RequestMapping(value = "/join", method = RequestMethod.POST, consumes = "application/json")
+    public ResponseEntity<String> join(@RequestBody final ShardNodeDto payload) {
+        try {
+            log.info("Received request to join:" + payload);
+            shardService.addNode(payload);
+            return new ResponseEntity<>(STATUS_SUCCESS, HttpStatus.OK);
+        } catch (final Exception e) {
+            log.error(e.getMessage());
+            return new ResponseEntity<>(STATUS_FAILED_WITH_MESSAGE + e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @RequestMapping(value = "/import", method = RequestMethod.POST, consumes = "application/json")
+    public ResponseEntity<String> importTree(@RequestBody final List<ReplicationRecordDto> payload) {
+        try {
+            log.info("Received " + payload.size() + " records to import");
+            shardService.importRecords(payload);
+            return new ResponseEntity<>(STATUS_SUCCESS, HttpStatus.OK);
+        } catch (final Exception e) {
+            log.error(e.getMessage());
+            return new ResponseEntity<>(STATUS_FAILED_WITH_MESSAGE + e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @RequestMapping(value = "/handoff", method = RequestMethod.POST)
+    public ResponseEntity<String> handoff(@RequestParam final String fromNodeId) {
+        log.info("Node " + fromNodeId + " finished handing over trees");
+        shardService.completeHandoff(fromNodeId);
+        return new ResponseEntity<>(STATUS_SUCCESS, HttpStatus.OK);
+    }
+}
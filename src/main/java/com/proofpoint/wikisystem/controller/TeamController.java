@@ -1,15 +1,20 @@
 package com.proofpoint.wikisystem.controller;
 
+import com.proofpoint.wikisystem.model.Collaborator;
 import com.proofpoint.wikisystem.model.Team;
 import com.proofpoint.wikisystem.payload.CreateTeamDto;
 import com.proofpoint.wikisystem.payload.UpdateTeamDto;
 import com.proofpoint.wikisystem.service.TeamService;
+import com.proofpoint.wikisystem.service.UserService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static com.proofpoint.wikisystem.util.Constants.STATUS_FAILED_WITH_MESSAGE;
 import static com.proofpoint.wikisystem.util.Constants.STATUS_SUCCESS;
 
@@ -21,6 +26,9 @@ public class TeamController {
     @Autowired
     private TeamService teamService;
 
+    @Autowired
+    private UserService userService;
+
     @RequestMapping(method = RequestMethod.POST, consumes = "application/json")
     public ResponseEntity<String> create(@RequestBody final CreateTeamDto payload) {
 
@@ -79,4 +87,47 @@ public class TeamController {
         String result = teamService.addMemberToTeam(teamId, userId);
         return new ResponseEntity<>(result, HttpStatus.OK);
     }
+
+    @RequestMapping(value = "/removemember", method = RequestMethod.POST)
+    public ResponseEntity<String> removeMember(@RequestParam final String teamId, @RequestParam final String userId) {
+        log.info("Received request to remove member from team");
+        String result = teamService.removeMemberFromTeam(teamId, userId);
+        return new ResponseEntity<>(result, HttpStatus.OK);
+    }
+
+    @RequestMapping(value = "/addsubteam", method = RequestMethod.POST)
+    public ResponseEntity<String> addSubteam(@RequestParam final String teamId, @RequestParam final String subteamId) {
+        log.info("Received request to add subteam to team");
+        try {
+            String result = teamService.addSubteamToTeam(teamId, subteamId);
+            return new ResponseEntity<>(result, HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            log.error(e.getMessage());
+            return new ResponseEntity<>(STATUS_FAILED_WITH_MESSAGE + e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @RequestMapping(value = "/removesubteam", method = RequestMethod.POST)
+    public ResponseEntity<String> removeSubteam(@RequestParam final String teamId, @RequestParam final String subteamId) {
+        log.info("Received request to remove subteam from team");
+        String result = teamService.removeSubteamFromTeam(teamId, subteamId);
+        return new ResponseEntity<>(result, HttpStatus.OK);
+    }
+
+    /**
+     * Every team the user or team belongs to, directly or through nested teams
+     */
+    @RequestMapping(value = "/effective", method = RequestMethod.GET, produces = "application/json")
+    public ResponseEntity<List<String>> effectiveTeams(@RequestParam final String collaboratorId,
+                                                       @RequestParam final boolean isIndividualUser) {
+        final Collaborator collaborator = isIndividualUser ? userService.read(collaboratorId) : teamService.read(collaboratorId);
+        if (collaborator == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        final List<String> output = new ArrayList<>();
+        for (Team team : teamService.getEffectiveTeams(collaborator)) {
+            output.add(team.getId());
+        }
+        return new ResponseEntity<>(output, HttpStatus.OK);
+    }
 }
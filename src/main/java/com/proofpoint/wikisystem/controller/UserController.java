@@ -1,5 +1,6 @@
 package com.proofpoint.wikisystem.controller;
 
+import com.proofpoint.wikisystem.exceptions.AccessDeniedException;
 import com.proofpoint.wikisystem.model.User;
 import com.proofpoint.wikisystem.payload.CreateUserDto;
 import com.proofpoint.wikisystem.payload.UpdateUserDto;
@@ -60,14 +61,27 @@ public class UserController {
         }
     }
 
+    /*
+    Pages and attachments the user owns go to transferOwnershipTo, which a user owning any must name, on behalf of
+    the user itself or a member of an admin team
+     */
     @RequestMapping(method = RequestMethod.DELETE, produces = "application/json")
-    public ResponseEntity<String> delete(@RequestParam final String userId) {
+    public ResponseEntity<String> delete(@RequestParam final String userId, @RequestParam(required = false) final String transferOwnershipTo,
+                                         @RequestParam(required = false) final String requesterId) {
         log.info("Received request to delete user");
 
-        if (userService.delete(userId)) {
-            return new ResponseEntity<>("Page deleted successfully", HttpStatus.OK);
-        } else {
-            return new ResponseEntity<>("Page not found", HttpStatus.NOT_FOUND);
+        try {
+            if (userService.delete(userId, transferOwnershipTo, requesterId)) {
+                return new ResponseEntity<>("Page deleted successfully", HttpStatus.OK);
+            } else {
+                return new ResponseEntity<>("Page not found", HttpStatus.NOT_FOUND);
+            }
+        } catch (final AccessDeniedException e) {
+            log.error(e.getMessage());
+            return new ResponseEntity<>(STATUS_FAILED_WITH_MESSAGE + e.getMessage(), HttpStatus.FORBIDDEN);
+        } catch (final Exception e) {
+            log.error(e.getMessage());
+            return new ResponseEntity<>(STATUS_FAILED_WITH_MESSAGE + e.getMessage(), HttpStatus.BAD_REQUEST);
         }
     }
 
@@ -0,0 +1,7 @@
+package com.proofpoint.wikisystem.exceptions;
+
+public class PageAlreadyExistsException extends RuntimeException {
+    public PageAlreadyExistsException(final String customerFacingErrorMessage) {
+        super(customerFacingErrorMessage);
+    }
+}
@@ -0,0 +1,7 @@
+package com.proofpoint.wikisystem.exceptions;
+
+public class PageNotFoundException extends RuntimeException {
+    public PageNotFoundException(final String customerFacingErrorMessage) {
+        super(customerFacingErrorMessage);
+    }
+}
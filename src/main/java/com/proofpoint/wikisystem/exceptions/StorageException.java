@@ -0,0 +1,10 @@
+package com.proofpoint.wikisystem.exceptions;
+
+/*
+Raised when the storage backend fails to load or persist state
+ */
+public class StorageException extends RuntimeException {
+    public StorageException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,17 @@
+package com.proofpoint.wikisystem.exceptions;
+
+/*
+A change was made against a version that is no longer the latest
+ */
+public class VersionConflictException extends RuntimeException {
+    private final long currentVersion;
+
+    public VersionConflictException(final String customerFacingErrorMessage, final long currentVersion) {
+        super(customerFacingErrorMessage);
+        this.currentVersion = currentVersion;
+    }
+
+    public long getCurrentVersion() {
+        return currentVersion;
+    }
+}
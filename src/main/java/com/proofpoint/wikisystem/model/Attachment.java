@@ -10,10 +10,17 @@ import java.util.List;
 @Setter
 public class Attachment extends Component {
 
+    /*
+    Separates the owning page from the filename in an attachment's component id
+     */
+    public static final char PAGE_SEPARATOR = '/';
+
+    private String pageID;
     private String filename;
     private String contents;
 
     private Attachment(final Builder builder) {
+        this.pageID = builder.pageID;
         this.filename = builder.filename;
         this.contents = builder.contents;
         this.owner = builder.owner;
@@ -28,6 +35,41 @@ public class Attachment extends Component {
         this.owner = owner;
     }
 
+    @Override
+    public ComponentType getComponentType() {
+        return ComponentType.ATTACHMENT;
+    }
+
+    @Override
+    public String getComponentId() {
+        return componentIdOf(this.pageID, this.filename);
+    }
+
+    /**
+     * Attachments are unique per (pageID, filename). Attachments created without a page keep their bare filename
+     * as id, in a namespace shared by all of them.
+     */
+    public static String componentIdOf(final String pageID, final String filename) {
+        return pageID == null ? filename : pageID + PAGE_SEPARATOR + filename;
+    }
+
+    /**
+     * Detached copy of the attachment's state, with its own access map.
+     * The owner and grantees are the live User and Team instances, which only change within writes.
+     */
+    public Attachment copy() {
+        final Attachment copy = Builder
+                .newInstance()
+                .withPageID(pageID)
+                .withFilename(filename)
+                .withContents(contents)
+                .withOwner(owner)
+                .build();
+        copy.setAccessMap(accessMap);
+        copy.setExpiries(expiries);
+        return copy;
+    }
+
     public void create() {
         System.out.println("Creating Attachment");
     }
@@ -49,6 +91,7 @@ public class Attachment extends Component {
      */
     public static class Builder {
         private User owner;
+        private String pageID;
         private String filename;
         private String contents;
 
@@ -59,6 +102,11 @@ public class Attachment extends Component {
             return new Builder();
         }
 
+        public Builder withPageID(final String pageID) {
+            this.pageID = pageID;
+            return this;
+        }
+
         public Builder withFilename(final String filename) {
             this.filename = filename;
             return this;
@@ -0,0 +1,127 @@
+package com.proofpoint.wikisystem.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.proofpoint.wikisystem.util.Action;
+import lombok.Getter;
+
+/**
+ * Immutable record of an access decision or of a change to a component's grants or owner. The requester is whoever
+ * asked for the decision or the ownership transfer and is absent for grant changes, which carry no caller identity.
+ * The subject is the collaborator whose grant changed, or the new owner.
+ */
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AuditRecord {
+
+    private final long timestamp;
+    private final AuditType type;
+    private final String requesterId;
+    private final boolean requesterTeam;
+    private final String componentKey;
+    private final String subjectId;
+    private final boolean subjectTeam;
+    /*
+    Requested action, decisions only
+     */
+    private final Action action;
+    /*
+    Granted level, grants and level changes only
+     */
+    private final AccessType accessType;
+    private final boolean allowed;
+
+    private AuditRecord(final Builder builder) {
+        this.timestamp = builder.timestamp;
+        this.type = builder.type;
+        this.requesterId = builder.requesterId;
+        this.requesterTeam = builder.requesterTeam;
+        this.componentKey = builder.componentKey;
+        this.subjectId = builder.subjectId;
+        this.subjectTeam = builder.subjectTeam;
+        this.action = builder.action;
+        this.accessType = builder.accessType;
+        this.allowed = builder.allowed;
+    }
+
+    @Override
+    public String toString() {
+        return "AuditRecord{" +
+                "timestamp=" + timestamp +
+                ", type=" + type +
+                ", requesterId='" + requesterId + '\'' +
+                ", requesterTeam=" + requesterTeam +
+                ", componentKey='" + componentKey + '\'' +
+                ", subjectId='" + subjectId + '\'' +
+                ", subjectTeam=" + subjectTeam +
+                ", action=" + action +
+                ", accessType=" + accessType +
+                ", allowed=" + allowed +
+                '}';
+    }
+
+    public static class Builder {
+        private long timestamp;
+        private AuditType type;
+        private String requesterId;
+        private boolean requesterTeam;
+        private String componentKey;
+        private String subjectId;
+        private boolean subjectTeam;
+        private Action action;
+        private AccessType accessType;
+        private boolean allowed;
+
+        private Builder() {
+        }
+
+        public static Builder newInstance() {
+            return new Builder();
+        }
+
+        public Builder withTimestamp(final long timestamp) {
+            this.timestamp = timestamp;
+            return this;
+        }
+
+        public Builder withType(final AuditType type) {
+            this.type = type;
+            return this;
+        }
+
+        public Builder withRequester(final String requesterId, final boolean requesterTeam) {
+            this.requesterId = requesterId;
+            this.requesterTeam = requesterTeam;
+            return this;
+        }
+
+        public Builder withComponentKey(final String componentKey) {
+            this.componentKey = componentKey;
+            return this;
+        }
+
+        public Builder withSubject(final String subjectId, final boolean subjectTeam) {
+            this.subjectId = subjectId;
+            this.subjectTeam = subjectTeam;
+            return this;
+        }
+
+        public Builder withAction(final Action action) {
+            this.action = action;
+            return this;
+        }
+
+        public Builder withAccessType(final AccessType accessType) {
+            this.accessType = accessType;
+            return this;
+        }
+
+        public Builder withAllowed(final boolean allowed) {
+            this.allowed = allowed;
+            return this;
+        }
+
+        public AuditRecord build() {
+            return new AuditRecord(this);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.proofpoint.wikisystem.model;
+
+/**
+ * Kinds of audit records. Stored by ordinal, so new kinds go at the end.
+ */
+public enum AuditType {
+    /*
+    An access decision, allowed or denied
+     */
+    DECISION,
+    GRANT,
+    CHANGE,
+    REVOKE,
+    EXPIRE,
+    OWNER_CHANGE
+}
@@ -0,0 +1,96 @@
+package com.proofpoint.wikisystem.model;
+
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable record of a single mutation. Sequence numbers are assigned by the event stream at publish time and are
+ * strictly increasing, so subscribers can resume from the last sequence they have seen.
+ */
+@Getter
+public class ChangeEvent {
+
+    private final long sequence;
+    private final EventType type;
+    private final String entityId;
+    private final String actorId;
+    private final long timestamp;
+    private final Map<String, String> details;
+
+    private ChangeEvent(final Builder builder) {
+        this.sequence = builder.sequence;
+        this.type = builder.type;
+        this.entityId = builder.entityId;
+        this.actorId = builder.actorId;
+        this.timestamp = builder.timestamp;
+        this.details = builder.details == null ? Collections.emptyMap() : Collections.unmodifiableMap(builder.details);
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeEvent{" +
+                "sequence=" + sequence +
+                ", type=" + type +
+                ", entityId='" + entityId + '\'' +
+                ", actorId='" + actorId + '\'' +
+                ", timestamp=" + timestamp +
+                ", details=" + details +
+                '}';
+    }
+
+    public static class Builder {
+        private long sequence;
+        private EventType type;
+        private String entityId;
+        private String actorId;
+        private long timestamp;
+        private Map<String, String> details;
+
+        private Builder() {
+        }
+
+        public static Builder newInstance() {
+            return new Builder();
+        }
+
+        public Builder withSequence(final long sequence) {
+            this.sequence = sequence;
+            return this;
+        }
+
+        public Builder withType(final EventType type) {
+            this.type = type;
+            return this;
+        }
+
+        public Builder withEntityId(final String entityId) {
+            this.entityId = entityId;
+            return this;
+        }
+
+        public Builder withActorId(final String actorId) {
+            this.actorId = actorId;
+            return this;
+        }
+
+        public Builder withTimestamp(final long timestamp) {
+            this.timestamp = timestamp;
+            return this;
+        }
+
+        public Builder withDetail(final String key, final String value) {
+            if (this.details == null) {
+                this.details = new HashMap<>();
+            }
+            this.details.put(key, value);
+            return this;
+        }
+
+        public ChangeEvent build() {
+            return new ChangeEvent(this);
+        }
+    }
+}
@@ -1,14 +1,184 @@
 package com.proofpoint.wikisystem.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.proofpoint.wikisystem.util.Action;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import static com.proofpoint.wikisystem.util.Constants.authorizedActionsMap;
 
 @Getter
 @Setter
 public abstract class Component implements Operations {
     protected User owner;
     protected Map<AccessType, List<Collaborator>> accessMap;
+
+    /*
+    Index over accessMap. A collaborator holds at most one access type per component,
+    so grant lookups and changes do not have to scan the lists.
+     */
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    protected Map<Collaborator, AccessType> grants = new HashMap<>();
+
+    /*
+    Epoch millis after which a grant no longer applies, only for grants given for a limited time
+     */
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    protected Map<Collaborator, Long> expiries = new HashMap<>();
+
+    /*
+    Epoch at which this copy was published by VersionService, 0 for the live component
+     */
+    @JsonIgnore
+    protected long version;
+
+    public void setAccessMap(final Map<AccessType, List<Collaborator>> accessMap) {
+        this.accessMap = new HashMap<>();
+        this.grants = new HashMap<>();
+        this.expiries = new HashMap<>();
+        if (accessMap != null) {
+            for (Map.Entry<AccessType, List<Collaborator>> entry : accessMap.entrySet()) {
+                this.accessMap.put(entry.getKey(), new ArrayList<>());
+                for (Collaborator collaborator : entry.getValue()) {
+                    putGrant(collaborator, entry.getKey());
+                }
+            }
+        }
+    }
+
+    @JsonIgnore
+    public abstract ComponentType getComponentType();
+
+    @JsonIgnore
+    public abstract String getComponentId();
+
+    @JsonIgnore
+    public String getComponentKey() {
+        return getComponentType().keyOf(getComponentId());
+    }
+
+    @JsonIgnore
+    public Map<Collaborator, AccessType> getGrants() {
+        return Collections.unmodifiableMap(grants);
+    }
+
+    public AccessType getAccessType(final Collaborator collaborator) {
+        return collaborator == null ? null : grants.get(collaborator);
+    }
+
+    @JsonIgnore
+    public Map<Collaborator, Long> getExpiries() {
+        return Collections.unmodifiableMap(expiries);
+    }
+
+    public void setExpiries(final Map<Collaborator, Long> expiries) {
+        this.expiries = new HashMap<>();
+        for (Map.Entry<Collaborator, Long> entry : expiries.entrySet()) {
+            setExpiry(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * @return epoch millis at which the collaborator's grant expires, or null if it does not
+     */
+    public Long getExpiry(final Collaborator collaborator) {
+        return collaborator == null ? null : expiries.get(collaborator);
+    }
+
+    /**
+     * @param expiresAt epoch millis, or null to make the grant permanent
+     */
+    public void setExpiry(final Collaborator collaborator, final Long expiresAt) {
+        if (expiresAt == null || !grants.containsKey(collaborator)) {
+            expiries.remove(collaborator);
+        } else {
+            expiries.put(collaborator, expiresAt);
+        }
+    }
+
+    public boolean isExpired(final Collaborator collaborator, final long now) {
+        final Long expiresAt = expiries.get(collaborator);
+        return expiresAt != null && expiresAt <= now;
+    }
+
+    public boolean isOwnedBy(final String requesterId) {
+        return owner != null && owner.getId().equals(requesterId);
+    }
+
+    /**
+     * @return true if the collaborator's own grant on this component allows the action. A grant past its expiry
+     * allows nothing, even before it has been removed.
+     */
+    public boolean permits(final Action action, final Collaborator collaborator) {
+        final AccessType accessType = getAccessType(collaborator);
+        return accessType != null && authorizedActionsMap.get(action).contains(accessType)
+                && (expiries.isEmpty() || !isExpired(collaborator, System.currentTimeMillis()));
+    }
+
+    /**
+     * @param teams every team the collaborator belongs to, directly or through nested teams
+     * @return true if the collaborator's own grant, or the grant of one of its teams, allows the action
+     */
+    public boolean permits(final Action action, final Collaborator collaborator, final Set<Team> teams) {
+        if (permits(action, collaborator)) {
+            return true;
+        }
+        // Either side can be large: a user in many teams, or a page shared with many collaborators
+        if (teams.size() <= grants.size()) {
+            for (Team team : teams) {
+                if (permits(action, team)) {
+                    return true;
+                }
+            }
+        } else {
+            for (Map.Entry<Collaborator, AccessType> grant : grants.entrySet()) {
+                if (grant.getKey() instanceof Team && teams.contains(grant.getKey())
+                        && permits(action, grant.getKey())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Grants accessType to collaborator, moving an existing grant to the new access type.
+     *
+     * @return access type the collaborator held before, or null
+     */
+    public AccessType putGrant(final Collaborator collaborator, final AccessType accessType) {
+        final AccessType previous = grants.put(collaborator, accessType);
+        if (previous == accessType) {
+            return previous;
+        }
+        if (previous != null) {
+            accessMap.get(previous).remove(collaborator);
+        }
+        accessMap.computeIfAbsent(accessType, type -> new ArrayList<>()).add(collaborator);
+        return previous;
+    }
+
+    /**
+     * @return access type the collaborator held before, or null if there was no grant
+     */
+    public AccessType removeGrant(final Collaborator collaborator) {
+        final AccessType previous = grants.remove(collaborator);
+        expiries.remove(collaborator);
+        if (previous != null) {
+            accessMap.get(previous).remove(collaborator);
+        }
+        return previous;
+    }
 }
@@ -0,0 +1,23 @@
+package com.proofpoint.wikisystem.model;
+
+public enum ComponentType {
+    PAGE,
+    ATTACHMENT;
+
+    private static final char SEPARATOR = ':';
+
+    /*
+    Keys identify a component across both namespaces and sort pages before attachments
+     */
+    public String keyOf(final String componentId) {
+        return name() + SEPARATOR + componentId;
+    }
+
+    public static ComponentType ofKey(final String key) {
+        return valueOf(key.substring(0, key.indexOf(SEPARATOR)));
+    }
+
+    public static String idOfKey(final String key) {
+        return key.substring(key.indexOf(SEPARATOR) + 1);
+    }
+}
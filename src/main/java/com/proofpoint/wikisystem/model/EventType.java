@@ -0,0 +1,26 @@
+package com.proofpoint.wikisystem.model;
+
+public enum EventType {
+    PAGE_CREATED,
+    PAGE_UPDATED,
+    PAGE_DELETED,
+    ATTACHMENT_CREATED,
+    ATTACHMENT_UPDATED,
+    ATTACHMENT_DELETED,
+    ACCESS_GRANTED,
+    ACCESS_CHANGED,
+    ACCESS_REVOKED,
+    ACCESS_EXPIRED,
+    TEAM_CREATED,
+    TEAM_UPDATED,
+    TEAM_DELETED,
+    TEAM_MEMBER_ADDED,
+    TEAM_MEMBER_REMOVED,
+    USER_CREATED,
+    USER_UPDATED,
+    USER_DELETED,
+    /*
+    Synthetic event sent to a subscriber whose cursor fell behind the ring buffer
+     */
+    EVENTS_DROPPED
+}
@@ -0,0 +1,11 @@
+package com.proofpoint.wikisystem.model;
+
+/**
+ * Lifecycle of a long running operation that callers poll
+ */
+public enum OperationState {
+    QUEUED,
+    RUNNING,
+    COMPLETED,
+    FAILED
+}
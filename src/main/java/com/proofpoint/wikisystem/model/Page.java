@@ -1,12 +1,19 @@
 package com.proofpoint.wikisystem.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.proofpoint.wikisystem.util.Rope;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 
 @Setter
@@ -16,14 +23,35 @@ public class Page extends Component {
 
     private String pageID;
     private String parentPageID;
+    /*
+    Root of the tree the page was created in. Fixed at creation, so pages orphaned by a non-recursive delete stay in
+    the shard of their original tree.
+     */
+    private String rootPageID;
     private List<Attachment> attachments;
-    private String content;
+    /*
+    Immutable, so published copies share it and an edit only rebuilds the chunks around the edited range. Null for
+    pages without content.
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private Rope content;
+
+    /*
+    For every grant on this page, the component keys of the child pages and attachments that copied it.
+    Revoking or changing the grant here follows these edges instead of walking the whole subtree.
+     */
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private Map<Collaborator, Set<String>> inheritors = new HashMap<>();
 
     private Page(Builder builder) {
         this.owner = builder.owner;
         this.pageID = builder.pageID;
         this.parentPageID = builder.parentPageID;
-        this.content = builder.content;
+        this.rootPageID = builder.rootPageID == null ? builder.pageID : builder.rootPageID;
+        this.content = builder.content == null ? null : Rope.of(builder.content);
         this.accessMap = new HashMap<>();
     }
 
@@ -43,6 +71,33 @@ public class Page extends Component {
         return this.owner;
     }
 
+    public String getContent() {
+        return content == null ? null : content.toString();
+    }
+
+    public void setContent(final String content) {
+        this.content = content == null ? null : Rope.of(content);
+    }
+
+    @JsonIgnore
+    public Rope getContentRope() {
+        return content == null ? Rope.empty() : content;
+    }
+
+    public void setContentRope(final Rope content) {
+        this.content = content;
+    }
+
+    @Override
+    public ComponentType getComponentType() {
+        return ComponentType.PAGE;
+    }
+
+    @Override
+    public String getComponentId() {
+        return this.pageID;
+    }
+
     public void read() {
         System.out.println("Reading Page");
     }
@@ -59,6 +114,24 @@ public class Page extends Component {
         System.out.println("Updating Page");
     }
 
+    /**
+     * Detached copy of the page's state, with its own access map and without attachments or inheritance edges.
+     * The owner and grantees are the live User and Team instances, which only change within writes.
+     */
+    public Page copy() {
+        final Page copy = Builder
+                .newInstance()
+                .withPageID(pageID)
+                .withParentPageID(parentPageID)
+                .withRootPageID(rootPageID)
+                .withOwner(owner)
+                .build();
+        copy.content = content;
+        copy.setAccessMap(accessMap);
+        copy.setExpiries(expiries);
+        return copy;
+    }
+
     public void addAttachment(Attachment attachment) {
         if (this.attachments == null) {
             this.attachments = new ArrayList<>();
@@ -66,11 +139,49 @@ public class Page extends Component {
         attachments.add(attachment);
     }
 
+    public void removeAttachment(final Attachment attachment) {
+        if (this.attachments != null) {
+            attachments.remove(attachment);
+        }
+    }
+
+    public void addInheritor(final Collaborator collaborator, final String componentKey) {
+        inheritors.computeIfAbsent(collaborator, key -> new HashSet<>()).add(componentKey);
+    }
+
+    public void removeInheritor(final Collaborator collaborator, final String componentKey) {
+        final Set<String> children = inheritors.get(collaborator);
+        if (children != null) {
+            children.remove(componentKey);
+            if (children.isEmpty()) {
+                inheritors.remove(collaborator);
+            }
+        }
+    }
+
+    public Set<String> getInheritors(final Collaborator collaborator) {
+        return inheritors.getOrDefault(collaborator, Collections.emptySet());
+    }
+
+    /**
+     * @return every inheritance edge recorded on this page, by collaborator
+     */
+    @JsonIgnore
+    public Map<Collaborator, Set<String>> getInheritorEdges() {
+        return Collections.unmodifiableMap(inheritors);
+    }
+
+    public Set<String> removeInheritors(final Collaborator collaborator) {
+        final Set<String> children = inheritors.remove(collaborator);
+        return children == null ? Collections.emptySet() : children;
+    }
+
 
     public static class Builder {
         private User owner;
         private String pageID;
         private String parentPageID;
+        private String rootPageID;
         private String content;
 
         private Builder() {
@@ -90,6 +201,11 @@ public class Page extends Component {
             return this;
         }
 
+        public Builder withRootPageID(final String rootPageID) {
+            this.rootPageID = rootPageID;
+            return this;
+        }
+
         public Builder withOwner(final User owner) {
             this.owner = owner;
             return this;
@@ -0,0 +1,16 @@
+package com.proofpoint.wikisystem.model;
+
+/**
+ * Kinds of lines exchanged on a replication connection. USER, TEAM, PAGE and ATTACHMENT records carry the full state of
+ * one entity, or a tombstone when it was deleted. The others frame snapshots and keep an idle connection alive.
+ */
+public enum ReplicationRecordType {
+    HELLO,
+    SNAPSHOT_BEGIN,
+    SNAPSHOT_END,
+    HEARTBEAT,
+    USER,
+    TEAM,
+    PAGE,
+    ATTACHMENT
+}
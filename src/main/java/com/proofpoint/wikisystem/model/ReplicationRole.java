@@ -0,0 +1,7 @@
+package com.proofpoint.wikisystem.model;
+
+public enum ReplicationRole {
+    STANDALONE,
+    LEADER,
+    FOLLOWER
+}
@@ -0,0 +1,13 @@
+package com.proofpoint.wikisystem.model;
+
+/**
+ * Budgets requests are charged against by admission control
+ */
+public enum RequestClass {
+    READ,
+    WRITE,
+    /*
+    Requests whose cost grows with their input or output: batch checks, listings, recursive deletes, subtree grants
+     */
+    BULK
+}
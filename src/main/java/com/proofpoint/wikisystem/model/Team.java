@@ -1,11 +1,13 @@
 package com.proofpoint.wikisystem.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static com.proofpoint.wikisystem.util.Constants.STATUS_FAILED;
 import static com.proofpoint.wikisystem.util.Constants.STATUS_SUCCESS;
@@ -16,12 +18,30 @@ import static com.proofpoint.wikisystem.util.Constants.STATUS_SUCCESS;
 public class Team extends Collaborator {
 
     private boolean isAdmin;
+    /*
+    Both lists are copy-on-write: published page and attachment copies share their Team instances, and serializing
+    one must not race with a membership change
+     */
     private List<User> members;
+    /*
+    Teams whose members are members of this team too. Serialized by id, a nested team can be large.
+     */
+    @JsonIgnore
+    private List<Team> subteams;
 
     private Team(Builder builder) {
         this.Id = builder.Id;
         this.isAdmin = builder.isAdmin;
-        this.members = new ArrayList<>();
+        this.members = new CopyOnWriteArrayList<>();
+        this.subteams = new CopyOnWriteArrayList<>();
+    }
+
+    public void setMembers(final List<User> members) {
+        this.members = new CopyOnWriteArrayList<>(members);
+    }
+
+    public void setSubteams(final List<Team> subteams) {
+        this.subteams = new CopyOnWriteArrayList<>(subteams);
     }
 
     @Override
@@ -29,6 +49,7 @@ public class Team extends Collaborator {
         return "Team{" +
                 "isAdmin=" + isAdmin +
                 ", members=" + members +
+                ", subteams=" + getSubteamIds() +
                 ", Id='" + Id + '\'' +
                 '}';
     }
@@ -63,6 +84,14 @@ public class Team extends Collaborator {
         }
     }
 
+    public List<String> getSubteamIds() {
+        final List<String> output = new ArrayList<>(subteams.size());
+        for (Team subteam : subteams) {
+            output.add(subteam.getId());
+        }
+        return output;
+    }
+
     public static class Builder {
         private String Id;
         private boolean isAdmin;
@@ -0,0 +1,12 @@
+package com.proofpoint.wikisystem.payload;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class AccessCheckDto {
+    private String componentId;
+    private boolean isPage;
+    private String action;
+}
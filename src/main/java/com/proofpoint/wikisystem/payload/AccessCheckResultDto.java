@@ -0,0 +1,13 @@
+package com.proofpoint.wikisystem.payload;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class AccessCheckResultDto {
+    private String componentId;
+    private boolean isPage;
+    private String action;
+    private boolean allowed;
+}
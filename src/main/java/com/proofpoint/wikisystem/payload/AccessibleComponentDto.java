@@ -0,0 +1,18 @@
+package com.proofpoint.wikisystem.payload;
+
+import com.proofpoint.wikisystem.model.AccessType;
+import com.proofpoint.wikisystem.model.ComponentType;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class AccessibleComponentDto {
+    private ComponentType componentType;
+    private String componentId;
+    private AccessType accessType;
+    /*
+    Collaborator id the access comes from, or "owner"
+     */
+    private String via;
+}
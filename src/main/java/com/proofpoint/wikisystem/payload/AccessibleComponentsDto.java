@@ -0,0 +1,22 @@
+package com.proofpoint.wikisystem.payload;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+@AllArgsConstructor
+public class AccessibleComponentsDto {
+    private List<AccessibleComponentDto> components;
+    /*
+    Pass back as cursor to fetch the next page, null when there are no more results
+     */
+    private String nextCursor;
+    /*
+    Admin teams are authorized on every component regardless of the listed grants
+     */
+    private boolean isAdmin;
+}
@@ -0,0 +1,17 @@
+package com.proofpoint.wikisystem.payload;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class AdmissionStatusDto {
+    private boolean enabled;
+    private int buckets;
+    private int concurrencyLimit;
+    private int inFlight;
+    private long admitted;
+    private long rateLimited;
+    private long shed;
+    private long evictedBuckets;
+}
@@ -0,0 +1,22 @@
+package com.proofpoint.wikisystem.payload;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ArchiveSummaryDto {
+    private long users;
+    private long teams;
+    private long pages;
+    private long attachments;
+    private long blocks;
+    /*
+    Compressed size of the archive
+     */
+    private long bytes;
+    private long millis;
+    private String message;
+}
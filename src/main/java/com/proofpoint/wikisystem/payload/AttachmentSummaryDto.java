@@ -0,0 +1,13 @@
+package com.proofpoint.wikisystem.payload;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class AttachmentSummaryDto {
+    private String pageId;
+    private String filename;
+    private String ownerId;
+    private int size;
+}
@@ -0,0 +1,18 @@
+package com.proofpoint.wikisystem.payload;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class AuditStatusDto {
+    private boolean enabled;
+    private long recordsWritten;
+    /*
+    Records lost because the flusher fell behind or a write failed
+     */
+    private long recordsDropped;
+    private long pendingRecords;
+    private int segments;
+    private long bytes;
+}
@@ -0,0 +1,23 @@
+package com.proofpoint.wikisystem.payload;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+public class BatchAccessCheckDto {
+    private String requesterId;
+    private boolean isIndividualUser;
+    private List<AccessCheckDto> checks;
+
+    @Override
+    public String toString() {
+        return "BatchAccessCheckArgs{" +
+                "requesterId='" + requesterId + '\'' +
+                ", isIndividualUser=" + isIndividualUser +
+                ", checks=" + (checks == null ? 0 : checks.size()) +
+                '}';
+    }
+}
@@ -0,0 +1,23 @@
+package com.proofpoint.wikisystem.payload;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+public class BatchPageViewDto {
+    private String requesterId;
+    private boolean isIndividualUser;
+    private List<String> pageIds;
+
+    @Override
+    public String toString() {
+        return "BatchPageViewArgs{" +
+                "requesterId='" + requesterId + '\'' +
+                ", isIndividualUser=" + isIndividualUser +
+                ", pageIds=" + (pageIds == null ? 0 : pageIds.size()) +
+                '}';
+    }
+}
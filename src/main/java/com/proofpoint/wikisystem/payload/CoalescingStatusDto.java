@@ -0,0 +1,19 @@
+package com.proofpoint.wikisystem.payload;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class CoalescingStatusDto {
+    private long requests;
+    /*
+    Requests answered with a body serialized for another request, from the cache or by waiting on its serialization
+     */
+    private long shared;
+    private long serializations;
+    private long coalesced;
+    private long cacheHits;
+    private double coalescingRatio;
+    private long cachedBytes;
+}
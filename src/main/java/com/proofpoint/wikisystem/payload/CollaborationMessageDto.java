@@ -0,0 +1,31 @@
+package com.proofpoint.wikisystem.payload;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * A frame sent to the editors of a collaborative session. The type says which fields are set:
+ * <ul>
+ * <li>joined: participantId, revision, content and canEdit, answering a join</li>
+ * <li>ops: ops, every operation applied since the previous frame in order, the editor's own ones included</li>
+ * <li>reset: revision and content, replacing the editor's text after the page changed in a way that could not be
+ * merged</li>
+ * <li>access: canEdit, after the editor's grants changed</li>
+ * <li>error: message, about an operation that was not applied</li>
+ * </ul>
+ */
+@Getter
+@Setter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CollaborationMessageDto {
+    private String type;
+    private String participantId;
+    private Long revision;
+    private String content;
+    private Boolean canEdit;
+    private List<CollaborationOpDto> ops;
+    private String message;
+}
@@ -0,0 +1,23 @@
+package com.proofpoint.wikisystem.payload;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+@Getter
+@AllArgsConstructor
+public class CollaborationOpDto {
+    /*
+    Revision the operation produced, one past the revision it applies to
+     */
+    private long revision;
+    /*
+    Participant id of the editor, or "page" for changes saved through the REST endpoints meanwhile
+     */
+    private String author;
+    /*
+    Components as in ot.js: positive counts retain, negative counts delete, strings insert
+     */
+    private List<Object> operation;
+}
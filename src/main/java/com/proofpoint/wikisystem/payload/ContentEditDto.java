@@ -0,0 +1,15 @@
+package com.proofpoint.wikisystem.payload;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Replaces deleteLength characters at offset with text. An insert has no deleteLength, a delete no text.
+ */
+@Getter
+@Setter
+public class ContentEditDto {
+    private int offset;
+    private int deleteLength;
+    private String text;
+}
@@ -11,6 +11,14 @@ public class CreateAccessDto {
     private String collaboratorId;
     private boolean isPage;
     private boolean isIndividualUser;
+    /*
+    User making the change, recorded in the audit log
+     */
+    private String requesterId;
+    /*
+    Epoch millis after which the grant is removed, null for a permanent grant
+     */
+    private Long expiresAt;
 
     @Override
     public String toString() {
@@ -20,6 +28,8 @@ public class CreateAccessDto {
                 ", collaboratorId='" + collaboratorId + '\'' +
                 ", isPage=" + isPage +
                 ", isIndividualUser=" + isIndividualUser +
+                ", requesterId='" + requesterId + '\'' +
+                ", expiresAt=" + expiresAt +
                 '}';
     }
 }
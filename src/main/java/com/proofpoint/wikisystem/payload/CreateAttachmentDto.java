@@ -8,17 +8,21 @@ import java.util.Map;
 @Getter
 @Setter
 public class CreateAttachmentDto {
+    private String pageId;
     private String filename;
     private String contents;
     private String ownerId;
     private Map<String, String> accessMap;
+    private boolean inheritAccess;
 
     @Override
     public String toString() {
         return "CreateAttachmentArgs{" +
-                "filename='" + filename + '\'' +
+                "pageId='" + pageId + '\'' +
+                ", filename='" + filename + '\'' +
                 ", contents='" + contents + '\'' +
                 ", ownerId='" + ownerId + '\'' +
+                ", inheritAccess=" + inheritAccess +
                 '}';
     }
 }
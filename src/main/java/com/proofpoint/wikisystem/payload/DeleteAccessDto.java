@@ -0,0 +1,28 @@
+package com.proofpoint.wikisystem.payload;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class DeleteAccessDto {
+    private String componentId;
+    private String collaboratorId;
+    private boolean isPage;
+    private boolean isIndividualUser;
+    /*
+    User making the change, recorded in the audit log
+     */
+    private String requesterId;
+
+    @Override
+    public String toString() {
+        return "DeleteAccessArgs{" +
+                "componentId='" + componentId + '\'' +
+                ", collaboratorId='" + collaboratorId + '\'' +
+                ", isPage=" + isPage +
+                ", isIndividualUser=" + isIndividualUser +
+                ", requesterId='" + requesterId + '\'' +
+                '}';
+    }
+}
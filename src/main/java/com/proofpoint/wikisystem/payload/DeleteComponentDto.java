@@ -8,4 +8,5 @@ import lombok.Setter;
 public class DeleteComponentDto {
     private String requesterId;
     private String isIndividualUser;
+    private String isRecursive;
 }
@@ -0,0 +1,13 @@
+package com.proofpoint.wikisystem.payload;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class FollowerStatusDto {
+    private String address;
+    private long shippedSequence;
+    private long lagEvents;
+    private long snapshotsSent;
+}
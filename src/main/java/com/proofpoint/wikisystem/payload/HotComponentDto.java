@@ -0,0 +1,14 @@
+package com.proofpoint.wikisystem.payload;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class HotComponentDto {
+    private String componentKey;
+    /*
+    Decayed read count, never below the true decayed count and above it by a small fraction of all reads at most
+     */
+    private long estimatedReads;
+}
@@ -0,0 +1,11 @@
+package com.proofpoint.wikisystem.payload;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class PageSummaryDto {
+    private String pageId;
+    private String ownerId;
+}
@@ -0,0 +1,30 @@
+package com.proofpoint.wikisystem.payload;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * Everything a page view shows, read in one go. Only pageId and found are set when the page does not exist or the
+ * requester may not read it.
+ */
+@Getter
+@Setter
+public class PageViewDto {
+    private String pageId;
+    private boolean found;
+    private String parentPageId;
+    private long version;
+    private String content;
+    private UserSummaryDto owner;
+    /*
+    Attachments and child pages the requester can read
+     */
+    private List<AttachmentSummaryDto> attachments;
+    private List<PageSummaryDto> children;
+    /*
+    Page ids from the root down to the page
+     */
+    private List<String> breadcrumb;
+}
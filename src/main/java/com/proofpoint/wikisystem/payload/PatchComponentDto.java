@@ -0,0 +1,31 @@
+package com.proofpoint.wikisystem.payload;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+public class PatchComponentDto {
+    private String requesterId;
+    private String isIndividualUser;
+    /*
+    Version the edits were made against, as in the ETag of a read. Required, versions start at 1.
+     */
+    private long baseVersion;
+    /*
+    Applied in order, each against the text left by the ones before it
+     */
+    private List<ContentEditDto> edits;
+
+    @Override
+    public String toString() {
+        return "PatchComponentArgs{" +
+                "requesterId='" + requesterId + '\'' +
+                ", isIndividualUser=" + isIndividualUser +
+                ", baseVersion=" + baseVersion +
+                ", edits=" + (edits == null ? 0 : edits.size()) +
+                '}';
+    }
+}
@@ -0,0 +1,69 @@
+package com.proofpoint.wikisystem.payload;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.proofpoint.wikisystem.model.AccessType;
+import com.proofpoint.wikisystem.model.ReplicationRecordType;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One line of the replication log. Entity records hold the complete current state of a user, team, page or attachment,
+ * so applying a record twice, or applying an older one after a snapshot, leaves a follower in the same state. Archives
+ * are made of the same records.
+ */
+@Getter
+@Setter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ReplicationRecordDto {
+    private ReplicationRecordType type;
+    /*
+    Sequence of the change event the record was shipped for. For HELLO, the first sequence the follower needs
+     */
+    private long sequence;
+    private long timestamp;
+    /*
+    User, team or page id, or the component id of an attachment
+     */
+    private String id;
+    private boolean deleted;
+    /*
+    Parent page of a page, owning page of an attachment
+     */
+    private String pageId;
+    private String rootPageId;
+    /*
+    Username of a user, filename of an attachment
+     */
+    private String name;
+    private boolean admin;
+    private List<String> members;
+    private List<String> subteams;
+    private String ownerId;
+    private String content;
+    private Map<AccessType, List<String>> userGrants;
+    private Map<AccessType, List<String>> teamGrants;
+    /*
+    Grantee id to epoch millis, for the grants that expire
+     */
+    private Map<String, Long> userGrantExpiries;
+    private Map<String, Long> teamGrantExpiries;
+    /*
+    Grantee id to the keys of the components that inherited its grant from this page. Archives only: followers never
+    change grants themselves, so they have no use for inheritance edges.
+     */
+    private Map<String, List<String>> userInheritors;
+    private Map<String, List<String>> teamInheritors;
+
+    @Override
+    public String toString() {
+        return "ReplicationRecordDto{" +
+                "type=" + type +
+                ", sequence=" + sequence +
+                ", id='" + id + '\'' +
+                ", deleted=" + deleted +
+                '}';
+    }
+}
@@ -0,0 +1,29 @@
+package com.proofpoint.wikisystem.payload;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.proofpoint.wikisystem.model.ReplicationRole;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ReplicationStatusDto {
+    private ReplicationRole role;
+    /*
+    Last sequence published on the leader, as last reported to this node
+     */
+    private long leaderSequence;
+    private String leaderUrl;
+    private Boolean connected;
+    private Long appliedSequence;
+    private Long lagEvents;
+    /*
+    Age of the newest leader change applied here, 0 when caught up
+     */
+    private Long lagMillis;
+    private Long snapshotsLoaded;
+    private List<FollowerStatusDto> followers;
+}
@@ -0,0 +1,19 @@
+package com.proofpoint.wikisystem.payload;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class ShardNodeDto {
+    private String nodeId;
+    private String url;
+
+    @Override
+    public String toString() {
+        return "ShardNodeArgs{" +
+                "nodeId='" + nodeId + '\'' +
+                ", url='" + url + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,24 @@
+package com.proofpoint.wikisystem.payload;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Map;
+import java.util.Set;
+
+@Getter
+@Setter
+public class ShardStatusDto {
+    private boolean enabled;
+    private String nodeId;
+    private Map<String, String> nodes;
+    /*
+    Page trees and pages held by this node
+     */
+    private int localTrees;
+    private int localPages;
+    /*
+    Nodes still handing trees over to this node after it joined
+     */
+    private Set<String> pendingHandoffs;
+}
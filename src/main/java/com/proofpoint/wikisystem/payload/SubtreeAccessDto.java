@@ -0,0 +1,31 @@
+package com.proofpoint.wikisystem.payload;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class SubtreeAccessDto {
+    private String rootPageId;
+    private String collaboratorId;
+    private boolean isIndividualUser;
+    /*
+    User making the change, recorded in the audit log
+     */
+    private String requesterId;
+    /*
+    Ignored when revoking
+     */
+    private String accessType;
+
+    @Override
+    public String toString() {
+        return "SubtreeAccessArgs{" +
+                "rootPageId='" + rootPageId + '\'' +
+                ", collaboratorId='" + collaboratorId + '\'' +
+                ", isIndividualUser=" + isIndividualUser +
+                ", requesterId='" + requesterId + '\'' +
+                ", accessType='" + accessType + '\'' +
+                '}';
+    }
+}
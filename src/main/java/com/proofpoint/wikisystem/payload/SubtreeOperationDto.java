@@ -0,0 +1,29 @@
+package com.proofpoint.wikisystem.payload;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.proofpoint.wikisystem.model.OperationState;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Progress of a subtree grant or revoke. Counts grow while the operation runs; its changes become visible to
+ * readers all at once when it completes.
+ */
+@Getter
+@Setter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SubtreeOperationDto {
+    private String operationId;
+    private String rootPageId;
+    private String collaboratorId;
+    /*
+    Null for a revoke
+     */
+    private String accessType;
+    private OperationState state;
+    private long pagesVisited;
+    private long componentsChanged;
+    private long startedAt;
+    private Long finishedAt;
+    private String message;
+}
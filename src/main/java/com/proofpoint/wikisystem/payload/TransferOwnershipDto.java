@@ -0,0 +1,24 @@
+package com.proofpoint.wikisystem.payload;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class TransferOwnershipDto {
+    private String fromUserId;
+    /*
+    Null to leave the components without an owner
+     */
+    private String toUserId;
+    private String requesterId;
+
+    @Override
+    public String toString() {
+        return "TransferOwnershipArgs{" +
+                "fromUserId='" + fromUserId + '\'' +
+                ", toUserId='" + toUserId + '\'' +
+                ", requesterId='" + requesterId + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,30 @@
+package com.proofpoint.wikisystem.payload;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class UpdateAccessDto {
+    private String componentId;
+    private String accessType;
+    private String collaboratorId;
+    private boolean isPage;
+    private boolean isIndividualUser;
+    /*
+    User making the change, recorded in the audit log
+     */
+    private String requesterId;
+
+    @Override
+    public String toString() {
+        return "UpdateAccessArgs{" +
+                "componentId='" + componentId + '\'' +
+                ", accesstype='" + accessType + '\'' +
+                ", collaboratorId='" + collaboratorId + '\'' +
+                ", isPage=" + isPage +
+                ", isIndividualUser=" + isIndividualUser +
+                ", requesterId='" + requesterId + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,30 @@
+package com.proofpoint.wikisystem.repository;
+
+import com.proofpoint.wikisystem.model.Attachment;
+
+import java.util.Collection;
+
+/**
+ * Storage of attachments, unique per (pageID, filename). A null pageID is the namespace shared by attachments that
+ * do not belong to a page.
+ */
+public interface AttachmentRepository {
+
+    Attachment find(String pageID, String filename);
+
+    Collection<Attachment> findByPage(String pageID);
+
+    Collection<Attachment> findAll();
+
+    /**
+     * @return the attachment previously stored under the same page and filename if it was another instance, or null
+     */
+    Attachment save(Attachment attachment);
+
+    Attachment delete(String pageID, String filename);
+
+    /**
+     * @return the removed attachments
+     */
+    Collection<Attachment> deleteByPage(String pageID);
+}
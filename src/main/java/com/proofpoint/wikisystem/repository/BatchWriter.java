@@ -0,0 +1,19 @@
+package com.proofpoint.wikisystem.repository;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+
+/**
+ * Writes the queued changes of one kind of entity, see {@link JdbcStore#flush()}
+ */
+public interface BatchWriter<T> {
+
+    String keyOf(T entity);
+
+    /**
+     * @param saved   entities to insert or update, each at most once
+     * @param deleted entities to remove, none of them also in saved
+     */
+    void write(Connection connection, Collection<T> saved, Collection<T> deleted) throws SQLException;
+}
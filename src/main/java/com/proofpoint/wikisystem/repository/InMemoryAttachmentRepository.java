@@ -0,0 +1,80 @@
+package com.proofpoint.wikisystem.repository;
+
+import com.proofpoint.wikisystem.model.Attachment;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Attachments grouped per owning page, so per-page listing and cleanup only touch that page's attachments.
+ */
+@Repository
+@ConditionalOnProperty(name = "wikisystem.storage.backend", havingValue = "memory", matchIfMissing = true)
+public class InMemoryAttachmentRepository implements AttachmentRepository {
+
+    /*
+    Namespace of attachments that do not belong to a page
+     */
+    private static final String SHARED_NAMESPACE = "";
+
+    private final Map<String, Map<String, Attachment>> attachmentsByPage = new HashMap<>();
+
+    @Override
+    public Attachment find(final String pageID, final String filename) {
+        final Map<String, Attachment> attachments = attachmentsByPage.get(namespaceOf(pageID));
+        return attachments == null ? null : attachments.get(filename);
+    }
+
+    @Override
+    public Collection<Attachment> findByPage(final String pageID) {
+        final Map<String, Attachment> attachments = attachmentsByPage.get(namespaceOf(pageID));
+        return attachments == null ? Collections.emptyList() : new ArrayList<>(attachments.values());
+    }
+
+    @Override
+    public Collection<Attachment> findAll() {
+        final List<Attachment> output = new ArrayList<>();
+        for (Map<String, Attachment> attachments : attachmentsByPage.values()) {
+            output.addAll(attachments.values());
+        }
+        return output;
+    }
+
+    @Override
+    public Attachment save(final Attachment attachment) {
+        final Attachment previous = attachmentsByPage
+                .computeIfAbsent(namespaceOf(attachment.getPageID()), key -> new LinkedHashMap<>())
+                .put(attachment.getFilename(), attachment);
+        return previous == attachment ? null : previous;
+    }
+
+    @Override
+    public Attachment delete(final String pageID, final String filename) {
+        final Map<String, Attachment> attachments = attachmentsByPage.get(namespaceOf(pageID));
+        if (attachments == null) {
+            return null;
+        }
+        final Attachment removed = attachments.remove(filename);
+        if (attachments.isEmpty()) {
+            attachmentsByPage.remove(namespaceOf(pageID));
+        }
+        return removed;
+    }
+
+    @Override
+    public Collection<Attachment> deleteByPage(final String pageID) {
+        final Map<String, Attachment> attachments = attachmentsByPage.remove(namespaceOf(pageID));
+        return attachments == null ? Collections.emptyList() : attachments.values();
+    }
+
+    private String namespaceOf(final String pageID) {
+        return pageID == null ? SHARED_NAMESPACE : pageID;
+    }
+}
@@ -0,0 +1,79 @@
+package com.proofpoint.wikisystem.repository;
+
+import com.proofpoint.wikisystem.model.Page;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+@Repository
+@ConditionalOnProperty(name = "wikisystem.storage.backend", havingValue = "memory", matchIfMissing = true)
+public class InMemoryPageRepository implements PageRepository {
+
+    private final Map<String, Page> pages = new HashMap<>();
+
+    private final Map<String, Set<String>> children = new HashMap<>();
+
+    /*
+    Parent each stored page was indexed under, pages are saved after being changed in place
+     */
+    private final Map<String, String> indexedParents = new HashMap<>();
+
+    @Override
+    public Page findById(final String pageID) {
+        return pageID == null ? null : pages.get(pageID);
+    }
+
+    @Override
+    public Collection<Page> findAll() {
+        return new ArrayList<>(pages.values());
+    }
+
+    @Override
+    public Set<String> findChildIds(final String parentPageID) {
+        return Collections.unmodifiableSet(children.getOrDefault(parentPageID, Collections.emptySet()));
+    }
+
+    @Override
+    public void save(final Page page) {
+        final boolean stored = pages.containsKey(page.getPageID());
+        pages.put(page.getPageID(), page);
+        final String previousParent = indexedParents.get(page.getPageID());
+        if (!stored || !Objects.equals(previousParent, page.getParentPageID())) {
+            unlinkChild(previousParent, page.getPageID());
+            indexedParents.put(page.getPageID(), page.getParentPageID());
+            if (page.getParentPageID() != null) {
+                children.computeIfAbsent(page.getParentPageID(), key -> new HashSet<>()).add(page.getPageID());
+            }
+        }
+    }
+
+    @Override
+    public Page delete(final String pageID) {
+        final Page page = pages.remove(pageID);
+        if (page != null) {
+            unlinkChild(indexedParents.remove(pageID), pageID);
+        }
+        return page;
+    }
+
+    private void unlinkChild(final String parentPageID, final String pageID) {
+        if (parentPageID == null) {
+            return;
+        }
+        final Set<String> siblings = children.get(parentPageID);
+        if (siblings != null) {
+            siblings.remove(pageID);
+            if (siblings.isEmpty()) {
+                children.remove(parentPageID);
+            }
+        }
+    }
+}
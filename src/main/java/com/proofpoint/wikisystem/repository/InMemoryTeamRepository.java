@@ -0,0 +1,37 @@
+package com.proofpoint.wikisystem.repository;
+
+import com.proofpoint.wikisystem.model.Team;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+@Repository
+@ConditionalOnProperty(name = "wikisystem.storage.backend", havingValue = "memory", matchIfMissing = true)
+public class InMemoryTeamRepository implements TeamRepository {
+
+    private final Map<String, Team> teams = new HashMap<>();
+
+    @Override
+    public Team findById(final String teamID) {
+        return teamID == null ? null : teams.get(teamID);
+    }
+
+    @Override
+    public Collection<Team> findAll() {
+        return new ArrayList<>(teams.values());
+    }
+
+    @Override
+    public void save(final Team team) {
+        teams.put(team.getId(), team);
+    }
+
+    @Override
+    public Team delete(final String teamID) {
+        return teams.remove(teamID);
+    }
+}
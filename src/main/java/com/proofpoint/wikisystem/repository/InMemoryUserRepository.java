@@ -0,0 +1,37 @@
+package com.proofpoint.wikisystem.repository;
+
+import com.proofpoint.wikisystem.model.User;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+@Repository
+@ConditionalOnProperty(name = "wikisystem.storage.backend", havingValue = "memory", matchIfMissing = true)
+public class InMemoryUserRepository implements UserRepository {
+
+    private final Map<String, User> users = new HashMap<>();
+
+    @Override
+    public User findById(final String userID) {
+        return userID == null ? null : users.get(userID);
+    }
+
+    @Override
+    public Collection<User> findAll() {
+        return new ArrayList<>(users.values());
+    }
+
+    @Override
+    public void save(final User user) {
+        users.put(user.getId(), user);
+    }
+
+    @Override
+    public User delete(final String userID) {
+        return users.remove(userID);
+    }
+}
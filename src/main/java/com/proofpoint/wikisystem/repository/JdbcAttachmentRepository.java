@@ -0,0 +1,130 @@
+package com.proofpoint.wikisystem.repository;
+
+import com.proofpoint.wikisystem.model.Attachment;
+import com.proofpoint.wikisystem.model.ComponentType;
+import com.proofpoint.wikisystem.model.Page;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+
+/**
+ * Attachments and their grants persisted through {@link JdbcStore}. Loaded attachments are linked to their page
+ * again, pages are loaded first.
+ */
+@Repository
+@ConditionalOnProperty(name = "wikisystem.storage.backend", havingValue = "jdbc")
+public class JdbcAttachmentRepository extends InMemoryAttachmentRepository implements BatchWriter<Attachment> {
+
+    /*
+    Stored page id of attachments that do not belong to a page
+     */
+    private static final String NO_PAGE = "";
+
+    @Autowired
+    private JdbcStore store;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private TeamRepository teamRepository;
+
+    @Autowired
+    private PageRepository pageRepository;
+
+    @PostConstruct
+    public void load() {
+        store.query("SELECT page_id, filename, owner_id, contents FROM attachments", row -> {
+            final String pageID = NO_PAGE.equals(row.getString("page_id")) ? null : row.getString("page_id");
+            final Attachment attachment = Attachment.Builder
+                    .newInstance()
+                    .withPageID(pageID)
+                    .withFilename(row.getString("filename"))
+                    .withOwner(userRepository.findById(row.getString("owner_id")))
+                    .withContents(row.getString("contents"))
+                    .build();
+            super.save(attachment);
+            final Page page = pageRepository.findById(pageID);
+            if (page != null) {
+                page.addAttachment(attachment);
+            }
+        });
+        store.query("SELECT component_key, grantee_id, is_team, access_type, expires_at FROM grants"
+                        + " WHERE component_key LIKE 'ATTACHMENT:%'",
+                row -> JdbcGrants.apply(findByComponentId(ComponentType.idOfKey(row.getString("component_key"))), row,
+                        userRepository, teamRepository));
+    }
+
+    @Override
+    public Attachment save(final Attachment attachment) {
+        final Attachment previous = super.save(attachment);
+        store.save(this, attachment);
+        return previous;
+    }
+
+    @Override
+    public Attachment delete(final String pageID, final String filename) {
+        final Attachment attachment = super.delete(pageID, filename);
+        if (attachment != null) {
+            store.delete(this, attachment);
+        }
+        return attachment;
+    }
+
+    @Override
+    public Collection<Attachment> deleteByPage(final String pageID) {
+        final Collection<Attachment> attachments = super.deleteByPage(pageID);
+        for (Attachment attachment : attachments) {
+            store.delete(this, attachment);
+        }
+        return attachments;
+    }
+
+    @Override
+    public String keyOf(final Attachment attachment) {
+        return attachment.getComponentKey();
+    }
+
+    @Override
+    public void write(final Connection connection, final Collection<Attachment> saved, final Collection<Attachment> deleted)
+            throws SQLException {
+        try (PreparedStatement merge = connection.prepareStatement(
+                "MERGE INTO attachments (page_id, filename, owner_id, contents) KEY (page_id, filename) VALUES (?, ?, ?, ?)");
+             PreparedStatement delete = connection.prepareStatement(
+                     "DELETE FROM attachments WHERE page_id = ? AND filename = ?")) {
+            for (Attachment attachment : saved) {
+                merge.setString(1, attachment.getPageID() == null ? NO_PAGE : attachment.getPageID());
+                merge.setString(2, attachment.getFilename());
+                merge.setString(3, attachment.getOwner() == null ? null : attachment.getOwner().getId());
+                merge.setString(4, attachment.getContents());
+                merge.addBatch();
+            }
+            for (Attachment attachment : deleted) {
+                delete.setString(1, attachment.getPageID() == null ? NO_PAGE : attachment.getPageID());
+                delete.setString(2, attachment.getFilename());
+                delete.addBatch();
+            }
+            merge.executeBatch();
+            delete.executeBatch();
+        }
+        JdbcGrants.write(connection, saved, deleted);
+    }
+
+    /*
+    The component id alone is ambiguous for shared attachments whose filename contains the separator
+     */
+    private Attachment findByComponentId(final String componentId) {
+        final Attachment shared = find(null, componentId);
+        if (shared != null) {
+            return shared;
+        }
+        final int separator = componentId.lastIndexOf(Attachment.PAGE_SEPARATOR);
+        return separator < 0 ? null : find(componentId.substring(0, separator), componentId.substring(separator + 1));
+    }
+}
@@ -0,0 +1,83 @@
+package com.proofpoint.wikisystem.repository;
+
+import com.proofpoint.wikisystem.model.AccessType;
+import com.proofpoint.wikisystem.model.Collaborator;
+import com.proofpoint.wikisystem.model.Component;
+import com.proofpoint.wikisystem.model.Team;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Grant rows shared by the page and attachment repositories. A collaborator is stored as its id and whether it is
+ * a team, users and teams have separate id spaces.
+ */
+final class JdbcGrants {
+
+    private JdbcGrants() {
+    }
+
+    /**
+     * Replaces the stored grants of the saved components and removes those of the deleted ones
+     */
+    static void write(final Connection connection, final Collection<? extends Component> saved,
+                      final Collection<? extends Component> deleted) throws SQLException {
+        try (PreparedStatement delete = connection.prepareStatement("DELETE FROM grants WHERE component_key = ?");
+             PreparedStatement insert = connection.prepareStatement(
+                     "INSERT INTO grants (component_key, grantee_id, is_team, access_type, expires_at) VALUES (?, ?, ?, ?, ?)")) {
+            for (Component component : deleted) {
+                delete.setString(1, component.getComponentKey());
+                delete.addBatch();
+            }
+            for (Component component : saved) {
+                delete.setString(1, component.getComponentKey());
+                delete.addBatch();
+                for (Map.Entry<Collaborator, AccessType> grant : component.getGrants().entrySet()) {
+                    if (grant.getKey() == null) {
+                        continue;
+                    }
+                    insert.setString(1, component.getComponentKey());
+                    insert.setString(2, grant.getKey().getId());
+                    insert.setBoolean(3, grant.getKey() instanceof Team);
+                    insert.setString(4, grant.getValue().name());
+                    final Long expiresAt = component.getExpiry(grant.getKey());
+                    if (expiresAt == null) {
+                        insert.setNull(5, Types.BIGINT);
+                    } else {
+                        insert.setLong(5, expiresAt);
+                    }
+                    insert.addBatch();
+                }
+            }
+            delete.executeBatch();
+            insert.executeBatch();
+        }
+    }
+
+    /**
+     * Restores a grant row read with at least grantee_id, is_team, access_type and expires_at
+     */
+    static void apply(final Component component, final ResultSet row, final UserRepository userRepository,
+                      final TeamRepository teamRepository) throws SQLException {
+        final Collaborator collaborator = resolve(userRepository, teamRepository, row.getString("grantee_id"),
+                row.getBoolean("is_team"));
+        if (component == null || collaborator == null) {
+            return;
+        }
+        component.putGrant(collaborator, AccessType.valueOf(row.getString("access_type")));
+        final long expiresAt = row.getLong("expires_at");
+        if (!row.wasNull()) {
+            component.setExpiry(collaborator, expiresAt);
+        }
+    }
+
+    static Collaborator resolve(final UserRepository userRepository, final TeamRepository teamRepository,
+                                final String granteeID, final boolean isTeam) {
+        return isTeam ? teamRepository.findById(granteeID) : userRepository.findById(granteeID);
+    }
+}
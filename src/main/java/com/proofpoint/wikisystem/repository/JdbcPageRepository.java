@@ -0,0 +1,121 @@
+package com.proofpoint.wikisystem.repository;
+
+import com.proofpoint.wikisystem.model.Collaborator;
+import com.proofpoint.wikisystem.model.ComponentType;
+import com.proofpoint.wikisystem.model.Page;
+import com.proofpoint.wikisystem.model.Team;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pages, their grants and inheritance edges persisted through {@link JdbcStore}. Saving a page rewrites its grant
+ * and edge rows, which stay small because each page only records its own.
+ */
+@Repository
+@ConditionalOnProperty(name = "wikisystem.storage.backend", havingValue = "jdbc")
+public class JdbcPageRepository extends InMemoryPageRepository implements BatchWriter<Page> {
+
+    @Autowired
+    private JdbcStore store;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private TeamRepository teamRepository;
+
+    @PostConstruct
+    public void load() {
+        store.query("SELECT id, parent_id, root_id, owner_id, content FROM pages", row -> super.save(Page.Builder
+                .newInstance()
+                .withPageID(row.getString("id"))
+                .withParentPageID(row.getString("parent_id"))
+                .withRootPageID(row.getString("root_id"))
+                .withOwner(userRepository.findById(row.getString("owner_id")))
+                .withContent(row.getString("content"))
+                .build()));
+        store.query("SELECT component_key, grantee_id, is_team, access_type, expires_at FROM grants"
+                        + " WHERE component_key LIKE 'PAGE:%'",
+                row -> JdbcGrants.apply(findById(ComponentType.idOfKey(row.getString("component_key"))), row,
+                        userRepository, teamRepository));
+        store.query("SELECT page_id, grantee_id, is_team, component_key FROM page_inheritors", row -> {
+            final Page page = findById(row.getString("page_id"));
+            final Collaborator collaborator = JdbcGrants.resolve(userRepository, teamRepository,
+                    row.getString("grantee_id"), row.getBoolean("is_team"));
+            if (page != null && collaborator != null) {
+                page.addInheritor(collaborator, row.getString("component_key"));
+            }
+        });
+    }
+
+    @Override
+    public void save(final Page page) {
+        super.save(page);
+        store.save(this, page);
+    }
+
+    @Override
+    public Page delete(final String pageID) {
+        final Page page = super.delete(pageID);
+        if (page != null) {
+            store.delete(this, page);
+        }
+        return page;
+    }
+
+    @Override
+    public String keyOf(final Page page) {
+        return page.getPageID();
+    }
+
+    @Override
+    public void write(final Connection connection, final Collection<Page> saved, final Collection<Page> deleted)
+            throws SQLException {
+        try (PreparedStatement merge = connection.prepareStatement(
+                "MERGE INTO pages (id, parent_id, root_id, owner_id, content) KEY (id) VALUES (?, ?, ?, ?, ?)");
+             PreparedStatement delete = connection.prepareStatement("DELETE FROM pages WHERE id = ?");
+             PreparedStatement deleteEdges = connection.prepareStatement("DELETE FROM page_inheritors WHERE page_id = ?");
+             PreparedStatement insertEdge = connection.prepareStatement(
+                     "INSERT INTO page_inheritors (page_id, grantee_id, is_team, component_key) VALUES (?, ?, ?, ?)")) {
+            for (Page page : saved) {
+                merge.setString(1, page.getPageID());
+                merge.setString(2, page.getParentPageID());
+                merge.setString(3, page.getRootPageID());
+                merge.setString(4, page.getOwner() == null ? null : page.getOwner().getId());
+                merge.setString(5, page.getContent());
+                merge.addBatch();
+                deleteEdges.setString(1, page.getPageID());
+                deleteEdges.addBatch();
+                for (Map.Entry<Collaborator, Set<String>> edges : page.getInheritorEdges().entrySet()) {
+                    for (String componentKey : edges.getValue()) {
+                        insertEdge.setString(1, page.getPageID());
+                        insertEdge.setString(2, edges.getKey().getId());
+                        insertEdge.setBoolean(3, edges.getKey() instanceof Team);
+                        insertEdge.setString(4, componentKey);
+                        insertEdge.addBatch();
+                    }
+                }
+            }
+            for (Page page : deleted) {
+                delete.setString(1, page.getPageID());
+                delete.addBatch();
+                deleteEdges.setString(1, page.getPageID());
+                deleteEdges.addBatch();
+            }
+            merge.executeBatch();
+            delete.executeBatch();
+            deleteEdges.executeBatch();
+            insertEdge.executeBatch();
+        }
+        JdbcGrants.write(connection, saved, deleted);
+    }
+}
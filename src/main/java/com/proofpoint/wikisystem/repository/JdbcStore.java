@@ -0,0 +1,202 @@
+package com.proofpoint.wikisystem.repository;
+
+import com.proofpoint.wikisystem.exceptions.StorageException;
+import com.proofpoint.wikisystem.service.VersionService;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection pool, schema and write batching for the JDBC repositories. Saves and deletes are queued per entity, so
+ * an entity changed several times in one write is stored once, and the queue is flushed in a single transaction with
+ * one JDBC batch per statement when the write commits. Changes made outside a write are flushed right away.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "wikisystem.storage.backend", havingValue = "jdbc")
+public class JdbcStore {
+
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS users (id VARCHAR(512) PRIMARY KEY, username VARCHAR(1024))",
+            "CREATE TABLE IF NOT EXISTS teams (id VARCHAR(512) PRIMARY KEY, is_admin BOOLEAN NOT NULL)",
+            "CREATE TABLE IF NOT EXISTS team_members (team_id VARCHAR(512) NOT NULL, user_id VARCHAR(512) NOT NULL,"
+                    + " position INT NOT NULL, PRIMARY KEY (team_id, user_id))",
+            "CREATE INDEX IF NOT EXISTS team_members_user ON team_members (user_id)",
+            "CREATE TABLE IF NOT EXISTS team_subteams (team_id VARCHAR(512) NOT NULL, subteam_id VARCHAR(512) NOT NULL,"
+                    + " position INT NOT NULL, PRIMARY KEY (team_id, subteam_id))",
+            "CREATE INDEX IF NOT EXISTS team_subteams_subteam ON team_subteams (subteam_id)",
+            "CREATE TABLE IF NOT EXISTS pages (id VARCHAR(512) PRIMARY KEY, parent_id VARCHAR(512), root_id VARCHAR(512),"
+                    + " owner_id VARCHAR(512), content CLOB)",
+            "CREATE INDEX IF NOT EXISTS pages_parent ON pages (parent_id)",
+            "CREATE INDEX IF NOT EXISTS pages_owner ON pages (owner_id)",
+            // Attachments without a page are stored under the empty page id, the key columns cannot be null
+            "CREATE TABLE IF NOT EXISTS attachments (page_id VARCHAR(512) NOT NULL, filename VARCHAR(512) NOT NULL,"
+                    + " owner_id VARCHAR(512), contents CLOB, PRIMARY KEY (page_id, filename))",
+            "CREATE INDEX IF NOT EXISTS attachments_owner ON attachments (owner_id)",
+            "CREATE TABLE IF NOT EXISTS grants (component_key VARCHAR(1100) NOT NULL, grantee_id VARCHAR(512) NOT NULL,"
+                    + " is_team BOOLEAN NOT NULL, access_type VARCHAR(32) NOT NULL, expires_at BIGINT,"
+                    + " PRIMARY KEY (component_key, grantee_id, is_team))",
+            // Databases created before grants could expire
+            "ALTER TABLE grants ADD COLUMN IF NOT EXISTS expires_at BIGINT",
+            "CREATE INDEX IF NOT EXISTS grants_grantee ON grants (grantee_id, is_team)",
+            "CREATE TABLE IF NOT EXISTS page_inheritors (page_id VARCHAR(512) NOT NULL, grantee_id VARCHAR(512) NOT NULL,"
+                    + " is_team BOOLEAN NOT NULL, component_key VARCHAR(1100) NOT NULL,"
+                    + " PRIMARY KEY (page_id, grantee_id, is_team, component_key))"
+    };
+
+    @Value("${wikisystem.storage.jdbc.url:jdbc:h2:file:./data/wikisystem}")
+    private String url;
+
+    @Value("${wikisystem.storage.jdbc.username:sa}")
+    private String username;
+
+    @Value("${wikisystem.storage.jdbc.password:}")
+    private String password;
+
+    @Value("${wikisystem.storage.jdbc.pool-size:8}")
+    private int poolSize;
+
+    @Autowired
+    private VersionService versionService;
+
+    private HikariDataSource dataSource;
+
+    /*
+    Per writer, entity key to the entity to store, or to a Deleted marker
+     */
+    private final Map<BatchWriter<?>, Map<String, Object>> pending = new LinkedHashMap<>();
+
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong rowsQueued = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        final HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(url);
+        config.setUsername(username);
+        config.setPassword(password);
+        config.setMaximumPoolSize(poolSize);
+        config.setPoolName("wikisystem-storage");
+        dataSource = new HikariDataSource(config);
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            for (String ddl : SCHEMA) {
+                statement.execute(ddl);
+            }
+        } catch (SQLException e) {
+            throw new StorageException("Failed to initialize schema", e);
+        }
+        versionService.onCommit(this::flush);
+        log.info("JDBC storage ready at " + url);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (dataSource != null) {
+            flush();
+            dataSource.close();
+        }
+    }
+
+    public synchronized <T> void save(final BatchWriter<T> writer, final T entity) {
+        pending.computeIfAbsent(writer, key -> new LinkedHashMap<>()).put(writer.keyOf(entity), entity);
+        rowsQueued.incrementAndGet();
+        flushUnlessInWrite();
+    }
+
+    public synchronized <T> void delete(final BatchWriter<T> writer, final T entity) {
+        pending.computeIfAbsent(writer, key -> new LinkedHashMap<>()).put(writer.keyOf(entity), new Deleted(entity));
+        rowsQueued.incrementAndGet();
+        flushUnlessInWrite();
+    }
+
+    /**
+     * Writes every queued change in one transaction
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                for (Map.Entry<BatchWriter<?>, Map<String, Object>> entry : pending.entrySet()) {
+                    final List<Object> saved = new ArrayList<>();
+                    final List<Object> deleted = new ArrayList<>();
+                    for (Object change : entry.getValue().values()) {
+                        if (change instanceof Deleted) {
+                            deleted.add(((Deleted) change).entity);
+                        } else {
+                            saved.add(change);
+                        }
+                    }
+                    ((BatchWriter<Object>) entry.getKey()).write(connection, saved, deleted);
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new StorageException("Failed to persist changes", e);
+        } finally {
+            pending.clear();
+        }
+        flushes.incrementAndGet();
+    }
+
+    public void query(final String sql, final RowHandler handler) {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet row = statement.executeQuery(sql)) {
+            while (row.next()) {
+                handler.handle(row);
+            }
+        } catch (SQLException e) {
+            throw new StorageException("Failed to load " + sql, e);
+        }
+    }
+
+    public long getFlushCount() {
+        return flushes.get();
+    }
+
+    public long getRowsQueued() {
+        return rowsQueued.get();
+    }
+
+    private void flushUnlessInWrite() {
+        if (!versionService.isInWrite()) {
+            flush();
+        }
+    }
+
+    @FunctionalInterface
+    public interface RowHandler {
+        void handle(ResultSet row) throws SQLException;
+    }
+
+    private static final class Deleted {
+        private final Object entity;
+
+        private Deleted(final Object entity) {
+            this.entity = entity;
+        }
+    }
+}
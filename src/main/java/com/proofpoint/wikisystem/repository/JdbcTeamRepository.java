@@ -0,0 +1,124 @@
+package com.proofpoint.wikisystem.repository;
+
+import com.proofpoint.wikisystem.model.Team;
+import com.proofpoint.wikisystem.model.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+
+/**
+ * Teams with their member and subteam lists persisted through {@link JdbcStore}. Both lists are rewritten whenever a
+ * team is saved.
+ */
+@Repository
+@ConditionalOnProperty(name = "wikisystem.storage.backend", havingValue = "jdbc")
+public class JdbcTeamRepository extends InMemoryTeamRepository implements BatchWriter<Team> {
+
+    @Autowired
+    private JdbcStore store;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @PostConstruct
+    public void load() {
+        store.query("SELECT id, is_admin FROM teams", row -> super.save(Team.Builder
+                .newInstance()
+                .withID(row.getString("id"))
+                .withIsAdmin(row.getBoolean("is_admin"))
+                .build()));
+        store.query("SELECT team_id, user_id FROM team_members ORDER BY team_id, position", row -> {
+            final Team team = findById(row.getString("team_id"));
+            final User user = userRepository.findById(row.getString("user_id"));
+            if (team != null && user != null) {
+                team.addMember(user);
+            }
+        });
+        store.query("SELECT team_id, subteam_id FROM team_subteams ORDER BY team_id, position", row -> {
+            final Team team = findById(row.getString("team_id"));
+            final Team subteam = findById(row.getString("subteam_id"));
+            if (team != null && subteam != null) {
+                team.getSubteams().add(subteam);
+            }
+        });
+    }
+
+    @Override
+    public void save(final Team team) {
+        super.save(team);
+        store.save(this, team);
+    }
+
+    @Override
+    public Team delete(final String teamID) {
+        final Team team = super.delete(teamID);
+        if (team != null) {
+            store.delete(this, team);
+        }
+        return team;
+    }
+
+    @Override
+    public String keyOf(final Team team) {
+        return team.getId();
+    }
+
+    @Override
+    public void write(final Connection connection, final Collection<Team> saved, final Collection<Team> deleted)
+            throws SQLException {
+        try (PreparedStatement merge = connection.prepareStatement("MERGE INTO teams (id, is_admin) KEY (id) VALUES (?, ?)");
+             PreparedStatement delete = connection.prepareStatement("DELETE FROM teams WHERE id = ?");
+             PreparedStatement deleteMembers = connection.prepareStatement("DELETE FROM team_members WHERE team_id = ?");
+             PreparedStatement insertMember = connection.prepareStatement(
+                     "MERGE INTO team_members (team_id, user_id, position) KEY (team_id, user_id) VALUES (?, ?, ?)");
+             PreparedStatement deleteSubteams = connection.prepareStatement(
+                     "DELETE FROM team_subteams WHERE team_id = ?");
+             PreparedStatement insertSubteam = connection.prepareStatement(
+                     "MERGE INTO team_subteams (team_id, subteam_id, position) KEY (team_id, subteam_id) VALUES (?, ?, ?)")) {
+            for (Team team : saved) {
+                merge.setString(1, team.getId());
+                merge.setBoolean(2, team.isAdmin());
+                merge.addBatch();
+                deleteMembers.setString(1, team.getId());
+                deleteMembers.addBatch();
+                int position = 0;
+                for (User member : team.getMembers()) {
+                    insertMember.setString(1, team.getId());
+                    insertMember.setString(2, member.getId());
+                    insertMember.setInt(3, position++);
+                    insertMember.addBatch();
+                }
+                deleteSubteams.setString(1, team.getId());
+                deleteSubteams.addBatch();
+                position = 0;
+                for (Team subteam : team.getSubteams()) {
+                    insertSubteam.setString(1, team.getId());
+                    insertSubteam.setString(2, subteam.getId());
+                    insertSubteam.setInt(3, position++);
+                    insertSubteam.addBatch();
+                }
+            }
+            for (Team team : deleted) {
+                delete.setString(1, team.getId());
+                delete.addBatch();
+                deleteMembers.setString(1, team.getId());
+                deleteMembers.addBatch();
+                // Teams that contained this one are saved in the same write
+                deleteSubteams.setString(1, team.getId());
+                deleteSubteams.addBatch();
+            }
+            merge.executeBatch();
+            delete.executeBatch();
+            deleteMembers.executeBatch();
+            insertMember.executeBatch();
+            deleteSubteams.executeBatch();
+            insertSubteam.executeBatch();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.proofpoint.wikisystem.repository;
+
+import com.proofpoint.wikisystem.model.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+
+/**
+ * Users persisted through {@link JdbcStore}. All users are loaded at startup and reads are served from memory,
+ * which also keeps one instance per user.
+ */
+@Repository
+@ConditionalOnProperty(name = "wikisystem.storage.backend", havingValue = "jdbc")
+public class JdbcUserRepository extends InMemoryUserRepository implements BatchWriter<User> {
+
+    @Autowired
+    private JdbcStore store;
+
+    @PostConstruct
+    public void load() {
+        store.query("SELECT id, username FROM users", row -> super.save(User.Builder
+                .newInstance()
+                .withID(row.getString("id"))
+                .withUsername(row.getString("username"))
+                .build()));
+    }
+
+    @Override
+    public void save(final User user) {
+        super.save(user);
+        store.save(this, user);
+    }
+
+    @Override
+    public User delete(final String userID) {
+        final User user = super.delete(userID);
+        if (user != null) {
+            store.delete(this, user);
+        }
+        return user;
+    }
+
+    @Override
+    public String keyOf(final User user) {
+        return user.getId();
+    }
+
+    @Override
+    public void write(final Connection connection, final Collection<User> saved, final Collection<User> deleted)
+            throws SQLException {
+        try (PreparedStatement merge = connection.prepareStatement("MERGE INTO users (id, username) KEY (id) VALUES (?, ?)");
+             PreparedStatement delete = connection.prepareStatement("DELETE FROM users WHERE id = ?")) {
+            for (User user : saved) {
+                merge.setString(1, user.getId());
+                merge.setString(2, user.getUsername());
+                merge.addBatch();
+            }
+            for (User user : deleted) {
+                delete.setString(1, user.getId());
+                delete.addBatch();
+            }
+            merge.executeBatch();
+            delete.executeBatch();
+        }
+    }
+}
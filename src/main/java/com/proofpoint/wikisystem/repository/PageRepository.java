@@ -0,0 +1,29 @@
+package com.proofpoint.wikisystem.repository;
+
+import com.proofpoint.wikisystem.model.Page;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Storage of pages with their grants and inheritance edges. Attachments are stored by {@link AttachmentRepository}
+ * and linked back to their page when loaded.
+ */
+public interface PageRepository {
+
+    Page findById(String pageID);
+
+    Collection<Page> findAll();
+
+    /**
+     * @return ids of the pages whose parent is the given page, as of their last save
+     */
+    Set<String> findChildIds(String parentPageID);
+
+    /**
+     * Stores a new page or the current state of one already stored, including a changed parent
+     */
+    void save(Page page);
+
+    Page delete(String pageID);
+}
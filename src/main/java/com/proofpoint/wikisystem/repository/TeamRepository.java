@@ -0,0 +1,19 @@
+package com.proofpoint.wikisystem.repository;
+
+import com.proofpoint.wikisystem.model.Team;
+
+import java.util.Collection;
+
+/**
+ * Storage of teams and their member lists. Same identity guarantee as {@link UserRepository}.
+ */
+public interface TeamRepository {
+
+    Team findById(String teamID);
+
+    Collection<Team> findAll();
+
+    void save(Team team);
+
+    Team delete(String teamID);
+}
@@ -0,0 +1,26 @@
+package com.proofpoint.wikisystem.repository;
+
+import com.proofpoint.wikisystem.model.User;
+
+import java.util.Collection;
+
+/**
+ * Storage of users. Implementations hand out the same instance for a user on every call, because grants and team
+ * memberships compare collaborators by identity.
+ */
+public interface UserRepository {
+
+    User findById(String userID);
+
+    Collection<User> findAll();
+
+    /**
+     * Stores a new user or the current state of one already stored
+     */
+    void save(User user);
+
+    /**
+     * @return the removed user, or null if there was none
+     */
+    User delete(String userID);
+}
@@ -1,18 +1,42 @@
 package com.proofpoint.wikisystem.service;
 
 import com.proofpoint.wikisystem.exceptions.AccessDeniedException;
+import com.proofpoint.wikisystem.exceptions.AttachmentNotFoundException;
 import com.proofpoint.wikisystem.model.AccessType;
+import com.proofpoint.wikisystem.model.Attachment;
+import com.proofpoint.wikisystem.model.AuditType;
+import com.proofpoint.wikisystem.model.ChangeEvent;
 import com.proofpoint.wikisystem.model.Collaborator;
 import com.proofpoint.wikisystem.model.Component;
+import com.proofpoint.wikisystem.model.ComponentType;
+import com.proofpoint.wikisystem.model.EventType;
+import com.proofpoint.wikisystem.model.Page;
+import com.proofpoint.wikisystem.model.Team;
+import com.proofpoint.wikisystem.model.User;
+import com.proofpoint.wikisystem.payload.AccessCheckDto;
+import com.proofpoint.wikisystem.payload.AccessCheckResultDto;
+import com.proofpoint.wikisystem.payload.AccessibleComponentsDto;
+import com.proofpoint.wikisystem.payload.BatchAccessCheckDto;
 import com.proofpoint.wikisystem.payload.CreateAccessDto;
+import com.proofpoint.wikisystem.payload.DeleteAccessDto;
+import com.proofpoint.wikisystem.payload.TransferOwnershipDto;
+import com.proofpoint.wikisystem.payload.UpdateAccessDto;
+import com.proofpoint.wikisystem.util.Action;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
-import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static com.proofpoint.wikisystem.util.Constants.authorizedActionsMap;
 
 @Service
 @Scope("singleton")
@@ -31,39 +55,492 @@ public class AccessService {
     @Autowired
     private TeamService teamService;
 
+    @Autowired
+    private ChangeEventService changeEventService;
+
+    @Autowired
+    private AclIndexService aclIndexService;
+
+    @Autowired
+    private VersionService versionService;
+
+    @Autowired
+    private GrantExpiryService grantExpiryService;
+
+    @Autowired
+    private AuditService auditService;
+
     public void assignAccess(final CreateAccessDto createAccessDto) {
         log.info("createAccessDto received:" + createAccessDto.toString());
 
-        Component component;
-        Collaborator collaborator;
+        final Component component = resolveComponent(createAccessDto.getComponentId(), createAccessDto.isPage());
+        final Collaborator collaborator = resolveCollaborator(createAccessDto.getCollaboratorId(), createAccessDto.isIndividualUser());
 
-        if (createAccessDto.isPage()) {
-            component = pageService.read(createAccessDto.getComponentId());
-        } else {
-            component = attachmentService.read(createAccessDto.getComponentId());
+        if (component == null || collaborator == null) {
+            throw new AccessDeniedException("Given Entities does not exist in system.");
+        }
+        final Long expiresAt = createAccessDto.getExpiresAt();
+        if (expiresAt != null && expiresAt <= System.currentTimeMillis()) {
+            throw new IllegalArgumentException("Expiry must be in the future");
         }
 
-        if (createAccessDto.isIndividualUser()) {
-            collaborator = userService.read(createAccessDto.getCollaboratorId());
-        } else {
-            collaborator = teamService.read(createAccessDto.getCollaboratorId());
+        assignAccess(component, AccessType.valueOf(createAccessDto.getAccessType()), collaborator, expiresAt,
+                createAccessDto.getRequesterId());
+        final ChangeEvent.Builder event = ChangeEvent.Builder
+                .newInstance()
+                .withType(EventType.ACCESS_GRANTED)
+                .withEntityId(createAccessDto.getComponentId())
+                .withDetail("collaboratorId", collaborator.getId())
+                .withDetail("accessType", createAccessDto.getAccessType())
+                .withDetail("isPage", String.valueOf(createAccessDto.isPage()));
+        if (expiresAt != null) {
+            event.withDetail("expiresAt", String.valueOf(expiresAt));
         }
+        changeEventService.publish(event);
+    }
+
+    /**
+     * Grants are unique per (component, collaborator). Assigning a different access type to an existing grant
+     * changes its level, including on the pages that inherited it. An explicit assignment also stops the grant
+     * from following later changes made on the parent page.
+     *
+     * @param expiresAt   epoch millis after which the grant is removed, or null for a permanent grant. Replaces the
+     *                    expiry of an existing grant.
+     * @param requesterId user making the assignment, recorded in the audit log
+     */
+    public void assignAccess(final Component component, final AccessType accessType, final Collaborator collaborator,
+                             final Long expiresAt, final String requesterId) {
+        versionService.begin();
+        try {
+            final AccessType current = component.getAccessType(collaborator);
+            if (current == null) {
+                component.putGrant(collaborator, accessType);
+                component.setExpiry(collaborator, expiresAt);
+                aclIndexService.indexGrant(component, collaborator, accessType);
+                persist(component);
+                auditService.recordAclChange(AuditType.GRANT, component, requesterId, collaborator, accessType);
+            } else if (current != accessType || !Objects.equals(component.getExpiry(collaborator), expiresAt)) {
+                changeAccessLevel(component, accessType, collaborator, expiresAt, requesterId);
+            }
+            detachFromParent(component, collaborator);
+        } finally {
+            versionService.commit();
+        }
+        if (expiresAt != null) {
+            grantExpiryService.schedule(component, collaborator, expiresAt);
+        }
+    }
+
+    public int changeAccessLevel(final UpdateAccessDto updateAccessDto) {
+        log.info("updateAccessDto received:" + updateAccessDto.toString());
+
+        final Component component = resolveComponent(updateAccessDto.getComponentId(), updateAccessDto.isPage());
+        final Collaborator collaborator = resolveCollaborator(updateAccessDto.getCollaboratorId(), updateAccessDto.isIndividualUser());
 
         if (component == null || collaborator == null) {
             throw new AccessDeniedException("Given Entities does not exist in system.");
         }
+        if (component.getAccessType(collaborator) == null) {
+            throw new IllegalArgumentException("Collaborator has no access on given component");
+        }
+
+        final int affected;
+        versionService.begin();
+        try {
+            detachFromParent(component, collaborator);
+            affected = changeAccessLevel(component, AccessType.valueOf(updateAccessDto.getAccessType()), collaborator,
+                    component.getExpiry(collaborator), updateAccessDto.getRequesterId());
+        } finally {
+            versionService.commit();
+        }
+        changeEventService.publish(ChangeEvent.Builder
+                .newInstance()
+                .withType(EventType.ACCESS_CHANGED)
+                .withEntityId(updateAccessDto.getComponentId())
+                .withDetail("collaboratorId", collaborator.getId())
+                .withDetail("accessType", updateAccessDto.getAccessType())
+                .withDetail("isPage", String.valueOf(updateAccessDto.isPage()))
+                .withDetail("affected", String.valueOf(affected)));
+        return affected;
+    }
+
+    public int revokeAccess(final DeleteAccessDto deleteAccessDto) {
+        log.info("deleteAccessDto received:" + deleteAccessDto.toString());
+
+        final Component component = resolveComponent(deleteAccessDto.getComponentId(), deleteAccessDto.isPage());
+        final Collaborator collaborator = resolveCollaborator(deleteAccessDto.getCollaboratorId(), deleteAccessDto.isIndividualUser());
+
+        if (component == null || collaborator == null) {
+            throw new AccessDeniedException("Given Entities does not exist in system.");
+        }
+
+        final int affected = revokeAccess(component, collaborator, deleteAccessDto.getRequesterId());
+        changeEventService.publish(ChangeEvent.Builder
+                .newInstance()
+                .withType(EventType.ACCESS_REVOKED)
+                .withEntityId(deleteAccessDto.getComponentId())
+                .withDetail("collaboratorId", collaborator.getId())
+                .withDetail("isPage", String.valueOf(deleteAccessDto.isPage()))
+                .withDetail("affected", String.valueOf(affected)));
+        return affected;
+    }
+
+    /**
+     * Removes the collaborator's grant from the component and from every page or attachment that inherited it,
+     * following the inheritance edges recorded on the parent pages. Cost is proportional to the number of components
+     * that lose the grant.
+     *
+     * @param requesterId user revoking the grant, recorded in the audit log
+     * @return number of components the grant was removed from
+     */
+    public int revokeAccess(final Component component, final Collaborator collaborator, final String requesterId) {
+        return revokeAccess(component, collaborator, requesterId, AuditType.REVOKE);
+    }
+
+    private int revokeAccess(final Component component, final Collaborator collaborator, final String requesterId,
+                             final AuditType auditType) {
+        versionService.begin();
+        try {
+            if (component.removeGrant(collaborator) == null) {
+                return 0;
+            }
+            aclIndexService.unindexGrant(component, collaborator);
+            persist(component);
+            detachFromParent(component, collaborator);
+            auditService.recordAclChange(auditType, component, requesterId, collaborator, null);
+
+            int affected = 1;
+            if (component instanceof Page) {
+                final Deque<String> pending = new ArrayDeque<>(((Page) component).removeInheritors(collaborator));
+                while (!pending.isEmpty()) {
+                    final Component inheritor = findComponent(pending.pop());
+                    if (inheritor != null && inheritor.removeGrant(collaborator) != null) {
+                        aclIndexService.unindexGrant(inheritor, collaborator);
+                        persist(inheritor);
+                        auditService.recordAclChange(auditType, inheritor, requesterId, collaborator, null);
+                        affected++;
+                        if (inheritor instanceof Page) {
+                            pending.addAll(((Page) inheritor).removeInheritors(collaborator));
+                        }
+                    }
+                }
+            }
+            return affected;
+        } finally {
+            versionService.commit();
+        }
+    }
+
+    /**
+     * Removes a grant whose expiry has passed, together with the grants inherited from it. Does nothing if the grant
+     * is gone or was given another expiry since this one was scheduled.
+     *
+     * @return number of components the grant was removed from
+     */
+    public int expireAccess(final String componentKey, final Collaborator collaborator, final long expiresAt) {
+        final Component component;
+        final int affected;
+        versionService.begin();
+        try {
+            component = findComponent(componentKey);
+            if (component == null || !Objects.equals(component.getExpiry(collaborator), expiresAt)) {
+                return 0;
+            }
+            affected = revokeAccess(component, collaborator, null, AuditType.EXPIRE);
+        } finally {
+            versionService.commit();
+        }
+        changeEventService.publish(ChangeEvent.Builder
+                .newInstance()
+                .withType(EventType.ACCESS_EXPIRED)
+                .withEntityId(component.getComponentId())
+                .withDetail("collaboratorId", collaborator.getId())
+                .withDetail("isPage", String.valueOf(component instanceof Page))
+                .withDetail("affected", String.valueOf(affected)));
+        return affected;
+    }
+
+    /**
+     * Moves the collaborator's grant to accessType and expiresAt on the component and on every page or attachment
+     * that inherited it.
+     *
+     * @return number of components whose grant was updated
+     */
+    private int changeAccessLevel(final Component component, final AccessType accessType, final Collaborator collaborator,
+                                  final Long expiresAt, final String requesterId) {
+        component.putGrant(collaborator, accessType);
+        component.setExpiry(collaborator, expiresAt);
+        aclIndexService.indexGrant(component, collaborator, accessType);
+        persist(component);
+        auditService.recordAclChange(AuditType.CHANGE, component, requesterId, collaborator, accessType);
+
+        int affected = 1;
+        if (component instanceof Page) {
+            final Deque<String> pending = new ArrayDeque<>(((Page) component).getInheritors(collaborator));
+            while (!pending.isEmpty()) {
+                final Component inheritor = findComponent(pending.pop());
+                if (inheritor != null && inheritor.getAccessType(collaborator) != null) {
+                    inheritor.putGrant(collaborator, accessType);
+                    inheritor.setExpiry(collaborator, expiresAt);
+                    aclIndexService.indexGrant(inheritor, collaborator, accessType);
+                    persist(inheritor);
+                    auditService.recordAclChange(AuditType.CHANGE, inheritor, requesterId, collaborator, accessType);
+                    affected++;
+                    if (inheritor instanceof Page) {
+                        pending.addAll(((Page) inheritor).getInheritors(collaborator));
+                    }
+                }
+            }
+        }
+        return affected;
+    }
+
+    /**
+     * Lists the components the collaborator may perform the action on, through its own grants, the teams it belongs to
+     * directly or through nested teams and, for users, the components it owns.
+     */
+    public AccessibleComponentsDto listAccessibleComponents(final String collaboratorId, final boolean isIndividualUser,
+                                                            final Action action, final String cursor, final int limit) {
+        final Collaborator collaborator = resolveCollaborator(collaboratorId, isIndividualUser);
+        if (collaborator == null) {
+            throw new AccessDeniedException("Given Entities does not exist in system.");
+        }
 
-        assignAccess(component, AccessType.valueOf(createAccessDto.getAccessType()), collaborator);
+        final AccessibleComponentsDto output = aclIndexService.listAccessible(collaborator,
+                teamService.getEffectiveTeams(collaborator),
+                authorizedActionsMap.get(action), cursor, limit);
+        output.setAdmin(!isIndividualUser && ((Team) collaborator).isAdmin());
+        return output;
+    }
+
+    /**
+     * Evaluates many (component, action) pairs for one requester. The requester and its team are resolved once and
+     * each check is a couple of hash lookups, so a UI can learn the permissions for a whole page tree without
+     * fetching and serializing every page. All checks are answered from one snapshot, so a concurrent grant change
+     * shows up in all of them or in none. Unknown components and actions are reported as not allowed.
+     */
+    public List<AccessCheckResultDto> checkAccess(final BatchAccessCheckDto batchAccessCheckDto) {
+        log.info("batchAccessCheckDto received:" + batchAccessCheckDto.toString());
+
+        final String requesterId = batchAccessCheckDto.getRequesterId();
+        final Collaborator requester = resolveCollaborator(requesterId, batchAccessCheckDto.isIndividualUser());
+        final boolean isAdmin = requester instanceof Team && ((Team) requester).isAdmin();
+        final Set<Team> teams = teamService.getEffectiveTeams(requester);
+
+        final List<AccessCheckDto> checks = batchAccessCheckDto.getChecks() == null
+                ? Collections.emptyList() : batchAccessCheckDto.getChecks();
+        final List<AccessCheckResultDto> results = new ArrayList<>(checks.size());
+        try (VersionService.Snapshot snapshot = versionService.pin()) {
+            for (AccessCheckDto check : checks) {
+                final Component component = versionService.readComponent(snapshot, check.getComponentId(), check.isPage());
+                final Action action = parseAction(check.getAction());
+                final boolean allowed = component != null && action != null
+                        && (isAdmin || component.isOwnedBy(requesterId) || component.permits(action, requester, teams));
+                results.add(new AccessCheckResultDto(check.getComponentId(), check.isPage(), check.getAction(), allowed));
+                auditService.recordDecision(action, component != null ? component.getComponentKey()
+                                : (check.isPage() ? ComponentType.PAGE : ComponentType.ATTACHMENT).keyOf(check.getComponentId()),
+                        requesterId, !batchAccessCheckDto.isIndividualUser(), allowed);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Removes every grant held by a collaborator that is being deleted. Driven by the reverse index, so the cost is
+     * proportional to the number of grants rather than to the number of components.
+     *
+     * @param requesterId user deleting the collaborator, null when nobody asked for it here
+     */
+    public void purgeCollaborator(final Collaborator collaborator, final String requesterId) {
+        final List<String> componentKeys = new ArrayList<>(aclIndexService.getGrants(collaborator).keySet());
+        versionService.begin();
+        try {
+            for (String componentKey : componentKeys) {
+                final Component component = findComponent(componentKey);
+                if (component != null) {
+                    component.removeGrant(collaborator);
+                    persist(component);
+                    auditService.recordAclChange(AuditType.REVOKE, component, requesterId, collaborator, null);
+                    if (component instanceof Page) {
+                        ((Page) component).removeInheritors(collaborator);
+                    }
+                }
+            }
+            aclIndexService.removeCollaborator(collaborator);
+        } finally {
+            versionService.commit();
+        }
+        log.info("Purged " + componentKeys.size() + " grants of collaborator:" + collaborator.getId());
+    }
+
+    /**
+     * Moves everything fromUserId owns to toUserId, on behalf of the previous owner or a member of an admin team
+     *
+     * @throws IllegalArgumentException if either user does not exist
+     * @throws AccessDeniedException    if the requester is neither the previous owner nor an admin
+     */
+    public int transferOwnership(final TransferOwnershipDto transferOwnershipDto) {
+        log.info("transferOwnershipDto received:" + transferOwnershipDto.toString());
+
+        final User previousOwner = userService.read(transferOwnershipDto.getFromUserId());
+        final User owner = transferOwnershipDto.getToUserId() == null ? null
+                : userService.read(transferOwnershipDto.getToUserId());
+        if (previousOwner == null || owner == null) {
+            throw new IllegalArgumentException("Given Entities does not exist in system.");
+        }
+        final User requester = transferOwnershipDto.getRequesterId() == null ? null
+                : userService.read(transferOwnershipDto.getRequesterId());
+        if (!mayTransferOwnership(requester, previousOwner)) {
+            throw new AccessDeniedException("Not authorized to transfer ownership of the given user's components");
+        }
+        return transferOwnership(previousOwner, owner, requester.getId());
+    }
+
+    /**
+     * @return true if the requester is the previous owner, or a member of an admin team directly or through nested
+     * teams
+     */
+    public boolean mayTransferOwnership(final User requester, final User previousOwner) {
+        if (requester == null) {
+            return false;
+        }
+        if (requester == previousOwner) {
+            return true;
+        }
+        for (Team team : teamService.getEffectiveTeams(requester)) {
+            if (team.isAdmin()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Makes owner the owner of every page and attachment previousOwner owns, in one write. Driven by the owner index,
+     * so the cost is proportional to the number of owned components. Each component is republished, so reads and
+     * checks from later snapshots see the new owner, and an update event is sent for each so followers follow.
+     * Callers authorize the requester.
+     *
+     * @return number of components transferred
+     */
+    public int transferOwnership(final User previousOwner, final User owner, final String requesterId) {
+        if (owner == null) {
+            throw new IllegalArgumentException("Components need a new owner");
+        }
+        if (previousOwner == owner) {
+            return 0;
+        }
+        final List<Component> transferred = new ArrayList<>();
+        versionService.begin();
+        try {
+            for (String componentKey : new ArrayList<>(aclIndexService.getOwnedComponents(previousOwner))) {
+                final Component component = findComponent(componentKey);
+                if (component == null || component.getOwner() != previousOwner) {
+                    continue;
+                }
+                aclIndexService.changeOwner(component, previousOwner, owner);
+                component.setOwner(owner);
+                persist(component);
+                auditService.recordOwnerChange(component, requesterId, owner);
+                transferred.add(component);
+            }
+        } finally {
+            versionService.commit();
+        }
+        for (Component component : transferred) {
+            changeEventService.publish(component instanceof Page ? EventType.PAGE_UPDATED : EventType.ATTACHMENT_UPDATED,
+                    component.getComponentId(), requesterId);
+        }
+        log.info("Transferred " + transferred.size() + " components of user:" + previousOwner.getId()
+                + " to user:" + owner.getId());
+        return transferred.size();
+    }
+
+    /**
+     * Republishes every page and attachment that embeds the collaborator, as owner or grantee, so later versions and
+     * the bodies cached under them show its current name or members. Must be called within a write.
+     */
+    public void republish(final Collaborator collaborator) {
+        final Set<String> componentKeys = new TreeSet<>(aclIndexService.getGrants(collaborator).keySet());
+        if (collaborator instanceof User) {
+            componentKeys.addAll(aclIndexService.getOwnedComponents((User) collaborator));
+        }
+        for (String componentKey : componentKeys) {
+            final Component component = findComponent(componentKey);
+            if (component != null) {
+                persist(component);
+            }
+        }
+    }
+
+    private Component findComponent(final String componentKey) {
+        return findComponent(ComponentType.idOfKey(componentKey), ComponentType.ofKey(componentKey) == ComponentType.PAGE);
+    }
+
+    private Component findComponent(final String componentId, final boolean isPage) {
+        if (componentId == null) {
+            return null;
+        }
+        if (isPage) {
+            return pageService.read(componentId);
+        }
+        try {
+            return attachmentService.read(componentId);
+        } catch (AttachmentNotFoundException e) {
+            return null;
+        }
+    }
+
+    /*
+    Turns an inherited grant into an explicit one, so it no longer follows changes on the parent page
+     */
+    void detachFromParent(final Component component, final Collaborator collaborator) {
+        final String parentPageID;
+        if (component instanceof Page) {
+            parentPageID = ((Page) component).getParentPageID();
+        } else {
+            parentPageID = ((Attachment) component).getPageID();
+        }
+        final Page parentPage = parentPageID == null ? null : pageService.read(parentPageID);
+        if (parentPage != null && parentPage.getInheritors(collaborator).contains(component.getComponentKey())) {
+            parentPage.removeInheritor(collaborator, component.getComponentKey());
+            pageService.save(parentPage);
+        }
+    }
+
+    /*
+    Publishes and stores a component whose grants changed
+     */
+    void persist(final Component component) {
+        versionService.touch(component);
+        if (component instanceof Page) {
+            pageService.save((Page) component);
+        } else {
+            attachmentService.save((Attachment) component);
+        }
+    }
+
+    private Action parseAction(final String action) {
+        try {
+            return action == null ? null : Action.valueOf(action);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private Component resolveComponent(final String componentId, final boolean isPage) {
+        if (isPage) {
+            return pageService.read(componentId);
+        } else {
+            return attachmentService.read(componentId);
+        }
     }
 
-    public void assignAccess(final Component component, final AccessType accessType, final Collaborator collaborator) {
-        final Map<AccessType, List<Collaborator>> accessMap = component.getAccessMap();
-        if (accessMap.containsKey(accessType)) {
-            accessMap.get(accessType).add(collaborator);
+    private Collaborator resolveCollaborator(final String collaboratorId, final boolean isIndividualUser) {
+        if (isIndividualUser) {
+            return userService.read(collaboratorId);
         } else {
-            List<Collaborator> list = new ArrayList<>();
-            list.add(collaborator);
-            accessMap.put(accessType, list);
+            return teamService.read(collaboratorId);
         }
     }
 }
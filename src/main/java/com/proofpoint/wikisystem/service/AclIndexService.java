@@ -0,0 +1,250 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.model.AccessType;
+import com.proofpoint.wikisystem.model.Collaborator;
+import com.proofpoint.wikisystem.model.Component;
+import com.proofpoint.wikisystem.model.ComponentType;
+import com.proofpoint.wikisystem.model.User;
+import com.proofpoint.wikisystem.payload.AccessibleComponentDto;
+import com.proofpoint.wikisystem.payload.AccessibleComponentsDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Predicate;
+
+/**
+ * Reverse of the per-component access maps: for each collaborator the components it holds a grant on, and for each
+ * user the components it owns. Entries are kept sorted by component key so listings can be paginated with a cursor
+ * without materializing everything a collaborator can reach.
+ */
+@Service
+@Slf4j
+@Scope("singleton")
+public class AclIndexService {
+
+    public static final String VIA_OWNER = "owner";
+
+    private final Map<Collaborator, NavigableMap<String, AccessType>> grantsByCollaborator = new ConcurrentHashMap<>();
+    private final Map<User, NavigableSet<String>> componentsByOwner = new ConcurrentHashMap<>();
+
+    /*
+    Expiry of each expiring grant by collaborator and component key, so listings skip grants that expired but were not
+    removed yet
+     */
+    private final Map<Collaborator, Map<String, Long>> expiriesByCollaborator = new ConcurrentHashMap<>();
+
+    /**
+     * Indexes the grant with the expiry the component currently holds for it
+     */
+    public void indexGrant(final Component component, final Collaborator collaborator, final AccessType accessType) {
+        if (collaborator != null) {
+            grantsByCollaborator
+                    .computeIfAbsent(collaborator, key -> new ConcurrentSkipListMap<>())
+                    .put(component.getComponentKey(), accessType);
+            final Long expiresAt = component.getExpiry(collaborator);
+            if (expiresAt == null) {
+                unindexExpiry(component, collaborator);
+            } else {
+                expiriesByCollaborator
+                        .computeIfAbsent(collaborator, key -> new ConcurrentHashMap<>())
+                        .put(component.getComponentKey(), expiresAt);
+            }
+        }
+    }
+
+    public void unindexGrant(final Component component, final Collaborator collaborator) {
+        if (collaborator != null) {
+            grantsByCollaborator.computeIfPresent(collaborator, (key, grants) -> {
+                grants.remove(component.getComponentKey());
+                return grants.isEmpty() ? null : grants;
+            });
+            unindexExpiry(component, collaborator);
+        }
+    }
+
+    public void indexComponent(final Component component) {
+        for (Map.Entry<Collaborator, AccessType> grant : component.getGrants().entrySet()) {
+            indexGrant(component, grant.getKey(), grant.getValue());
+        }
+        changeOwner(component, null, component.getOwner());
+    }
+
+    public void unindexComponent(final Component component) {
+        for (Collaborator collaborator : component.getGrants().keySet()) {
+            unindexGrant(component, collaborator);
+        }
+        changeOwner(component, component.getOwner(), null);
+    }
+
+    public void changeOwner(final Component component, final User previousOwner, final User owner) {
+        if (previousOwner != null) {
+            componentsByOwner.computeIfPresent(previousOwner, (key, owned) -> {
+                owned.remove(component.getComponentKey());
+                return owned.isEmpty() ? null : owned;
+            });
+        }
+        if (owner != null) {
+            componentsByOwner
+                    .computeIfAbsent(owner, key -> new ConcurrentSkipListSet<>())
+                    .add(component.getComponentKey());
+        }
+    }
+
+    /**
+     * @return component key to access type for every grant the collaborator holds directly
+     */
+    public NavigableMap<String, AccessType> getGrants(final Collaborator collaborator) {
+        final NavigableMap<String, AccessType> grants = grantsByCollaborator.get(collaborator);
+        return grants == null ? Collections.emptyNavigableMap() : Collections.unmodifiableNavigableMap(grants);
+    }
+
+    public NavigableSet<String> getOwnedComponents(final User owner) {
+        final NavigableSet<String> owned = componentsByOwner.get(owner);
+        return owned == null ? Collections.emptyNavigableSet() : Collections.unmodifiableNavigableSet(owned);
+    }
+
+    public void removeCollaborator(final Collaborator collaborator) {
+        grantsByCollaborator.remove(collaborator);
+        expiriesByCollaborator.remove(collaborator);
+    }
+
+    /**
+     * Lists the components reachable by the collaborator, through its own grants, the grants of the given teams and,
+     * for users, ownership. Sources are merged in key order, so a page costs O(limit * sources) regardless of how many
+     * grants the collaborator holds in total. Grants past their expiry are skipped, like {@link Component#permits}
+     * does, even before the expiry sweep removes them.
+     */
+    public AccessibleComponentsDto listAccessible(final Collaborator collaborator, final Collection<? extends Collaborator> teams,
+                                                  final List<AccessType> allowedAccessTypes, final String cursor,
+                                                  final int limit) {
+        final long now = System.currentTimeMillis();
+        final PriorityQueue<Source> sources = new PriorityQueue<>();
+        addSource(sources, grantsIterator(collaborator, cursor), unexpired(collaborator, now), collaborator.getId());
+        for (Collaborator team : teams) {
+            addSource(sources, grantsIterator(team, cursor), unexpired(team, now), team.getId());
+        }
+        if (collaborator instanceof User) {
+            addSource(sources, ownedIterator((User) collaborator, cursor), key -> true, VIA_OWNER);
+        }
+
+        final List<AccessibleComponentDto> components = new ArrayList<>();
+        String lastKey = null;
+        while (!sources.isEmpty() && components.size() < limit) {
+            final String key = sources.peek().key;
+            AccessType best = null;
+            String via = null;
+            while (!sources.isEmpty() && sources.peek().key.equals(key)) {
+                final Source source = sources.poll();
+                if (allowedAccessTypes.contains(source.accessType) && (best == null || source.accessType.compareTo(best) < 0)) {
+                    best = source.accessType;
+                    via = source.via;
+                }
+                if (source.advance()) {
+                    sources.add(source);
+                }
+            }
+            if (best != null) {
+                components.add(new AccessibleComponentDto(ComponentType.ofKey(key), ComponentType.idOfKey(key), best, via));
+            }
+            lastKey = key;
+        }
+
+        return new AccessibleComponentsDto(components, sources.isEmpty() ? null : lastKey, false);
+    }
+
+    private void unindexExpiry(final Component component, final Collaborator collaborator) {
+        expiriesByCollaborator.computeIfPresent(collaborator, (key, expiries) -> {
+            expiries.remove(component.getComponentKey());
+            return expiries.isEmpty() ? null : expiries;
+        });
+    }
+
+    /*
+    Component keys on which the collaborator's grant has not expired at now
+     */
+    private Predicate<String> unexpired(final Collaborator collaborator, final long now) {
+        final Map<String, Long> expiries = expiriesByCollaborator.get(collaborator);
+        if (expiries == null) {
+            return key -> true;
+        }
+        return key -> {
+            final Long expiresAt = expiries.get(key);
+            return expiresAt == null || expiresAt > now;
+        };
+    }
+
+    private Iterator<Map.Entry<String, AccessType>> grantsIterator(final Collaborator collaborator, final String cursor) {
+        final NavigableMap<String, AccessType> grants = getGrants(collaborator);
+        return (cursor == null ? grants : grants.tailMap(cursor, false)).entrySet().iterator();
+    }
+
+    private Iterator<Map.Entry<String, AccessType>> ownedIterator(final User owner, final String cursor) {
+        final NavigableSet<String> owned = getOwnedComponents(owner);
+        final Iterator<String> keys = (cursor == null ? owned : owned.tailSet(cursor, false)).iterator();
+        return new Iterator<Map.Entry<String, AccessType>>() {
+            @Override
+            public boolean hasNext() {
+                return keys.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, AccessType> next() {
+                return new AbstractMap.SimpleImmutableEntry<>(keys.next(), AccessType.READ_WRITE);
+            }
+        };
+    }
+
+    private void addSource(final PriorityQueue<Source> sources, final Iterator<Map.Entry<String, AccessType>> iterator,
+                           final Predicate<String> live, final String via) {
+        final Source source = new Source(iterator, live, via);
+        if (source.advance()) {
+            sources.add(source);
+        }
+    }
+
+    private static final class Source implements Comparable<Source> {
+        private final Iterator<Map.Entry<String, AccessType>> iterator;
+        private final Predicate<String> live;
+        private final String via;
+        private String key;
+        private AccessType accessType;
+
+        private Source(final Iterator<Map.Entry<String, AccessType>> iterator, final Predicate<String> live,
+                       final String via) {
+            this.iterator = iterator;
+            this.live = live;
+            this.via = via;
+        }
+
+        private boolean advance() {
+            while (iterator.hasNext()) {
+                final Map.Entry<String, AccessType> entry = iterator.next();
+                if (live.test(entry.getKey())) {
+                    key = entry.getKey();
+                    accessType = entry.getValue();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int compareTo(final Source other) {
+            return key.compareTo(other.key);
+        }
+    }
+}
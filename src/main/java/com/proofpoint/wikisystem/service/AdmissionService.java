@@ -0,0 +1,224 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.model.RequestClass;
+import com.proofpoint.wikisystem.model.Team;
+import com.proofpoint.wikisystem.model.User;
+import com.proofpoint.wikisystem.payload.AdmissionStatusDto;
+import com.proofpoint.wikisystem.util.ConcurrencyLimiter;
+import com.proofpoint.wikisystem.util.TokenBucket;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether a request may run before it reaches a controller. Every requester, and every team acting as a
+ * requester, has its own token bucket per request class, so one busy script only exhausts its own budget. A user's
+ * requests are charged to the teams they belong to as well, so a team's budget caps its members together. On top of
+ * that a global concurrency limit, adapted to latency, refuses work once the instance slows down. Buckets that have
+ * refilled are dropped by a periodic sweep; a refilled bucket is the same as a new one.
+ */
+@Service
+@Slf4j
+@Scope("singleton")
+public class AdmissionService {
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private TeamService teamService;
+
+    @Value("${wikisystem.admission.enabled:true}")
+    private boolean enabled;
+
+    @Value("${wikisystem.admission.read-rate:50}")
+    private double readRate;
+
+    @Value("${wikisystem.admission.read-burst:100}")
+    private int readBurst;
+
+    @Value("${wikisystem.admission.write-rate:10}")
+    private double writeRate;
+
+    @Value("${wikisystem.admission.write-burst:20}")
+    private int writeBurst;
+
+    @Value("${wikisystem.admission.bulk-rate:2}")
+    private double bulkRate;
+
+    @Value("${wikisystem.admission.bulk-burst:5}")
+    private int bulkBurst;
+
+    /*
+    Teams act for many people, so their budgets are this many times a user's
+     */
+    @Value("${wikisystem.admission.team-multiplier:5}")
+    private int teamMultiplier;
+
+    @Value("${wikisystem.admission.concurrency.min:8}")
+    private int minConcurrency;
+
+    @Value("${wikisystem.admission.concurrency.max:256}")
+    private int maxConcurrency;
+
+    @Value("${wikisystem.admission.concurrency.initial:64}")
+    private int initialConcurrency;
+
+    @Value("${wikisystem.admission.concurrency.target-latency-ms:250}")
+    private long targetLatencyMs;
+
+    @Value("${wikisystem.admission.eviction-interval-ms:60000}")
+    private long evictionIntervalMs;
+
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final Map<RequestClass, double[]> budgets = new EnumMap<>(RequestClass.class);
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    private ConcurrencyLimiter concurrencyLimiter;
+    private ScheduledExecutorService sweeper;
+
+    @PostConstruct
+    public void init() {
+        budgets.put(RequestClass.READ, new double[]{readRate, readBurst});
+        budgets.put(RequestClass.WRITE, new double[]{writeRate, writeBurst});
+        budgets.put(RequestClass.BULK, new double[]{bulkRate, bulkBurst});
+        concurrencyLimiter = new ConcurrencyLimiter(minConcurrency, maxConcurrency, initialConcurrency,
+                TimeUnit.MILLISECONDS.toNanos(targetLatencyMs), TimeUnit.MILLISECONDS.toNanos(targetLatencyMs));
+        if (enabled) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "admission-bucket-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            sweeper.scheduleWithFixedDelay(this::evictIdleBuckets, evictionIntervalMs, evictionIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Charges one request to the requester's budget for the request class and, for a user, to the budget of every
+     * team they belong to directly or through nested teams. A request refused by any of them is charged to none.
+     *
+     * @param requesterId user or team id, or any other stable key for anonymous callers
+     * @return 0 if the request may run, otherwise nanoseconds until the requester may try again
+     */
+    public long admit(final String requesterId, final boolean isTeam, final RequestClass requestClass) {
+        final long now = System.nanoTime();
+        final List<TokenBucket> charged = new ArrayList<>();
+        long wait = charge(bucket(requesterId, isTeam, requestClass, now), now, charged);
+        if (wait == 0 && !isTeam) {
+            for (Team team : teamsOf(requesterId)) {
+                wait = charge(bucket(team.getId(), true, requestClass, now), now, charged);
+                if (wait > 0) {
+                    break;
+                }
+            }
+        }
+        if (wait > 0) {
+            for (TokenBucket bucket : charged) {
+                bucket.refund();
+            }
+            rateLimited.incrementAndGet();
+        } else {
+            admitted.incrementAndGet();
+        }
+        return wait;
+    }
+
+    /**
+     * @return true if the request may start, in which case {@link #exit(long)} must be called when it ends
+     */
+    public boolean tryEnter() {
+        return concurrencyLimiter.tryAcquire();
+    }
+
+    public void exit(final long startNanos) {
+        final long now = System.nanoTime();
+        concurrencyLimiter.release(now - startNanos, now);
+    }
+
+    public AdmissionStatusDto getStatus() {
+        final AdmissionStatusDto status = new AdmissionStatusDto();
+        status.setEnabled(enabled);
+        status.setBuckets(buckets.size());
+        status.setConcurrencyLimit(concurrencyLimiter.getLimit());
+        status.setInFlight(concurrencyLimiter.getInFlight());
+        status.setAdmitted(admitted.get());
+        status.setRateLimited(rateLimited.get());
+        status.setShed(concurrencyLimiter.getRejected());
+        status.setEvictedBuckets(evicted.get());
+        return status;
+    }
+
+    private TokenBucket bucket(final String requesterId, final boolean isTeam, final RequestClass requestClass,
+                               final long now) {
+        final String key = (isTeam ? "team:" : "user:") + requesterId + ':' + requestClass;
+        final TokenBucket bucket = buckets.get(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        final double[] budget = budgets.get(requestClass);
+        final int multiplier = isTeam ? teamMultiplier : 1;
+        return buckets.computeIfAbsent(key,
+                ignored -> new TokenBucket(budget[0] * multiplier, (int) budget[1] * multiplier, now));
+    }
+
+    private long charge(final TokenBucket bucket, final long now, final List<TokenBucket> charged) {
+        final long wait = bucket.tryAcquire(now);
+        if (wait == 0) {
+            charged.add(bucket);
+        }
+        return wait;
+    }
+
+    /*
+    Anonymous callers and unknown ids belong to no team
+     */
+    private Set<Team> teamsOf(final String userId) {
+        final User user = userService.read(userId);
+        return user == null ? Collections.emptySet() : teamService.getEffectiveTeams(user);
+    }
+
+    /*
+    A bucket taken from between the check and the removal only forgives that one token
+     */
+    void evictIdleBuckets() {
+        final long now = System.nanoTime();
+        final int before = buckets.size();
+        buckets.values().removeIf(bucket -> bucket.isFull(now));
+        final int removed = before - buckets.size();
+        if (removed > 0) {
+            evicted.addAndGet(removed);
+            log.info("Evicted " + removed + " idle admission buckets");
+        }
+    }
+}
@@ -0,0 +1,528 @@
+package com.proofpoint.wikisystem.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.proofpoint.wikisystem.model.Attachment;
+import com.proofpoint.wikisystem.model.Collaborator;
+import com.proofpoint.wikisystem.model.EventType;
+import com.proofpoint.wikisystem.model.Page;
+import com.proofpoint.wikisystem.payload.ArchiveSummaryDto;
+import com.proofpoint.wikisystem.payload.ReplicationRecordDto;
+import com.proofpoint.wikisystem.util.GzipBlocks;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+
+/**
+ * Streams the whole wiki to and from a compressed archive: every user, team with its members and subteams, page,
+ * attachment, grant, expiry and inheritance edge, as replication records in newline-delimited JSON. The archive is a
+ * series of gzip blocks ({@link GzipBlocks}), so gunzip reads it as one stream while export and import work on
+ * blocks in parallel. Users and teams come first, then page trees spread over partitions by root page.
+ * <p>
+ * Export reads pages and attachments from one pinned snapshot, so it never waits for writers and never holds half of
+ * a write. Partitions are serialized and compressed in parallel, each writing pages parent first with a page's
+ * attachments right after it. Inheritance edges are not part of the published versions; they are copied from the live
+ * pages a small batch at a time under the write lock, so an inheritance change made while the export runs may show
+ * in the edges but not in the grants.
+ * <p>
+ * Import applies users and teams in archive order, then hands all blocks of a partition to the same worker, so
+ * partitions load in parallel and each keeps its parent-before-child order. Only a few blocks per thread are in
+ * memory on either side, whatever the size of the wiki. Imported entities replace those with the same id, everything
+ * else is kept.
+ */
+@Service
+@Slf4j
+@Scope("singleton")
+public class ArchiveService {
+
+    private static final int COLLABORATOR_PARTITION = -1;
+    private static final int PARTITIONS_PER_THREAD = 4;
+    private static final int BLOCKS_IN_FLIGHT_PER_THREAD = 2;
+    /*
+    Pages whose inheritance edges are copied under one acquisition of the write lock
+     */
+    private static final int EDGE_BATCH = 256;
+
+    @Autowired
+    private ReplicationRecordService replicationRecordService;
+
+    @Autowired
+    private PageService pageService;
+
+    @Autowired
+    private AttachmentService attachmentService;
+
+    @Autowired
+    private GrantExpiryService grantExpiryService;
+
+    @Autowired
+    private ChangeEventService changeEventService;
+
+    @Autowired
+    private VersionService versionService;
+
+    /*
+    0 for one thread per core
+     */
+    @Value("${wikisystem.archive.parallelism:0}")
+    private int parallelism;
+
+    /*
+    Uncompressed size at which a block is closed, a single larger record gets a block of its own
+     */
+    @Value("${wikisystem.archive.block-bytes:262144}")
+    private int blockBytes;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Writes the archive to out. Does not close it.
+     */
+    public ArchiveSummaryDto export(final OutputStream out) throws IOException {
+        final long start = System.currentTimeMillis();
+        final Counts counts = new Counts();
+        final int threads = threads();
+        // Users and teams are copied in the write that pins the pages, so every owner and grantee they name is exported
+        final List<ReplicationRecordDto> collaboratorRecords;
+        final VersionService.Snapshot pinned;
+        versionService.begin();
+        try {
+            collaboratorRecords = replicationRecordService.collaboratorRecords();
+            pinned = versionService.pin();
+        } finally {
+            versionService.commit();
+        }
+        try (VersionService.Snapshot snapshot = pinned) {
+            final BlockBuilder collaborators = new BlockBuilder(COLLABORATOR_PARTITION, block -> {
+                out.write(block);
+                counts.written(block);
+            });
+            try {
+                for (ReplicationRecordDto record : collaboratorRecords) {
+                    collaborators.add(record);
+                    counts.count(record);
+                }
+                collaborators.flush();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Export interrupted", e);
+            } finally {
+                collaborators.close();
+            }
+
+            final List<List<Page>> partitions = partition(versionService.listPages(snapshot), threads * PARTITIONS_PER_THREAD);
+            final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(threads * BLOCKS_IN_FLIGHT_PER_THREAD);
+            final ExecutorService pool = Executors.newFixedThreadPool(threads, daemonThreads("archive-export"));
+            try {
+                final List<Future<?>> tasks = new ArrayList<>();
+                for (int i = 0; i < partitions.size(); i++) {
+                    final int partition = i;
+                    tasks.add(pool.submit(() -> {
+                        exportPartition(snapshot, partition, partitions.get(partition), blocks, counts);
+                        return null;
+                    }));
+                }
+                // Attachments that do not belong to a page
+                tasks.add(pool.submit(() -> {
+                    exportAttachments(partitions.size(), versionService.listAttachments(snapshot, null), blocks, counts);
+                    return null;
+                }));
+                pool.shutdown();
+
+                while (true) {
+                    final byte[] block = blocks.poll(100, TimeUnit.MILLISECONDS);
+                    if (block != null) {
+                        out.write(block);
+                        counts.written(block);
+                    } else if (pool.isTerminated() && blocks.isEmpty()) {
+                        break;
+                    }
+                }
+                for (Future<?> task : tasks) {
+                    task.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Export interrupted", e);
+            } catch (ExecutionException e) {
+                throw asIOException(e.getCause());
+            } finally {
+                // Stops the partitions still running if writing failed, e.g. because the client went away
+                pool.shutdownNow();
+            }
+        }
+        out.flush();
+        final ArchiveSummaryDto output = counts.toDto(start);
+        log.info("Exported " + output.getPages() + " pages and " + output.getAttachments() + " attachments in "
+                + output.getBlocks() + " blocks, " + output.getBytes() + " bytes");
+        return output;
+    }
+
+    /**
+     * Reads an archive from in and installs everything in it
+     */
+    public ArchiveSummaryDto importArchive(final InputStream in) throws IOException {
+        final long start = System.currentTimeMillis();
+        final Counts counts = new Counts();
+        final int threads = threads();
+        final ExecutorService[] workers = new ExecutorService[threads];
+        final Semaphore[] inFlight = new Semaphore[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = Executors.newSingleThreadExecutor(daemonThreads("archive-import-" + i));
+            inFlight[i] = new Semaphore(BLOCKS_IN_FLIGHT_PER_THREAD);
+        }
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        boolean componentsStarted = false;
+        try {
+            for (GzipBlocks.Block block = GzipBlocks.readBlock(in); block != null && failure.get() == null;
+                 block = GzipBlocks.readBlock(in)) {
+                counts.read(block);
+                if (block.getPartition() == COLLABORATOR_PARTITION) {
+                    if (componentsStarted) {
+                        throw new IOException("Corrupt wiki archive: users and teams after pages");
+                    }
+                    applyBlock(block, counts);
+                    continue;
+                }
+                componentsStarted = true;
+                final int worker = Math.floorMod(block.getPartition(), threads);
+                inFlight[worker].acquire();
+                final GzipBlocks.Block current = block;
+                workers[worker].execute(() -> {
+                    try {
+                        if (failure.get() == null) {
+                            applyBlock(current, counts);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        inFlight[worker].release();
+                    }
+                });
+            }
+            for (ExecutorService worker : workers) {
+                worker.shutdown();
+            }
+            for (ExecutorService worker : workers) {
+                worker.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        } finally {
+            for (ExecutorService worker : workers) {
+                worker.shutdownNow();
+            }
+        }
+        if (failure.get() != null) {
+            throw asIOException(failure.get());
+        }
+        final ArchiveSummaryDto output = counts.toDto(start);
+        log.info("Imported " + output.getUsers() + " users, " + output.getTeams() + " teams, " + output.getPages()
+                + " pages and " + output.getAttachments() + " attachments in " + output.getMillis() + " ms");
+        return output;
+    }
+
+    private void exportPartition(final VersionService.Snapshot snapshot, final int partition, final List<Page> pages,
+                                 final BlockingQueue<byte[]> blocks, final Counts counts)
+            throws IOException, InterruptedException {
+        final BlockBuilder builder = new BlockBuilder(partition, blocks::put);
+        try {
+            final List<Page> ordered = parentsFirst(pages);
+            for (int from = 0; from < ordered.size(); from += EDGE_BATCH) {
+                final List<Page> batch = ordered.subList(from, Math.min(from + EDGE_BATCH, ordered.size()));
+                final List<Map<Collaborator, Set<String>>> edges = inheritorEdges(batch);
+                for (int i = 0; i < batch.size(); i++) {
+                    final Page page = batch.get(i);
+                    final ReplicationRecordDto record = replicationRecordService.pageRecord(page, edges.get(i));
+                    builder.add(record);
+                    counts.count(record);
+                    for (Attachment attachment : versionService.listAttachments(snapshot, page.getPageID())) {
+                        final ReplicationRecordDto attachmentRecord = replicationRecordService.attachmentRecord(attachment);
+                        builder.add(attachmentRecord);
+                        counts.count(attachmentRecord);
+                    }
+                }
+            }
+            builder.flush();
+        } finally {
+            builder.close();
+        }
+    }
+
+    private void exportAttachments(final int partition, final List<Attachment> attachments,
+                                   final BlockingQueue<byte[]> blocks, final Counts counts)
+            throws IOException, InterruptedException {
+        final BlockBuilder builder = new BlockBuilder(partition, blocks::put);
+        try {
+            for (Attachment attachment : attachments) {
+                final ReplicationRecordDto record = replicationRecordService.attachmentRecord(attachment);
+                builder.add(record);
+                counts.count(record);
+            }
+            builder.flush();
+        } finally {
+            builder.close();
+        }
+    }
+
+    /*
+    Copies of the live inheritance edges of the pages. Pages deleted since the snapshot have none.
+     */
+    private List<Map<Collaborator, Set<String>>> inheritorEdges(final List<Page> pages) {
+        final List<Map<Collaborator, Set<String>>> output = new ArrayList<>(pages.size());
+        versionService.begin();
+        try {
+            for (Page page : pages) {
+                final Page live = pageService.read(page.getPageID());
+                if (live == null || live.getInheritorEdges().isEmpty()) {
+                    output.add(Collections.emptyMap());
+                    continue;
+                }
+                final Map<Collaborator, Set<String>> edges = new HashMap<>();
+                for (Map.Entry<Collaborator, Set<String>> entry : live.getInheritorEdges().entrySet()) {
+                    edges.put(entry.getKey(), new HashSet<>(entry.getValue()));
+                }
+                output.add(edges);
+            }
+        } finally {
+            versionService.commit();
+        }
+        return output;
+    }
+
+    /*
+    Whole page trees per partition, by root page
+     */
+    private static List<List<Page>> partition(final List<Page> pages, final int partitions) {
+        final List<List<Page>> output = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            output.add(new ArrayList<>());
+        }
+        for (Page page : pages) {
+            output.get(Math.floorMod(page.getRootPageID().hashCode(), partitions)).add(page);
+        }
+        return output;
+    }
+
+    /*
+    Breadth first from the pages whose parent is not in the list
+     */
+    private static List<Page> parentsFirst(final List<Page> pages) {
+        final Set<String> pageIDs = new HashSet<>();
+        for (Page page : pages) {
+            pageIDs.add(page.getPageID());
+        }
+        final Map<String, List<Page>> children = new HashMap<>();
+        final List<Page> ordered = new ArrayList<>(pages.size());
+        for (Page page : pages) {
+            if (page.getParentPageID() != null && pageIDs.contains(page.getParentPageID())) {
+                children.computeIfAbsent(page.getParentPageID(), key -> new ArrayList<>()).add(page);
+            } else {
+                ordered.add(page);
+            }
+        }
+        for (int i = 0; i < ordered.size(); i++) {
+            final List<Page> next = children.remove(ordered.get(i).getPageID());
+            if (next != null) {
+                ordered.addAll(next);
+            }
+        }
+        // Only a parent cycle leaves pages unreached, export them anyway
+        for (List<Page> unreached : children.values()) {
+            ordered.addAll(unreached);
+        }
+        return ordered;
+    }
+
+    private void applyBlock(final GzipBlocks.Block block, final Counts counts) throws IOException {
+        final byte[] data = block.inflate();
+        final List<ReplicationRecordDto> records = new ArrayList<>();
+        int lineStart = 0;
+        for (int i = 0; i <= data.length; i++) {
+            if (i == data.length || data[i] == '\n') {
+                if (i > lineStart) {
+                    records.add(mapper.readValue(data, lineStart, i - lineStart, ReplicationRecordDto.class));
+                }
+                lineStart = i + 1;
+            }
+        }
+
+        versionService.begin();
+        try {
+            for (ReplicationRecordDto record : records) {
+                replicationRecordService.apply(record);
+                if (!record.isDeleted() && (record.getUserGrantExpiries() != null || record.getTeamGrantExpiries() != null)) {
+                    switch (record.getType()) {
+                        case PAGE:
+                            grantExpiryService.scheduleAll(pageService.read(record.getId()));
+                            break;
+                        case ATTACHMENT:
+                            grantExpiryService.scheduleAll(attachmentService.read(record.getId()));
+                            break;
+                        default:
+                            break;
+                    }
+                }
+                counts.count(record);
+            }
+        } finally {
+            versionService.commit();
+        }
+        // Followers and other subscribers pick the imported state up like any other change
+        for (ReplicationRecordDto record : records) {
+            final EventType type = eventTypeOf(record);
+            if (type != null) {
+                changeEventService.publish(type, record.getId(), null);
+            }
+        }
+    }
+
+    private static EventType eventTypeOf(final ReplicationRecordDto record) {
+        switch (record.getType()) {
+            case USER:
+                return record.isDeleted() ? EventType.USER_DELETED : EventType.USER_UPDATED;
+            case TEAM:
+                return record.isDeleted() ? EventType.TEAM_DELETED : EventType.TEAM_UPDATED;
+            case PAGE:
+                return record.isDeleted() ? EventType.PAGE_DELETED : EventType.PAGE_UPDATED;
+            case ATTACHMENT:
+                return record.isDeleted() ? EventType.ATTACHMENT_DELETED : EventType.ATTACHMENT_UPDATED;
+            default:
+                return null;
+        }
+    }
+
+    private int threads() {
+        return parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static IOException asIOException(final Throwable cause) {
+        return cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+    }
+
+    private interface BlockSink {
+        void accept(byte[] block) throws IOException, InterruptedException;
+    }
+
+    /*
+    Collects the records of one partition into blocks of about blockBytes
+     */
+    private final class BlockBuilder {
+        private final int partition;
+        private final BlockSink sink;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+        private BlockBuilder(final int partition, final BlockSink sink) {
+            this.partition = partition;
+            this.sink = sink;
+        }
+
+        private void add(final ReplicationRecordDto record) throws IOException, InterruptedException {
+            buffer.write(mapper.writeValueAsBytes(record));
+            buffer.write('\n');
+            if (buffer.size() >= blockBytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException, InterruptedException {
+            if (buffer.size() == 0) {
+                return;
+            }
+            final byte[] block = GzipBlocks.compress(buffer.toByteArray(), buffer.size(), partition, deflater);
+            buffer.reset();
+            sink.accept(block);
+        }
+
+        private void close() {
+            deflater.end();
+        }
+    }
+
+    private static final class Counts {
+        private final AtomicLong users = new AtomicLong();
+        private final AtomicLong teams = new AtomicLong();
+        private final AtomicLong pages = new AtomicLong();
+        private final AtomicLong attachments = new AtomicLong();
+        private final AtomicLong blocks = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        private void count(final ReplicationRecordDto record) {
+            switch (record.getType()) {
+                case USER:
+                    users.incrementAndGet();
+                    break;
+                case TEAM:
+                    teams.incrementAndGet();
+                    break;
+                case PAGE:
+                    pages.incrementAndGet();
+                    break;
+                case ATTACHMENT:
+                    attachments.incrementAndGet();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void written(final byte[] block) {
+            blocks.incrementAndGet();
+            bytes.addAndGet(block.length);
+        }
+
+        private void read(final GzipBlocks.Block block) {
+            blocks.incrementAndGet();
+            bytes.addAndGet(block.getCompressedSize());
+        }
+
+        private ArchiveSummaryDto toDto(final long start) {
+            final ArchiveSummaryDto output = new ArchiveSummaryDto();
+            output.setUsers(users.get());
+            output.setTeams(teams.get());
+            output.setPages(pages.get());
+            output.setAttachments(attachments.get());
+            output.setBlocks(blocks.get());
+            output.setBytes(bytes.get());
+            output.setMillis(System.currentTimeMillis() - start);
+            return output;
+        }
+    }
+}
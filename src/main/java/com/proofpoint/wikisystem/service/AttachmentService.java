@@ -3,24 +3,34 @@ package com.proofpoint.wikisystem.service;
 import com.proofpoint.wikisystem.exceptions.AccessDeniedException;
 import com.proofpoint.wikisystem.exceptions.AttachmentNotFoundException;
 import com.proofpoint.wikisystem.model.*;
+import com.proofpoint.wikisystem.payload.AttachmentSummaryDto;
 import com.proofpoint.wikisystem.payload.UpdateComponentDto;
+import com.proofpoint.wikisystem.repository.AttachmentRepository;
 import com.proofpoint.wikisystem.util.Action;
+import com.proofpoint.wikisystem.util.PrefixTrie;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Service;
 
-import java.util.HashMap;
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 
-import static com.proofpoint.wikisystem.util.Constants.authorizedActionsMap;
-
+/**
+ * Attachments are stored per owning page, keyed by (pageID, filename), so each page has its own namespace and
+ * per-page listing or cleanup only touches that page's attachments. Attachments created without a page live in a
+ * shared namespace.
+ */
 @Service
 @Slf4j
 @Scope("singleton")
 public class AttachmentService {
-    private Map<String, Attachment> attachments = new HashMap<>();
+    @Autowired
+    private AttachmentRepository attachmentRepository;
 
     @Autowired
     private AccessService accessService;
@@ -31,16 +41,90 @@ public class AttachmentService {
     @Autowired
     private TeamService teamService;
 
+    @Autowired
+    private PageService pageService;
+
+    @Autowired
+    private ChangeEventService changeEventService;
+
+    @Autowired
+    private AclIndexService aclIndexService;
+
+    @Autowired
+    private VersionService versionService;
+
+    @Autowired
+    private AuditService auditService;
+
+    @Autowired
+    private HotKeyService hotKeyService;
+
+    /*
+    Filename to the component ids of every attachment with that name, for completion and misspelt links
+     */
+    private final PrefixTrie<String> filenames = new PrefixTrie<>();
+
+    /**
+     * Rebuilds the ACL index and the published versions of the attachments loaded from storage
+     */
+    @PostConstruct
+    public void restore() {
+        final Collection<Attachment> stored = attachmentRepository.findAll();
+        if (stored.isEmpty()) {
+            return;
+        }
+        versionService.begin();
+        try {
+            for (Attachment component : stored) {
+                aclIndexService.indexComponent(component);
+                versionService.touch(component);
+                filenames.add(component.getFilename(), component.getComponentId());
+            }
+        } finally {
+            versionService.commit();
+        }
+        log.info("Restored " + stored.size() + " attachments from storage");
+    }
+
     public void create(final String filename, final String contents, final User owner, final Map<String, String> accessMap)
             throws Exception {
+        create(null, filename, contents, owner, accessMap, false);
+    }
+
+    /**
+     * @param inheritAccess when no access map is given, copy the owning page's grants and give its owner READ_WRITE
+     */
+    public void create(final String pageID, final String filename, final String contents, final User owner,
+                       final Map<String, String> accessMap, final boolean inheritAccess) throws Exception {
+        versionService.begin();
+        try {
+            createAttachment(pageID, filename, contents, owner, accessMap, inheritAccess);
+        } finally {
+            versionService.commit();
+        }
+    }
+
+    private void createAttachment(final String pageID, final String filename, final String contents, final User owner,
+                                  final Map<String, String> accessMap, final boolean inheritAccess) throws Exception {
+        Page page = null;
+        if (pageID != null) {
+            page = pageService.read(pageID);
+            if (page == null) {
+                throw new Exception("Given page does not exist");
+            }
+        }
+
         final Attachment attachment = Attachment
                     .Builder
                     .newInstance()
+                    .withPageID(pageID)
                     .withFilename(filename)
                     .withContents(contents)
                     .withOwner(owner)
                     .build();
 
+        // Grants given while creating are recorded as made by the owner creating the component
+        final String requesterId = owner == null ? null : owner.getId();
         if (accessMap != null) {
             log.info("Assigning access rights to component");
             for (String collaboratorId : accessMap.keySet()) {
@@ -53,16 +137,44 @@ public class AttachmentService {
                         throw new Exception("Given user in access map does not exist");
                     }
                 }
-                accessService.assignAccess(attachment, AccessType.valueOf(accessMap.get(collaboratorId)), collaborator);
+                accessService.assignAccess(attachment, AccessType.valueOf(accessMap.get(collaboratorId)), collaborator,
+                        null, requesterId);
             }
+        } else if (inheritAccess && page != null) {
+            log.info("Inheriting access from owning page");
+            inheritAccess(attachment, page, requesterId);
         }
+
+        final Attachment previous = attachmentRepository.save(attachment);
+        if (previous != null) {
+            removeFromIndexes(previous);
+        }
+        if (page != null) {
+            page.addAttachment(attachment);
+            // Inheritance edges recorded on the page
+            pageService.save(page);
+        }
+        versionService.touch(attachment);
         log.info("Attachment created:" + attachment.toString());
-        attachments.put(filename, attachment);
+        aclIndexService.indexComponent(attachment);
+        filenames.add(filename, attachment.getComponentId());
+        changeEventService.publish(EventType.ATTACHMENT_CREATED, attachment.getComponentId(), requesterId);
     }
 
-    public Attachment read(final String filename) {
-        if (attachments.containsKey(filename)) {
-            Attachment output = attachments.get(filename);
+    /**
+     * @param componentId bare filename for attachments without a page, otherwise pageID/filename
+     */
+    public Attachment read(final String componentId) {
+        final int separator = componentId.lastIndexOf(Attachment.PAGE_SEPARATOR);
+        if (separator < 0 || attachmentRepository.find(null, componentId) != null) {
+            return read(null, componentId);
+        }
+        return read(componentId.substring(0, separator), componentId.substring(separator + 1));
+    }
+
+    public Attachment read(final String pageID, final String filename) {
+        final Attachment output = attachmentRepository.find(pageID, filename);
+        if (output != null) {
             log.info("Attachment found:" + output.toString());
             return output;
         } else {
@@ -70,59 +182,283 @@ public class AttachmentService {
         }
     }
 
-    public Attachment accessAttachment(final String filename, final String requesterId, Boolean isIndividualUser) {
-        if (isAuthorizedToPerformAction(Action.READ, filename, requesterId, isIndividualUser)) {
-            return read(filename);
+    public Collection<Attachment> getAllAttachments() {
+        return attachmentRepository.findAll();
+    }
+
+    /**
+     * @param pageID null for the attachments that do not belong to a page
+     */
+    public Collection<Attachment> listForPage(final String pageID) {
+        return attachmentRepository.findByPage(pageID);
+    }
+
+    /**
+     * Stores changes made in place to a stored attachment. Attachments still being created are stored once complete.
+     */
+    public void save(final Attachment attachment) {
+        if (attachmentRepository.find(attachment.getPageID(), attachment.getFilename()) == attachment) {
+            attachmentRepository.save(attachment);
+        }
+    }
+
+    /**
+     * Installs an attachment replicated from the leader, updating an existing one in place.
+     */
+    public Attachment applyReplica(final String pageID, final String filename, final String contents, final User owner,
+                                   final Map<AccessType, List<Collaborator>> accessMap,
+                                   final Map<Collaborator, Long> expiries) {
+        versionService.begin();
+        try {
+            final Attachment attachment = installReplica(pageID, filename, contents, owner, accessMap, expiries);
+            versionService.touch(attachment);
+            return attachment;
+        } finally {
+            versionService.commit();
+        }
+    }
+
+    private Attachment installReplica(final String pageID, final String filename, final String contents, final User owner,
+                                      final Map<AccessType, List<Collaborator>> accessMap,
+                                      final Map<Collaborator, Long> expiries) {
+        Attachment attachment = attachmentRepository.find(pageID, filename);
+        if (attachment == null) {
+            attachment = Attachment
+                    .Builder
+                    .newInstance()
+                    .withPageID(pageID)
+                    .withFilename(filename)
+                    .withContents(contents)
+                    .withOwner(owner)
+                    .build();
+            final Page page = pageID == null ? null : pageService.read(pageID);
+            if (page != null) {
+                page.addAttachment(attachment);
+            }
         } else {
-            throw new AccessDeniedException("Not authorized");
+            aclIndexService.unindexComponent(attachment);
+            attachment.setContents(contents);
+            attachment.setOwner(owner);
         }
+        attachment.setAccessMap(accessMap);
+        attachment.setExpiries(expiries);
+        attachmentRepository.save(attachment);
+        aclIndexService.indexComponent(attachment);
+        filenames.add(filename, attachment.getComponentId());
+        return attachment;
     }
 
-    public String update(final String filename, final UpdateComponentDto updateArgs, final  String requesterId) {
-        if (isAuthorizedToPerformAction(Action.UPDATE, filename, requesterId, Boolean.parseBoolean(updateArgs.getIsIndividualUser()))) {
-            if (attachments.containsKey(filename)) {
-                Attachment attachment = attachments.get(filename);
-                if (updateArgs.getContents() != null) {
-                    attachment.setContents(updateArgs.getContents());
+    public boolean removeReplica(final String componentId) {
+        versionService.begin();
+        try {
+            final Attachment attachment;
+            try {
+                attachment = read(componentId);
+            } catch (AttachmentNotFoundException e) {
+                return false;
+            }
+            attachmentRepository.delete(attachment.getPageID(), attachment.getFilename());
+            removeFromIndexes(attachment);
+            return true;
+        } finally {
+            versionService.commit();
+        }
+    }
+
+    public Attachment accessAttachment(final String filename, final String requesterId, Boolean isIndividualUser) {
+        return accessAttachment(null, filename, requesterId, isIndividualUser);
+    }
+
+    public Attachment accessAttachment(final String pageID, final String filename, final String requesterId,
+                                       final Boolean isIndividualUser) {
+        try (VersionService.Snapshot snapshot = versionService.pin()) {
+            final Attachment attachment = versionService.readAttachment(snapshot, Attachment.componentIdOf(pageID, filename));
+            if (attachment == null) {
+                throw new AttachmentNotFoundException("Attachment not found");
+            }
+            if (isAuthorizedToPerformAction(Action.READ, attachment, requesterId, isIndividualUser)) {
+                hotKeyService.recordRead(attachment.getComponentKey());
+                return attachment;
+            } else {
+                throw new AccessDeniedException("Not authorized");
+            }
+        }
+    }
+
+    /**
+     * Lists the attachments of one page that the requester can read, as of the latest committed write. Cost is
+     * proportional to the number of attachments on that page.
+     */
+    public List<AttachmentSummaryDto> listAttachments(final String pageID, final String requesterId,
+                                                      final boolean isIndividualUser) {
+        final List<AttachmentSummaryDto> output = new ArrayList<>();
+        try (VersionService.Snapshot snapshot = versionService.pin()) {
+            for (Attachment attachment : versionService.listAttachments(snapshot, pageID)) {
+                if (isAuthorizedToPerformAction(Action.READ, attachment, requesterId, isIndividualUser)) {
+                    output.add(new AttachmentSummaryDto(attachment.getPageID(), attachment.getFilename(),
+                            attachment.getOwner() == null ? null : attachment.getOwner().getId(),
+                            attachment.getContents() == null ? 0 : attachment.getContents().length()));
                 }
+            }
+        }
+        return output;
+    }
 
-                if (updateArgs.getOwnerId() != null) {
-                    if (isRequesterIsOwner(attachment, requesterId)) {
-                        log.info("Transferring ownership of file");
-                        User owner = userService.read(updateArgs.getOwnerId());
-                        attachment.setOwner(owner);
-                    }
+    /**
+     * Attachments the requester can read whose filename starts with the query, in filename order. With maxEdits
+     * above 0, filenames within that many edits of the whole query instead, closest first.
+     */
+    public List<AttachmentSummaryDto> suggest(final String query, final int maxEdits, final int limit,
+                                              final String requesterId, final boolean isIndividualUser) {
+        final List<AttachmentSummaryDto> output = new ArrayList<>();
+        try (VersionService.Snapshot snapshot = versionService.pin()) {
+            final Predicate<String> readable = componentId -> {
+                final Attachment attachment = versionService.readAttachment(snapshot, componentId);
+                return attachment != null
+                        && isAuthorizedToPerformAction(Action.READ, attachment, requesterId, isIndividualUser);
+            };
+            final List<PrefixTrie.Match<String>> matches = maxEdits > 0
+                    ? filenames.withinEdits(query, maxEdits, limit, readable)
+                    : filenames.withPrefix(query, limit, readable);
+            for (PrefixTrie.Match<String> match : matches) {
+                final Attachment attachment = versionService.readAttachment(snapshot, match.getValue());
+                output.add(new AttachmentSummaryDto(attachment.getPageID(), attachment.getFilename(),
+                        attachment.getOwner() == null ? null : attachment.getOwner().getId(),
+                        attachment.getContents() == null ? 0 : attachment.getContents().length()));
+            }
+        }
+        return output;
+    }
+
+    public String update(final String filename, final UpdateComponentDto updateArgs, final  String requesterId) {
+        return update(null, filename, updateArgs, requesterId);
+    }
+
+    public String update(final String pageID, final String filename, final UpdateComponentDto updateArgs,
+                         final String requesterId) {
+        versionService.begin();
+        try {
+            return updateAttachment(pageID, filename, updateArgs, requesterId);
+        } finally {
+            versionService.commit();
+        }
+    }
+
+    private String updateAttachment(final String pageID, final String filename, final UpdateComponentDto updateArgs,
+                                    final String requesterId) {
+        final Attachment attachment = read(pageID, filename);
+        if (isAuthorizedToPerformAction(Action.UPDATE, attachment, requesterId, Boolean.parseBoolean(updateArgs.getIsIndividualUser()))) {
+            if (updateArgs.getContents() != null) {
+                attachment.setContents(updateArgs.getContents());
+            }
+
+            if (updateArgs.getOwnerId() != null) {
+                if (isRequesterIsOwner(attachment, requesterId)) {
+                    log.info("Transferring ownership of file");
+                    User owner = userService.read(updateArgs.getOwnerId());
+                    aclIndexService.changeOwner(attachment, attachment.getOwner(), owner);
+                    attachment.setOwner(owner);
+                    auditService.recordOwnerChange(attachment, requesterId, owner);
                 }
-                return "Successfully updated attachment";
-            } else {
-                return "Attachment not found";
             }
+            attachmentRepository.save(attachment);
+            versionService.touch(attachment);
+            changeEventService.publish(EventType.ATTACHMENT_UPDATED, attachment.getComponentId(), requesterId);
+            return "Successfully updated attachment";
         } else {
             throw new AccessDeniedException("Not authorized");
         }
     }
 
     private boolean isRequesterIsOwner(final Attachment attachment, final String requesterId) {
-        return attachment.getOwner().getId().equals(requesterId);
+        return attachment.isOwnedBy(requesterId);
     }
 
     public boolean delete(final String filename, final String requesterId, final Boolean isIndividualUser) {
-        if (isAuthorizedToPerformAction(Action.DELETE, filename, requesterId, isIndividualUser)) {
-            if (attachments.containsKey(filename)) {
-                attachments.remove(filename);
-                return true;
-            } else {
-                return false;
-            }
+        return delete(null, filename, requesterId, isIndividualUser);
+    }
+
+    public boolean delete(final String pageID, final String filename, final String requesterId,
+                          final Boolean isIndividualUser) {
+        versionService.begin();
+        try {
+            return deleteAttachment(pageID, filename, requesterId, isIndividualUser);
+        } finally {
+            versionService.commit();
+        }
+    }
+
+    private boolean deleteAttachment(final String pageID, final String filename, final String requesterId,
+                                     final Boolean isIndividualUser) {
+        final Attachment attachment = read(pageID, filename);
+        if (isAuthorizedToPerformAction(Action.DELETE, attachment, requesterId, isIndividualUser)) {
+            attachmentRepository.delete(pageID, filename);
+            removeFromIndexes(attachment);
+            changeEventService.publish(EventType.ATTACHMENT_DELETED, attachment.getComponentId(), requesterId);
+            return true;
         } else {
             throw new AccessDeniedException("Not authorized");
         }
     }
 
-    private boolean isAuthorizedToPerformAction(final Action action, final String filename, final String requesterId, final boolean isIndividualUser) {
+    /**
+     * Removes every attachment of a page that is being deleted. Authorization was already checked on the page.
+     *
+     * @return number of attachments removed
+     */
+    public int deleteAllForPage(final String pageID, final String requesterId) {
+        versionService.begin();
+        try {
+            final Collection<Attachment> attachments = attachmentRepository.deleteByPage(pageID);
+            for (Attachment attachment : attachments) {
+                versionService.remove(attachment);
+                aclIndexService.unindexComponent(attachment);
+                filenames.remove(attachment.getFilename(), attachment.getComponentId());
+                changeEventService.publish(EventType.ATTACHMENT_DELETED, attachment.getComponentId(), requesterId);
+            }
+            return attachments.size();
+        } finally {
+            versionService.commit();
+        }
+    }
+
+    private void inheritAccess(final Attachment attachment, final Page page, final String requesterId) {
+        attachment.putGrant(page.getOwner(), AccessType.READ_WRITE);
+        auditService.recordAclChange(AuditType.GRANT, attachment, requesterId, page.getOwner(), AccessType.READ_WRITE);
+        for (Map.Entry<Collaborator, AccessType> grant : page.getGrants().entrySet()) {
+            if (attachment.getAccessType(grant.getKey()) == null) {
+                attachment.putGrant(grant.getKey(), grant.getValue());
+                attachment.setExpiry(grant.getKey(), page.getExpiry(grant.getKey()));
+                page.addInheritor(grant.getKey(), attachment.getComponentKey());
+                auditService.recordAclChange(AuditType.GRANT, attachment, requesterId, grant.getKey(),
+                        grant.getValue());
+            }
+        }
+    }
+
+    private void removeFromIndexes(final Attachment attachment) {
+        versionService.remove(attachment);
+        aclIndexService.unindexComponent(attachment);
+        filenames.remove(attachment.getFilename(), attachment.getComponentId());
+        final Page page = attachment.getPageID() == null ? null : pageService.read(attachment.getPageID());
+        if (page != null) {
+            page.removeAttachment(attachment);
+            for (Collaborator collaborator : attachment.getGrants().keySet()) {
+                page.removeInheritor(collaborator, attachment.getComponentKey());
+            }
+            pageService.save(page);
+        }
+    }
 
-        Attachment attachment = read(filename);
+    private boolean isAuthorizedToPerformAction(final Action action, final Attachment attachment, final String requesterId,
+                                                final boolean isIndividualUser) {
+        final boolean allowed = decide(action, attachment, requesterId, isIndividualUser);
+        auditService.recordDecision(action, attachment.getComponentKey(), requesterId, !isIndividualUser, allowed);
+        return allowed;
+    }
 
+    private boolean decide(final Action action, final Attachment attachment, final String requesterId,
+                           final boolean isIndividualUser) {
         if (isRequesterIsOwner(attachment, requesterId)) {
             return true;
         }
@@ -138,17 +474,7 @@ public class AttachmentService {
             collaborator = team;
         }
 
-        List<AccessType> allowedAccessTypes = authorizedActionsMap.get(action);
-
-        Map<AccessType, List<Collaborator>> accessMap = attachment.getAccessMap();
-
-        for (AccessType allowedAccessType : allowedAccessTypes) {
-            if (accessMap != null && accessMap.get(allowedAccessType) != null && accessMap.get(allowedAccessType).contains(collaborator)) {
-                return true;
-            }
-        }
-
-        return false;
+        return attachment.permits(action, collaborator, teamService.getEffectiveTeams(collaborator));
     }
 
 }
@@ -0,0 +1,304 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.model.AccessType;
+import com.proofpoint.wikisystem.model.AuditRecord;
+import com.proofpoint.wikisystem.model.AuditType;
+import com.proofpoint.wikisystem.model.Collaborator;
+import com.proofpoint.wikisystem.model.Component;
+import com.proofpoint.wikisystem.model.Team;
+import com.proofpoint.wikisystem.payload.AuditStatusDto;
+import com.proofpoint.wikisystem.util.Action;
+import com.proofpoint.wikisystem.util.AuditSegmentLog;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records every access decision and every change to grants or ownership in a durable audit log on local disk.
+ * Callers only append to a buffer owned by their own thread, so recording never waits on I/O or on other threads; a
+ * background flusher collects the buffers and writes them as one batch per interval. If the flusher falls behind by
+ * more than maxPendingRecords, new records are dropped and counted rather than slowing requests down.
+ * <p>
+ * Records that are still buffered are lost if the process dies, at most one flush interval's worth. Queries flush
+ * first, so they see everything recorded before they were made.
+ */
+@Service
+@Slf4j
+@Scope("singleton")
+public class AuditService {
+
+    @Value("${wikisystem.audit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${wikisystem.audit.directory:./data/audit}")
+    private String directory;
+
+    @Value("${wikisystem.audit.segment-max-bytes:67108864}")
+    private long segmentMaxBytes;
+
+    /*
+    0 to keep every segment
+     */
+    @Value("${wikisystem.audit.max-segments:0}")
+    private int maxSegments;
+
+    @Value("${wikisystem.audit.flush-interval-ms:200}")
+    private long flushIntervalMs;
+
+    /*
+    A thread hands its buffer to the flusher once it holds this many records
+     */
+    @Value("${wikisystem.audit.buffer-records:1024}")
+    private int bufferRecords;
+
+    @Value("${wikisystem.audit.max-pending-records:1000000}")
+    private long maxPendingRecords;
+
+    private final Queue<ThreadBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<ThreadBuffer> localBuffer = ThreadLocal.withInitial(() -> {
+        final ThreadBuffer buffer = new ThreadBuffer();
+        buffers.add(buffer);
+        return buffer;
+    });
+    private final Queue<List<AuditRecord>> handedOff = new ConcurrentLinkedQueue<>();
+    private final Object flushLock = new Object();
+
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile AuditSegmentLog segments;
+    private ScheduledExecutorService flusher;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            segments = new AuditSegmentLog(Paths.get(directory), segmentMaxBytes, maxSegments);
+        } catch (IOException e) {
+            log.error("Audit log disabled, cannot open " + directory, e);
+            return;
+        }
+        log.info("Audit log opened in " + directory + " with " + segments.getSegmentCount() + " segments");
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "audit-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (segments == null) {
+            return;
+        }
+        flusher.shutdownNow();
+        flushQuietly();
+        synchronized (flushLock) {
+            try {
+                segments.close();
+            } catch (IOException e) {
+                log.error("Failed to close audit log", e);
+            }
+            segments = null;
+        }
+    }
+
+    public void recordDecision(final Action action, final String componentKey, final String requesterId,
+                               final boolean requesterIsTeam, final boolean allowed) {
+        if (segments == null) {
+            return;
+        }
+        record(AuditRecord.Builder
+                .newInstance()
+                .withTimestamp(System.currentTimeMillis())
+                .withType(AuditType.DECISION)
+                .withAction(action)
+                .withComponentKey(componentKey)
+                .withRequester(requesterId, requesterIsTeam)
+                .withAllowed(allowed)
+                .build());
+    }
+
+    /**
+     * @param requesterId user who made the change, null when the system made it, e.g. on expiry
+     * @param accessType  the new level, null for removals
+     */
+    public void recordAclChange(final AuditType type, final Component component, final String requesterId,
+                                final Collaborator collaborator, final AccessType accessType) {
+        if (segments == null) {
+            return;
+        }
+        record(AuditRecord.Builder
+                .newInstance()
+                .withTimestamp(System.currentTimeMillis())
+                .withType(type)
+                .withComponentKey(component.getComponentKey())
+                .withRequester(requesterId, false)
+                .withSubject(collaborator.getId(), collaborator instanceof Team)
+                .withAccessType(accessType)
+                .withAllowed(true)
+                .build());
+    }
+
+    public void recordOwnerChange(final Component component, final String requesterId, final Collaborator owner) {
+        if (segments == null) {
+            return;
+        }
+        record(AuditRecord.Builder
+                .newInstance()
+                .withTimestamp(System.currentTimeMillis())
+                .withType(AuditType.OWNER_CHANGE)
+                .withComponentKey(component.getComponentKey())
+                .withRequester(requesterId, false)
+                .withSubject(owner == null ? null : owner.getId(), false)
+                .withAllowed(true)
+                .build());
+    }
+
+    /**
+     * Finds recorded decisions and changes, newest first
+     *
+     * @param requesterId   null for any requester
+     * @param componentKey  null for any component
+     * @param fromTimestamp inclusive, null for no lower bound
+     * @param toTimestamp   exclusive, null for no upper bound
+     */
+    public List<AuditRecord> query(final String requesterId, final String componentKey, final Long fromTimestamp,
+                                   final Long toTimestamp, final int limit) throws IOException {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+        synchronized (flushLock) {
+            if (segments == null) {
+                return Collections.emptyList();
+            }
+            flush();
+            return segments.query(requesterId, componentKey,
+                    fromTimestamp == null ? Long.MIN_VALUE : fromTimestamp,
+                    toTimestamp == null ? Long.MAX_VALUE : toTimestamp, limit);
+        }
+    }
+
+    public AuditStatusDto getStatus() {
+        final AuditStatusDto output = new AuditStatusDto();
+        final AuditSegmentLog current = segments;
+        output.setEnabled(current != null);
+        output.setRecordsWritten(written.get());
+        output.setRecordsDropped(dropped.get());
+        output.setPendingRecords(pending.get());
+        if (current != null) {
+            output.setSegments(current.getSegmentCount());
+            output.setBytes(current.getBytes());
+        }
+        return output;
+    }
+
+    /**
+     * Writes every buffered record to disk
+     *
+     * @return number of records written
+     */
+    public int flush() throws IOException {
+        synchronized (flushLock) {
+            if (segments == null) {
+                return 0;
+            }
+            final List<AuditRecord> batch = new ArrayList<>();
+            for (List<AuditRecord> full = handedOff.poll(); full != null; full = handedOff.poll()) {
+                batch.addAll(full);
+            }
+            for (Iterator<ThreadBuffer> iterator = buffers.iterator(); iterator.hasNext(); ) {
+                final ThreadBuffer buffer = iterator.next();
+                // Checked before draining, a thread that has ended cannot add anything after the drain
+                final boolean abandoned = buffer.isAbandoned();
+                batch.addAll(buffer.drain());
+                if (abandoned) {
+                    iterator.remove();
+                }
+            }
+            if (batch.isEmpty()) {
+                return 0;
+            }
+            batch.sort(Comparator.comparingLong(AuditRecord::getTimestamp));
+            try {
+                segments.append(batch);
+                written.addAndGet(batch.size());
+            } catch (IOException e) {
+                dropped.addAndGet(batch.size());
+                throw e;
+            } finally {
+                pending.addAndGet(-batch.size());
+            }
+            return batch.size();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to write audit records", e);
+        }
+    }
+
+    private void record(final AuditRecord record) {
+        if (pending.incrementAndGet() > maxPendingRecords) {
+            pending.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+        final ThreadBuffer buffer = localBuffer.get();
+        if (buffer.add(record) >= bufferRecords) {
+            handedOff.add(buffer.drain());
+        }
+    }
+
+    /*
+    Records of one thread. The lock is only ever contended when the flusher drains the buffer.
+     */
+    private static final class ThreadBuffer {
+        private final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+        private List<AuditRecord> records = new ArrayList<>();
+
+        private synchronized int add(final AuditRecord record) {
+            records.add(record);
+            return records.size();
+        }
+
+        private synchronized List<AuditRecord> drain() {
+            if (records.isEmpty()) {
+                return Collections.emptyList();
+            }
+            final List<AuditRecord> drained = records;
+            records = new ArrayList<>();
+            return drained;
+        }
+
+        private boolean isAbandoned() {
+            final Thread thread = owner.get();
+            return thread == null || !thread.isAlive();
+        }
+    }
+}
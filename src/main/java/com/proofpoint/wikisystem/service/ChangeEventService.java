@@ -0,0 +1,210 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.model.ChangeEvent;
+import com.proofpoint.wikisystem.model.EventType;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * In-process stream of mutations. Events are written into a fixed size ring buffer that is allocated once at startup.
+ * Publishing claims a sequence with a single atomic increment and stores the event with a CAS, so writers never wait
+ * for subscribers. Subscribers keep their own cursor into the ring; a subscriber that falls more than a full ring
+ * behind is moved forward to the oldest retained event and told how many events it missed.
+ */
+@Service
+@Slf4j
+@Scope("singleton")
+public class ChangeEventService {
+
+    @Value("${wikisystem.events.capacity:8192}")
+    private int capacity;
+
+    @Value("${wikisystem.events.batch-size:256}")
+    private int batchSize;
+
+    @Value("${wikisystem.events.dispatch-interval-ms:50}")
+    private long dispatchIntervalMs;
+
+    /*
+    Sequences start at 1 so that a client resuming with Last-Event-ID 0 receives everything still retained
+     */
+    private final AtomicLong nextSequence = new AtomicLong(1);
+    private final AtomicLong subscriberIds = new AtomicLong();
+    private final Map<Long, Subscriber> subscribers = new ConcurrentHashMap<>();
+
+    private AtomicReferenceArray<ChangeEvent> ring;
+    private int mask;
+    private ScheduledExecutorService dispatcher;
+
+    @PostConstruct
+    public void init() {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "change-event-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dispatcher.scheduleWithFixedDelay(this::dispatch, dispatchIntervalMs, dispatchIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("Change event ring buffer allocated with capacity:" + size);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (dispatcher != null) {
+            dispatcher.shutdownNow();
+        }
+        for (Subscriber subscriber : subscribers.values()) {
+            subscriber.emitter.complete();
+        }
+        subscribers.clear();
+    }
+
+    public void publish(final EventType type, final String entityId, final String actorId) {
+        publish(ChangeEvent.Builder
+                .newInstance()
+                .withType(type)
+                .withEntityId(entityId)
+                .withActorId(actorId));
+    }
+
+    public void publish(final ChangeEvent.Builder builder) {
+        final long sequence = nextSequence.getAndIncrement();
+        final ChangeEvent event = builder
+                .withSequence(sequence)
+                .withTimestamp(System.currentTimeMillis())
+                .build();
+
+        final int index = (int) (sequence & mask);
+        ChangeEvent current = ring.get(index);
+        // A writer that was lapped by a newer one for the same slot simply drops its event; readers report the gap.
+        while ((current == null || current.getSequence() < sequence) && !ring.compareAndSet(index, current, event)) {
+            current = ring.get(index);
+        }
+    }
+
+    /**
+     * @return sequence that the next published event will receive
+     */
+    public long getHeadSequence() {
+        return nextSequence.get();
+    }
+
+    /**
+     * Copies up to maxEvents events, starting at fromSequence, into sink. Reading stops at the first slot whose
+     * writer has claimed a sequence but not stored the event yet. If part of the requested range has already been
+     * overwritten an EVENTS_DROPPED marker is added and reading resumes at the oldest retained event.
+     *
+     * @return the sequence to read from next time
+     */
+    public long read(final long fromSequence, final int maxEvents, final List<ChangeEvent> sink) {
+        long cursor = Math.max(1, fromSequence);
+        long oldest = nextSequence.get() - ring.length();
+        if (cursor < oldest) {
+            sink.add(droppedMarker(cursor, oldest));
+            cursor = oldest;
+        }
+
+        int read = 0;
+        while (read < maxEvents && cursor < nextSequence.get()) {
+            final ChangeEvent event = ring.get((int) (cursor & mask));
+            if (event == null || event.getSequence() < cursor) {
+                break;
+            }
+            if (event.getSequence() > cursor) {
+                oldest = nextSequence.get() - ring.length();
+                sink.add(droppedMarker(cursor, oldest));
+                cursor = oldest;
+                continue;
+            }
+            sink.add(event);
+            cursor++;
+            read++;
+        }
+        return cursor;
+    }
+
+    /**
+     * Registers an SSE subscriber. When afterSequence is null the subscriber only receives events published from now
+     * on, otherwise it resumes with the first event after afterSequence that is still retained.
+     */
+    public void subscribe(final SseEmitter emitter, final Long afterSequence) {
+        final long id = subscriberIds.incrementAndGet();
+        final long cursor = afterSequence == null ? nextSequence.get() : afterSequence + 1;
+        subscribers.put(id, new Subscriber(emitter, cursor));
+
+        emitter.onCompletion(() -> subscribers.remove(id));
+        emitter.onTimeout(() -> subscribers.remove(id));
+        log.info("Subscriber " + id + " registered at sequence:" + cursor);
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    private void dispatch() {
+        final List<ChangeEvent> batch = new ArrayList<>(batchSize + 1);
+        for (Map.Entry<Long, Subscriber> entry : subscribers.entrySet()) {
+            final Subscriber subscriber = entry.getValue();
+            batch.clear();
+            try {
+                final long cursor = read(subscriber.cursor, batchSize, batch);
+                for (ChangeEvent event : batch) {
+                    subscriber.emitter.send(SseEmitter
+                            .event()
+                            .id(String.valueOf(event.getSequence()))
+                            .name(event.getType().name())
+                            .data(event, MediaType.APPLICATION_JSON));
+                }
+                subscriber.cursor = cursor;
+            } catch (IOException | IllegalStateException e) {
+                log.info("Dropping subscriber " + entry.getKey() + ":" + e.getMessage());
+                subscribers.remove(entry.getKey());
+                subscriber.emitter.completeWithError(e);
+            } catch (RuntimeException e) {
+                log.error("Cannot send events to subscriber " + entry.getKey() + ", dropping it", e);
+                subscribers.remove(entry.getKey());
+                subscriber.emitter.completeWithError(e);
+            }
+        }
+    }
+
+    private ChangeEvent droppedMarker(final long fromSequence, final long toSequence) {
+        return ChangeEvent.Builder
+                .newInstance()
+                .withSequence(toSequence - 1)
+                .withType(EventType.EVENTS_DROPPED)
+                .withTimestamp(System.currentTimeMillis())
+                .withDetail("firstDropped", String.valueOf(fromSequence))
+                .withDetail("lastDropped", String.valueOf(toSequence - 1))
+                .build();
+    }
+
+    private static final class Subscriber {
+        private final SseEmitter emitter;
+        private long cursor;
+
+        private Subscriber(final SseEmitter emitter, final long cursor) {
+            this.emitter = emitter;
+            this.cursor = cursor;
+        }
+    }
+}
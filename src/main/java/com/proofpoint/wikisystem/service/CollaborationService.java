@@ -0,0 +1,560 @@
+package com.proofpoint.wikisystem.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.proofpoint.wikisystem.exceptions.AccessDeniedException;
+import com.proofpoint.wikisystem.exceptions.PageNotFoundException;
+import com.proofpoint.wikisystem.model.Page;
+import com.proofpoint.wikisystem.payload.CollaborationMessageDto;
+import com.proofpoint.wikisystem.payload.CollaborationOpDto;
+import com.proofpoint.wikisystem.util.Action;
+import com.proofpoint.wikisystem.util.Rope;
+import com.proofpoint.wikisystem.util.TextOperation;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collaborative editing sessions on pages. Editors join a page's session, get its text and revision, and send
+ * operations made against the last revision they have; each operation is transformed against the ones applied since
+ * that revision, applied, and given the next revision, so every editor converges on the same text in whatever order
+ * their operations crossed. Applied operations are broadcast in one frame per session every broadcast interval, and
+ * the text is saved into the page every checkpoint interval and when the last editor leaves. Content saved through
+ * the REST endpoints in the meantime is merged into the session as an operation of its own rather than overwritten.
+ * <p>
+ * Anyone who may read the page can join and follow along, only those who may update it can send operations: the
+ * owner, READ_WRITE grantees and admin teams. Grants are checked again every reauthorize interval.
+ */
+@Service
+@Slf4j
+@Scope("singleton")
+public class CollaborationService {
+
+    /*
+    Author of the operations that merge content saved through the REST endpoints
+     */
+    static final String PAGE_AUTHOR = "page";
+
+    @Value("${wikisystem.collab.enabled:true}")
+    private boolean enabled;
+
+    /*
+    Operations wait this long at most before they are sent to the other editors
+     */
+    @Value("${wikisystem.collab.broadcast-interval-ms:10}")
+    private long broadcastIntervalMs;
+
+    @Value("${wikisystem.collab.checkpoint-interval-ms:2000}")
+    private long checkpointIntervalMs;
+
+    @Value("${wikisystem.collab.reauthorize-interval-ms:30000}")
+    private long reauthorizeIntervalMs;
+
+    /*
+    Operations kept per session to transform late operations against; editors further behind have to join again
+     */
+    @Value("${wikisystem.collab.history-size:10000}")
+    private int historySize;
+
+    @Value("${wikisystem.collab.max-participants:100}")
+    private int maxParticipants;
+
+    @Autowired
+    private PageService pageService;
+
+    @Autowired
+    private ReplicationService replicationService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /*
+    Open sessions by page id. A session leaves the map when it closes, and a later join starts a new one.
+     */
+    private final Map<String, PageSession> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong participantIds = new AtomicLong();
+
+    /*
+    Broadcasts run apart from checkpoints, which wait for the write lock
+     */
+    private ScheduledExecutorService broadcaster;
+    private ScheduledExecutorService checkpointer;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        broadcaster = newScheduler("collab-broadcast");
+        broadcaster.scheduleWithFixedDelay(this::flushAll, broadcastIntervalMs, broadcastIntervalMs,
+                TimeUnit.MILLISECONDS);
+        checkpointer = newScheduler("collab-checkpoint");
+        checkpointer.scheduleWithFixedDelay(this::checkpointAll, checkpointIntervalMs, checkpointIntervalMs,
+                TimeUnit.MILLISECONDS);
+        checkpointer.scheduleWithFixedDelay(this::reauthorizeAll, reauthorizeIntervalMs, reauthorizeIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (broadcaster == null) {
+            return;
+        }
+        broadcaster.shutdownNow();
+        checkpointer.shutdownNow();
+        for (PageSession session : sessions.values()) {
+            flush(session);
+            checkpoint(session);
+            final List<Participant> participants;
+            synchronized (session) {
+                participants = new ArrayList<>(session.participants);
+            }
+            for (Participant participant : participants) {
+                participant.close("Server is shutting down");
+            }
+        }
+    }
+
+    /**
+     * Adds the participant to the page's session, starting the session if there is none, and sends it the joined
+     * frame with the session's text
+     *
+     * @throws PageNotFoundException  if the page does not exist on this node
+     * @throws AccessDeniedException  if the participant may not read the page
+     * @throws IllegalStateException  if collaborative editing is off, this node is a follower or the session is full
+     */
+    public void join(final String pageId, final Participant participant) {
+        if (!enabled) {
+            throw new IllegalStateException("Collaborative editing is disabled");
+        }
+        if (replicationService.isFollower()) {
+            throw new IllegalStateException("Followers do not host editing sessions, connect to the leader");
+        }
+        final Page page = pageService.accessPage(pageId, participant.getRequesterId(), participant.isIndividualUser());
+        if (page == null) {
+            if (pageService.read(pageId) == null) {
+                throw new PageNotFoundException("Page not found");
+            }
+            throw new AccessDeniedException("Not authorized to perform action on given component");
+        }
+        participant.canEdit = pageService.isAuthorized(Action.UPDATE, pageId, participant.getRequesterId(),
+                participant.isIndividualUser());
+        participant.id = "p" + participantIds.incrementAndGet();
+
+        while (true) {
+            final PageSession session = sessions.computeIfAbsent(pageId,
+                    key -> new PageSession(key, page.getContentRope()));
+            synchronized (session) {
+                if (session.closed) {
+                    // The last editor is just leaving, start over
+                    sessions.remove(pageId, session);
+                    continue;
+                }
+                if (session.participants.size() >= maxParticipants) {
+                    throw new IllegalStateException("The editing session on this page is full");
+                }
+                session.participants.add(participant);
+                participant.session = session;
+                participant.joinedRevision = session.revision;
+
+                final CollaborationMessageDto joined = new CollaborationMessageDto();
+                joined.setType("joined");
+                joined.setParticipantId(participant.id);
+                joined.setRevision(session.revision);
+                joined.setContent(session.content.toString());
+                joined.setCanEdit(participant.canEdit);
+                participant.send(write(joined));
+                log.info("Participant " + participant.id + " (" + participant.getRequesterId() + ") joined page "
+                        + pageId + ", " + session.participants.size() + " editing");
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes the participant from its session. The last one to leave closes the session and saves its text.
+     */
+    public void leave(final Participant participant) {
+        final PageSession session = participant.session;
+        if (session == null) {
+            return;
+        }
+        synchronized (session) {
+            if (!session.participants.remove(participant) || !session.participants.isEmpty()) {
+                return;
+            }
+            session.closed = true;
+        }
+        sessions.remove(session.pageId, session);
+        checkpoint(session);
+    }
+
+    /**
+     * Applies an operation frame from the participant, {"type": "op", "revision": r, "operation": [...]} where r is
+     * the last revision the participant had applied when it made the operation. Problems with the frame are reported
+     * to the participant in an error frame; a participant whose revision is no longer in the history is closed so it
+     * joins again.
+     */
+    public void submit(final Participant participant, final String frame) {
+        final PageSession session = participant.session;
+        if (session == null) {
+            return;
+        }
+        if (!participant.canEdit) {
+            sendError(participant, "Not authorized to edit this page");
+            return;
+        }
+        final long revision;
+        final TextOperation received;
+        try {
+            final JsonNode message = objectMapper.readTree(frame);
+            if (!"op".equals(message.path("type").asText())) {
+                throw new IllegalArgumentException("Unknown frame type " + message.path("type"));
+            }
+            if (!message.path("revision").isIntegralNumber()) {
+                throw new IllegalArgumentException("An operation needs the revision it was made against");
+            }
+            revision = message.get("revision").asLong();
+            received = TextOperation.fromJson(message.get("operation"));
+        } catch (IOException | IllegalArgumentException e) {
+            sendError(participant, e.getMessage());
+            return;
+        }
+
+        synchronized (session) {
+            if (session.closed) {
+                return;
+            }
+            if (revision > session.revision || revision < session.historyStart) {
+                participant.close("Revision " + revision + " is not available, join again");
+                return;
+            }
+            TextOperation operation = received;
+            try {
+                for (long applied = revision; applied < session.revision; applied++) {
+                    operation = TextOperation.transform(operation, session.operationAfter(applied))[0];
+                }
+                session.content = operation.apply(session.content);
+            } catch (IllegalArgumentException e) {
+                sendError(participant, e.getMessage());
+                return;
+            }
+            append(session, operation, participant.id);
+            session.lastEditor = participant.getRequesterId();
+        }
+    }
+
+    /**
+     * @return number of pages with an open session
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /*
+    Sends each session's pending operations in one frame. Participants that joined after some of them already have
+    those in their joined text and get only the rest.
+     */
+    void flushAll() {
+        for (PageSession session : sessions.values()) {
+            try {
+                flush(session);
+            } catch (RuntimeException e) {
+                log.error("Cannot broadcast operations on page " + session.pageId, e);
+            }
+        }
+    }
+
+    void checkpointAll() {
+        for (PageSession session : sessions.values()) {
+            try {
+                checkpoint(session);
+            } catch (RuntimeException e) {
+                log.error("Cannot save the editing session on page " + session.pageId, e);
+            }
+        }
+    }
+
+    /*
+    Closes participants that may no longer read the page and tells those whose right to edit changed
+     */
+    void reauthorizeAll() {
+        for (PageSession session : sessions.values()) {
+            final List<Participant> participants;
+            synchronized (session) {
+                participants = new ArrayList<>(session.participants);
+            }
+            for (Participant participant : participants) {
+                try {
+                    reauthorize(session, participant);
+                } catch (RuntimeException e) {
+                    log.error("Cannot check the grants of participant " + participant.id, e);
+                }
+            }
+        }
+    }
+
+    private void reauthorize(final PageSession session, final Participant participant) {
+        if (!pageService.isAuthorized(Action.READ, session.pageId, participant.getRequesterId(),
+                participant.isIndividualUser())) {
+            participant.close("Access to the page was revoked");
+            leave(participant);
+            return;
+        }
+        final boolean canEdit = pageService.isAuthorized(Action.UPDATE, session.pageId, participant.getRequesterId(),
+                participant.isIndividualUser());
+        if (canEdit != participant.canEdit) {
+            participant.canEdit = canEdit;
+            final CollaborationMessageDto access = new CollaborationMessageDto();
+            access.setType("access");
+            access.setCanEdit(canEdit);
+            participant.send(write(access));
+        }
+    }
+
+    private void flush(final PageSession session) {
+        final List<CollaborationOpDto> batch;
+        final List<Participant> participants;
+        final List<Long> joinedRevisions = new ArrayList<>();
+        synchronized (session) {
+            if (session.pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(session.pending);
+            session.pending.clear();
+            participants = new ArrayList<>(session.participants);
+            for (Participant participant : participants) {
+                joinedRevisions.add(participant.joinedRevision);
+            }
+        }
+        // Serialized once for everybody who needs the whole batch
+        final String frame = write(opsFrame(batch));
+        for (int i = 0; i < participants.size(); i++) {
+            final long joinedRevision = joinedRevisions.get(i);
+            if (joinedRevision < batch.get(0).getRevision()) {
+                participants.get(i).send(frame);
+                continue;
+            }
+            final List<CollaborationOpDto> later = new ArrayList<>();
+            for (CollaborationOpDto op : batch) {
+                if (op.getRevision() > joinedRevision) {
+                    later.add(op);
+                }
+            }
+            if (!later.isEmpty()) {
+                participants.get(i).send(write(opsFrame(later)));
+            }
+        }
+    }
+
+    /*
+    Saves the session's text into the page if either changed since the last checkpoint
+     */
+    private void checkpoint(final PageSession session) {
+        final Page page = pageService.read(session.pageId);
+        final String editor;
+        synchronized (session) {
+            if (page != null && session.content == session.saved && page.getContentRope() == session.saved) {
+                return;
+            }
+            editor = session.lastEditor;
+        }
+        if (pageService.checkpoint(session.pageId, stored -> merge(session, stored), editor) != null) {
+            return;
+        }
+
+        final List<Participant> participants;
+        synchronized (session) {
+            session.closed = true;
+            participants = new ArrayList<>(session.participants);
+            session.participants.clear();
+        }
+        sessions.remove(session.pageId, session);
+        for (Participant participant : participants) {
+            participant.close("The page was deleted");
+        }
+    }
+
+    /*
+    Runs within the page write. Content saved since the last checkpoint is the change from what the session saved to
+    what is stored, made against the revision the session saved; it is transformed like any late operation. When
+    that revision has left the history, the stored content replaces the session's text instead.
+     */
+    private Rope merge(final PageSession session, final Rope stored) {
+        synchronized (session) {
+            if (stored != session.saved) {
+                if (session.savedRevision < session.historyStart) {
+                    reset(session, stored);
+                } else {
+                    TextOperation operation = TextOperation.between(session.saved.toString(), stored.toString());
+                    for (long applied = session.savedRevision; applied < session.revision; applied++) {
+                        operation = TextOperation.transform(operation, session.operationAfter(applied))[0];
+                    }
+                    session.content = operation.apply(session.content);
+                    append(session, operation, PAGE_AUTHOR);
+                }
+            }
+            session.saved = session.content;
+            session.savedRevision = session.revision;
+            return session.content;
+        }
+    }
+
+    /*
+    Replaces the session's text for every participant, dropping operations not broadcast yet. Guarded by session.
+     */
+    private void reset(final PageSession session, final Rope content) {
+        log.warn("Resetting the editing session on page " + session.pageId + " to the stored content");
+        session.content = content;
+        session.revision++;
+        session.history.clear();
+        session.historyStart = session.revision;
+        session.pending.clear();
+        final CollaborationMessageDto reset = new CollaborationMessageDto();
+        reset.setType("reset");
+        reset.setRevision(session.revision);
+        reset.setContent(content.toString());
+        final String frame = write(reset);
+        // A participant whose queue is full leaves the session while we iterate
+        for (Participant participant : new ArrayList<>(session.participants)) {
+            participant.joinedRevision = session.revision;
+            participant.send(frame);
+        }
+    }
+
+    /*
+    Guarded by session. The history is trimmed in halves, so appending stays O(1) amortized.
+     */
+    private void append(final PageSession session, final TextOperation operation, final String author) {
+        session.history.add(operation);
+        session.revision++;
+        if (session.history.size() >= 2 * historySize) {
+            session.history.subList(0, historySize).clear();
+            session.historyStart += historySize;
+        }
+        session.pending.add(new CollaborationOpDto(session.revision, author, operation.toJson()));
+    }
+
+    private void sendError(final Participant participant, final String message) {
+        final CollaborationMessageDto error = new CollaborationMessageDto();
+        error.setType("error");
+        error.setMessage(message);
+        participant.send(write(error));
+    }
+
+    private static CollaborationMessageDto opsFrame(final List<CollaborationOpDto> ops) {
+        final CollaborationMessageDto frame = new CollaborationMessageDto();
+        frame.setType("ops");
+        frame.setOps(ops);
+        return frame;
+    }
+
+    private String write(final CollaborationMessageDto message) {
+        try {
+            return objectMapper.writeValueAsString(message);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static ScheduledExecutorService newScheduler(final String name) {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * An editor connected to a session. Implementations deliver frames in the order they are sent, without blocking
+     * the caller, and leave the session once closed.
+     */
+    public abstract static class Participant {
+        private final String requesterId;
+        private final boolean individualUser;
+        private volatile String id;
+        private volatile boolean canEdit;
+        private volatile PageSession session;
+        /*
+        Revision of the joined text, guarded by the session
+         */
+        private long joinedRevision;
+
+        protected Participant(final String requesterId, final boolean individualUser) {
+            this.requesterId = requesterId;
+            this.individualUser = individualUser;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getRequesterId() {
+            return requesterId;
+        }
+
+        public boolean isIndividualUser() {
+            return individualUser;
+        }
+
+        public boolean canEdit() {
+            return canEdit;
+        }
+
+        protected abstract void send(String frame);
+
+        protected abstract void close(String reason);
+    }
+
+    /*
+    Guarded by itself
+     */
+    private static final class PageSession {
+        private final String pageId;
+        private final List<Participant> participants = new ArrayList<>();
+        private Rope content;
+        private long revision;
+        /*
+        history.get(i) turns revision historyStart + i into the next one
+         */
+        private final List<TextOperation> history = new ArrayList<>();
+        private long historyStart;
+        /*
+        Content last read from or saved into the page, which the session had at savedRevision
+         */
+        private Rope saved;
+        private long savedRevision;
+        /*
+        Applied operations not broadcast yet
+         */
+        private final List<CollaborationOpDto> pending = new ArrayList<>();
+        private String lastEditor;
+        private boolean closed;
+
+        private PageSession(final String pageId, final Rope content) {
+            this.pageId = pageId;
+            this.content = content;
+            this.saved = content;
+        }
+
+        private TextOperation operationAfter(final long applied) {
+            return history.get((int) (applied - historyStart));
+        }
+    }
+}
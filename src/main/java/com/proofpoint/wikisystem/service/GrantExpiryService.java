@@ -0,0 +1,143 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.model.Attachment;
+import com.proofpoint.wikisystem.model.Collaborator;
+import com.proofpoint.wikisystem.model.Component;
+import com.proofpoint.wikisystem.model.Page;
+import com.proofpoint.wikisystem.util.TimingWheel;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Scope;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes time-bounded grants once they expire. Every expiring grant is put on a timing wheel, so scheduling and
+ * firing cost the same however many grants are pending; a grant given a new expiry is simply scheduled again and the
+ * stale entry is ignored when it fires. Components already refuse an expired grant on their own, so the removal
+ * only has to catch up within a tick. Grants inherited from an expiring grant go with it.
+ * <p>
+ * Followers only install what the leader replicates, including the removals.
+ */
+@Service
+@Slf4j
+@Scope("singleton")
+public class GrantExpiryService {
+
+    /*
+    6 levels of 64 ticks reach about two years at one tick per second, later expiries wait in the overflow list
+     */
+    private static final int WHEEL_LEVELS = 6;
+
+    @Autowired
+    private AccessService accessService;
+
+    @Autowired
+    private PageService pageService;
+
+    @Autowired
+    private AttachmentService attachmentService;
+
+    @Autowired
+    private ReplicationService replicationService;
+
+    @Value("${wikisystem.access.expiry.tick-ms:1000}")
+    private long tickMillis;
+
+    private TimingWheel<Expiry> wheel;
+    private ScheduledExecutorService ticker;
+
+    @PostConstruct
+    public void init() {
+        wheel = new TimingWheel<>(tickMillis, WHEEL_LEVELS, System.currentTimeMillis());
+    }
+
+    /**
+     * Schedules the expiring grants of the components loaded from storage and starts removing expired grants
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (replicationService.isFollower()) {
+            return;
+        }
+        int scheduled = 0;
+        for (Page page : pageService.getAllPages()) {
+            scheduled += scheduleAll(page);
+        }
+        for (Attachment attachment : attachmentService.getAllAttachments()) {
+            scheduled += scheduleAll(attachment);
+        }
+        log.info("Scheduled " + scheduled + " grant expiries");
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "grant-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleWithFixedDelay(this::expireDue, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+    }
+
+    public void schedule(final Component component, final Collaborator collaborator, final long expiresAt) {
+        wheel.schedule(new Expiry(component.getComponentKey(), collaborator, expiresAt), expiresAt);
+    }
+
+    public int getPendingCount() {
+        return wheel.size();
+    }
+
+    /**
+     * Removes the grants whose expiry has passed
+     *
+     * @return number of components grants were removed from
+     */
+    public int expireDue() {
+        int affected = 0;
+        for (Expiry expiry : wheel.advance(System.currentTimeMillis())) {
+            try {
+                affected += accessService.expireAccess(expiry.componentKey, expiry.collaborator, expiry.expiresAt);
+            } catch (RuntimeException e) {
+                log.warn("Failed to expire grant of " + expiry.collaborator.getId() + " on " + expiry.componentKey, e);
+            }
+        }
+        return affected;
+    }
+
+    /**
+     * Schedules every expiring grant of the component
+     *
+     * @return number of expiries scheduled
+     */
+    public int scheduleAll(final Component component) {
+        for (Map.Entry<Collaborator, Long> expiry : component.getExpiries().entrySet()) {
+            schedule(component, expiry.getKey(), expiry.getValue());
+        }
+        return component.getExpiries().size();
+    }
+
+    private static final class Expiry {
+        private final String componentKey;
+        private final Collaborator collaborator;
+        private final long expiresAt;
+
+        private Expiry(final String componentKey, final Collaborator collaborator, final long expiresAt) {
+            this.componentKey = componentKey;
+            this.collaborator = collaborator;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.model.Attachment;
+import com.proofpoint.wikisystem.model.ComponentType;
+import com.proofpoint.wikisystem.model.Page;
+import com.proofpoint.wikisystem.payload.HotComponentDto;
+import com.proofpoint.wikisystem.util.HeavyHitters;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks which pages and attachments are read most, in fixed memory: every read adds to a count-min sketch and the
+ * hottest components are kept in a small top set, with all counts halved once per decay interval so that the set
+ * follows what is hot now. The top set is saved on shutdown; on startup the saved components are read back and
+ * their JSON and rendered blocks put in the caches, before the web server accepts requests.
+ */
+@Service
+@Slf4j
+@Scope("singleton")
+public class HotKeyService implements SmartInitializingSingleton {
+
+    @Value("${wikisystem.hotkeys.enabled:true}")
+    private boolean enabled;
+
+    @Value("${wikisystem.hotkeys.top-k:100}")
+    private int topK;
+
+    @Value("${wikisystem.hotkeys.sketch-width:65536}")
+    private int sketchWidth;
+
+    @Value("${wikisystem.hotkeys.sketch-depth:4}")
+    private int sketchDepth;
+
+    @Value("${wikisystem.hotkeys.decay-interval-ms:60000}")
+    private long decayIntervalMs;
+
+    /*
+    Empty to neither save nor restore the top set
+     */
+    @Value("${wikisystem.hotkeys.file:./data/hot-components.tsv}")
+    private String file;
+
+    @Value("${wikisystem.hotkeys.warmup:true}")
+    private boolean warmup;
+
+    @Autowired
+    private VersionService versionService;
+
+    @Autowired
+    private ReadCoalescingService readCoalescingService;
+
+    @Autowired
+    private RenderService renderService;
+
+    private volatile HeavyHitters<String> hitters;
+    private ScheduledExecutorService decayer;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        hitters = new HeavyHitters<>(topK, sketchWidth, sketchDepth);
+        decayer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hotkeys-decay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        decayer.scheduleWithFixedDelay(() -> hitters.decay(), decayIntervalMs, decayIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /*
+    Runs once every repository is loaded and before the web server starts, so the instance is not reachable until the
+    caches are warm
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (hitters == null || file.isEmpty()) {
+            return;
+        }
+        final List<HotComponentDto> saved;
+        try {
+            saved = load(Paths.get(file));
+        } catch (IOException e) {
+            log.error("Cannot read hot components from " + file, e);
+            return;
+        }
+        for (HotComponentDto component : saved) {
+            hitters.add(component.getComponentKey(), (int) Math.min(component.getEstimatedReads(), Integer.MAX_VALUE));
+        }
+        if (warmup && !saved.isEmpty()) {
+            final long start = System.nanoTime();
+            final int warmed = warmUp(saved);
+            log.info("Warmed caches for " + warmed + " of " + saved.size() + " hot components in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (hitters == null) {
+            return;
+        }
+        decayer.shutdownNow();
+        if (!file.isEmpty()) {
+            try {
+                save(Paths.get(file), getHotComponents(topK));
+            } catch (IOException e) {
+                log.error("Cannot save hot components to " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Counts one read of the component. A handful of atomic increments, only rarely a short lock.
+     */
+    public void recordRead(final String componentKey) {
+        final HeavyHitters<String> current = hitters;
+        if (current != null) {
+            current.add(componentKey);
+        }
+    }
+
+    /**
+     * @return up to limit of the most read components, hottest first
+     */
+    public List<HotComponentDto> getHotComponents(final int limit) {
+        final HeavyHitters<String> current = hitters;
+        if (current == null) {
+            return Collections.emptyList();
+        }
+        final List<HotComponentDto> output = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : current.top(limit)) {
+            output.add(new HotComponentDto(entry.getKey(), entry.getValue()));
+        }
+        return output;
+    }
+
+    /**
+     * Serializes and renders the published version of each component, hottest first, as a read would. Components
+     * that no longer exist are skipped.
+     *
+     * @return number of components found
+     */
+    public int warmUp(final List<HotComponentDto> components) {
+        int warmed = 0;
+        try (VersionService.Snapshot snapshot = versionService.pin()) {
+            for (HotComponentDto component : components) {
+                final String key = component.getComponentKey();
+                final String id = ComponentType.idOfKey(key);
+                try {
+                    if (ComponentType.ofKey(key) == ComponentType.PAGE) {
+                        final Page page = versionService.readPage(snapshot, id);
+                        if (page != null) {
+                            readCoalescingService.toJson(page);
+                            renderService.warmUp(page, snapshot);
+                            warmed++;
+                        }
+                    } else {
+                        final Attachment attachment = versionService.readAttachment(snapshot, id);
+                        if (attachment != null) {
+                            readCoalescingService.toJson(attachment);
+                            warmed++;
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("Cannot warm up " + key + ": " + e.getMessage());
+                }
+            }
+        }
+        return warmed;
+    }
+
+    /*
+    One component per line, estimate and key separated by a tab, hottest first
+     */
+    static List<HotComponentDto> load(final Path path) throws IOException {
+        final List<HotComponentDto> output = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int tab = line.indexOf('\t');
+                if (tab <= 0 || line.indexOf(':', tab) < 0) {
+                    continue;
+                }
+                try {
+                    output.add(new HotComponentDto(line.substring(tab + 1), Long.parseLong(line.substring(0, tab))));
+                } catch (NumberFormatException e) {
+                    log.warn("Skipping malformed hot component line: " + line);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return Collections.emptyList();
+        }
+        return output;
+    }
+
+    /*
+    Written beside the file and moved over it, a crash never leaves half a list behind
+     */
+    static void save(final Path path, final List<HotComponentDto> components) throws IOException {
+        final Path absolute = path.toAbsolutePath();
+        Files.createDirectories(absolute.getParent());
+        final Path temporary = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            for (HotComponentDto component : components) {
+                writer.write(component.getEstimatedReads() + "\t" + component.getComponentKey());
+                writer.newLine();
+            }
+        }
+        Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
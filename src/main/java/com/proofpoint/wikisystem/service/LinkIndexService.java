@@ -0,0 +1,122 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.util.WikiMarkup;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Internal page links in both directions: for each page the pages its content links to, and for each link target
+ * the pages linking to it, plus the targets that are linked to but do not exist. A content change re-extracts the
+ * links of that one page and applies only the difference to the previous links, so keeping the index current costs
+ * O(links changed) and "what links here" is answered without reading any content.
+ * <p>
+ * Updated by PageService under the write lock; lookups never wait.
+ */
+@Service
+@Slf4j
+@Scope("singleton")
+public class LinkIndexService {
+
+    @Autowired
+    private PageService pageService;
+
+    /*
+    Page to the immutable set of pages it links to, replaced as a whole on change
+     */
+    private final Map<String, Set<String>> linksFrom = new ConcurrentHashMap<>();
+    private final Map<String, NavigableSet<String>> linksTo = new ConcurrentHashMap<>();
+    /*
+    Targets of at least one link that are not pages
+     */
+    private final NavigableSet<String> missingTargets = new ConcurrentSkipListSet<>();
+
+    /**
+     * Records the links in the content of a page that was created or changed
+     */
+    public void indexPage(final String pageID, final String content) {
+        final Set<String> links = Collections.unmodifiableSet(WikiMarkup.extractLinks(content));
+        final Set<String> previous = linksFrom.getOrDefault(pageID, Collections.emptySet());
+        for (String target : previous) {
+            if (!links.contains(target)) {
+                removeLink(pageID, target);
+            }
+        }
+        for (String target : links) {
+            if (!previous.contains(target)) {
+                addLink(pageID, target);
+            }
+        }
+        if (links.isEmpty()) {
+            linksFrom.remove(pageID);
+        } else {
+            linksFrom.put(pageID, links);
+        }
+        // The page may have been a missing target until now
+        missingTargets.remove(pageID);
+    }
+
+    /**
+     * Drops the links of a deleted page. Links to it from other pages are kept and become broken.
+     */
+    public void unindexPage(final String pageID) {
+        final Set<String> previous = linksFrom.remove(pageID);
+        if (previous != null) {
+            for (String target : previous) {
+                removeLink(pageID, target);
+            }
+        }
+        if (linksTo.containsKey(pageID)) {
+            missingTargets.add(pageID);
+        }
+    }
+
+    /**
+     * @return pages whose content links to the target, in id order. The target need not exist.
+     */
+    public NavigableSet<String> getBacklinks(final String targetPageID) {
+        final NavigableSet<String> sources = linksTo.get(targetPageID);
+        return sources == null ? Collections.emptyNavigableSet() : Collections.unmodifiableNavigableSet(sources);
+    }
+
+    public Set<String> getLinks(final String pageID) {
+        return linksFrom.getOrDefault(pageID, Collections.emptySet());
+    }
+
+    /**
+     * @return ids that are linked to but are not pages, in id order
+     */
+    public NavigableSet<String> getMissingTargets() {
+        return Collections.unmodifiableNavigableSet(missingTargets);
+    }
+
+    public boolean isMissing(final String targetPageID) {
+        return missingTargets.contains(targetPageID);
+    }
+
+    private void addLink(final String source, final String target) {
+        linksTo.computeIfAbsent(target, key -> new ConcurrentSkipListSet<>()).add(source);
+        if (pageService.read(target) == null) {
+            missingTargets.add(target);
+        }
+    }
+
+    private void removeLink(final String source, final String target) {
+        linksTo.computeIfPresent(target, (key, sources) -> {
+            sources.remove(source);
+            if (sources.isEmpty()) {
+                missingTargets.remove(target);
+                return null;
+            }
+            return sources;
+        });
+    }
+}
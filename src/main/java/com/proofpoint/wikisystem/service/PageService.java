@@ -1,26 +1,48 @@
 package com.proofpoint.wikisystem.service;
 
+import com.proofpoint.wikisystem.exceptions.AccessDeniedException;
+import com.proofpoint.wikisystem.exceptions.PageAlreadyExistsException;
+import com.proofpoint.wikisystem.exceptions.PageNotFoundException;
+import com.proofpoint.wikisystem.exceptions.VersionConflictException;
 import com.proofpoint.wikisystem.model.*;
+import com.proofpoint.wikisystem.payload.AttachmentSummaryDto;
+import com.proofpoint.wikisystem.payload.BrokenLinkDto;
+import com.proofpoint.wikisystem.payload.ContentEditDto;
+import com.proofpoint.wikisystem.payload.PageSummaryDto;
+import com.proofpoint.wikisystem.payload.PageViewDto;
+import com.proofpoint.wikisystem.payload.PatchComponentDto;
 import com.proofpoint.wikisystem.payload.UpdateComponentDto;
+import com.proofpoint.wikisystem.payload.UserSummaryDto;
+import com.proofpoint.wikisystem.repository.PageRepository;
 import com.proofpoint.wikisystem.util.Action;
+import com.proofpoint.wikisystem.util.PrefixTrie;
+import com.proofpoint.wikisystem.util.Rope;
+import com.proofpoint.wikisystem.util.TreePaths;
+import com.proofpoint.wikisystem.util.WikiMarkup;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-
-import static com.proofpoint.wikisystem.util.Constants.authorizedActionsMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
 @Service
 @Slf4j
 @Scope("singleton")
 public class PageService {
 
-    private Map<String, Page> pages = new HashMap<>();
+    @Autowired
+    private PageRepository pageRepository;
 
     @Autowired
     private AccessService accessService;
@@ -31,17 +53,96 @@ public class PageService {
     @Autowired
     private TeamService teamService;
 
+    @Autowired
+    private AttachmentService attachmentService;
+
+    @Autowired
+    private ChangeEventService changeEventService;
+
+    @Autowired
+    private AclIndexService aclIndexService;
+
+    @Autowired
+    private VersionService versionService;
+
+    @Autowired
+    private AuditService auditService;
+
+    @Autowired
+    private LinkIndexService linkIndexService;
+
+    @Autowired
+    private HotKeyService hotKeyService;
+
+    /*
+    Path of every page from its root, kept in step with the parent links under the write lock
+     */
+    private final TreePaths<String> pagePaths = new TreePaths<>();
+
+    /*
+    Every page id, for completion and misspelt links
+     */
+    private final PrefixTrie<String> pageIds = new PrefixTrie<>();
+
+    /**
+     * Rebuilds the ACL index and the published versions of the pages loaded from storage
+     */
+    @PostConstruct
+    public void restore() {
+        final Collection<Page> stored = pageRepository.findAll();
+        if (stored.isEmpty()) {
+            return;
+        }
+        versionService.begin();
+        try {
+            for (Page component : stored) {
+                aclIndexService.indexComponent(component);
+                versionService.touch(component);
+                pagePaths.put(component.getPageID(), component.getParentPageID());
+                pageIds.add(component.getPageID(), component.getPageID());
+                linkIndexService.indexPage(component.getPageID(), component.getContent());
+            }
+        } finally {
+            versionService.commit();
+        }
+        log.info("Restored " + stored.size() + " pages from storage");
+    }
+
+    /**
+     * @throws PageAlreadyExistsException if a page with the id exists, pages are never replaced by creating them again
+     */
     public void create(final String pageID, final String parentPageID, final User owner, final String content,
                        final Map<String, String> accessMap) throws Exception {
         log.info("Creating page with pageId:" + pageID);
+        versionService.begin();
+        try {
+            createPage(pageID, parentPageID, owner, content, accessMap);
+        } finally {
+            versionService.commit();
+        }
+    }
+
+    private void createPage(final String pageID, final String parentPageID, final User owner, final String content,
+                            final Map<String, String> accessMap) throws Exception {
+        if (read(pageID) != null) {
+            // Replacing it would leave its grants, links and inheritance edges indexed under the new page
+            throw new PageAlreadyExistsException("Page " + pageID + " already exists");
+        }
+        if (pagePaths.wouldCycle(pageID, parentPageID)) {
+            throw new Exception("A page cannot be placed below itself");
+        }
+        final Page parentPage = parentPageID == null ? null : read(parentPageID);
         Page page = Page.Builder
                 .newInstance()
                 .withPageID(pageID)
                 .withParentPageID(parentPageID)
+                .withRootPageID(parentPage == null ? null : parentPage.getRootPageID())
                 .withOwner(owner)
                 .withContent(content)
                 .build();
 
+        // Grants given while creating are recorded as made by the owner creating the component
+        final String requesterId = owner == null ? null : owner.getId();
         if (accessMap != null) {
             log.info("Assigning access rights to component");
             for (final String collaboratorId : accessMap.keySet()) {
@@ -54,36 +155,188 @@ public class PageService {
                         throw new Exception("Given user in access map does not exist");
                     }
                 }
-                accessService.assignAccess(page, AccessType.valueOf(accessMap.get(collaboratorId)), collaborator);
+                accessService.assignAccess(page, AccessType.valueOf(accessMap.get(collaboratorId)), collaborator, null,
+                        requesterId);
             }
         } else {
             log.info("Inheriting access from parent hierarchy");
-            page.setAccessMap(inheritAccess(page));
+            inheritAccess(page, requesterId);
         }
         log.info("Page created:" + page.toString());
-        pages.put(pageID, page);
+        pageRepository.save(page);
+        if (parentPage != null) {
+            // Inheritance edges recorded on the parent
+            pageRepository.save(parentPage);
+        }
+        versionService.touch(page);
+        aclIndexService.indexComponent(page);
+        pagePaths.put(pageID, parentPageID);
+        pageIds.add(pageID, pageID);
+        linkIndexService.indexPage(pageID, content);
+        changeEventService.publish(ChangeEvent.Builder
+                .newInstance()
+                .withType(EventType.PAGE_CREATED)
+                .withEntityId(pageID)
+                .withActorId(requesterId)
+                .withDetail("parentPageId", parentPageID));
 
     }
 
     public Page read(final String pageID) {
-        return pages.getOrDefault(pageID, null);
+        return pageRepository.findById(pageID);
+    }
+
+    public Collection<Page> getAllPages() {
+        return pageRepository.findAll();
+    }
+
+    /**
+     * @return ids of the pages from the root of the page's tree down to the page itself, empty if there is no such
+     * page. A parent that was deleted ends the path.
+     */
+    public List<String> getBreadcrumbs(final String pageID) {
+        return pagePaths.getPath(pageID);
+    }
+
+    /**
+     * @return true if the page lies anywhere below ancestorID, in constant time
+     */
+    public boolean isAncestor(final String ancestorID, final String pageID) {
+        return pagePaths.isAncestor(ancestorID, pageID);
+    }
+
+    /**
+     * Stores changes made in place to a stored page. Pages still being created are stored once complete.
+     */
+    public void save(final Page page) {
+        if (pageRepository.findById(page.getPageID()) == page) {
+            pageRepository.save(page);
+        }
+    }
+
+    /**
+     * Installs a page replicated from the leader. An existing page is updated in place so it keeps its attachments.
+     * No authorization and no change event: the leader already did both.
+     */
+    public Page applyReplica(final String pageID, final String parentPageID, final String rootPageID, final User owner,
+                             final String content, final Map<AccessType, List<Collaborator>> accessMap,
+                             final Map<Collaborator, Long> expiries) {
+        versionService.begin();
+        try {
+            final Page page = installReplica(pageID, parentPageID, rootPageID, owner, content, accessMap, expiries);
+            versionService.touch(page);
+            return page;
+        } finally {
+            versionService.commit();
+        }
+    }
+
+    private Page installReplica(final String pageID, final String parentPageID, final String rootPageID, final User owner,
+                                final String content, final Map<AccessType, List<Collaborator>> accessMap,
+                                final Map<Collaborator, Long> expiries) {
+        // Moves the subtree along when the parent changed, refuses a parent below the page before anything changes
+        pagePaths.put(pageID, parentPageID);
+        Page page = pageRepository.findById(pageID);
+        if (page == null) {
+            page = Page.Builder
+                    .newInstance()
+                    .withPageID(pageID)
+                    .withParentPageID(parentPageID)
+                    .withRootPageID(rootPageID)
+                    .withOwner(owner)
+                    .withContent(content)
+                    .build();
+        } else {
+            aclIndexService.unindexComponent(page);
+            if (!Objects.equals(parentPageID, page.getParentPageID())) {
+                detachFromParent(page);
+                page.setParentPageID(parentPageID);
+            }
+            page.setOwner(owner);
+            page.setContent(content);
+        }
+        page.setAccessMap(accessMap);
+        page.setExpiries(expiries);
+        pageRepository.save(page);
+        aclIndexService.indexComponent(page);
+        pageIds.add(pageID, pageID);
+        linkIndexService.indexPage(pageID, content);
+        return page;
+    }
+
+    /**
+     * Replaces the inheritance edges recorded on a page, as found in an archive
+     */
+    public void applyInheritors(final Page page, final Map<Collaborator, Set<String>> inheritorEdges) {
+        versionService.begin();
+        try {
+            for (Collaborator collaborator : new ArrayList<>(page.getInheritorEdges().keySet())) {
+                page.removeInheritors(collaborator);
+            }
+            for (Map.Entry<Collaborator, Set<String>> edges : inheritorEdges.entrySet()) {
+                for (String componentKey : edges.getValue()) {
+                    page.addInheritor(edges.getKey(), componentKey);
+                }
+            }
+            pageRepository.save(page);
+        } finally {
+            versionService.commit();
+        }
+    }
+
+    public boolean removeReplica(final String pageID) {
+        versionService.begin();
+        try {
+            final Page page = pageRepository.delete(pageID);
+            if (page == null) {
+                return false;
+            }
+            versionService.remove(page);
+            aclIndexService.unindexComponent(page);
+            pagePaths.remove(pageID);
+            pageIds.remove(pageID, pageID);
+            linkIndexService.unindexPage(pageID);
+            detachFromParent(page);
+            return true;
+        } finally {
+            versionService.commit();
+        }
+    }
+
+    public Set<String> getChildren(final String pageID) {
+        return pageRepository.findChildIds(pageID);
     }
 
     public String update(final String pageId, final UpdateComponentDto updateArgs, final String requesterId) {
+        versionService.begin();
+        try {
+            return updatePage(pageId, updateArgs, requesterId);
+        } finally {
+            versionService.commit();
+        }
+    }
+
+    private String updatePage(final String pageId, final UpdateComponentDto updateArgs, final String requesterId) {
         if (isAuthorizedToPerformAction(Action.UPDATE, pageId, requesterId, Boolean.parseBoolean(updateArgs.getIsIndividualUser()))) {
-            if (pages.containsKey(pageId)) {
-                Page page = pages.get(pageId);
+            Page page = read(pageId);
+            if (page != null) {
                 if (updateArgs.getContents() != null) {
                     page.setContent(updateArgs.getContents());
+                    linkIndexService.indexPage(pageId, page.getContent());
                 }
 
                 if (updateArgs.getOwnerId() != null) {
                     if (isRequesterIsOwner(page, requesterId)) {
                         log.info("Transferring ownership of page");
                         User owner = userService.read(updateArgs.getOwnerId());
+                        aclIndexService.changeOwner(page, page.getOwner(), owner);
                         page.setOwner(owner);
+                        auditService.recordOwnerChange(page, requesterId, owner);
                     }
                 }
+                pageRepository.save(page);
+                versionService.touch(page);
+                changeEventService.publish(EventType.PAGE_UPDATED, pageId, requesterId);
                 return "Successfully updated page";
             } else {
                 return "Page not found";
@@ -94,23 +347,335 @@ public class PageService {
 
     }
 
+    /**
+     * Applies positional edits to the page's content. Unchanged chunks of the content are shared with the previous
+     * version, so an edit costs O(log n) plus its own size instead of a copy of the page. Links are only indexed
+     * again when an edit changes the links on the lines it touches.
+     *
+     * @return the version published by the edits
+     * @throws VersionConflictException if the page changed since patchArgs' base version
+     * @throws IllegalArgumentException if patchArgs has no base version, or if an edit falls outside the content; no
+     * edit is applied then
+     */
+    public long patch(final String pageId, final PatchComponentDto patchArgs) {
+        // Positional edits only make sense against the text they were made on
+        if (patchArgs.getBaseVersion() <= 0) {
+            throw new IllegalArgumentException("baseVersion is required, the ETag of the read the edits were made on");
+        }
+        final String requesterId = patchArgs.getRequesterId();
+        final List<ContentEditDto> edits = patchArgs.getEdits() == null ? Collections.emptyList() : patchArgs.getEdits();
+        versionService.begin();
+        try {
+            final Page page = read(pageId);
+            if (page == null) {
+                throw new PageNotFoundException("Page not found");
+            }
+            if (!isAuthorizedToPerformAction(Action.UPDATE, page, requesterId,
+                    Boolean.parseBoolean(patchArgs.getIsIndividualUser()))) {
+                throw new AccessDeniedException("Not authorized to perform action on given component");
+            }
+            final long currentVersion;
+            try (VersionService.Snapshot snapshot = versionService.pin()) {
+                currentVersion = versionService.readPage(snapshot, pageId).getVersion();
+            }
+            if (patchArgs.getBaseVersion() != currentVersion) {
+                throw new VersionConflictException("Page changed since version " + patchArgs.getBaseVersion(),
+                        currentVersion);
+            }
+
+            Rope content = page.getContentRope();
+            boolean linksChanged = false;
+            for (int i = 0; i < edits.size(); i++) {
+                final ContentEditDto edit = edits.get(i);
+                final String text = edit.getText() == null ? "" : edit.getText();
+                final int end = edit.getOffset() + edit.getDeleteLength();
+                if (edit.getOffset() < 0 || edit.getDeleteLength() < 0 || end < 0 || end > content.length()) {
+                    throw new IllegalArgumentException("Edit " + i + " is outside of the content of length " + content.length());
+                }
+                // Links never span lines, so only the lines around the edit can gain or lose any
+                final int lineStart = content.lastIndexOf('\n', edit.getOffset() - 1) + 1;
+                final int lineEnd = content.indexOf('\n', end);
+                final int oldEnd = lineEnd < 0 ? content.length() : lineEnd;
+                final Set<String> linksBefore = linksChanged ? null
+                        : WikiMarkup.extractLinks(content.substring(lineStart, oldEnd));
+                content = content.replace(edit.getOffset(), end, text);
+                linksChanged = linksChanged || !linksBefore.equals(WikiMarkup.extractLinks(
+                        content.substring(lineStart, oldEnd - edit.getDeleteLength() + text.length())));
+            }
+            if (edits.isEmpty()) {
+                return currentVersion;
+            }
+
+            page.setContentRope(content);
+            if (linksChanged) {
+                linkIndexService.indexPage(pageId, page.getContent());
+            }
+            pageRepository.save(page);
+            versionService.touch(page);
+            final long version = versionService.nextVersion();
+            changeEventService.publish(EventType.PAGE_UPDATED, pageId, requesterId);
+            return version;
+        } finally {
+            versionService.commit();
+        }
+    }
+
+    /**
+     * Saves the content of a collaborative editing session. Editors were authorized when they joined the session, so
+     * no decision is made here. merge runs within the write, so nobody can change the page between merge seeing its
+     * content and its result being saved.
+     *
+     * @param merge given the page's current content, returns the content to save
+     * @return the saved content, null if the page is gone
+     */
+    public Rope checkpoint(final String pageId, final UnaryOperator<Rope> merge, final String requesterId) {
+        versionService.begin();
+        try {
+            final Page page = read(pageId);
+            if (page == null) {
+                return null;
+            }
+            final Rope current = page.getContentRope();
+            final Rope content = merge.apply(current);
+            if (content != current) {
+                page.setContentRope(content);
+                linkIndexService.indexPage(pageId, page.getContent());
+                pageRepository.save(page);
+                versionService.touch(page);
+                changeEventService.publish(EventType.PAGE_UPDATED, pageId, requesterId);
+            }
+            return content;
+        } finally {
+            versionService.commit();
+        }
+    }
+
+    /**
+     * Reads the page as of the latest committed write, without waiting for writes in progress. The returned page is
+     * an immutable copy.
+     */
     public Page accessPage(final String pageID, final String requesterId, final boolean isIndividualUser) {
-        if (isAuthorizedToPerformAction(Action.READ, pageID, requesterId, isIndividualUser)) {
-            return read(pageID);
+        try (VersionService.Snapshot snapshot = versionService.pin()) {
+            final Page page = versionService.readPage(snapshot, pageID);
+            if (page != null && isAuthorizedToPerformAction(Action.READ, page, requesterId, isIndividualUser)) {
+                hotKeyService.recordRead(page.getComponentKey());
+                return page;
+            } else {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Reads pages with what a page view shows around them: readable attachments, owner, readable children and
+     * breadcrumb. The requester and its teams are resolved once for all pages, and all pages are read from one
+     * snapshot. Each view goes to the sink as soon as it is complete, in the order of pageIDs. Pages that are missing
+     * or unreadable produce a view with found unset.
+     */
+    public void readViews(final List<String> pageIDs, final String requesterId, final boolean isIndividualUser,
+                          final Consumer<PageViewDto> sink) {
+        final Predicate<Component> readable = readerOf(requesterId, isIndividualUser);
+        try (VersionService.Snapshot snapshot = versionService.pin()) {
+            for (String pageID : pageIDs) {
+                final PageViewDto view = new PageViewDto();
+                view.setPageId(pageID);
+                final Page page = versionService.readPage(snapshot, pageID);
+                if (page == null || !readable.test(page)) {
+                    sink.accept(view);
+                    continue;
+                }
+                hotKeyService.recordRead(page.getComponentKey());
+                view.setFound(true);
+                view.setParentPageId(page.getParentPageID());
+                view.setVersion(page.getVersion());
+                view.setContent(page.getContent());
+                if (page.getOwner() != null) {
+                    view.setOwner(new UserSummaryDto(page.getOwner().getId(), page.getOwner().getUsername()));
+                }
+
+                final List<AttachmentSummaryDto> attachments = new ArrayList<>();
+                for (Attachment attachment : versionService.listAttachments(snapshot, pageID)) {
+                    if (readable.test(attachment)) {
+                        attachments.add(new AttachmentSummaryDto(attachment.getPageID(), attachment.getFilename(),
+                                attachment.getOwner() == null ? null : attachment.getOwner().getId(),
+                                attachment.getContents() == null ? 0 : attachment.getContents().length()));
+                    }
+                }
+                view.setAttachments(attachments);
+
+                final List<PageSummaryDto> children = new ArrayList<>();
+                for (String childID : versionService.listChildren(snapshot, pageID)) {
+                    final Page child = versionService.readPage(snapshot, childID);
+                    if (child != null && readable.test(child)) {
+                        children.add(new PageSummaryDto(childID,
+                                child.getOwner() == null ? null : child.getOwner().getId()));
+                    }
+                }
+                view.setChildren(children);
+                view.setBreadcrumb(versionService.getPath(snapshot, pageID));
+                sink.accept(view);
+            }
+        }
+    }
+
+    /**
+     * @return the page's view, or null if it does not exist or the requester may not read it
+     */
+    public PageViewDto readView(final String pageID, final String requesterId, final boolean isIndividualUser) {
+        final PageViewDto[] output = new PageViewDto[1];
+        readViews(Collections.singletonList(pageID), requesterId, isIndividualUser, view -> output[0] = view);
+        return output[0].isFound() ? output[0] : null;
+    }
+
+    /**
+     * Page ids the requester can read that start with the query, in id order. With maxEdits above 0, ids within that
+     * many edits of the whole query instead, closest first. Cost grows with the candidates the requester may not read.
+     */
+    public List<String> suggest(final String query, final int maxEdits, final int limit, final String requesterId,
+                                final boolean isIndividualUser) {
+        try (VersionService.Snapshot snapshot = versionService.pin()) {
+            final Predicate<String> readable = readerIn(snapshot, requesterId, isIndividualUser);
+            final List<PrefixTrie.Match<String>> matches = maxEdits > 0
+                    ? pageIds.withinEdits(query, maxEdits, limit, readable)
+                    : pageIds.withPrefix(query, limit, readable);
+            final List<String> output = new ArrayList<>(matches.size());
+            for (PrefixTrie.Match<String> match : matches) {
+                output.add(match.getValue());
+            }
+            return output;
+        }
+    }
+
+    /**
+     * @return pages the requester can read whose content links to the given page, which need not exist
+     */
+    public List<String> getBacklinks(final String pageID, final String requesterId, final boolean isIndividualUser) {
+        final List<String> output = new ArrayList<>();
+        try (VersionService.Snapshot snapshot = versionService.pin()) {
+            final Predicate<String> readable = readerIn(snapshot, requesterId, isIndividualUser);
+            for (String source : linkIndexService.getBacklinks(pageID)) {
+                if (readable.test(source)) {
+                    output.add(source);
+                }
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Links to pages that do not exist, from pages the requester can read. With a page id, only the links on that
+     * page. Otherwise every broken link in the wiki by target, after the given target; the links to one target are
+     * never split, so limit may be exceeded by those of the last target returned.
+     */
+    public List<BrokenLinkDto> getBrokenLinks(final String pageID, final String afterTargetID, final int limit,
+                                              final String requesterId, final boolean isIndividualUser) {
+        final List<BrokenLinkDto> output = new ArrayList<>();
+        try (VersionService.Snapshot snapshot = versionService.pin()) {
+            final Predicate<String> readable = readerIn(snapshot, requesterId, isIndividualUser);
+            if (pageID != null) {
+                if (readable.test(pageID)) {
+                    for (String target : linkIndexService.getLinks(pageID)) {
+                        if (linkIndexService.isMissing(target)) {
+                            output.add(new BrokenLinkDto(pageID, target));
+                        }
+                    }
+                }
+                return output;
+            }
+            final Set<String> targets = afterTargetID == null ? linkIndexService.getMissingTargets()
+                    : linkIndexService.getMissingTargets().tailSet(afterTargetID, false);
+            for (String target : targets) {
+                if (output.size() >= limit) {
+                    break;
+                }
+                for (String source : linkIndexService.getBacklinks(target)) {
+                    if (readable.test(source)) {
+                        output.add(new BrokenLinkDto(source, target));
+                    }
+                }
+            }
+        }
+        return output;
+    }
+
+    /**
+     * @return READ decisions on page ids as of the snapshot, with the requester and its teams resolved once. Pages
+     * missing at the snapshot are not readable. Every test is an audited decision, like a read.
+     */
+    public Predicate<String> readerIn(final VersionService.Snapshot snapshot, final String requesterId,
+                                      final boolean isIndividualUser) {
+        final Predicate<Component> readable = readerOf(requesterId, isIndividualUser);
+        return pageID -> {
+            final Page page = versionService.readPage(snapshot, pageID);
+            return page != null && readable.test(page);
+        };
+    }
+
+    /*
+    READ decisions for any number of components with the requester and its teams resolved up front, each one audited
+    like a single read
+     */
+    private Predicate<Component> readerOf(final String requesterId, final boolean isIndividualUser) {
+        final Collaborator collaborator;
+        final boolean isAdmin;
+        if (isIndividualUser) {
+            collaborator = userService.read(requesterId);
+            isAdmin = false;
         } else {
-            return null;
+            final Team team = teamService.read(requesterId);
+            collaborator = team;
+            isAdmin = team != null && team.isAdmin();
+        }
+        final Set<Team> teams = teamService.getEffectiveTeams(collaborator);
+        return component -> {
+            final boolean allowed = isAdmin || component.isOwnedBy(requesterId)
+                    || component.permits(Action.READ, collaborator, teams);
+            auditService.recordDecision(Action.READ, component.getComponentKey(), requesterId, !isIndividualUser,
+                    allowed);
+            return allowed;
+        };
+    }
+
+    /**
+     * Decides whether the requester may perform the action on the page as of the latest committed write
+     */
+    public boolean isAuthorized(final Action action, final String pageID, final String requesterId,
+                                final boolean isIndividualUser) {
+        try (VersionService.Snapshot snapshot = versionService.pin()) {
+            final Page page = versionService.readPage(snapshot, pageID);
+            if (page == null) {
+                auditService.recordDecision(action, ComponentType.PAGE.keyOf(pageID), requesterId, !isIndividualUser,
+                        false);
+                return false;
+            }
+            return isAuthorizedToPerformAction(action, page, requesterId, isIndividualUser);
         }
     }
 
     private boolean isRequesterIsOwner(final Page page, final String requesterId) {
-        return page.getOwner().getUsername().equals(requesterId);
+        return page.isOwnedBy(requesterId);
     }
 
     private boolean isAuthorizedToPerformAction(final Action action, final String pageID, final String requesterId,
                                                 final boolean isIndividualUser) {
 
         final Page page = read(pageID);
+        if (page == null) {
+            auditService.recordDecision(action, ComponentType.PAGE.keyOf(pageID), requesterId, !isIndividualUser, false);
+            return false;
+        }
+        return isAuthorizedToPerformAction(action, page, requesterId, isIndividualUser);
+    }
+
+    private boolean isAuthorizedToPerformAction(final Action action, final Page page, final String requesterId,
+                                                final boolean isIndividualUser) {
+        final boolean allowed = decide(action, page, requesterId, isIndividualUser);
+        auditService.recordDecision(action, page.getComponentKey(), requesterId, !isIndividualUser, allowed);
+        return allowed;
+    }
 
+    private boolean decide(final Action action, final Page page, final String requesterId,
+                           final boolean isIndividualUser) {
         if (isRequesterIsOwner(page, requesterId)) {
             return true;
         }
@@ -120,70 +685,108 @@ public class PageService {
             collaborator = userService.read(requesterId);
         } else {
             Team team = teamService.read(requesterId);
-            if (team.isAdmin()) {
+            if (team != null && team.isAdmin()) {
                 return true;
             }
             collaborator = team;
         }
 
-        List<AccessType> allowedAccessTypes = authorizedActionsMap.get(action);
+        return page.permits(action, collaborator, teamService.getEffectiveTeams(collaborator));
+    }
 
-        Map<AccessType, List<Collaborator>> accessMap = page.getAccessMap();
+    public boolean delete(final String pageID, final String requesterId, final boolean isIndividualUser) {
+        return delete(pageID, requesterId, isIndividualUser, false);
+    }
 
-        for (AccessType allowedAccessType : allowedAccessTypes) {
-            if (accessMap.get(allowedAccessType).contains(collaborator)) {
-                return true;
-            }
+    /**
+     * Deletes a page together with its attachments. With recursive set the whole subtree goes, but only if the
+     * requester may delete every page in it; otherwise child pages are kept and simply lose their parent.
+     */
+    public boolean delete(final String pageID, final String requesterId, final boolean isIndividualUser,
+                          final boolean recursive) {
+        versionService.begin();
+        try {
+            return deletePages(pageID, requesterId, isIndividualUser, recursive);
+        } finally {
+            versionService.commit();
         }
-
-        return false;
     }
 
-    public boolean delete(final String pageID, final String requesterId, final boolean isIndividualUser) {
-        if (isAuthorizedToPerformAction(Action.DELETE, pageID, requesterId, isIndividualUser)) {
-            if (pages.containsKey(pageID)) {
-                pages.remove(pageID);
-                return true;
-            } else {
+    private boolean deletePages(final String pageID, final String requesterId, final boolean isIndividualUser,
+                                final boolean recursive) {
+        if (read(pageID) == null) {
+            return false;
+        }
+
+        final List<String> subtree = new ArrayList<>();
+        subtree.add(pageID);
+        if (recursive) {
+            for (int i = 0; i < subtree.size(); i++) {
+                subtree.addAll(getChildren(subtree.get(i)));
+            }
+        }
+
+        for (String id : subtree) {
+            if (!isAuthorizedToPerformAction(Action.DELETE, id, requesterId, isIndividualUser)) {
                 return false;
             }
-        } else {
-            return false;
         }
-    }
 
+        // Children first, so every page is detached from a parent that still exists
+        for (int i = subtree.size() - 1; i >= 0; i--) {
+            final Page page = pageRepository.delete(subtree.get(i));
+            versionService.remove(page);
+            aclIndexService.unindexComponent(page);
+            pagePaths.remove(page.getPageID());
+            pageIds.remove(page.getPageID(), page.getPageID());
+            linkIndexService.unindexPage(page.getPageID());
+            attachmentService.deleteAllForPage(page.getPageID(), requesterId);
+            detachFromParent(page);
+            changeEventService.publish(EventType.PAGE_DELETED, page.getPageID(), requesterId);
+        }
+        return true;
+    }
 
-    private Map<AccessType, List<Collaborator>> inheritAccess(final Page page) {
-        Map<AccessType, List<Collaborator>> accessMap = new HashMap<>();
 
-        List<Collaborator> readWriteGroup = new ArrayList<>();
-        List<Collaborator> readGroup = new ArrayList<>();
-        List<Collaborator> noAccessGroup = new ArrayList<>();
+    /*
+    Copies the parent's grants onto a new page and records each copied grant on the parent,
+    so AccessService can propagate later revocations and level changes to exactly these pages. The copies are
+    recorded as made by the requester creating the page.
+     */
+    private void inheritAccess(final Page page, final String requesterId) {
+        page.getAccessMap().put(AccessType.READ_WRITE, new ArrayList<>());
+        page.getAccessMap().put(AccessType.READ_ONLY, new ArrayList<>());
+        page.getAccessMap().put(AccessType.NO_ACCESS, new ArrayList<>());
 
         Page parentPage = read(page.getParentPageID());
         if (parentPage != null && parentPage.getPageID() != null) {
             // Add parent owner to RW
-            readWriteGroup.add(parentPage.getOwner());
+            page.putGrant(parentPage.getOwner(), AccessType.READ_WRITE);
+            auditService.recordAclChange(AuditType.GRANT, page, requesterId, parentPage.getOwner(),
+                    AccessType.READ_WRITE);
 
             //Add Inherited Access
-            if (parentPage.getAccessMap() != null) {
-                if (parentPage.getAccessMap().get(AccessType.READ_WRITE) != null)
-                    readWriteGroup.addAll(parentPage.getAccessMap().get(AccessType.READ_WRITE));
-
-                if (parentPage.getAccessMap().get(AccessType.READ_ONLY) != null)
-                    readGroup.addAll(parentPage.getAccessMap().get(AccessType.READ_ONLY));
-
-                if (parentPage.getAccessMap().get(AccessType.NO_ACCESS) != null)
-                    noAccessGroup.addAll(parentPage.getAccessMap().get(AccessType.NO_ACCESS));
+            for (Map.Entry<Collaborator, AccessType> grant : parentPage.getGrants().entrySet()) {
+                if (page.getAccessType(grant.getKey()) == null) {
+                    page.putGrant(grant.getKey(), grant.getValue());
+                    page.setExpiry(grant.getKey(), parentPage.getExpiry(grant.getKey()));
+                    parentPage.addInheritor(grant.getKey(), page.getComponentKey());
+                    auditService.recordAclChange(AuditType.GRANT, page, requesterId, grant.getKey(), grant.getValue());
+                }
             }
         }
-
-        accessMap.put(AccessType.READ_WRITE, readWriteGroup);
-        accessMap.put(AccessType.READ_ONLY, readGroup);
-        accessMap.put(AccessType.NO_ACCESS, noAccessGroup);
-
-        return accessMap;
     }
 
-
+    private void detachFromParent(final Page page) {
+        if (page.getParentPageID() == null) {
+            return;
+        }
+        final Page parentPage = read(page.getParentPageID());
+        if (parentPage != null) {
+            for (Collaborator collaborator : page.getGrants().keySet()) {
+                parentPage.removeInheritor(collaborator, page.getComponentKey());
+            }
+            pageRepository.save(parentPage);
+        }
+    }
 }
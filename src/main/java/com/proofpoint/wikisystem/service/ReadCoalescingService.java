@@ -0,0 +1,92 @@
+package com.proofpoint.wikisystem.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.proofpoint.wikisystem.model.Component;
+import com.proofpoint.wikisystem.payload.CoalescingStatusDto;
+import com.proofpoint.wikisystem.util.ByteBoundedCache;
+import com.proofpoint.wikisystem.util.SingleFlight;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serializes each published version of a page or attachment once. Versions are immutable, so their JSON is cached under
+ * component key and version, and concurrent requests for a version that is still being serialized wait for that
+ * serialization rather than repeating it. Renaming a user or changing a team republishes the components that embed it,
+ * so a cached body never outlives the owner and grantees it shows. Authorization is not shared: callers get here only
+ * after their own access check passed.
+ */
+@Service
+@Slf4j
+@Scope("singleton")
+public class ReadCoalescingService {
+
+    /*
+    Rough per-entry overhead of the key, map entry and array header
+     */
+    private static final long ENTRY_OVERHEAD_BYTES = 128;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${wikisystem.coalescing.cache-max-bytes:33554432}")
+    private long cacheMaxBytes;
+
+    private ByteBoundedCache<String, byte[]> bodies;
+    private final SingleFlight<String, byte[]> serializations = new SingleFlight<>();
+    private final AtomicLong requests = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        bodies = new ByteBoundedCache<>(cacheMaxBytes, body -> body.length + ENTRY_OVERHEAD_BYTES);
+    }
+
+    /**
+     * @return the component's JSON, shared with every other request for the same version
+     */
+    public byte[] toJson(final Component component) {
+        requests.incrementAndGet();
+        if (component.getVersion() == 0) {
+            // Live components can still change, nothing about them can be shared
+            return serialize(component);
+        }
+        final String key = component.getComponentKey() + '@' + component.getVersion();
+        final byte[] cached = bodies.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        return serializations.execute(key, () -> {
+            final byte[] body = serialize(component);
+            bodies.put(key, body);
+            return body;
+        });
+    }
+
+    public CoalescingStatusDto getStatus() {
+        final CoalescingStatusDto status = new CoalescingStatusDto();
+        final long total = requests.get();
+        status.setRequests(total);
+        status.setSerializations(serializations.getLoads());
+        status.setCoalesced(serializations.getCoalesced());
+        status.setCacheHits(bodies.getHits());
+        status.setShared(serializations.getCoalesced() + bodies.getHits());
+        status.setCoalescingRatio(total == 0 ? 0 : (double) status.getShared() / total);
+        status.setCachedBytes(bodies.getCurrentBytes());
+        return status;
+    }
+
+    private byte[] serialize(final Component component) {
+        try {
+            return objectMapper.writeValueAsBytes(component);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
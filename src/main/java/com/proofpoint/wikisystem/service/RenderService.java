@@ -0,0 +1,114 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.model.Page;
+import com.proofpoint.wikisystem.util.ByteBoundedCache;
+import com.proofpoint.wikisystem.util.WikiMarkup;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Renders page content to HTML one block at a time. Each block's HTML is cached under the renderer version, the
+ * hash of the block text and whether the reader can follow each link it holds, so editing one paragraph only
+ * re-renders that paragraph, and creating or deleting a linked page re-renders only the blocks that link to it. Links
+ * to pages the reader may not read render as missing, so a rendering never tells whether such a page exists.
+ */
+@Service
+@Slf4j
+@Scope("singleton")
+public class RenderService {
+
+    /*
+    Rough per-entry overhead of the key, map entry and String header
+     */
+    private static final long ENTRY_OVERHEAD_BYTES = 160;
+
+    @Autowired
+    private PageService pageService;
+
+    @Autowired
+    private VersionService versionService;
+
+    @Value("${wikisystem.render.cache-max-bytes:67108864}")
+    private long cacheMaxBytes;
+
+    private ByteBoundedCache<String, String> blockCache;
+
+    @PostConstruct
+    public void init() {
+        blockCache = new ByteBoundedCache<>(cacheMaxBytes, html -> 2L * html.length() + ENTRY_OVERHEAD_BYTES);
+    }
+
+    /**
+     * Renders the page as the requester sees it, deciding each link against the latest committed write
+     */
+    public String render(final Page page, final String requesterId, final boolean isIndividualUser) {
+        try (VersionService.Snapshot snapshot = versionService.pin()) {
+            return render(page, pageService.readerIn(snapshot, requesterId, isIndividualUser));
+        }
+    }
+
+    /**
+     * Fills the block cache with the page as a reader of every page it links to sees it. Nothing rendered here
+     * reaches a requester.
+     */
+    public void warmUp(final Page page, final VersionService.Snapshot snapshot) {
+        render(page, pageID -> versionService.readPage(snapshot, pageID) != null);
+    }
+
+    public ByteBoundedCache<String, String> getBlockCache() {
+        return blockCache;
+    }
+
+    private String render(final Page page, final Predicate<String> readable) {
+        // Decided once per link, however many blocks hold it
+        final Map<String, Boolean> decisions = new HashMap<>();
+        final Predicate<String> linkable = pageID -> decisions.computeIfAbsent(pageID, readable::test);
+        final StringBuilder html = new StringBuilder();
+        final MessageDigest digest = newDigest();
+        for (String block : WikiMarkup.splitBlocks(page.getContent())) {
+            final String key = cacheKey(digest, block, linkable);
+            String blockHtml = blockCache.get(key);
+            if (blockHtml == null) {
+                blockHtml = WikiMarkup.renderBlock(block, linkable);
+                blockCache.put(key, blockHtml);
+            }
+            html.append(blockHtml);
+        }
+        return html.toString();
+    }
+
+    private String cacheKey(final MessageDigest digest, final String block, final Predicate<String> linkable) {
+        final StringBuilder key = new StringBuilder(96).append(WikiMarkup.RENDERER_VERSION).append(':');
+        for (byte b : digest.digest(block.getBytes(StandardCharsets.UTF_8))) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        final Set<String> links = WikiMarkup.extractLinks(block);
+        if (!links.isEmpty()) {
+            key.append(':');
+            for (String link : links) {
+                key.append(linkable.test(link) ? '1' : '0');
+            }
+        }
+        return key.toString();
+    }
+
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,497 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.model.AccessType;
+import com.proofpoint.wikisystem.model.Attachment;
+import com.proofpoint.wikisystem.model.ChangeEvent;
+import com.proofpoint.wikisystem.model.Collaborator;
+import com.proofpoint.wikisystem.model.Component;
+import com.proofpoint.wikisystem.model.Page;
+import com.proofpoint.wikisystem.model.ReplicationRecordType;
+import com.proofpoint.wikisystem.model.Team;
+import com.proofpoint.wikisystem.model.User;
+import com.proofpoint.wikisystem.payload.ReplicationRecordDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Converts between the in-memory wiki state and replication records. On the leader every change event is turned into
+ * records holding the current state of the entities it touched; on a follower those records are installed through the
+ * services' applyReplica methods. Because records carry state rather than operations they are idempotent, which lets
+ * a follower resume from its last applied event, or from a snapshot, without tracking exactly which records it saw.
+ */
+@Service
+@Slf4j
+@Scope("singleton")
+public class ReplicationRecordService {
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private TeamService teamService;
+
+    @Autowired
+    private PageService pageService;
+
+    @Autowired
+    private AttachmentService attachmentService;
+
+    @Autowired
+    private VersionService versionService;
+
+    /**
+     * @return records describing the state of every entity the event changed, stamped with the event's sequence.
+     * Pages and attachments are read from the latest committed epoch, users and teams under the write lock, so a
+     * record never mixes a write in progress into the state it ships.
+     */
+    public List<ReplicationRecordDto> recordsFor(final ChangeEvent event) {
+        final List<ReplicationRecordDto> records = new ArrayList<>();
+        switch (event.getType()) {
+            case USER_CREATED:
+            case USER_UPDATED:
+            case USER_DELETED:
+                versionService.begin();
+                try {
+                    records.add(userRecord(event.getEntityId()));
+                } finally {
+                    versionService.commit();
+                }
+                break;
+            case TEAM_CREATED:
+            case TEAM_UPDATED:
+            case TEAM_DELETED:
+            case TEAM_MEMBER_ADDED:
+            case TEAM_MEMBER_REMOVED:
+                versionService.begin();
+                try {
+                    records.add(teamRecord(event.getEntityId()));
+                } finally {
+                    versionService.commit();
+                }
+                break;
+            case PAGE_CREATED:
+            case PAGE_UPDATED:
+            case PAGE_DELETED:
+                try (VersionService.Snapshot snapshot = versionService.pin()) {
+                    records.add(pageRecord(snapshot, event.getEntityId()));
+                }
+                break;
+            case ATTACHMENT_CREATED:
+            case ATTACHMENT_UPDATED:
+            case ATTACHMENT_DELETED:
+                try (VersionService.Snapshot snapshot = versionService.pin()) {
+                    records.add(attachmentRecord(snapshot, event.getEntityId()));
+                }
+                break;
+            case ACCESS_GRANTED:
+            case ACCESS_CHANGED:
+            case ACCESS_REVOKED:
+            case ACCESS_EXPIRED:
+                // Level changes and revocations propagate to inheriting pages and attachments, so ship the subtree
+                try (VersionService.Snapshot snapshot = versionService.pin()) {
+                    if (Boolean.parseBoolean(event.getDetails().get("isPage"))) {
+                        addSubtree(snapshot, event.getEntityId(), records);
+                    } else {
+                        records.add(attachmentRecord(snapshot, event.getEntityId()));
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+        for (ReplicationRecordDto record : records) {
+            record.setSequence(event.getSequence());
+            record.setTimestamp(event.getTimestamp());
+        }
+        return records;
+    }
+
+    /**
+     * @return records for the whole current state, ordered so that collaborators precede the components that refer
+     * to them and pages precede their attachments. Pages and attachments are read from one snapshot, pinned in the
+     * same write that reads users and teams, so the export never contains half of a write.
+     */
+    public List<ReplicationRecordDto> snapshot() {
+        final List<ReplicationRecordDto> records;
+        final VersionService.Snapshot pinned;
+        versionService.begin();
+        try {
+            records = collaboratorRecords();
+            pinned = versionService.pin();
+        } finally {
+            versionService.commit();
+        }
+        try (VersionService.Snapshot snapshot = pinned) {
+            records.addAll(componentRecords(versionService.listPages(snapshot), versionService.listAllAttachments(snapshot)));
+        }
+        return records;
+    }
+
+    /**
+     * @return records for every user followed by every team, subteams before the teams containing them, read under
+     * the write lock
+     */
+    public List<ReplicationRecordDto> collaboratorRecords() {
+        final List<ReplicationRecordDto> records = new ArrayList<>();
+        versionService.begin();
+        try {
+            for (User user : userService.getAllUsers()) {
+                records.add(userRecord(user));
+            }
+            final Set<Team> added = new HashSet<>();
+            for (Team team : teamService.getAllTeams()) {
+                addTeam(team, added, records::add);
+            }
+        } finally {
+            versionService.commit();
+        }
+        return records;
+    }
+
+    /**
+     * @return the page's record together with its inheritance edges, for archives
+     */
+    public ReplicationRecordDto pageRecord(final Page page, final Map<Collaborator, Set<String>> inheritorEdges) {
+        final ReplicationRecordDto record = pageRecord(page);
+        if (!inheritorEdges.isEmpty()) {
+            final Map<String, List<String>> userInheritors = new HashMap<>();
+            final Map<String, List<String>> teamInheritors = new HashMap<>();
+            for (Map.Entry<Collaborator, Set<String>> edges : inheritorEdges.entrySet()) {
+                (edges.getKey() instanceof Team ? teamInheritors : userInheritors)
+                        .put(edges.getKey().getId(), new ArrayList<>(edges.getValue()));
+            }
+            record.setUserInheritors(userInheritors);
+            record.setTeamInheritors(teamInheritors);
+        }
+        return record;
+    }
+
+    /**
+     * @return records for the given pages followed by the given attachments
+     */
+    public List<ReplicationRecordDto> componentRecords(final Collection<Page> pages, final Collection<Attachment> attachments) {
+        final List<ReplicationRecordDto> records = new ArrayList<>(pages.size() + attachments.size());
+        for (Page page : pages) {
+            records.add(pageRecord(page));
+        }
+        for (Attachment attachment : attachments) {
+            records.add(attachmentRecord(attachment));
+        }
+        return records;
+    }
+
+    public void apply(final ReplicationRecordDto record) {
+        switch (record.getType()) {
+            case USER:
+                if (record.isDeleted()) {
+                    userService.removeReplica(record.getId());
+                } else {
+                    userService.applyReplica(record.getId(), record.getName());
+                }
+                break;
+            case TEAM:
+                if (record.isDeleted()) {
+                    teamService.delete(record.getId());
+                } else {
+                    teamService.applyReplica(record.getId(), record.isAdmin(), resolveUsers(record.getMembers()),
+                            resolveTeams(record.getSubteams()));
+                }
+                break;
+            case PAGE:
+                if (record.isDeleted()) {
+                    pageService.removeReplica(record.getId());
+                } else {
+                    final Page page = pageService.applyReplica(record.getId(), record.getPageId(),
+                            record.getRootPageId(), userService.read(record.getOwnerId()), record.getContent(),
+                            resolveGrants(record), resolveExpiries(record));
+                    if (record.getUserInheritors() != null || record.getTeamInheritors() != null) {
+                        pageService.applyInheritors(page, resolveInheritors(record));
+                    }
+                }
+                break;
+            case ATTACHMENT:
+                if (record.isDeleted()) {
+                    attachmentService.removeReplica(record.getId());
+                } else {
+                    attachmentService.applyReplica(record.getPageId(), record.getName(), record.getContent(),
+                            userService.read(record.getOwnerId()), resolveGrants(record), resolveExpiries(record));
+                }
+                break;
+            default:
+                log.info("Ignoring replication record:" + record);
+        }
+    }
+
+    /**
+     * Removes local entities that were absent from a snapshot, i.e. deleted on the leader while this follower could
+     * not follow the log. Components go before the collaborators they may refer to.
+     *
+     * @param retained ids seen in the snapshot, per record type
+     * @return number of entities removed
+     */
+    public int removeAllExcept(final Map<ReplicationRecordType, Set<String>> retained) {
+        int removed = 0;
+        for (Attachment attachment : attachmentService.getAllAttachments()) {
+            if (!retainedIds(retained, ReplicationRecordType.ATTACHMENT).contains(attachment.getComponentId())
+                    && attachmentService.removeReplica(attachment.getComponentId())) {
+                removed++;
+            }
+        }
+        for (Page page : pageService.getAllPages()) {
+            if (!retainedIds(retained, ReplicationRecordType.PAGE).contains(page.getPageID())
+                    && pageService.removeReplica(page.getPageID())) {
+                removed++;
+            }
+        }
+        for (Team team : teamService.getAllTeams()) {
+            if (!retainedIds(retained, ReplicationRecordType.TEAM).contains(team.getId()) && teamService.delete(team.getId())) {
+                removed++;
+            }
+        }
+        for (User user : userService.getAllUsers()) {
+            if (!retainedIds(retained, ReplicationRecordType.USER).contains(user.getId()) && userService.removeReplica(user.getId())) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private Set<String> retainedIds(final Map<ReplicationRecordType, Set<String>> retained, final ReplicationRecordType type) {
+        return retained.getOrDefault(type, Collections.emptySet());
+    }
+
+    /*
+    Team graphs are acyclic, so the recursion ends
+     */
+    private void addTeam(final Team team, final Set<Team> added, final Consumer<ReplicationRecordDto> sink) {
+        if (!added.add(team)) {
+            return;
+        }
+        for (Team subteam : team.getSubteams()) {
+            addTeam(subteam, added, sink);
+        }
+        sink.accept(teamRecord(team));
+    }
+
+    private void addSubtree(final VersionService.Snapshot snapshot, final String pageID,
+                            final List<ReplicationRecordDto> records) {
+        final List<String> subtree = new ArrayList<>();
+        subtree.add(pageID);
+        for (int i = 0; i < subtree.size(); i++) {
+            final Page page = versionService.readPage(snapshot, subtree.get(i));
+            if (page == null) {
+                records.add(tombstone(ReplicationRecordType.PAGE, subtree.get(i)));
+                continue;
+            }
+            records.add(pageRecord(page));
+            for (Attachment attachment : versionService.listAttachments(snapshot, page.getPageID())) {
+                records.add(attachmentRecord(attachment));
+            }
+            subtree.addAll(versionService.listChildren(snapshot, page.getPageID()));
+        }
+    }
+
+    private ReplicationRecordDto userRecord(final String userID) {
+        final User user = userService.read(userID);
+        return user == null ? tombstone(ReplicationRecordType.USER, userID) : userRecord(user);
+    }
+
+    private ReplicationRecordDto userRecord(final User user) {
+        final ReplicationRecordDto record = record(ReplicationRecordType.USER, user.getId());
+        record.setName(user.getUsername());
+        return record;
+    }
+
+    private ReplicationRecordDto teamRecord(final String teamID) {
+        final Team team = teamService.read(teamID);
+        return team == null ? tombstone(ReplicationRecordType.TEAM, teamID) : teamRecord(team);
+    }
+
+    private ReplicationRecordDto teamRecord(final Team team) {
+        final ReplicationRecordDto record = record(ReplicationRecordType.TEAM, team.getId());
+        record.setAdmin(team.isAdmin());
+        final List<String> members = new ArrayList<>(team.getMembers().size());
+        for (User member : team.getMembers()) {
+            members.add(member.getId());
+        }
+        record.setMembers(members);
+        record.setSubteams(team.getSubteamIds());
+        return record;
+    }
+
+    private ReplicationRecordDto pageRecord(final VersionService.Snapshot snapshot, final String pageID) {
+        final Page page = versionService.readPage(snapshot, pageID);
+        return page == null ? tombstone(ReplicationRecordType.PAGE, pageID) : pageRecord(page);
+    }
+
+    private ReplicationRecordDto pageRecord(final Page page) {
+        final ReplicationRecordDto record = componentRecord(ReplicationRecordType.PAGE, page);
+        record.setPageId(page.getParentPageID());
+        record.setRootPageId(page.getRootPageID());
+        record.setContent(page.getContent());
+        return record;
+    }
+
+    private ReplicationRecordDto attachmentRecord(final VersionService.Snapshot snapshot, final String componentId) {
+        final Attachment attachment = versionService.readAttachment(snapshot, componentId);
+        return attachment == null ? tombstone(ReplicationRecordType.ATTACHMENT, componentId) : attachmentRecord(attachment);
+    }
+
+    public ReplicationRecordDto attachmentRecord(final Attachment attachment) {
+        final ReplicationRecordDto record = componentRecord(ReplicationRecordType.ATTACHMENT, attachment);
+        record.setPageId(attachment.getPageID());
+        record.setName(attachment.getFilename());
+        record.setContent(attachment.getContents());
+        return record;
+    }
+
+    private ReplicationRecordDto componentRecord(final ReplicationRecordType type, final Component component) {
+        final ReplicationRecordDto record = record(type, component.getComponentId());
+        record.setOwnerId(component.getOwner() == null ? null : component.getOwner().getId());
+        final Map<AccessType, List<String>> userGrants = new EnumMap<>(AccessType.class);
+        final Map<AccessType, List<String>> teamGrants = new EnumMap<>(AccessType.class);
+        for (Map.Entry<Collaborator, AccessType> grant : component.getGrants().entrySet()) {
+            final Map<AccessType, List<String>> grants = grant.getKey() instanceof Team ? teamGrants : userGrants;
+            grants.computeIfAbsent(grant.getValue(), key -> new ArrayList<>()).add(grant.getKey().getId());
+        }
+        record.setUserGrants(userGrants);
+        record.setTeamGrants(teamGrants);
+        if (!component.getExpiries().isEmpty()) {
+            final Map<String, Long> userGrantExpiries = new HashMap<>();
+            final Map<String, Long> teamGrantExpiries = new HashMap<>();
+            for (Map.Entry<Collaborator, Long> expiry : component.getExpiries().entrySet()) {
+                (expiry.getKey() instanceof Team ? teamGrantExpiries : userGrantExpiries)
+                        .put(expiry.getKey().getId(), expiry.getValue());
+            }
+            record.setUserGrantExpiries(userGrantExpiries);
+            record.setTeamGrantExpiries(teamGrantExpiries);
+        }
+        return record;
+    }
+
+    private ReplicationRecordDto tombstone(final ReplicationRecordType type, final String id) {
+        final ReplicationRecordDto record = record(type, id);
+        record.setDeleted(true);
+        return record;
+    }
+
+    private ReplicationRecordDto record(final ReplicationRecordType type, final String id) {
+        final ReplicationRecordDto record = new ReplicationRecordDto();
+        record.setType(type);
+        record.setId(id);
+        return record;
+    }
+
+    private List<User> resolveUsers(final List<String> userIDs) {
+        final List<User> users = new ArrayList<>();
+        if (userIDs != null) {
+            for (String userID : userIDs) {
+                final User user = userService.read(userID);
+                if (user != null) {
+                    users.add(user);
+                }
+            }
+        }
+        return users;
+    }
+
+    private List<Team> resolveTeams(final List<String> teamIDs) {
+        final List<Team> teams = new ArrayList<>();
+        if (teamIDs != null) {
+            for (String teamID : teamIDs) {
+                final Team team = teamService.read(teamID);
+                if (team != null) {
+                    teams.add(team);
+                }
+            }
+        }
+        return teams;
+    }
+
+    /*
+    Grants to collaborators the follower does not know yet are skipped. The event that created the collaborator
+    precedes any later grant event, which ships the component again.
+     */
+    private Map<AccessType, List<Collaborator>> resolveGrants(final ReplicationRecordDto record) {
+        final Map<AccessType, List<Collaborator>> accessMap = new HashMap<>();
+        for (AccessType accessType : AccessType.values()) {
+            accessMap.put(accessType, new ArrayList<>());
+        }
+        if (record.getUserGrants() != null) {
+            for (Map.Entry<AccessType, List<String>> grants : record.getUserGrants().entrySet()) {
+                for (String userID : grants.getValue()) {
+                    final User user = userService.read(userID);
+                    if (user != null) {
+                        accessMap.get(grants.getKey()).add(user);
+                    }
+                }
+            }
+        }
+        if (record.getTeamGrants() != null) {
+            for (Map.Entry<AccessType, List<String>> grants : record.getTeamGrants().entrySet()) {
+                for (String teamID : grants.getValue()) {
+                    final Team team = teamService.read(teamID);
+                    if (team != null) {
+                        accessMap.get(grants.getKey()).add(team);
+                    }
+                }
+            }
+        }
+        return accessMap;
+    }
+
+    private Map<Collaborator, Set<String>> resolveInheritors(final ReplicationRecordDto record) {
+        final Map<Collaborator, Set<String>> inheritorEdges = new HashMap<>();
+        if (record.getUserInheritors() != null) {
+            for (Map.Entry<String, List<String>> edges : record.getUserInheritors().entrySet()) {
+                final User user = userService.read(edges.getKey());
+                if (user != null) {
+                    inheritorEdges.put(user, new HashSet<>(edges.getValue()));
+                }
+            }
+        }
+        if (record.getTeamInheritors() != null) {
+            for (Map.Entry<String, List<String>> edges : record.getTeamInheritors().entrySet()) {
+                final Team team = teamService.read(edges.getKey());
+                if (team != null) {
+                    inheritorEdges.put(team, new HashSet<>(edges.getValue()));
+                }
+            }
+        }
+        return inheritorEdges;
+    }
+
+    private Map<Collaborator, Long> resolveExpiries(final ReplicationRecordDto record) {
+        final Map<Collaborator, Long> expiries = new HashMap<>();
+        if (record.getUserGrantExpiries() != null) {
+            for (Map.Entry<String, Long> expiry : record.getUserGrantExpiries().entrySet()) {
+                final User user = userService.read(expiry.getKey());
+                if (user != null) {
+                    expiries.put(user, expiry.getValue());
+                }
+            }
+        }
+        if (record.getTeamGrantExpiries() != null) {
+            for (Map.Entry<String, Long> expiry : record.getTeamGrantExpiries().entrySet()) {
+                final Team team = teamService.read(expiry.getKey());
+                if (team != null) {
+                    expiries.put(team, expiry.getValue());
+                }
+            }
+        }
+        return expiries;
+    }
+}
@@ -0,0 +1,403 @@
+package com.proofpoint.wikisystem.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.proofpoint.wikisystem.model.ChangeEvent;
+import com.proofpoint.wikisystem.model.EventType;
+import com.proofpoint.wikisystem.model.ReplicationRecordType;
+import com.proofpoint.wikisystem.model.ReplicationRole;
+import com.proofpoint.wikisystem.payload.FollowerStatusDto;
+import com.proofpoint.wikisystem.payload.ReplicationRecordDto;
+import com.proofpoint.wikisystem.payload.ReplicationStatusDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Leader/follower replication over TCP. The leader listens on wikisystem.replication.port and ships the change event
+ * stream to every connected follower as newline delimited JSON records. A follower connects to the leader, asks for
+ * the events after the last one it applied and installs the records it receives; when it is new, or has fallen further
+ * behind than the leader's event ring retains, it is sent a full snapshot instead. Followers serve reads, writes sent
+ * to them are redirected to the leader.
+ */
+@Service
+@Slf4j
+@Scope("singleton")
+public class ReplicationService {
+
+    @Autowired
+    private ChangeEventService changeEventService;
+
+    @Autowired
+    private ReplicationRecordService replicationRecordService;
+
+    @Autowired
+    private VersionService versionService;
+
+    @Value("${wikisystem.replication.role:standalone}")
+    private String role;
+
+    @Value("${wikisystem.replication.port:9081}")
+    private int port;
+
+    @Value("${wikisystem.replication.leader-host:localhost}")
+    private String leaderHost;
+
+    @Value("${wikisystem.replication.leader-port:9081}")
+    private int leaderPort;
+
+    @Value("${wikisystem.replication.leader-url:http://localhost:8081}")
+    private String leaderUrl;
+
+    @Value("${wikisystem.replication.batch-size:256}")
+    private int batchSize;
+
+    @Value("${wikisystem.replication.poll-interval-ms:20}")
+    private long pollIntervalMs;
+
+    @Value("${wikisystem.replication.heartbeat-interval-ms:1000}")
+    private long heartbeatIntervalMs;
+
+    @Value("${wikisystem.replication.reconnect-interval-ms:1000}")
+    private long reconnectIntervalMs;
+
+    private final ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final Map<Long, FollowerSession> followers = new ConcurrentHashMap<>();
+    private final AtomicLong sessionIds = new AtomicLong();
+    private final Set<Closeable> connections = ConcurrentHashMap.newKeySet();
+    /*
+    Identifies this run of the leader. Sequences restart with the process, so a follower that synced from an earlier
+    run has to load a snapshot rather than resume by sequence.
+     */
+    private final String epoch = UUID.randomUUID().toString();
+
+    private ReplicationRole replicationRole;
+    private ExecutorService executor;
+    private volatile boolean running;
+
+    /*
+    Follower state, written only by the thread following the leader
+     */
+    private volatile boolean connected;
+    private volatile boolean synced;
+    private volatile String leaderEpoch;
+    private volatile long appliedSequence;
+    private volatile long appliedTimestamp;
+    private volatile long leaderSequence;
+    private final AtomicLong snapshotsLoaded = new AtomicLong();
+
+    @PostConstruct
+    public void init() throws IOException {
+        replicationRole = ReplicationRole.valueOf(role.trim().toUpperCase());
+        if (replicationRole == ReplicationRole.STANDALONE) {
+            return;
+        }
+        running = true;
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "replication-" + replicationRole.name().toLowerCase());
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (replicationRole == ReplicationRole.LEADER) {
+            final ServerSocket serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(port));
+            connections.add(serverSocket);
+            executor.submit(() -> acceptFollowers(serverSocket));
+            log.info("Replication leader listening on port:" + port);
+        } else {
+            executor.submit(this::followLeader);
+            log.info("Replication follower of " + leaderHost + ":" + leaderPort);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        for (Closeable connection : connections) {
+            closeQuietly(connection);
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public ReplicationRole getRole() {
+        return replicationRole;
+    }
+
+    public boolean isFollower() {
+        return replicationRole == ReplicationRole.FOLLOWER;
+    }
+
+    public String getLeaderUrl() {
+        return leaderUrl;
+    }
+
+    public ReplicationStatusDto getStatus() {
+        final ReplicationStatusDto status = new ReplicationStatusDto();
+        status.setRole(replicationRole);
+        if (replicationRole == ReplicationRole.FOLLOWER) {
+            final long lagEvents = Math.max(0, leaderSequence - appliedSequence);
+            status.setLeaderSequence(leaderSequence);
+            status.setLeaderUrl(leaderUrl);
+            status.setConnected(connected);
+            status.setAppliedSequence(appliedSequence);
+            status.setLagEvents(synced ? lagEvents : null);
+            status.setLagMillis(synced ? (lagEvents == 0 ? 0 : Math.max(0, System.currentTimeMillis() - appliedTimestamp)) : null);
+            status.setSnapshotsLoaded(snapshotsLoaded.get());
+        } else {
+            final long headSequence = changeEventService.getHeadSequence() - 1;
+            status.setLeaderSequence(headSequence);
+            if (replicationRole == ReplicationRole.LEADER) {
+                final List<FollowerStatusDto> output = new ArrayList<>();
+                for (FollowerSession session : followers.values()) {
+                    output.add(new FollowerStatusDto(session.address, session.shippedSequence,
+                            Math.max(0, headSequence - session.shippedSequence), session.snapshotsSent));
+                }
+                status.setFollowers(output);
+            }
+        }
+        return status;
+    }
+
+    private void acceptFollowers(final ServerSocket serverSocket) {
+        while (running) {
+            try {
+                final Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                executor.submit(() -> serveFollower(socket));
+            } catch (IOException e) {
+                if (running) {
+                    log.error("Failed to accept follower:" + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /*
+    Ships records to one follower until the connection breaks. Each follower has its own cursor into the event ring,
+    so a slow follower never holds back the others or the writers.
+     */
+    private void serveFollower(final Socket socket) {
+        final long id = sessionIds.incrementAndGet();
+        final FollowerSession session = new FollowerSession(String.valueOf(socket.getRemoteSocketAddress()));
+        followers.put(id, session);
+        connections.add(socket);
+        log.info("Follower connected:" + session.address);
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            final String hello = in.readLine();
+            if (hello == null) {
+                return;
+            }
+            final ReplicationRecordDto request = mapper.readValue(hello, ReplicationRecordDto.class);
+            long cursor = request.getSequence();
+            if (cursor <= 0 || !epoch.equals(request.getId())) {
+                cursor = sendSnapshot(out, session);
+            }
+
+            final List<ChangeEvent> batch = new ArrayList<>(batchSize + 1);
+            long lastWrite = System.currentTimeMillis();
+            while (running) {
+                batch.clear();
+                cursor = changeEventService.read(cursor, batchSize, batch);
+                for (ChangeEvent event : batch) {
+                    if (event.getType() == EventType.EVENTS_DROPPED) {
+                        log.info("Follower " + session.address + " fell behind the event ring, sending snapshot");
+                        cursor = sendSnapshot(out, session);
+                        break;
+                    }
+                    for (ReplicationRecordDto record : replicationRecordService.recordsFor(event)) {
+                        write(out, record);
+                    }
+                    session.shippedSequence = event.getSequence();
+                }
+
+                if (!batch.isEmpty()) {
+                    out.flush();
+                    lastWrite = System.currentTimeMillis();
+                } else {
+                    if (System.currentTimeMillis() - lastWrite >= heartbeatIntervalMs) {
+                        write(out, marker(ReplicationRecordType.HEARTBEAT, cursor - 1));
+                        out.flush();
+                        lastWrite = System.currentTimeMillis();
+                    }
+                    Thread.sleep(pollIntervalMs);
+                }
+            }
+        } catch (IOException e) {
+            log.info("Follower " + session.address + " disconnected:" + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            followers.remove(id);
+            connections.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    /*
+    The head sequence is read before the state. Every event below it was published after its change was made, so the
+    snapshot includes all of them, and streaming resumes at the head.
+     */
+    private long sendSnapshot(final Writer out, final FollowerSession session) throws IOException, InterruptedException {
+        final long head = changeEventService.getHeadSequence();
+        final List<ReplicationRecordDto> records = replicationRecordService.snapshot();
+        final ReplicationRecordDto begin = marker(ReplicationRecordType.SNAPSHOT_BEGIN, head - 1);
+        begin.setId(epoch);
+        write(out, begin);
+        for (ReplicationRecordDto record : records) {
+            record.setSequence(head - 1);
+            write(out, record);
+        }
+        write(out, marker(ReplicationRecordType.SNAPSHOT_END, head - 1));
+        out.flush();
+        session.shippedSequence = head - 1;
+        session.snapshotsSent++;
+        log.info("Snapshot of " + records.size() + " records sent to follower " + session.address);
+        return head;
+    }
+
+    private void followLeader() {
+        while (running) {
+            Socket socket = null;
+            Map<ReplicationRecordType, Set<String>> snapshotIds = null;
+            try {
+                socket = new Socket(leaderHost, leaderPort);
+                connections.add(socket);
+                socket.setTcpNoDelay(true);
+                final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                final Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+
+                // Records are idempotent, so resume with the last applied event in case only part of it arrived
+                final ReplicationRecordDto hello = marker(ReplicationRecordType.HELLO, synced ? Math.max(1, appliedSequence) : 0);
+                hello.setId(leaderEpoch);
+                write(out, hello);
+                out.flush();
+                connected = true;
+                log.info("Connected to replication leader, resuming after sequence:" + appliedSequence);
+
+                String line;
+                while ((line = in.readLine()) != null) {
+                    final ReplicationRecordDto record = mapper.readValue(line, ReplicationRecordDto.class);
+                    switch (record.getType()) {
+                        case SNAPSHOT_BEGIN:
+                            leaderEpoch = record.getId();
+                            leaderSequence = record.getSequence();
+                            if (snapshotIds == null) {
+                                // Local readers keep seeing the previous state until the whole snapshot is in
+                                versionService.begin();
+                            }
+                            snapshotIds = new EnumMap<>(ReplicationRecordType.class);
+                            break;
+                        case SNAPSHOT_END:
+                            final int removed = snapshotIds == null ? 0 : replicationRecordService.removeAllExcept(snapshotIds);
+                            if (snapshotIds != null) {
+                                snapshotIds = null;
+                                versionService.commit();
+                            }
+                            synced = true;
+                            snapshotsLoaded.incrementAndGet();
+                            markApplied(record);
+                            log.info("Snapshot loaded at sequence " + record.getSequence() + ", removed " + removed + " stale entities");
+                            break;
+                        case HEARTBEAT:
+                            leaderSequence = Math.max(leaderSequence, record.getSequence());
+                            break;
+                        default:
+                            replicationRecordService.apply(record);
+                            if (snapshotIds != null) {
+                                snapshotIds.computeIfAbsent(record.getType(), key -> new HashSet<>()).add(record.getId());
+                            } else {
+                                markApplied(record);
+                            }
+                    }
+                }
+                log.info("Replication leader closed the connection");
+            } catch (IOException | RuntimeException e) {
+                log.info("Replication connection lost:" + e.getMessage());
+            } finally {
+                connected = false;
+                if (snapshotIds != null) {
+                    versionService.commit();
+                }
+                if (socket != null) {
+                    connections.remove(socket);
+                    closeQuietly(socket);
+                }
+            }
+
+            try {
+                Thread.sleep(reconnectIntervalMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void markApplied(final ReplicationRecordDto record) {
+        appliedSequence = record.getSequence();
+        appliedTimestamp = record.getTimestamp();
+        leaderSequence = Math.max(leaderSequence, record.getSequence());
+    }
+
+    private ReplicationRecordDto marker(final ReplicationRecordType type, final long sequence) {
+        final ReplicationRecordDto record = new ReplicationRecordDto();
+        record.setType(type);
+        record.setSequence(sequence);
+        record.setTimestamp(System.currentTimeMillis());
+        return record;
+    }
+
+    private void write(final Writer out, final ReplicationRecordDto record) throws IOException {
+        out.write(mapper.writeValueAsString(record));
+        out.write('\n');
+    }
+
+    private void closeQuietly(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            log.info("Failed to close replication connection:" + e.getMessage());
+        }
+    }
+
+    private static final class FollowerSession {
+        private final String address;
+        private volatile long shippedSequence;
+        private volatile long snapshotsSent;
+
+        private FollowerSession(final String address) {
+            this.address = address;
+        }
+    }
+}
@@ -0,0 +1,495 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.model.Attachment;
+import com.proofpoint.wikisystem.model.Page;
+import com.proofpoint.wikisystem.payload.ReplicationRecordDto;
+import com.proofpoint.wikisystem.payload.ShardNodeDto;
+import com.proofpoint.wikisystem.payload.ShardStatusDto;
+import com.proofpoint.wikisystem.util.ByteBoundedCache;
+import com.proofpoint.wikisystem.util.HashRing;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Scope;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Partitions pages across nodes. The unit of placement is a page tree: every page carries the id of the root it was
+ * created under, and roots are assigned to nodes on a consistent hash ring, so a child always lives next to its parent
+ * and access inheritance never crosses nodes. Attachments follow their page; attachments without a page form one more
+ * tree under SHARED_TREE. Users and teams are needed for authorization everywhere and are kept on every node.
+ * <p>
+ * When a node joins it announces itself to its peers. Each peer adds it to its ring and hands over the trees the new
+ * node now owns, one tree at a time under a write lock, so requests for a tree see it either before or after the move.
+ * Until every peer has finished, the new node forwards requests for trees it does not hold yet to their previous owner.
+ */
+@Service
+@Slf4j
+@Scope("singleton")
+public class ShardService {
+
+    public static final String HOPS_HEADER = "X-Wiki-Shard-Hops";
+    /*
+    HttpURLConnection cannot send PATCH, forwarded patches travel as POST naming their method here
+     */
+    public static final String METHOD_OVERRIDE_HEADER = "X-HTTP-Method-Override";
+    /*
+    Forwarding stops after this many hops, the last node handles the request with whatever it holds
+     */
+    public static final int MAX_HOPS = 3;
+    /*
+    Routing key of attachments that do not belong to a page
+     */
+    public static final String SHARED_TREE = "";
+
+    private static final String SHARD_PATH = "/wikisystem/shard";
+    private static final long ROOT_CACHE_ENTRY_BYTES = 128;
+
+    @Autowired
+    private PageService pageService;
+
+    @Autowired
+    private AttachmentService attachmentService;
+
+    @Autowired
+    private ReplicationRecordService replicationRecordService;
+
+    @Autowired
+    private VersionService versionService;
+
+    @Value("${wikisystem.sharding.enabled:false}")
+    private boolean enabled;
+
+    @Value("${wikisystem.sharding.node-id:node1}")
+    private String nodeId;
+
+    @Value("${wikisystem.sharding.url:http://localhost:${server.port:8081}}")
+    private String url;
+
+    /*
+    Comma separated id=url pairs of the other nodes, e.g. node2=http://localhost:8082
+     */
+    @Value("${wikisystem.sharding.peers:}")
+    private String peers;
+
+    @Value("${wikisystem.sharding.virtual-nodes:128}")
+    private int virtualNodes;
+
+    /*
+    Set on a node started into a running cluster, so it fetches users and teams and takes over its share of the trees
+     */
+    @Value("${wikisystem.sharding.join:false}")
+    private boolean join;
+
+    @Value("${wikisystem.sharding.root-cache-max-bytes:8388608}")
+    private long rootCacheMaxBytes;
+
+    @Value("${wikisystem.sharding.timeout-ms:5000}")
+    private int timeoutMs;
+
+    private final Map<String, String> nodeUrls = new ConcurrentHashMap<>();
+
+    /*
+    Addresses the other nodes connect from, so only their forwarded requests skip admission here
+     */
+    private final Set<String> peerAddresses = ConcurrentHashMap.newKeySet();
+    private final Set<String> pendingHandoffs = ConcurrentHashMap.newKeySet();
+    private final ReadWriteLock migrationLock = new ReentrantReadWriteLock();
+
+    private volatile HashRing ring;
+    private volatile HashRing previousRing;
+    private ByteBoundedCache<String, String> rootCache;
+    private RestTemplate restTemplate;
+    private ExecutorService rebalancer;
+
+    @PostConstruct
+    public void init() {
+        nodeUrls.put(nodeId, url);
+        for (String peer : peers.split(",")) {
+            final int separator = peer.indexOf('=');
+            if (separator > 0) {
+                nodeUrls.put(peer.substring(0, separator).trim(), peer.substring(separator + 1).trim());
+            }
+        }
+        if (enabled) {
+            for (String node : otherNodes()) {
+                addPeerAddresses(nodeUrls.get(node));
+            }
+        }
+        ring = new HashRing(nodeUrls.keySet(), virtualNodes);
+        rootCache = new ByteBoundedCache<>(rootCacheMaxBytes, root -> ROOT_CACHE_ENTRY_BYTES + 2L * root.length());
+
+        final SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(timeoutMs);
+        requestFactory.setReadTimeout(timeoutMs);
+        restTemplate = new RestTemplate(requestFactory);
+        // Statuses are relayed to the client as they are
+        restTemplate.setErrorHandler(new DefaultResponseErrorHandler() {
+            @Override
+            protected boolean hasError(final HttpStatus statusCode) {
+                return false;
+            }
+        });
+        rebalancer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "shard-rebalancer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (enabled) {
+            log.info("Sharding enabled on node " + nodeId + " with nodes:" + nodeUrls);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (rebalancer != null) {
+            rebalancer.shutdownNow();
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void joinCluster() {
+        if (!enabled || !join) {
+            return;
+        }
+        final List<String> others = otherNodes();
+        previousRing = ring.withoutNode(nodeId);
+        pendingHandoffs.addAll(others);
+
+        for (String peer : others) {
+            try {
+                final ResponseEntity<List<ReplicationRecordDto>> collaborators = restTemplate.exchange(
+                        URI.create(nodeUrls.get(peer) + SHARD_PATH + "/collaborators"), HttpMethod.GET, null,
+                        new ParameterizedTypeReference<List<ReplicationRecordDto>>() {
+                        });
+                if (collaborators.getStatusCode() == HttpStatus.OK && collaborators.getBody() != null) {
+                    collaborators.getBody().forEach(replicationRecordService::apply);
+                    log.info("Loaded " + collaborators.getBody().size() + " users and teams from node " + peer);
+                    break;
+                }
+            } catch (RestClientException e) {
+                log.error("Failed to load users and teams from node " + peer + ":" + e.getMessage());
+            }
+        }
+
+        final ShardNodeDto self = new ShardNodeDto();
+        self.setNodeId(nodeId);
+        self.setUrl(url);
+        for (String peer : others) {
+            try {
+                restTemplate.postForEntity(URI.create(nodeUrls.get(peer) + SHARD_PATH + "/join"), self, String.class);
+            } catch (RestClientException e) {
+                log.error("Failed to announce join to node " + peer + ":" + e.getMessage());
+                completeHandoff(peer);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return true if sharding is enabled and the address is one another node of the cluster connects from
+     */
+    public boolean isPeerAddress(final String remoteAddress) {
+        return enabled && remoteAddress != null && peerAddresses.contains(remoteAddress);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public String getUrl(final String node) {
+        return nodeUrls.get(node);
+    }
+
+    /**
+     * Held by every request served from this node's trees, so a tree is never handed over while one is in flight.
+     */
+    public Lock getRoutingLock() {
+        return migrationLock.readLock();
+    }
+
+    /**
+     * Picks the node that should serve a request for the tree. A tree lives on exactly one node at a time, so a node
+     * holding the page serves the request whatever its ring says.
+     *
+     * @param newTree     whether the request creates the tree, so no node holds it yet
+     * @param heldLocally whether this node holds the page the request is about
+     * @param hops        number of times the request has been forwarded already
+     */
+    public String route(final String rootPageID, final boolean newTree, final boolean heldLocally, final int hops) {
+        if (heldLocally || hops >= MAX_HOPS) {
+            return nodeId;
+        }
+        final String owner = ring.nodeFor(rootPageID);
+        if (!nodeId.equals(owner) || newTree) {
+            return owner;
+        }
+        final HashRing previous = previousRing;
+        if (previous != null) {
+            final String previousOwner = previous.nodeFor(rootPageID);
+            if (previousOwner != null && pendingHandoffs.contains(previousOwner)) {
+                return previousOwner;
+            }
+        }
+        return nodeId;
+    }
+
+    /**
+     * Resolves the tree a page belongs to: from the page itself when it is held here, otherwise from the cache of
+     * earlier lookups or by asking the other nodes. A page that no node knows is treated as the root of its own tree.
+     */
+    public String locateRoot(final String pageID) {
+        final Page page = pageService.read(pageID);
+        if (page != null) {
+            return page.getRootPageID();
+        }
+        final String cached = rootCache.get(pageID);
+        if (cached != null) {
+            return cached;
+        }
+        // The page is most likely a root, which lives on the node its own id hashes to
+        final List<String> candidates = otherNodes();
+        final String likelyOwner = ring.nodeFor(pageID);
+        if (candidates.remove(likelyOwner)) {
+            candidates.add(0, likelyOwner);
+        }
+        for (String node : candidates) {
+            try {
+                final ResponseEntity<String> response = restTemplate.getForEntity(
+                        URI.create(nodeUrls.get(node) + SHARD_PATH + "/locate?pageId=" + encode(pageID)), String.class);
+                if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
+                    rootCache.put(pageID, response.getBody());
+                    return response.getBody();
+                }
+            } catch (RestClientException e) {
+                log.error("Failed to locate page on node " + node + ":" + e.getMessage());
+            }
+        }
+        return pageID;
+    }
+
+    public void forgetRoot(final String pageID) {
+        rootCache.invalidate(pageID);
+    }
+
+    /**
+     * @return root of the page if it is held by this node, otherwise null
+     */
+    public String findLocalRoot(final String pageID) {
+        final Page page = pageService.read(pageID);
+        return page == null ? null : page.getRootPageID();
+    }
+
+    public ResponseEntity<byte[]> forward(final String node, final HttpMethod method, final String pathAndQuery,
+                                          final HttpHeaders headers, final byte[] body) {
+        HttpMethod sent = method;
+        if (method == HttpMethod.PATCH) {
+            headers.set(METHOD_OVERRIDE_HEADER, method.name());
+            sent = HttpMethod.POST;
+        }
+        return restTemplate.exchange(URI.create(nodeUrls.get(node) + pathAndQuery), sent,
+                new HttpEntity<>(body == null || body.length == 0 ? null : body, headers), byte[].class);
+    }
+
+    /**
+     * Repeats a user or team change on every other node. Failures are logged, the node catches up on its next join.
+     */
+    public void broadcast(final HttpMethod method, final String pathAndQuery, final HttpHeaders headers, final byte[] body) {
+        for (String node : otherNodes()) {
+            try {
+                final ResponseEntity<byte[]> response = forward(node, method, pathAndQuery, headers, body);
+                if (!response.getStatusCode().is2xxSuccessful()) {
+                    log.error("Node " + node + " answered " + response.getStatusCode() + " to " + method + " " + pathAndQuery);
+                }
+            } catch (RestClientException e) {
+                log.error("Failed to broadcast " + method + " " + pathAndQuery + " to node " + node + ":" + e.getMessage());
+            }
+        }
+    }
+
+    public List<ReplicationRecordDto> getCollaboratorRecords() {
+        return replicationRecordService.collaboratorRecords();
+    }
+
+    /**
+     * Adds a node that announced itself and starts handing over the trees it now owns.
+     */
+    public void addNode(final ShardNodeDto node) {
+        log.info("Node joined:" + node);
+        nodeUrls.put(node.getNodeId(), node.getUrl());
+        addPeerAddresses(node.getUrl());
+        ring = ring.withNode(node.getNodeId());
+        rebalancer.submit(() -> {
+            try {
+                handOff(node.getNodeId());
+            } catch (RuntimeException e) {
+                log.error("Handoff to node " + node.getNodeId() + " failed, it keeps forwarding to this node:", e);
+            }
+        });
+    }
+
+    public void importRecords(final List<ReplicationRecordDto> records) {
+        migrationLock.writeLock().lock();
+        versionService.begin();
+        try {
+            records.forEach(replicationRecordService::apply);
+        } finally {
+            versionService.commit();
+            migrationLock.writeLock().unlock();
+        }
+    }
+
+    public void completeHandoff(final String fromNodeId) {
+        pendingHandoffs.remove(fromNodeId);
+        if (pendingHandoffs.isEmpty() && previousRing != null) {
+            previousRing = null;
+            log.info("All trees handed over to node " + nodeId);
+        }
+    }
+
+    public ShardStatusDto getStatus() {
+        final ShardStatusDto status = new ShardStatusDto();
+        status.setEnabled(enabled);
+        status.setNodeId(nodeId);
+        status.setNodes(new TreeMap<>(nodeUrls));
+        final Map<String, List<Page>> trees = localTrees();
+        status.setLocalTrees(trees.size());
+        status.setLocalPages(trees.values().stream().mapToInt(List::size).sum());
+        status.setPendingHandoffs(new HashSet<>(pendingHandoffs));
+        return status;
+    }
+
+    /*
+    Moves every tree the target now owns: copy it to the target, then drop it here. Each tree is moved under the write
+    lock, and its pages are listed again once the lock is held, so requests served here either complete before the
+    copy or are forwarded once the tree is gone, and a page created meanwhile moves with the rest of its tree.
+     */
+    private void handOff(final String target) {
+        int moved = 0;
+        for (String root : localTrees().keySet()) {
+            if (!target.equals(ring.nodeFor(root))) {
+                continue;
+            }
+            migrationLock.writeLock().lock();
+            versionService.begin();
+            try {
+                final List<Page> pages = localTrees().getOrDefault(root, Collections.emptyList());
+                final List<Attachment> attachments = new ArrayList<>();
+                for (Page page : pages) {
+                    attachments.addAll(attachmentService.listForPage(page.getPageID()));
+                }
+                if (SHARED_TREE.equals(root)) {
+                    attachments.addAll(attachmentService.listForPage(null));
+                }
+                final ResponseEntity<String> response = restTemplate.postForEntity(
+                        URI.create(nodeUrls.get(target) + SHARD_PATH + "/import"),
+                        replicationRecordService.componentRecords(pages, attachments), String.class);
+                if (!response.getStatusCode().is2xxSuccessful()) {
+                    log.error("Node " + target + " refused tree " + root + ":" + response.getBody());
+                    continue;
+                }
+                for (Attachment attachment : attachments) {
+                    attachmentService.removeReplica(attachment.getComponentId());
+                }
+                for (Page page : pages) {
+                    pageService.removeReplica(page.getPageID());
+                }
+                moved++;
+            } catch (RestClientException e) {
+                log.error("Failed to hand tree " + root + " over to node " + target + ":" + e.getMessage());
+            } finally {
+                versionService.commit();
+                migrationLock.writeLock().unlock();
+            }
+        }
+        log.info("Handed " + moved + " trees over to node " + target);
+        try {
+            restTemplate.postForEntity(URI.create(nodeUrls.get(target) + SHARD_PATH + "/handoff?fromNodeId=" + encode(nodeId)),
+                    null, String.class);
+        } catch (RestClientException e) {
+            log.error("Failed to report handoff to node " + target + ":" + e.getMessage());
+        }
+    }
+
+    /*
+    Local pages grouped by tree, listed under the write lock. Shared attachments count as one more tree when there are
+    any.
+     */
+    private Map<String, List<Page>> localTrees() {
+        final Map<String, List<Page>> trees = new HashMap<>();
+        versionService.begin();
+        try {
+            for (Page page : pageService.getAllPages()) {
+                trees.computeIfAbsent(page.getRootPageID(), key -> new ArrayList<>()).add(page);
+            }
+            if (!attachmentService.listForPage(null).isEmpty()) {
+                trees.put(SHARED_TREE, Collections.emptyList());
+            }
+        } finally {
+            versionService.commit();
+        }
+        return trees;
+    }
+
+    private void addPeerAddresses(final String nodeUrl) {
+        try {
+            for (InetAddress address : InetAddress.getAllByName(URI.create(nodeUrl).getHost())) {
+                peerAddresses.add(address.getHostAddress());
+            }
+        } catch (UnknownHostException | IllegalArgumentException e) {
+            log.error("Cannot resolve node " + nodeUrl + ", requests it forwards are admitted like any other:"
+                    + e.getMessage());
+        }
+    }
+
+    private List<String> otherNodes() {
+        final List<String> output = new ArrayList<>(nodeUrls.keySet());
+        output.remove(nodeId);
+        return output;
+    }
+
+    private String encode(final String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.exceptions.AccessDeniedException;
+import com.proofpoint.wikisystem.model.AccessType;
+import com.proofpoint.wikisystem.model.Attachment;
+import com.proofpoint.wikisystem.model.AuditType;
+import com.proofpoint.wikisystem.model.ChangeEvent;
+import com.proofpoint.wikisystem.model.Collaborator;
+import com.proofpoint.wikisystem.model.Component;
+import com.proofpoint.wikisystem.model.EventType;
+import com.proofpoint.wikisystem.model.OperationState;
+import com.proofpoint.wikisystem.model.Page;
+import com.proofpoint.wikisystem.payload.SubtreeAccessDto;
+import com.proofpoint.wikisystem.payload.SubtreeOperationDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Grants or revokes one collaborator's access on a page, every page below it and all of their attachments. The tree
+ * is walked by fork/join tasks, one per page, each changing only its own page and attachments, so pages are updated
+ * in parallel without locking them. The whole operation runs in a single write: readers see the tree either before
+ * or after it, never half done. Operations run one at a time in the background and report progress while they run.
+ * <p>
+ * A subtree grant is explicit on the root and inherited everywhere below it, replacing any grant the collaborator
+ * held there. A later revoke or level change on the root therefore follows the whole tree.
+ */
+@Service
+@Slf4j
+@Scope("singleton")
+public class SubtreeAccessService {
+
+    @Autowired
+    private AccessService accessService;
+
+    @Autowired
+    private PageService pageService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private TeamService teamService;
+
+    @Autowired
+    private AclIndexService aclIndexService;
+
+    @Autowired
+    private ChangeEventService changeEventService;
+
+    @Autowired
+    private VersionService versionService;
+
+    @Autowired
+    private AuditService auditService;
+
+    /*
+    0 for one worker per core
+     */
+    @Value("${wikisystem.access.subtree.parallelism:0}")
+    private int parallelism;
+
+    @Value("${wikisystem.access.subtree.retained-operations:100}")
+    private int retainedOperations;
+
+    private ForkJoinPool pool;
+    private ExecutorService runner;
+
+    /*
+    Most recent operations by id, oldest evicted first. Guarded by itself.
+     */
+    private final Map<String, Operation> operations = new LinkedHashMap<String, Operation>() {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Operation> eldest) {
+            return size() > retainedOperations;
+        }
+    };
+
+    @PostConstruct
+    public void init() {
+        pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        runner = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "subtree-access");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runner.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    /**
+     * Queues a grant on the subtree
+     *
+     * @return the operation, to be polled with {@link #getOperation(String)}
+     */
+    public SubtreeOperationDto grant(final SubtreeAccessDto subtreeAccessDto) {
+        log.info("subtreeAccessDto received for grant:" + subtreeAccessDto.toString());
+        if (subtreeAccessDto.getAccessType() == null) {
+            throw new IllegalArgumentException("Access type is required");
+        }
+        return submit(subtreeAccessDto, AccessType.valueOf(subtreeAccessDto.getAccessType()));
+    }
+
+    /**
+     * Queues a revoke on the subtree
+     */
+    public SubtreeOperationDto revoke(final SubtreeAccessDto subtreeAccessDto) {
+        log.info("subtreeAccessDto received for revoke:" + subtreeAccessDto.toString());
+        return submit(subtreeAccessDto, null);
+    }
+
+    /**
+     * @return progress of the operation, or null if it is unknown or was evicted
+     */
+    public SubtreeOperationDto getOperation(final String operationId) {
+        final Operation operation;
+        synchronized (operations) {
+            operation = operations.get(operationId);
+        }
+        return operation == null ? null : operation.toDto();
+    }
+
+    /**
+     * Applies the change to the subtree on the calling thread
+     *
+     * @param accessType  null to revoke
+     * @param requesterId user making the change, recorded in the audit log
+     * @return number of pages and attachments whose grant changed
+     */
+    public long apply(final Page root, final Collaborator collaborator, final AccessType accessType,
+                      final String requesterId) {
+        return run(new Operation(root, collaborator, accessType, requesterId));
+    }
+
+    private SubtreeOperationDto submit(final SubtreeAccessDto subtreeAccessDto, final AccessType accessType) {
+        final Page root = pageService.read(subtreeAccessDto.getRootPageId());
+        final Collaborator collaborator = subtreeAccessDto.isIndividualUser()
+                ? userService.read(subtreeAccessDto.getCollaboratorId())
+                : teamService.read(subtreeAccessDto.getCollaboratorId());
+        if (root == null || collaborator == null) {
+            throw new AccessDeniedException("Given Entities does not exist in system.");
+        }
+
+        final Operation operation = new Operation(root, collaborator, accessType, subtreeAccessDto.getRequesterId());
+        synchronized (operations) {
+            operations.put(operation.id, operation);
+        }
+        runner.execute(() -> {
+            try {
+                run(operation);
+            } catch (RuntimeException e) {
+                log.error("Subtree operation " + operation.id + " failed", e);
+            }
+        });
+        return operation.toDto();
+    }
+
+    private long run(final Operation operation) {
+        operation.state = OperationState.RUNNING;
+        try {
+            versionService.begin();
+            try {
+                if (pageService.read(operation.root.getPageID()) != operation.root) {
+                    throw new IllegalStateException("Page was deleted: " + operation.root.getPageID());
+                }
+                final Queue<Component> changed = new ConcurrentLinkedQueue<>();
+                pool.invoke(new SubtreeTask(operation, operation.root, changed));
+                // Storage and the version store are single threaded, the tasks only collect what they changed
+                for (Component component : changed) {
+                    accessService.persist(component);
+                }
+                accessService.detachFromParent(operation.root, operation.collaborator);
+            } finally {
+                versionService.commit();
+            }
+        } catch (RuntimeException e) {
+            operation.finish(OperationState.FAILED, e.getMessage());
+            throw e;
+        }
+        operation.finish(OperationState.COMPLETED, null);
+        log.info("Subtree operation " + operation.id + " changed " + operation.changed.get() + " components under "
+                + operation.root.getPageID());
+
+        final ChangeEvent.Builder event = ChangeEvent.Builder
+                .newInstance()
+                .withType(operation.accessType == null ? EventType.ACCESS_REVOKED : EventType.ACCESS_GRANTED)
+                .withEntityId(operation.root.getPageID())
+                .withDetail("collaboratorId", operation.collaborator.getId())
+                .withDetail("isPage", "true")
+                .withDetail("subtree", "true")
+                .withDetail("affected", String.valueOf(operation.changed.get()));
+        if (operation.accessType != null) {
+            event.withDetail("accessType", operation.accessType.name());
+        }
+        changeEventService.publish(event);
+        return operation.changed.get();
+    }
+
+    /*
+    Changes one page and its attachments, then forks a task per child page. Inheritance edges live on the parent, so
+    each task records the edges to its children itself and no two tasks ever write to the same page.
+     */
+    private final class SubtreeTask extends RecursiveAction {
+        private final Operation operation;
+        private final Page page;
+        private final Queue<Component> changed;
+
+        private SubtreeTask(final Operation operation, final Page page, final Queue<Component> changed) {
+            this.operation = operation;
+            this.page = page;
+            this.changed = changed;
+        }
+
+        @Override
+        protected void compute() {
+            boolean pageChanged = apply(page);
+            final Collaborator collaborator = operation.collaborator;
+            if (operation.accessType == null) {
+                pageChanged |= !page.removeInheritors(collaborator).isEmpty();
+            }
+
+            if (page.getAttachments() != null) {
+                for (Attachment attachment : page.getAttachments()) {
+                    if (apply(attachment)) {
+                        changed.add(attachment);
+                    }
+                    pageChanged |= inherit(attachment);
+                }
+            }
+
+            final List<SubtreeTask> children = new ArrayList<>();
+            for (String childPageID : pageService.getChildren(page.getPageID())) {
+                final Page child = pageService.read(childPageID);
+                if (child != null) {
+                    pageChanged |= inherit(child);
+                    children.add(new SubtreeTask(operation, child, changed));
+                }
+            }
+
+            if (pageChanged) {
+                changed.add(page);
+            }
+            operation.visited.incrementAndGet();
+            invokeAll(children);
+        }
+
+        /*
+        Returns true if the component's grant changed
+         */
+        private boolean apply(final Component component) {
+            final Collaborator collaborator = operation.collaborator;
+            if (operation.accessType == null) {
+                if (component.removeGrant(collaborator) == null) {
+                    return false;
+                }
+                aclIndexService.unindexGrant(component, collaborator);
+                auditService.recordAclChange(AuditType.REVOKE, component, operation.requesterId, collaborator, null);
+            } else {
+                final boolean expiring = component.getExpiry(collaborator) != null;
+                if (component.putGrant(collaborator, operation.accessType) == operation.accessType && !expiring) {
+                    return false;
+                }
+                component.setExpiry(collaborator, null);
+                aclIndexService.indexGrant(component, collaborator, operation.accessType);
+                auditService.recordAclChange(AuditType.GRANT, component, operation.requesterId, collaborator,
+                        operation.accessType);
+            }
+            operation.changed.incrementAndGet();
+            return true;
+        }
+
+        /*
+        Returns true if a new inheritance edge from this page to the component was recorded
+         */
+        private boolean inherit(final Component component) {
+            if (operation.accessType == null || page.getInheritors(operation.collaborator).contains(component.getComponentKey())) {
+                return false;
+            }
+            page.addInheritor(operation.collaborator, component.getComponentKey());
+            return true;
+        }
+    }
+
+    private static final class Operation {
+        private final String id = UUID.randomUUID().toString();
+        private final Page root;
+        private final Collaborator collaborator;
+        private final AccessType accessType;
+        private final String requesterId;
+        private final long startedAt = System.currentTimeMillis();
+        private final AtomicLong visited = new AtomicLong();
+        private final AtomicLong changed = new AtomicLong();
+        private volatile OperationState state = OperationState.QUEUED;
+        private volatile long finishedAt;
+        private volatile String message;
+
+        private Operation(final Page root, final Collaborator collaborator, final AccessType accessType,
+                          final String requesterId) {
+            this.root = root;
+            this.collaborator = collaborator;
+            this.accessType = accessType;
+            this.requesterId = requesterId;
+        }
+
+        private void finish(final OperationState state, final String message) {
+            this.message = message;
+            this.finishedAt = System.currentTimeMillis();
+            this.state = state;
+        }
+
+        private SubtreeOperationDto toDto() {
+            final SubtreeOperationDto output = new SubtreeOperationDto();
+            output.setOperationId(id);
+            output.setRootPageId(root.getPageID());
+            output.setCollaboratorId(collaborator.getId());
+            output.setAccessType(accessType == null ? null : accessType.name());
+            output.setState(state);
+            output.setPagesVisited(visited.get());
+            output.setComponentsChanged(changed.get());
+            output.setStartedAt(startedAt);
+            output.setFinishedAt(finishedAt == 0 ? null : finishedAt);
+            output.setMessage(message);
+            return output;
+        }
+    }
+}
@@ -1,16 +1,29 @@
 package com.proofpoint.wikisystem.service;
 
+import com.proofpoint.wikisystem.model.ChangeEvent;
+import com.proofpoint.wikisystem.model.Collaborator;
+import com.proofpoint.wikisystem.model.EventType;
 import com.proofpoint.wikisystem.model.Team;
 import com.proofpoint.wikisystem.model.User;
 import com.proofpoint.wikisystem.payload.UpdateTeamDto;
+import com.proofpoint.wikisystem.repository.TeamRepository;
+import com.proofpoint.wikisystem.util.TransitiveClosure;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Service;
 
-import java.util.HashMap;
-import java.util.Map;
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.Set;
 
+import static com.proofpoint.wikisystem.util.Constants.STATUS_SUCCESS;
+
+/**
+ * Teams contain users and other teams. Every user and team maps to the set of teams it belongs to directly or through
+ * nested teams, kept up to date as membership changes, so authorization reads it with one lookup instead of walking
+ * the team graph. A team can never end up containing itself.
+ */
 @Service
 @Slf4j
 @Scope("singleton")
@@ -19,9 +32,51 @@ public class TeamService {
     @Autowired
     private UserService userService;
 
-    private Map<String, Team> teams = new HashMap<>();
+    @Autowired
+    private ChangeEventService changeEventService;
+
+    @Autowired
+    private AccessService accessService;
+
+    @Autowired
+    private VersionService versionService;
+
+    @Autowired
+    private TeamRepository teamRepository;
+
+    /*
+    Derived from the stored member and subteam lists, rebuilt at startup
+     */
+    private final TransitiveClosure<Collaborator, Team> memberships = new TransitiveClosure<>();
+
+    @PostConstruct
+    public void rebuildMemberships() {
+        for (Team team : teamRepository.findAll()) {
+            for (User member : team.getMembers()) {
+                memberships.addEdge(member, team);
+            }
+        }
+        for (Team team : teamRepository.findAll()) {
+            for (Team subteam : team.getSubteams()) {
+                if (memberships.wouldCycle(subteam, team)) {
+                    log.error("Ignoring stored subteam " + subteam.getId() + " of team " + team.getId() + ", it forms a cycle");
+                } else {
+                    memberships.addEdge(subteam, team);
+                }
+            }
+        }
+    }
 
     public void create(final String ID, final boolean isAdmin) {
+        versionService.begin();
+        try {
+            createTeam(ID, isAdmin);
+        } finally {
+            versionService.commit();
+        }
+    }
+
+    private void createTeam(final String ID, final boolean isAdmin) {
         log.info("Creating team with team:" + ID);
         Team team = Team.Builder
                 .newInstance()
@@ -29,23 +84,35 @@ public class TeamService {
                 .withIsAdmin(isAdmin)
                 .build();
         log.info("Team created:" + team.toString());
-        teams.put(ID, team);
+        teamRepository.save(team);
+        changeEventService.publish(EventType.TEAM_CREATED, ID, null);
 
     }
 
     public Team read(final String teamID) {
-        if (teams.containsKey(teamID)) {
-            Team output = teams.get(teamID);
+        final Team output = teamRepository.findById(teamID);
+        if (output != null) {
             log.info("Team found:" + output.toString());
-            return output;
-        } else {
-            return null;
         }
+        return output;
     }
 
     public boolean delete(String teamId) {
-        if (teams.containsKey(teamId)) {
-            teams.remove(teamId);
+        if (teamRepository.findById(teamId) != null) {
+            versionService.begin();
+            try {
+                final Team team = teamRepository.delete(teamId);
+                for (Team parent : memberships.getGroups(team)) {
+                    parent.getSubteams().remove(team);
+                    teamRepository.save(parent);
+                    accessService.republish(parent);
+                }
+                memberships.remove(team);
+                accessService.purgeCollaborator(team, null);
+            } finally {
+                versionService.commit();
+            }
+            changeEventService.publish(EventType.TEAM_DELETED, teamId, null);
             return true;
         } else {
             return false;
@@ -53,11 +120,23 @@ public class TeamService {
     }
 
     public String update(final String teamId, final UpdateTeamDto updateArgs) {
-        if (teams.containsKey(teamId)) {
-            Team team = teams.get(teamId);
+        versionService.begin();
+        try {
+            return updateTeam(teamId, updateArgs);
+        } finally {
+            versionService.commit();
+        }
+    }
+
+    private String updateTeam(final String teamId, final UpdateTeamDto updateArgs) {
+        Team team = teamRepository.findById(teamId);
+        if (team != null) {
             if (!updateArgs.getIsAdmin().isEmpty()) {
                 team.setAdmin(Boolean.parseBoolean(updateArgs.getIsAdmin()));
+                teamRepository.save(team);
+                accessService.republish(team);
             }
+            changeEventService.publish(EventType.TEAM_UPDATED, teamId, null);
             return "Successfully updated team";
         } else {
             return "Team not found";
@@ -65,12 +144,32 @@ public class TeamService {
     }
 
     public String addMemberToTeam(final String teamId, final String userId) {
-        if (teams.containsKey(teamId)) {
-            Team team = teams.get(teamId);
+        versionService.begin();
+        try {
+            return addMember(teamId, userId);
+        } finally {
+            versionService.commit();
+        }
+    }
+
+    private String addMember(final String teamId, final String userId) {
+        Team team = teamRepository.findById(teamId);
+        if (team != null) {
             User user = userService.read(userId);
 
             if (user != null) {
-                return team.addMember(user);
+                if (!memberships.addEdge(user, team)) {
+                    return STATUS_SUCCESS;
+                }
+                final String result = team.addMember(user);
+                teamRepository.save(team);
+                accessService.republish(team);
+                changeEventService.publish(ChangeEvent.Builder
+                        .newInstance()
+                        .withType(EventType.TEAM_MEMBER_ADDED)
+                        .withEntityId(teamId)
+                        .withDetail("userId", userId));
+                return result;
             } else {
                 return "User not found";
             }
@@ -78,4 +177,174 @@ public class TeamService {
             return "Team not found";
         }
     }
+
+    /**
+     * Makes every member of the subteam, including members of its own subteams, a member of the team.
+     *
+     * @throws IllegalArgumentException if the team is the subteam or already one of its subteams
+     */
+    public String addSubteamToTeam(final String teamId, final String subteamId) {
+        versionService.begin();
+        try {
+            return addSubteam(teamId, subteamId);
+        } finally {
+            versionService.commit();
+        }
+    }
+
+    private String addSubteam(final String teamId, final String subteamId) {
+        final Team team = teamRepository.findById(teamId);
+        final Team subteam = teamRepository.findById(subteamId);
+        if (team == null || subteam == null) {
+            return "Team not found";
+        }
+        if (memberships.wouldCycle(subteam, team)) {
+            throw new IllegalArgumentException("Team " + teamId + " is already a member of team " + subteamId);
+        }
+        if (!memberships.addEdge(subteam, team)) {
+            return STATUS_SUCCESS;
+        }
+        team.getSubteams().add(subteam);
+        teamRepository.save(team);
+        accessService.republish(team);
+        changeEventService.publish(ChangeEvent.Builder
+                .newInstance()
+                .withType(EventType.TEAM_MEMBER_ADDED)
+                .withEntityId(teamId)
+                .withDetail("subteamId", subteamId));
+        return STATUS_SUCCESS;
+    }
+
+    public String removeMemberFromTeam(final String teamId, final String userId) {
+        versionService.begin();
+        try {
+            return removeMember(teamId, userId);
+        } finally {
+            versionService.commit();
+        }
+    }
+
+    private String removeMember(final String teamId, final String userId) {
+        final Team team = teamRepository.findById(teamId);
+        final User user = userService.read(userId);
+        if (team == null || user == null || !memberships.removeEdge(user, team)) {
+            return "Member not found";
+        }
+        team.getMembers().remove(user);
+        teamRepository.save(team);
+        accessService.republish(team);
+        changeEventService.publish(ChangeEvent.Builder
+                .newInstance()
+                .withType(EventType.TEAM_MEMBER_REMOVED)
+                .withEntityId(teamId)
+                .withDetail("userId", userId));
+        return STATUS_SUCCESS;
+    }
+
+    public String removeSubteamFromTeam(final String teamId, final String subteamId) {
+        versionService.begin();
+        try {
+            return removeSubteam(teamId, subteamId);
+        } finally {
+            versionService.commit();
+        }
+    }
+
+    private String removeSubteam(final String teamId, final String subteamId) {
+        final Team team = teamRepository.findById(teamId);
+        final Team subteam = teamRepository.findById(subteamId);
+        if (team == null || subteam == null || !memberships.removeEdge(subteam, team)) {
+            return "Member not found";
+        }
+        team.getSubteams().remove(subteam);
+        teamRepository.save(team);
+        accessService.republish(team);
+        changeEventService.publish(ChangeEvent.Builder
+                .newInstance()
+                .withType(EventType.TEAM_MEMBER_REMOVED)
+                .withEntityId(teamId)
+                .withDetail("subteamId", subteamId));
+        return STATUS_SUCCESS;
+    }
+
+    public Collection<Team> getAllTeams() {
+        return teamRepository.findAll();
+    }
+
+    /**
+     * Installs a team replicated from the leader, updating an existing team in place and replacing its members.
+     * Subteams that are unknown here, or that would form a cycle with local state, are skipped.
+     */
+    public Team applyReplica(final String teamID, final boolean isAdmin, final Collection<User> members,
+                             final Collection<Team> subteams) {
+        versionService.begin();
+        try {
+            return installReplica(teamID, isAdmin, members, subteams);
+        } finally {
+            versionService.commit();
+        }
+    }
+
+    private Team installReplica(final String teamID, final boolean isAdmin, final Collection<User> members,
+                                final Collection<Team> subteams) {
+        Team team = teamRepository.findById(teamID);
+        if (team == null) {
+            team = Team.Builder
+                    .newInstance()
+                    .withID(teamID)
+                    .withIsAdmin(isAdmin)
+                    .build();
+        }
+        team.setAdmin(isAdmin);
+        for (User member : team.getMembers()) {
+            memberships.removeEdge(member, team);
+        }
+        for (Team subteam : team.getSubteams()) {
+            memberships.removeEdge(subteam, team);
+        }
+        team.getMembers().clear();
+        team.getSubteams().clear();
+        for (User member : members) {
+            if (memberships.addEdge(member, team)) {
+                team.addMember(member);
+            }
+        }
+        for (Team subteam : subteams) {
+            if (memberships.wouldCycle(subteam, team)) {
+                log.error("Skipping replicated subteam " + subteam.getId() + " of team " + teamID + ", it forms a cycle");
+            } else if (memberships.addEdge(subteam, team)) {
+                team.getSubteams().add(subteam);
+            }
+        }
+        teamRepository.save(team);
+        accessService.republish(team);
+        return team;
+    }
+
+    /**
+     * @return every team the user or team belongs to, directly or through nested teams
+     */
+    public Set<Team> getEffectiveTeams(final Collaborator collaborator) {
+        return memberships.getAncestors(collaborator);
+    }
+
+    public void removeFromAllTeams(final User user) {
+        for (Team team : memberships.getGroups(user)) {
+            team.getMembers().remove(user);
+            teamRepository.save(team);
+            accessService.republish(team);
+        }
+        memberships.remove(user);
+    }
+
+    /**
+     * Republishes the pages and attachments that show the user, directly or in the member list of one of its teams.
+     * Must be called within a write.
+     */
+    public void republishMember(final User user) {
+        accessService.republish(user);
+        for (Team team : memberships.getGroups(user)) {
+            accessService.republish(team);
+        }
+    }
 }
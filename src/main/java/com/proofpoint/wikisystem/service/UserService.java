@@ -1,20 +1,40 @@
 package com.proofpoint.wikisystem.service;
 
+import com.proofpoint.wikisystem.exceptions.AccessDeniedException;
+import com.proofpoint.wikisystem.model.EventType;
 import com.proofpoint.wikisystem.model.User;
 import com.proofpoint.wikisystem.payload.UpdateUserDto;
+import com.proofpoint.wikisystem.repository.UserRepository;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Service;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collection;
+import java.util.Objects;
 
 @Service
 @Slf4j
 @Scope("singleton")
 public class UserService {
 
-    private Map<String, User> users = new HashMap<>();
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private VersionService versionService;
+
+    @Autowired
+    private ChangeEventService changeEventService;
+
+    @Autowired
+    private TeamService teamService;
+
+    @Autowired
+    private AccessService accessService;
+
+    @Autowired
+    private AclIndexService aclIndexService;
 
     public void create(final String ID, final String username) {
         log.info("Creating user with userID:" + ID);
@@ -24,33 +44,132 @@ public class UserService {
                 .withUsername(username)
                 .build();
         log.info("User created:" + user.toString());
-        users.put(ID, user);
+        versionService.begin();
+        try {
+            userRepository.save(user);
+        } finally {
+            versionService.commit();
+        }
+        changeEventService.publish(EventType.USER_CREATED, ID, null);
 
     }
 
     public User read(final String userID) {
         log.info("Checking if user " + userID + " exists in system.");
-        return users.getOrDefault(userID, null);
+        return userRepository.findById(userID);
+    }
+
+    public Collection<User> getAllUsers() {
+        return userRepository.findAll();
+    }
+
+    /**
+     * Installs a user replicated from the leader. An existing user is updated in place, because grants and team
+     * memberships refer to the User instance.
+     */
+    public User applyReplica(final String userID, final String username) {
+        versionService.begin();
+        try {
+            final User user = userRepository.findById(userID);
+            if (user == null) {
+                final User created = User.Builder
+                        .newInstance()
+                        .withID(userID)
+                        .withUsername(username)
+                        .build();
+                userRepository.save(created);
+                return created;
+            }
+            if (!Objects.equals(username, user.getUsername())) {
+                user.setUsername(username);
+                userRepository.save(user);
+                teamService.republishMember(user);
+            }
+            return user;
+        } finally {
+            versionService.commit();
+        }
     }
 
     public String update(final String teamId, final UpdateUserDto updateArgs) {
-        if (users.containsKey(teamId)) {
-            User user = users.get(teamId);
+        versionService.begin();
+        try {
+            User user = userRepository.findById(teamId);
+            if (user == null) {
+                return "User not found";
+            }
             if (!updateArgs.getUserName().isEmpty()) {
                 user.setUsername(updateArgs.getUserName());
+                userRepository.save(user);
+                teamService.republishMember(user);
+            }
+        } finally {
+            versionService.commit();
+        }
+        changeEventService.publish(EventType.USER_UPDATED, teamId, null);
+        return "Successfully updated user";
+    }
+
+    /**
+     * Deletes a user in one write: everything it owns goes to newOwnerId first, then it leaves its teams and loses its
+     * grants. Readers see either the user with its pages and attachments or the new owner with them, never the
+     * components moved while the user is still there.
+     *
+     * @param newOwnerId  needed when the user owns any page or attachment
+     * @param requesterId recorded as the one who transferred the components and deleted the user
+     * @throws IllegalArgumentException if the user owns components and newOwnerId is missing, unknown or the user
+     *                                  itself
+     * @throws AccessDeniedException    if the user owns components and the requester is neither the user nor a member
+     *                                  of an admin team
+     */
+    public boolean delete(final String userId, final String newOwnerId, final String requesterId) {
+        versionService.begin();
+        try {
+            final User user = userRepository.findById(userId);
+            if (user == null) {
+                return false;
             }
-            return "Successfully updated user";
-        } else {
-            return "User not found";
+            final int owned = aclIndexService.getOwnedComponents(user).size();
+            if (owned > 0) {
+                final User newOwner = newOwnerId == null ? null : userRepository.findById(newOwnerId);
+                if (newOwner == null || newOwner == user) {
+                    throw new IllegalArgumentException("User owns " + owned
+                            + " pages and attachments, name another existing user to transfer them to");
+                }
+                final User requester = requesterId == null ? null : userRepository.findById(requesterId);
+                if (!accessService.mayTransferOwnership(requester, user)) {
+                    throw new AccessDeniedException("Not authorized to transfer ownership of the given user's components");
+                }
+                accessService.transferOwnership(user, newOwner, requesterId);
+            }
+            userRepository.delete(userId);
+            teamService.removeFromAllTeams(user);
+            accessService.purgeCollaborator(user, requesterId);
+        } finally {
+            versionService.commit();
         }
+        changeEventService.publish(EventType.USER_DELETED, userId, requesterId);
+        return true;
     }
 
-    public boolean delete(final String userId) {
-        if (users.containsKey(userId)) {
-            users.remove(userId);
-            return true;
-        } else {
-            return false;
+    /**
+     * Removes a user the leader deleted. Its components were handed over by the leader before it deleted the user,
+     * and those changes arrive first.
+     */
+    public boolean removeReplica(final String userId) {
+        versionService.begin();
+        try {
+            final User user = userRepository.findById(userId);
+            if (user == null) {
+                return false;
+            }
+            userRepository.delete(userId);
+            teamService.removeFromAllTeams(user);
+            accessService.purgeCollaborator(user, null);
+        } finally {
+            versionService.commit();
         }
+        changeEventService.publish(EventType.USER_DELETED, userId, null);
+        return true;
     }
 }
@@ -0,0 +1,441 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.model.Attachment;
+import com.proofpoint.wikisystem.model.Component;
+import com.proofpoint.wikisystem.model.ComponentType;
+import com.proofpoint.wikisystem.model.Page;
+import com.proofpoint.wikisystem.util.VersionedStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Multi-version view of pages and attachments. Writers bracket their changes with {@link #begin()} and
+ * {@link #commit()} and report every component they changed; the outermost commit publishes immutable copies of
+ * those components as one new epoch. Readers pin an epoch and read the copies visible at it without taking any lock,
+ * so a reader sees either all or none of a commit, however long the commit took. Versions older than the oldest
+ * pinned epoch are reclaimed on commit and when the last reader of an epoch unpins.
+ */
+@Service
+@Slf4j
+@Scope("singleton")
+public class VersionService {
+
+    /*
+    Key of the listing of attachments that do not belong to a page
+     */
+    private static final String SHARED_NAMESPACE = "";
+
+    private final VersionedStore<String, Component> components = new VersionedStore<>();
+
+    /*
+    Component ids of the attachments in each namespace, so a listing is consistent with the attachments it names
+     */
+    private final VersionedStore<String, Set<String>> namespaces = new VersionedStore<>();
+
+    /*
+    Page ids of the children of each page, so page views list the children of the epoch they read
+     */
+    private final VersionedStore<String, Set<String>> children = new VersionedStore<>();
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /*
+    Run at the end of every outermost commit, still holding the write lock
+     */
+    private final List<Runnable> commitListeners = new CopyOnWriteArrayList<>();
+
+    /*
+    Changes of the transaction in progress: component key to the live component, or null if it was removed
+     */
+    private final Map<String, Component> writeSet = new LinkedHashMap<>();
+
+    /*
+    Attachments added (true) and removed (false) per namespace in the transaction in progress
+     */
+    private final Map<String, Map<String, Boolean>> pendingNamespaces = new LinkedHashMap<>();
+
+    /*
+    Keys holding more than one version, the only ones reclamation has to look at
+     */
+    private final Set<String> versionedComponents = new HashSet<>();
+    private final Set<String> versionedNamespaces = new HashSet<>();
+    private final Set<String> versionedChildren = new HashSet<>();
+
+    /*
+    Pinned epoch to the number of readers holding it
+     */
+    private final ConcurrentSkipListMap<Long, Integer> pins = new ConcurrentSkipListMap<>();
+
+    private volatile long epoch;
+
+    /*
+    Versions visible only at epochs below this may already be gone, readers that pinned such an epoch retry
+     */
+    private volatile long reclaimWatermark;
+
+    public void begin() {
+        writeLock.lock();
+    }
+
+    /**
+     * Publishes the changes made since the outermost {@link #begin()} and runs the commit listeners. Nested calls
+     * only release the lock.
+     */
+    public void commit() {
+        if (!writeLock.isHeldByCurrentThread()) {
+            throw new IllegalStateException("No write in progress");
+        }
+        try {
+            if (writeLock.getHoldCount() == 1) {
+                if (!writeSet.isEmpty()) {
+                    publish(epoch + 1);
+                }
+                for (Runnable listener : commitListeners) {
+                    listener.run();
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return true if the current thread is between {@link #begin()} and the matching {@link #commit()}
+     */
+    public boolean isInWrite() {
+        return writeLock.isHeldByCurrentThread();
+    }
+
+    /**
+     * @return the version the write in progress publishes its changes as
+     */
+    public long nextVersion() {
+        requireWrite();
+        return epoch + 1;
+    }
+
+    public void onCommit(final Runnable listener) {
+        commitListeners.add(listener);
+    }
+
+    /**
+     * Records that the component changed in the current write. An attachment change also republishes its page,
+     * whose copy lists the attachments.
+     */
+    public void touch(final Component component) {
+        requireWrite();
+        writeSet.put(component.getComponentKey(), component);
+        if (component instanceof Attachment) {
+            touchOwningPage((Attachment) component);
+        }
+    }
+
+    public void remove(final Component component) {
+        requireWrite();
+        writeSet.put(component.getComponentKey(), null);
+        if (component instanceof Attachment) {
+            namespaceChanges(((Attachment) component).getPageID()).put(component.getComponentId(), false);
+            touchOwningPage((Attachment) component);
+        }
+    }
+
+    /**
+     * Pins the latest epoch. The snapshot must be closed, versions it can see are kept until then.
+     */
+    public Snapshot pin() {
+        while (true) {
+            final long pinned = epoch;
+            pins.merge(pinned, 1, Integer::sum);
+            if (pinned >= reclaimWatermark) {
+                return new Snapshot(pinned);
+            }
+            release(pinned);
+        }
+    }
+
+    public Page readPage(final Snapshot snapshot, final String pageID) {
+        return pageID == null ? null : (Page) components.get(ComponentType.PAGE.keyOf(pageID), snapshot.epoch);
+    }
+
+    /**
+     * @param componentId bare filename for attachments without a page, otherwise pageID/filename
+     */
+    public Attachment readAttachment(final Snapshot snapshot, final String componentId) {
+        return componentId == null ? null
+                : (Attachment) components.get(ComponentType.ATTACHMENT.keyOf(componentId), snapshot.epoch);
+    }
+
+    public Component readComponent(final Snapshot snapshot, final String componentId, final boolean isPage) {
+        return isPage ? readPage(snapshot, componentId) : readAttachment(snapshot, componentId);
+    }
+
+    /**
+     * @param pageID null for the attachments that do not belong to a page
+     */
+    public List<Attachment> listAttachments(final Snapshot snapshot, final String pageID) {
+        final Set<String> componentIds = namespaces.get(namespaceOf(pageID), snapshot.epoch);
+        if (componentIds == null) {
+            return Collections.emptyList();
+        }
+        final List<Attachment> output = new ArrayList<>(componentIds.size());
+        for (String componentId : componentIds) {
+            final Attachment attachment = readAttachment(snapshot, componentId);
+            if (attachment != null) {
+                output.add(attachment);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * @return ids of the page's children at the snapshot's epoch, in the order they became its children
+     */
+    public Set<String> listChildren(final Snapshot snapshot, final String pageID) {
+        final Set<String> pageIDs = pageID == null ? null : children.get(pageID, snapshot.epoch);
+        return pageIDs == null ? Collections.emptySet() : pageIDs;
+    }
+
+    /**
+     * @return ids of the pages from the root of the page's tree down to the page itself at the snapshot's epoch,
+     * empty if there is no such page. A parent that was deleted ends the path.
+     */
+    public List<String> getPath(final Snapshot snapshot, final String pageID) {
+        final List<String> path = new ArrayList<>();
+        Page page = readPage(snapshot, pageID);
+        while (page != null && !path.contains(page.getPageID())) {
+            path.add(page.getPageID());
+            page = readPage(snapshot, page.getParentPageID());
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    public List<Page> listPages(final Snapshot snapshot) {
+        final List<Page> output = new ArrayList<>();
+        for (String componentKey : components.keys()) {
+            if (ComponentType.ofKey(componentKey) == ComponentType.PAGE) {
+                final Component page = components.get(componentKey, snapshot.epoch);
+                if (page != null) {
+                    output.add((Page) page);
+                }
+            }
+        }
+        return output;
+    }
+
+    public List<Attachment> listAllAttachments(final Snapshot snapshot) {
+        final List<Attachment> output = new ArrayList<>();
+        for (String namespace : namespaces.keys()) {
+            output.addAll(listAttachments(snapshot, SHARED_NAMESPACE.equals(namespace) ? null : namespace));
+        }
+        return output;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public int getPinnedCount() {
+        int count = 0;
+        for (Integer readers : pins.values()) {
+            count += readers;
+        }
+        return count;
+    }
+
+    /**
+     * @return number of component keys that still hold older versions
+     */
+    public int getRetainedVersionCount() {
+        writeLock.lock();
+        try {
+            return versionedComponents.size();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private Map<String, Boolean> namespaceChanges(final String pageID) {
+        return pendingNamespaces.computeIfAbsent(namespaceOf(pageID), key -> new LinkedHashMap<>());
+    }
+
+    private void touchOwningPage(final Attachment attachment) {
+        if (writeSet.get(attachment.getComponentKey()) != null) {
+            namespaceChanges(attachment.getPageID()).put(attachment.getComponentId(), true);
+        }
+        if (attachment.getPageID() != null) {
+            final String pageKey = ComponentType.PAGE.keyOf(attachment.getPageID());
+            final Component page = components.getLatest(pageKey);
+            if (!writeSet.containsKey(pageKey) && page != null) {
+                // The live page is unknown here, its latest copy only needs its attachment list refreshed
+                writeSet.put(pageKey, page);
+            }
+        }
+    }
+
+    private void publish(final long next) {
+        try {
+            // Attachments first, so page copies can refer to the attachment copies of the same epoch
+            for (Map.Entry<String, Component> change : writeSet.entrySet()) {
+                if (ComponentType.ofKey(change.getKey()) == ComponentType.ATTACHMENT) {
+                    store(change.getKey(), change.getValue() == null ? null : freeze((Attachment) change.getValue(), next), next);
+                }
+            }
+            storeListings(namespaces, versionedNamespaces, pendingNamespaces, next);
+            final Map<String, Map<String, Boolean>> childChanges = new LinkedHashMap<>();
+            for (Map.Entry<String, Component> change : writeSet.entrySet()) {
+                if (ComponentType.ofKey(change.getKey()) == ComponentType.PAGE) {
+                    final Page previous = (Page) components.getLatest(change.getKey());
+                    final Page copy = change.getValue() == null ? null : freeze((Page) change.getValue(), next);
+                    recordMove(childChanges, previous, copy);
+                    store(change.getKey(), copy, next);
+                }
+            }
+            storeListings(children, versionedChildren, childChanges, next);
+        } finally {
+            writeSet.clear();
+            pendingNamespaces.clear();
+        }
+        epoch = next;
+        reclaim();
+    }
+
+    /*
+    Adds and removes ids in the latest listings, publishing each changed listing as one new version
+     */
+    private void storeListings(final VersionedStore<String, Set<String>> listings, final Set<String> versionedListings,
+                               final Map<String, Map<String, Boolean>> changesByKey, final long next) {
+        for (Map.Entry<String, Map<String, Boolean>> changes : changesByKey.entrySet()) {
+            final Set<String> previous = listings.getLatest(changes.getKey());
+            final Set<String> listing = previous == null ? new LinkedHashSet<>() : new LinkedHashSet<>(previous);
+            for (Map.Entry<String, Boolean> change : changes.getValue().entrySet()) {
+                if (change.getValue()) {
+                    listing.add(change.getKey());
+                } else {
+                    listing.remove(change.getKey());
+                }
+            }
+            if (listings.put(changes.getKey(), listing.isEmpty() ? null : Collections.unmodifiableSet(listing), next)) {
+                versionedListings.add(changes.getKey());
+            }
+        }
+    }
+
+    /*
+    Records a page leaving the children of its previous parent and joining those of its new one
+     */
+    private void recordMove(final Map<String, Map<String, Boolean>> childChanges, final Page previous, final Page copy) {
+        final String previousParent = previous == null ? null : previous.getParentPageID();
+        final String parent = copy == null ? null : copy.getParentPageID();
+        if (previous != null && copy != null && Objects.equals(previousParent, parent)) {
+            return;
+        }
+        if (previousParent != null) {
+            childChanges.computeIfAbsent(previousParent, key -> new LinkedHashMap<>()).put(previous.getPageID(), false);
+        }
+        if (parent != null) {
+            childChanges.computeIfAbsent(parent, key -> new LinkedHashMap<>()).put(copy.getPageID(), true);
+        }
+    }
+
+    private Attachment freeze(final Attachment attachment, final long next) {
+        final Attachment copy = attachment.copy();
+        copy.setVersion(next);
+        return copy;
+    }
+
+    private Page freeze(final Page page, final long next) {
+        final Page copy = page.copy();
+        copy.setVersion(next);
+        final Set<String> componentIds = namespaces.get(namespaceOf(page.getPageID()), next);
+        if (componentIds != null) {
+            for (String componentId : componentIds) {
+                final Component attachment = components.get(ComponentType.ATTACHMENT.keyOf(componentId), next);
+                if (attachment != null) {
+                    copy.addAttachment((Attachment) attachment);
+                }
+            }
+        }
+        return copy;
+    }
+
+    private void store(final String componentKey, final Component copy, final long next) {
+        if (components.put(componentKey, copy, next)) {
+            versionedComponents.add(componentKey);
+        }
+    }
+
+    /*
+    Called with the write lock held
+     */
+    private void reclaim() {
+        reclaimWatermark = epoch;
+        final long oldest = pins.isEmpty() ? epoch : Math.min(pins.firstKey(), epoch);
+        versionedComponents.removeIf(key -> components.prune(key, oldest));
+        versionedNamespaces.removeIf(key -> namespaces.prune(key, oldest));
+        versionedChildren.removeIf(key -> children.prune(key, oldest));
+    }
+
+    private void release(final long pinned) {
+        pins.computeIfPresent(pinned, (key, readers) -> readers == 1 ? null : readers - 1);
+    }
+
+    private void requireWrite() {
+        if (!writeLock.isHeldByCurrentThread()) {
+            throw new IllegalStateException("Changes must be made between begin and commit");
+        }
+    }
+
+    private String namespaceOf(final String pageID) {
+        return pageID == null ? SHARED_NAMESPACE : pageID;
+    }
+
+    /**
+     * A pinned epoch. Closing it lets the versions only it could see be reclaimed.
+     */
+    public final class Snapshot implements AutoCloseable {
+        private final long epoch;
+        private boolean closed;
+
+        private Snapshot(final long epoch) {
+            this.epoch = epoch;
+        }
+
+        public long getEpoch() {
+            return epoch;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            release(epoch);
+            // Reclaim right away if no writer is busy, otherwise its commit will
+            if (writeLock.tryLock()) {
+                try {
+                    if (writeSet.isEmpty()) {
+                        reclaim();
+                    }
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        }
+    }
+}
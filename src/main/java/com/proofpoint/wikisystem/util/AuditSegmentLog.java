@@ -0,0 +1,545 @@
+package com.proofpoint.wikisystem.util;
+
+import com.proofpoint.wikisystem.model.AccessType;
+import com.proofpoint.wikisystem.model.AuditRecord;
+import com.proofpoint.wikisystem.model.AuditType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of audit records in rotating segment files. Each record is a length and CRC prefixed binary frame
+ * of a few dozen bytes; a batch is written with one call and forced to disk before {@link #append(List)} returns, so
+ * an acknowledged batch survives a crash and a torn tail is detected and cut off on the next open.
+ * <p>
+ * Every segment keeps a small index of its time range and bloom filters of the requesters and components it holds,
+ * written next to it when it is sealed. Queries only scan the segments whose index may match. Segments are numbered
+ * in write order and the oldest are deleted once more than maxSegments exist.
+ */
+public class AuditSegmentLog implements Closeable {
+
+    private static final int MAGIC = 0x57415544;
+    private static final byte FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 5;
+    private static final int FRAME_HEADER_BYTES = 8;
+    /*
+    Three modified UTF-8 strings and the fixed fields
+     */
+    private static final int MAX_RECORD_BYTES = 3 * (2 + 65535) + 16;
+    private static final String PREFIX = "audit-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private static final int ALLOWED = 1;
+    private static final int REQUESTER_TEAM = 2;
+    private static final int SUBJECT_TEAM = 4;
+    private static final int HAS_REQUESTER = 8;
+    private static final int HAS_COMPONENT = 16;
+    private static final int HAS_SUBJECT = 32;
+
+    private final Path directory;
+    private final long segmentMaxBytes;
+    private final int maxSegments;
+
+    /*
+    Oldest first
+     */
+    private final List<Segment> sealed = new ArrayList<>();
+    private Segment active;
+    private FileChannel channel;
+
+    private final FrameBuffer batch = new FrameBuffer();
+    private final DataOutputStream batchOut = new DataOutputStream(batch);
+    private final FrameBuffer frame = new FrameBuffer();
+    private final DataOutputStream frameOut = new DataOutputStream(frame);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Opens the log, indexing the segments already in the directory, and starts a new segment
+     *
+     * @param maxSegments segments kept on disk, 0 to keep all of them
+     */
+    public AuditSegmentLog(final Path directory, final long segmentMaxBytes, final int maxSegments) throws IOException {
+        this.directory = directory;
+        this.segmentMaxBytes = segmentMaxBytes;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(directory);
+
+        final List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                try {
+                    numbers.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        Collections.sort(numbers);
+        for (long number : numbers) {
+            final Segment segment = open(number);
+            if (segment != null) {
+                sealed.add(segment);
+            }
+        }
+        startSegment(numbers.isEmpty() ? 1 : numbers.get(numbers.size() - 1) + 1);
+        enforceRetention();
+    }
+
+    /**
+     * Writes the records and forces them to disk, rotating to a new segment whenever the current one is full
+     */
+    public synchronized void append(final List<AuditRecord> records) throws IOException {
+        final List<AuditRecord> written = new ArrayList<>();
+        batch.reset();
+        for (AuditRecord record : records) {
+            encode(record);
+            written.add(record);
+            if (active.bytes + batch.size() >= segmentMaxBytes) {
+                write(written);
+                rotate();
+            }
+        }
+        write(written);
+    }
+
+    /**
+     * Finds the records matching every given filter, newest first
+     *
+     * @param requesterId   null for any requester
+     * @param componentKey  null for any component
+     * @param fromTimestamp inclusive lower bound
+     * @param toTimestamp   exclusive upper bound
+     */
+    public synchronized List<AuditRecord> query(final String requesterId, final String componentKey,
+                                                final long fromTimestamp, final long toTimestamp, final int limit)
+            throws IOException {
+        final List<Segment> segments = new ArrayList<>(sealed);
+        segments.add(active);
+        final List<AuditRecord> results = new ArrayList<>();
+        for (int i = segments.size() - 1; i >= 0 && results.size() < limit; i--) {
+            final Segment segment = segments.get(i);
+            if (!segment.mayContain(requesterId, componentKey, fromTimestamp, toTimestamp)) {
+                continue;
+            }
+            final List<AuditRecord> matches = new ArrayList<>();
+            scan(segment.path, segment.bytes, record -> {
+                if (record.getTimestamp() >= fromTimestamp && record.getTimestamp() < toTimestamp
+                        && (requesterId == null || requesterId.equals(record.getRequesterId()))
+                        && (componentKey == null || componentKey.equals(record.getComponentKey()))) {
+                    matches.add(record);
+                }
+            });
+            Collections.reverse(matches);
+            results.addAll(matches);
+        }
+        // Batches from different threads interleave slightly, so segments only roughly follow time order. The sort
+        // is stable and keeps records of the same millisecond newest first.
+        results.sort(Comparator.comparingLong(AuditRecord::getTimestamp).reversed());
+        return results.size() > limit ? new ArrayList<>(results.subList(0, limit)) : results;
+    }
+
+    public synchronized int getSegmentCount() {
+        return sealed.size() + 1;
+    }
+
+    public synchronized long getBytes() {
+        long bytes = active.bytes;
+        for (Segment segment : sealed) {
+            bytes += segment.bytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * Seals the current segment. An empty one is removed instead.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+        if (active.records == 0) {
+            Files.deleteIfExists(active.path);
+        } else {
+            writeIndex(active);
+        }
+    }
+
+    private void encode(final AuditRecord record) throws IOException {
+        int flags = 0;
+        if (record.isAllowed()) {
+            flags |= ALLOWED;
+        }
+        if (record.isRequesterTeam()) {
+            flags |= REQUESTER_TEAM;
+        }
+        if (record.isSubjectTeam()) {
+            flags |= SUBJECT_TEAM;
+        }
+        if (record.getRequesterId() != null) {
+            flags |= HAS_REQUESTER;
+        }
+        if (record.getComponentKey() != null) {
+            flags |= HAS_COMPONENT;
+        }
+        if (record.getSubjectId() != null) {
+            flags |= HAS_SUBJECT;
+        }
+        final int code;
+        if (record.getAction() != null) {
+            code = record.getAction().ordinal();
+        } else if (record.getAccessType() != null) {
+            code = record.getAccessType().ordinal();
+        } else {
+            code = -1;
+        }
+
+        frame.reset();
+        frameOut.writeLong(record.getTimestamp());
+        frameOut.writeByte(record.getType().ordinal());
+        frameOut.writeByte(flags);
+        frameOut.writeByte(code);
+        if (record.getRequesterId() != null) {
+            frameOut.writeUTF(record.getRequesterId());
+        }
+        if (record.getComponentKey() != null) {
+            frameOut.writeUTF(record.getComponentKey());
+        }
+        if (record.getSubjectId() != null) {
+            frameOut.writeUTF(record.getSubjectId());
+        }
+        crc.reset();
+        crc.update(frame.array(), 0, frame.size());
+
+        batchOut.writeInt(frame.size());
+        batchOut.writeInt((int) crc.getValue());
+        frame.writeTo(batch);
+    }
+
+    private static AuditRecord decode(final byte[] payload, final int length) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload, 0, length));
+        final long timestamp = in.readLong();
+        final AuditType type = AuditType.values()[in.readByte()];
+        final int flags = in.readByte();
+        final int code = in.readByte();
+        final AuditRecord.Builder builder = AuditRecord.Builder
+                .newInstance()
+                .withTimestamp(timestamp)
+                .withType(type)
+                .withAllowed((flags & ALLOWED) != 0);
+        if ((flags & HAS_REQUESTER) != 0) {
+            builder.withRequester(in.readUTF(), (flags & REQUESTER_TEAM) != 0);
+        }
+        if ((flags & HAS_COMPONENT) != 0) {
+            builder.withComponentKey(in.readUTF());
+        }
+        if ((flags & HAS_SUBJECT) != 0) {
+            builder.withSubject(in.readUTF(), (flags & SUBJECT_TEAM) != 0);
+        }
+        if (code >= 0) {
+            if (type == AuditType.DECISION) {
+                builder.withAction(Action.values()[code]);
+            } else {
+                builder.withAccessType(AccessType.values()[code]);
+            }
+        }
+        return builder.build();
+    }
+
+    private void write(final List<AuditRecord> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(batch.array(), 0, batch.size());
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            // Drop whatever part of the batch made it, so the next batch does not follow a torn record
+            channel.truncate(active.bytes);
+            throw e;
+        }
+        active.bytes += batch.size();
+        for (AuditRecord record : records) {
+            active.add(record);
+        }
+        batch.reset();
+        records.clear();
+    }
+
+    private void rotate() throws IOException {
+        channel.close();
+        writeIndex(active);
+        sealed.add(active);
+        startSegment(active.number + 1);
+        enforceRetention();
+    }
+
+    private void startSegment(final long number) throws IOException {
+        active = new Segment(number, segmentPath(number));
+        channel = FileChannel.open(active.path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).put(FORMAT_VERSION);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(true);
+        active.bytes = HEADER_BYTES;
+    }
+
+    private void enforceRetention() throws IOException {
+        while (maxSegments > 0 && sealed.size() + 1 > maxSegments) {
+            final Segment oldest = sealed.remove(0);
+            Files.deleteIfExists(oldest.path);
+            Files.deleteIfExists(indexPath(oldest.number));
+        }
+    }
+
+    /*
+    Indexes a segment left by an earlier run. The index written at sealing is used if it matches the file, otherwise
+    the segment is scanned and anything after the last intact record is cut off.
+     */
+    private Segment open(final long number) throws IOException {
+        final Path path = segmentPath(number);
+        final long size = Files.size(path);
+        if (size < HEADER_BYTES) {
+            // Created but never written
+            Files.delete(path);
+            return null;
+        }
+        final Segment indexed = readIndex(number, size);
+        if (indexed != null) {
+            return indexed;
+        }
+
+        final Segment segment = new Segment(number, path);
+        segment.bytes = scan(path, size, segment::add);
+        if (segment.bytes < size) {
+            try (FileChannel truncate = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                truncate.truncate(segment.bytes);
+                truncate.force(true);
+            }
+        }
+        if (segment.records == 0) {
+            Files.delete(path);
+            Files.deleteIfExists(indexPath(number));
+            return null;
+        }
+        writeIndex(segment);
+        return segment;
+    }
+
+    /*
+    Reads intact records up to limit and returns the offset just after the last of them
+     */
+    private static long scan(final Path path, final long limit, final Consumer<AuditRecord> consumer)
+            throws IOException {
+        try (InputStream file = Files.newInputStream(path);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file, 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readByte() != FORMAT_VERSION) {
+                throw new IOException("Not an audit segment: " + path);
+            }
+            final CRC32 checksum = new CRC32();
+            byte[] payload = new byte[256];
+            long offset = HEADER_BYTES;
+            try {
+                while (offset + FRAME_HEADER_BYTES <= limit) {
+                    final int length = in.readInt();
+                    final int expected = in.readInt();
+                    if (length <= 0 || length > MAX_RECORD_BYTES || offset + FRAME_HEADER_BYTES + length > limit) {
+                        break;
+                    }
+                    if (payload.length < length) {
+                        payload = new byte[Math.max(length, payload.length * 2)];
+                    }
+                    in.readFully(payload, 0, length);
+                    checksum.reset();
+                    checksum.update(payload, 0, length);
+                    if ((int) checksum.getValue() != expected) {
+                        break;
+                    }
+                    consumer.accept(decode(payload, length));
+                    offset += FRAME_HEADER_BYTES + length;
+                }
+            } catch (EOFException e) {
+                // Torn tail
+            }
+            return offset;
+        }
+    }
+
+    private void writeIndex(final Segment segment) throws IOException {
+        final Path path = indexPath(segment.number);
+        final Path temporary = directory.resolve(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeLong(segment.bytes);
+            out.writeLong(segment.records);
+            out.writeLong(segment.minTimestamp);
+            out.writeLong(segment.maxTimestamp);
+            writeBits(out, segment.requesters);
+            writeBits(out, segment.components);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /*
+    Returns null if there is no index or it does not describe the segment as it is on disk
+     */
+    private Segment readIndex(final long number, final long size) throws IOException {
+        final Path path = indexPath(number);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readByte() != FORMAT_VERSION) {
+                return null;
+            }
+            final Segment segment = new Segment(number, segmentPath(number));
+            segment.bytes = in.readLong();
+            if (segment.bytes != size) {
+                return null;
+            }
+            segment.records = in.readLong();
+            segment.minTimestamp = in.readLong();
+            segment.maxTimestamp = in.readLong();
+            segment.requesters.or(readBits(in));
+            segment.components.or(readBits(in));
+            return segment;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static void writeBits(final DataOutputStream out, final BitSet bits) throws IOException {
+        final long[] words = bits.toLongArray();
+        out.writeInt(words.length);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    private static BitSet readBits(final DataInputStream in) throws IOException {
+        final long[] words = new long[in.readInt()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = in.readLong();
+        }
+        return BitSet.valueOf(words);
+    }
+
+    private Path segmentPath(final long number) {
+        return directory.resolve(String.format("%s%016d%s", PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private Path indexPath(final long number) {
+        return directory.resolve(String.format("%s%016d%s", PREFIX, number, INDEX_SUFFIX));
+    }
+
+    private static final class Segment {
+        /*
+        8 KB per filter keeps false positives around 5% with 10,000 distinct keys in a segment
+         */
+        private static final int FILTER_BITS = 1 << 16;
+        private static final int FILTER_HASHES = 3;
+
+        private final long number;
+        private final Path path;
+        private long bytes;
+        private long records;
+        private long minTimestamp = Long.MAX_VALUE;
+        private long maxTimestamp = Long.MIN_VALUE;
+        private final BitSet requesters = new BitSet(FILTER_BITS);
+        private final BitSet components = new BitSet(FILTER_BITS);
+
+        private Segment(final long number, final Path path) {
+            this.number = number;
+            this.path = path;
+        }
+
+        private void add(final AuditRecord record) {
+            records++;
+            minTimestamp = Math.min(minTimestamp, record.getTimestamp());
+            maxTimestamp = Math.max(maxTimestamp, record.getTimestamp());
+            if (record.getRequesterId() != null) {
+                addKey(requesters, record.getRequesterId());
+            }
+            if (record.getComponentKey() != null) {
+                addKey(components, record.getComponentKey());
+            }
+        }
+
+        private boolean mayContain(final String requesterId, final String componentKey, final long fromTimestamp,
+                                   final long toTimestamp) {
+            return records > 0
+                    && maxTimestamp >= fromTimestamp && minTimestamp < toTimestamp
+                    && (requesterId == null || containsKey(requesters, requesterId))
+                    && (componentKey == null || containsKey(components, componentKey));
+        }
+
+        private static void addKey(final BitSet filter, final String key) {
+            final int hash = key.hashCode();
+            final int step = mix(hash);
+            for (int i = 0; i < FILTER_HASHES; i++) {
+                filter.set((hash + i * step) & (FILTER_BITS - 1));
+            }
+        }
+
+        private static boolean containsKey(final BitSet filter, final String key) {
+            final int hash = key.hashCode();
+            final int step = mix(hash);
+            for (int i = 0; i < FILTER_HASHES; i++) {
+                if (!filter.get((hash + i * step) & (FILTER_BITS - 1))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /*
+        Second hash for double hashing, odd so every probe lands on a different bit
+         */
+        private static int mix(final int hash) {
+            int h = hash * 0x9E3779B9;
+            h ^= h >>> 16;
+            return h | 1;
+        }
+    }
+
+    /*
+    Exposes its buffer, so frames and batches are written without copying
+     */
+    private static final class FrameBuffer extends ByteArrayOutputStream {
+        private FrameBuffer() {
+            super(1 << 12);
+        }
+
+        private byte[] array() {
+            return buf;
+        }
+    }
+}
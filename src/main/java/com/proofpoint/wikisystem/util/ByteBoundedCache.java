@@ -0,0 +1,84 @@
+package com.proofpoint.wikisystem.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * LRU cache bounded by the estimated size of its values rather than by entry count. Entries are weighed once on
+ * insert and the least recently used ones are evicted until the total fits in maxBytes again.
+ */
+public class ByteBoundedCache<K, V> {
+
+    private final long maxBytes;
+    private final ToLongFunction<V> weigher;
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ByteBoundedCache(final long maxBytes, final ToLongFunction<V> weigher) {
+        this.maxBytes = maxBytes;
+        this.weigher = weigher;
+    }
+
+    public synchronized V get(final K key) {
+        final V value = entries.get(key);
+        if (value == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    public synchronized void put(final K key, final V value) {
+        final long weight = weigher.applyAsLong(value);
+        if (weight > maxBytes) {
+            return;
+        }
+        final V previous = entries.put(key, value);
+        if (previous != null) {
+            currentBytes -= weigher.applyAsLong(previous);
+        }
+        currentBytes += weight;
+
+        final Iterator<Map.Entry<K, V>> eldest = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && eldest.hasNext()) {
+            currentBytes -= weigher.applyAsLong(eldest.next().getValue());
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    public synchronized void invalidate(final K key) {
+        final V previous = entries.remove(key);
+        if (previous != null) {
+            currentBytes -= weigher.applyAsLong(previous);
+        }
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+}
@@ -0,0 +1,74 @@
+package com.proofpoint.wikisystem.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of requests in flight, adapting the limit to latency: every request that finishes within the
+ * target grows the limit by roughly one per limit's worth of requests, a slow one cuts it by a tenth, at most once
+ * per cut interval. When the instance slows down, the extra requests are refused instead of queueing.
+ */
+public final class ConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyNanos;
+    private final long cutIntervalNanos;
+
+    private final AtomicInteger limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger successes = new AtomicInteger();
+    private final AtomicLong lastCut = new AtomicLong(Long.MIN_VALUE / 2);
+    private final AtomicLong rejected = new AtomicLong();
+
+    public ConcurrencyLimiter(final int minLimit, final int maxLimit, final int initialLimit,
+                              final long targetLatencyNanos, final long cutIntervalNanos) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.targetLatencyNanos = targetLatencyNanos;
+        this.cutIntervalNanos = cutIntervalNanos;
+        this.limit = new AtomicInteger(Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit)));
+    }
+
+    /**
+     * @return true if the request may proceed, in which case {@link #release(long, long)} must follow
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            final int current = inFlight.get();
+            if (current >= limit.get()) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release(final long latencyNanos, final long nowNanos) {
+        inFlight.decrementAndGet();
+        if (latencyNanos > targetLatencyNanos) {
+            final long previousCut = lastCut.get();
+            if (nowNanos - previousCut >= cutIntervalNanos && lastCut.compareAndSet(previousCut, nowNanos)) {
+                limit.updateAndGet(current -> Math.max(minLimit, current - Math.max(1, current / 10)));
+                successes.set(0);
+            }
+        } else if (successes.incrementAndGet() >= limit.get()) {
+            successes.set(0);
+            limit.updateAndGet(current -> Math.min(maxLimit, current + 1));
+        }
+    }
+
+    public int getLimit() {
+        return limit.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+}
@@ -11,6 +11,9 @@ public class Constants {
     public static final String STATUS_SUCCESS = "SUCCESS";
     public static final String STATUS_FAILED = "FAILED";
     public static final String STATUS_FAILED_WITH_MESSAGE = "Operation FAILED Message:";
+    public static final int MAX_SUGGESTIONS = 100;
+    public static final int MAX_SUGGESTION_EDITS = 2;
+    public static final int MAX_BATCH_PAGE_VIEWS = 1000;
 
     public static Map<Action, List<AccessType>> authorizedActionsMap;
 
@@ -0,0 +1,83 @@
+package com.proofpoint.wikisystem.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Approximate counts of many keys in fixed memory: depth rows of width counters, each key incrementing one counter
+ * per row. The smallest of a key's counters is its estimate, which is never below the true count and exceeds it by
+ * at most about total / width with high probability. Counters are updated without locks.
+ */
+public final class CountMinSketch {
+
+    private final int depth;
+    private final int mask;
+    private final AtomicIntegerArray counters;
+
+    /**
+     * @param width counters per row, rounded up to a power of two
+     */
+    public CountMinSketch(final int width, final int depth) {
+        if (width <= 0 || depth <= 0) {
+            throw new IllegalArgumentException("Width and depth must be positive");
+        }
+        this.depth = depth;
+        this.mask = Integer.highestOneBit(Math.max(1, width - 1)) * 2 - 1;
+        this.counters = new AtomicIntegerArray((mask + 1) * depth);
+    }
+
+    /**
+     * @return the key's estimate after adding count
+     */
+    public long add(final Object key, final int count) {
+        final int first = mix(key.hashCode());
+        final int second = mix(first ^ 0x5bd1e995) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            final int index = row * (mask + 1) + ((first + row * second) & mask);
+            int current;
+            int updated;
+            do {
+                current = counters.get(index);
+                // Saturates instead of wrapping
+                updated = (int) Math.min(Integer.MAX_VALUE, (long) current + count);
+            } while (!counters.compareAndSet(index, current, updated));
+            estimate = Math.min(estimate, updated);
+        }
+        return estimate;
+    }
+
+    public long estimate(final Object key) {
+        final int first = mix(key.hashCode());
+        final int second = mix(first ^ 0x5bd1e995) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters.get(row * (mask + 1) + ((first + row * second) & mask)));
+        }
+        return estimate;
+    }
+
+    /**
+     * Halves every counter, so old reads weigh half as much as new ones after each call. Increments racing with it
+     * may be halved or not.
+     */
+    public void halve() {
+        for (int i = 0; i < counters.length(); i++) {
+            int current;
+            do {
+                current = counters.get(i);
+            } while (current != 0 && !counters.compareAndSet(i, current, current >>> 1));
+        }
+    }
+
+    /*
+    Murmur3 finalizer, String hash codes are far from uniform in their low bits
+     */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
@@ -0,0 +1,234 @@
+package com.proofpoint.wikisystem.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Gzip stream made of independently compressed blocks, in the manner of BGZF. Every block is a complete gzip member
+ * whose extra field holds its own length and a partition number, so any gzip reader decompresses the concatenation
+ * as a whole, while {@link #readBlock(InputStream)} splits it into blocks without inflating them and the blocks can
+ * be inflated on as many threads as there are partitions.
+ */
+public final class GzipBlocks {
+
+    private static final int ID1 = 0x1f;
+    private static final int ID2 = 0x8b;
+    private static final int CM_DEFLATE = 8;
+    private static final int FLG_EXTRA = 4;
+    private static final int OS_UNKNOWN = 255;
+    private static final byte SI1 = 'W';
+    private static final byte SI2 = 'K';
+    private static final byte FORMAT_VERSION = 1;
+    /*
+    Version, partition and member length
+     */
+    private static final int SUBFIELD_BYTES = 9;
+    private static final int FIXED_HEADER_BYTES = 12;
+    private static final int HEADER_BYTES = FIXED_HEADER_BYTES + 4 + SUBFIELD_BYTES;
+    private static final int TRAILER_BYTES = 8;
+    private static final int MAX_MEMBER_BYTES = 1 << 30;
+
+    private GzipBlocks() {
+    }
+
+    /**
+     * Compresses data into one gzip member
+     *
+     * @param deflater created with nowrap set, reused between calls by one thread
+     */
+    public static byte[] compress(final byte[] data, final int length, final int partition, final Deflater deflater) {
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        final Buffer out = new Buffer(HEADER_BYTES + length / 3 + TRAILER_BYTES + 64);
+        out.write(new byte[HEADER_BYTES], 0, HEADER_BYTES);
+        final byte[] buffer = new byte[1 << 16];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        writeIntLE(out, (int) crc.getValue());
+        writeIntLE(out, length);
+
+        final byte[] member = out.array();
+        final int memberLength = out.size();
+        member[0] = (byte) ID1;
+        member[1] = (byte) ID2;
+        member[2] = CM_DEFLATE;
+        member[3] = FLG_EXTRA;
+        member[9] = (byte) OS_UNKNOWN;
+        putShortLE(member, 10, 4 + SUBFIELD_BYTES);
+        member[12] = SI1;
+        member[13] = SI2;
+        putShortLE(member, 14, SUBFIELD_BYTES);
+        member[16] = FORMAT_VERSION;
+        putIntLE(member, 17, partition);
+        putIntLE(member, 21, memberLength);
+        return memberLength == member.length ? member : Arrays.copyOf(member, memberLength);
+    }
+
+    /**
+     * Reads the next block without inflating it
+     *
+     * @return null at the end of the stream
+     */
+    public static Block readBlock(final InputStream in) throws IOException {
+        final int first = in.read();
+        if (first == -1) {
+            return null;
+        }
+        final byte[] header = new byte[FIXED_HEADER_BYTES];
+        header[0] = (byte) first;
+        readFully(in, header, 1, FIXED_HEADER_BYTES - 1);
+        if ((header[0] & 0xff) != ID1 || (header[1] & 0xff) != ID2 || header[2] != CM_DEFLATE
+                || (header[3] & FLG_EXTRA) == 0) {
+            throw new IOException("Not a wiki archive: expected a gzip block with an extra field");
+        }
+        final int extraLength = getShortLE(header, 10);
+        final byte[] extra = new byte[extraLength];
+        readFully(in, extra, 0, extraLength);
+
+        for (int offset = 0; offset + 4 <= extraLength; ) {
+            final int length = getShortLE(extra, offset + 2);
+            if (extra[offset] == SI1 && extra[offset + 1] == SI2 && length >= SUBFIELD_BYTES
+                    && offset + 4 + length <= extraLength) {
+                if (extra[offset + 4] != FORMAT_VERSION) {
+                    throw new IOException("Unsupported wiki archive version " + extra[offset + 4]);
+                }
+                final int partition = getIntLE(extra, offset + 5);
+                final int memberLength = getIntLE(extra, offset + 9);
+                final int dataOffset = FIXED_HEADER_BYTES + extraLength;
+                if (memberLength < dataOffset + TRAILER_BYTES || memberLength > MAX_MEMBER_BYTES) {
+                    throw new IOException("Corrupt wiki archive: block length " + memberLength);
+                }
+                final byte[] member = new byte[memberLength];
+                System.arraycopy(header, 0, member, 0, FIXED_HEADER_BYTES);
+                System.arraycopy(extra, 0, member, FIXED_HEADER_BYTES, extraLength);
+                readFully(in, member, dataOffset, memberLength - dataOffset);
+                return new Block(partition, member, dataOffset);
+            }
+            offset += 4 + length;
+        }
+        throw new IOException("Not a wiki archive: gzip block without a block length");
+    }
+
+    /**
+     * A compressed block as read from the stream
+     */
+    public static final class Block {
+        private final int partition;
+        private final byte[] member;
+        private final int dataOffset;
+
+        private Block(final int partition, final byte[] member, final int dataOffset) {
+            this.partition = partition;
+            this.member = member;
+            this.dataOffset = dataOffset;
+        }
+
+        public int getPartition() {
+            return partition;
+        }
+
+        public int getCompressedSize() {
+            return member.length;
+        }
+
+        /**
+         * @return the uncompressed block, checked against the length and CRC in its trailer
+         */
+        public byte[] inflate() throws IOException {
+            final int size = getIntLE(member, member.length - 4);
+            if (size < 0 || size > MAX_MEMBER_BYTES) {
+                throw new IOException("Corrupt wiki archive: block size " + size);
+            }
+            if (size == 0) {
+                return new byte[0];
+            }
+            final byte[] output = new byte[size];
+            final Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(member, dataOffset, member.length - dataOffset - TRAILER_BYTES);
+                int inflated = 0;
+                while (inflated < size && !inflater.finished()) {
+                    final int count = inflater.inflate(output, inflated, size - inflated);
+                    if (count == 0 && inflater.needsInput()) {
+                        break;
+                    }
+                    inflated += count;
+                }
+                if (inflated != size || !inflater.finished()) {
+                    throw new IOException("Corrupt wiki archive: truncated block in partition " + partition);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt wiki archive: " + e.getMessage(), e);
+            } finally {
+                inflater.end();
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(output, 0, size);
+            if ((int) crc.getValue() != getIntLE(member, member.length - TRAILER_BYTES)) {
+                throw new IOException("Corrupt wiki archive: checksum mismatch in partition " + partition);
+            }
+            return output;
+        }
+    }
+
+    private static void readFully(final InputStream in, final byte[] buffer, final int offset, final int length)
+            throws IOException {
+        int read = 0;
+        while (read < length) {
+            final int count = in.read(buffer, offset + read, length - read);
+            if (count < 0) {
+                throw new EOFException("Truncated wiki archive");
+            }
+            read += count;
+        }
+    }
+
+    private static void writeIntLE(final ByteArrayOutputStream out, final int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    private static void putShortLE(final byte[] buffer, final int offset, final int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >>> 8);
+    }
+
+    private static void putIntLE(final byte[] buffer, final int offset, final int value) {
+        putShortLE(buffer, offset, value);
+        putShortLE(buffer, offset + 2, value >>> 16);
+    }
+
+    private static int getShortLE(final byte[] buffer, final int offset) {
+        return (buffer[offset] & 0xff) | (buffer[offset + 1] & 0xff) << 8;
+    }
+
+    private static int getIntLE(final byte[] buffer, final int offset) {
+        return getShortLE(buffer, offset) | getShortLE(buffer, offset + 2) << 16;
+    }
+
+    /*
+    Exposes its buffer, so the header is filled in without copying the member
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        private Buffer(final int size) {
+            super(size);
+        }
+
+        private byte[] array() {
+            return buf;
+        }
+    }
+}
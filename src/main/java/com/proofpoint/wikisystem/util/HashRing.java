@@ -0,0 +1,75 @@
+package com.proofpoint.wikisystem.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Immutable consistent hash ring. Every node is placed on the ring at virtualNodes points, and a key belongs to the
+ * first node clockwise from the key's hash. Adding a node therefore only moves the keys that fall just before its
+ * points, roughly 1/n of them, all of them to the new node.
+ */
+public final class HashRing {
+
+    private final int virtualNodes;
+    private final Set<String> nodes;
+    private final NavigableMap<Long, String> points = new TreeMap<>();
+
+    public HashRing(final Collection<String> nodes, final int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+        this.nodes = Collections.unmodifiableSet(new TreeSet<>(nodes));
+        for (String node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                // On a collision the smaller node id wins, whatever order the nodes were added in
+                points.merge(hash(node + "#" + i), node, (current, added) -> current.compareTo(added) <= 0 ? current : added);
+            }
+        }
+    }
+
+    public HashRing withNode(final String node) {
+        final Set<String> output = new TreeSet<>(nodes);
+        output.add(node);
+        return new HashRing(output, virtualNodes);
+    }
+
+    public HashRing withoutNode(final String node) {
+        final Set<String> output = new TreeSet<>(nodes);
+        output.remove(node);
+        return new HashRing(output, virtualNodes);
+    }
+
+    /**
+     * @return node owning the key, or null if the ring is empty
+     */
+    public String nodeFor(final String key) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        final Map.Entry<Long, String> entry = points.ceilingEntry(hash(key));
+        return entry == null ? points.firstEntry().getValue() : entry.getValue();
+    }
+
+    public Set<String> getNodes() {
+        return nodes;
+    }
+
+    static long hash(final String key) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = hash << 8 | (digest[i] & 0xFF);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
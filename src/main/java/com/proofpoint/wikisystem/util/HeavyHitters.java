@@ -0,0 +1,101 @@
+package com.proofpoint.wikisystem.util;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The most frequent keys of a stream, by their count-min sketch estimates. The top set only changes when a key's
+ * estimate beats the weakest member, so once it has filled up almost every add is a few lock-free counter updates
+ * and a set lookup; only the rare admissions take the lock. Halving the sketch decays old counts, so keys that
+ * cool down are pushed out by the ones that are hot now.
+ *
+ * @param <K> keys, with well distributed hash codes
+ */
+public final class HeavyHitters<K> {
+
+    private final CountMinSketch sketch;
+    private final int capacity;
+    private final Set<K> members = ConcurrentHashMap.newKeySet();
+    /*
+    Estimate a key must exceed to be considered once the top set is full, the weakest member's as last computed
+     */
+    private volatile long threshold;
+
+    public HeavyHitters(final int capacity, final int sketchWidth, final int sketchDepth) {
+        this.capacity = capacity;
+        this.sketch = new CountMinSketch(sketchWidth, sketchDepth);
+    }
+
+    public void add(final K key) {
+        add(key, 1);
+    }
+
+    public void add(final K key, final int count) {
+        final long estimate = sketch.add(key, count);
+        if (!members.contains(key) && (members.size() < capacity || estimate > threshold)) {
+            admit(key, estimate);
+        }
+    }
+
+    public long estimate(final K key) {
+        return sketch.estimate(key);
+    }
+
+    /**
+     * @return up to limit of the top keys with their estimates, highest first
+     */
+    public List<Map.Entry<K, Long>> top(final int limit) {
+        final List<Map.Entry<K, Long>> output = new ArrayList<>(members.size());
+        for (K key : members) {
+            output.add(new AbstractMap.SimpleImmutableEntry<>(key, sketch.estimate(key)));
+        }
+        output.sort(Comparator.comparing((Map.Entry<K, Long> entry) -> entry.getValue()).reversed());
+        return output.size() > limit ? new ArrayList<>(output.subList(0, limit)) : output;
+    }
+
+    public synchronized void decay() {
+        sketch.halve();
+        threshold = members.size() < capacity ? 0 : weakest().getValue();
+    }
+
+    private synchronized void admit(final K key, final long estimate) {
+        if (members.contains(key)) {
+            return;
+        }
+        if (members.size() < capacity) {
+            members.add(key);
+        } else {
+            final Map.Entry<K, Long> weakest = weakest();
+            if (estimate <= weakest.getValue()) {
+                threshold = weakest.getValue();
+                return;
+            }
+            members.remove(weakest.getKey());
+            members.add(key);
+        }
+        if (members.size() >= capacity) {
+            threshold = weakest().getValue();
+        }
+    }
+
+    /*
+    O(capacity), only on admissions and decay
+     */
+    private Map.Entry<K, Long> weakest() {
+        K weakestKey = null;
+        long weakestEstimate = Long.MAX_VALUE;
+        for (K member : members) {
+            final long estimate = sketch.estimate(member);
+            if (estimate < weakestEstimate) {
+                weakestKey = member;
+                weakestEstimate = estimate;
+            }
+        }
+        return new AbstractMap.SimpleImmutableEntry<>(weakestKey, weakestEstimate);
+    }
+}
@@ -0,0 +1,357 @@
+package com.proofpoint.wikisystem.util;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Radix trie from string keys to values, for completing identifiers and finding near misses. Every node is
+ * immutable and a change copies only the path down to the key it touches, so a lookup reads one root and sees the
+ * trie as of that moment without locks, while writers take turns on this.
+ * <p>
+ * Prefix lookups cost the length of the prefix plus the entries visited. Lookups by edit distance walk the trie
+ * once per distance, closest first, pruning every branch whose prefix is already too far from the query.
+ *
+ * @param <V> values, several per key are allowed
+ */
+public final class PrefixTrie<V> {
+
+    private static final char[] NO_CHARS = new char[0];
+    private static final Node[] NO_NODES = new Node[0];
+    private static final Object[] NO_VALUES = new Object[0];
+
+    private volatile Node root = new Node(NO_CHARS, NO_CHARS, NO_NODES, NO_VALUES);
+    private volatile int size;
+
+    /**
+     * @return number of key and value pairs
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return false if the key already had the value
+     */
+    public synchronized boolean add(final String key, final V value) {
+        final Node updated = add(root, key, 0, value);
+        if (updated == null) {
+            return false;
+        }
+        root = updated;
+        size++;
+        return true;
+    }
+
+    /**
+     * @return false if the key did not have the value
+     */
+    public synchronized boolean remove(final String key, final V value) {
+        final Node updated = remove(root, key, 0, value);
+        if (updated == null) {
+            return false;
+        }
+        root = updated;
+        size--;
+        return true;
+    }
+
+    /**
+     * @param filter values that fail it are skipped and do not count towards the limit
+     * @return entries whose key starts with prefix, in key order
+     */
+    public List<Match<V>> withPrefix(final String prefix, final int limit, final Predicate<V> filter) {
+        final List<Match<V>> output = new ArrayList<>();
+        Node node = root;
+        final StringBuilder key = new StringBuilder(prefix.length() + 16);
+        int offset = 0;
+        while (offset < prefix.length()) {
+            final int index = Arrays.binarySearch(node.first, prefix.charAt(offset));
+            if (index < 0) {
+                return output;
+            }
+            node = node.children[index];
+            final int compared = Math.min(node.label.length, prefix.length() - offset);
+            for (int i = 0; i < compared; i++) {
+                if (node.label[i] != prefix.charAt(offset + i)) {
+                    return output;
+                }
+            }
+            key.append(node.label);
+            offset += node.label.length;
+        }
+        collect(node, key, limit, filter, output);
+        return output;
+    }
+
+    /**
+     * @param maxEdits insertions, deletions and substitutions allowed between the query and a key
+     * @param filter   values that fail it are skipped and do not count towards the limit
+     * @return entries whose key is within maxEdits of the query, closest first and in key order for equal distances
+     */
+    public List<Match<V>> withinEdits(final String query, final int maxEdits, final int limit,
+                                      final Predicate<V> filter) {
+        final List<Match<V>> output = new ArrayList<>();
+        final Node top = root;
+        final int[] row = new int[query.length() + 1];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = i;
+        }
+        for (int distance = 0; distance <= maxEdits && output.size() < limit; distance++) {
+            if (row[query.length()] == distance) {
+                emit(top, "", distance, limit, filter, output);
+            }
+            for (Node child : top.children) {
+                if (!searchEdits(child, query, row, distance, new StringBuilder(), limit, filter, output)) {
+                    break;
+                }
+            }
+        }
+        return output;
+    }
+
+    /*
+    Depth first in key order, false once the limit is reached
+     */
+    private static <V> boolean collect(final Node node, final StringBuilder key, final int limit,
+                                       final Predicate<V> filter, final List<Match<V>> output) {
+        if (!emit(node, key.toString(), 0, limit, filter, output)) {
+            return false;
+        }
+        for (Node child : node.children) {
+            final int length = key.length();
+            key.append(child.label);
+            final boolean more = collect(child, key, limit, filter, output);
+            key.setLength(length);
+            if (!more) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+    One row of the Levenshtein table per character on the way down. Only keys exactly distance away are emitted, the
+    closer ones were found by the earlier passes.
+     */
+    private static <V> boolean searchEdits(final Node node, final String query, final int[] parentRow,
+                                           final int distance, final StringBuilder key, final int limit,
+                                           final Predicate<V> filter, final List<Match<V>> output) {
+        int[] row = parentRow;
+        for (char c : node.label) {
+            final int[] next = new int[row.length];
+            next[0] = row[0] + 1;
+            int smallest = next[0];
+            for (int i = 1; i < row.length; i++) {
+                final int substitution = row[i - 1] + (query.charAt(i - 1) == c ? 0 : 1);
+                next[i] = Math.min(substitution, Math.min(row[i], next[i - 1]) + 1);
+                smallest = Math.min(smallest, next[i]);
+            }
+            if (smallest > distance) {
+                return true;
+            }
+            row = next;
+        }
+        final int length = key.length();
+        key.append(node.label);
+        try {
+            if (row[query.length()] == distance && !emit(node, key.toString(), distance, limit, filter, output)) {
+                return false;
+            }
+            for (Node child : node.children) {
+                if (!searchEdits(child, query, row, distance, key, limit, filter, output)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            key.setLength(length);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> boolean emit(final Node node, final String key, final int distance, final int limit,
+                                    final Predicate<V> filter, final List<Match<V>> output) {
+        for (Object value : node.values) {
+            if (output.size() >= limit) {
+                return false;
+            }
+            if (filter.test((V) value)) {
+                output.add(new Match<>(key, (V) value, distance));
+            }
+        }
+        return output.size() < limit;
+    }
+
+    /*
+    The node's label has been consumed up to offset. Returns the updated node, or null if nothing changed.
+     */
+    private static Node add(final Node node, final String key, final int offset, final Object value) {
+        if (offset == key.length()) {
+            if (indexOf(node.values, value) >= 0) {
+                return null;
+            }
+            final Object[] values = Arrays.copyOf(node.values, node.values.length + 1);
+            values[node.values.length] = value;
+            return new Node(node.label, node.first, node.children, values);
+        }
+        final int index = Arrays.binarySearch(node.first, key.charAt(offset));
+        if (index < 0) {
+            final Node leaf = new Node(key.substring(offset).toCharArray(), NO_CHARS, NO_NODES, new Object[]{value});
+            return node.withChild(-index - 1, leaf);
+        }
+        final Node child = node.children[index];
+        int common = 0;
+        while (common < child.label.length && offset + common < key.length()
+                && child.label[common] == key.charAt(offset + common)) {
+            common++;
+        }
+        if (common == child.label.length) {
+            final Node updated = add(child, key, offset + common, value);
+            return updated == null ? null : node.replaceChild(index, updated);
+        }
+
+        // The key leaves the child's label part way, split the label there
+        final Node tail = child.withLabel(Arrays.copyOfRange(child.label, common, child.label.length));
+        final char[] head = Arrays.copyOf(child.label, common);
+        final Node middle;
+        if (offset + common == key.length()) {
+            middle = new Node(head, new char[]{tail.label[0]}, new Node[]{tail}, new Object[]{value});
+        } else {
+            final Node leaf = new Node(key.substring(offset + common).toCharArray(), NO_CHARS, NO_NODES,
+                    new Object[]{value});
+            middle = leaf.label[0] < tail.label[0]
+                    ? new Node(head, new char[]{leaf.label[0], tail.label[0]}, new Node[]{leaf, tail}, NO_VALUES)
+                    : new Node(head, new char[]{tail.label[0], leaf.label[0]}, new Node[]{tail, leaf}, NO_VALUES);
+        }
+        return node.replaceChild(index, middle);
+    }
+
+    /*
+    Returns the updated node, or null if nothing changed. Children left without values are dropped, and children
+    left with a single child of their own are merged with it, so the trie stays as small as after fresh inserts.
+     */
+    private static Node remove(final Node node, final String key, final int offset, final Object value) {
+        if (offset == key.length()) {
+            final int index = indexOf(node.values, value);
+            if (index < 0) {
+                return null;
+            }
+            final Object[] values = new Object[node.values.length - 1];
+            System.arraycopy(node.values, 0, values, 0, index);
+            System.arraycopy(node.values, index + 1, values, index, values.length - index);
+            return new Node(node.label, node.first, node.children, values);
+        }
+        final int index = Arrays.binarySearch(node.first, key.charAt(offset));
+        if (index < 0) {
+            return null;
+        }
+        final Node child = node.children[index];
+        if (key.length() - offset < child.label.length) {
+            return null;
+        }
+        for (int i = 0; i < child.label.length; i++) {
+            if (child.label[i] != key.charAt(offset + i)) {
+                return null;
+            }
+        }
+        final Node updated = remove(child, key, offset + child.label.length, value);
+        if (updated == null) {
+            return null;
+        }
+        if (updated.values.length == 0 && updated.children.length == 0) {
+            return node.withoutChild(index);
+        }
+        if (updated.values.length == 0 && updated.children.length == 1) {
+            final Node only = updated.children[0];
+            final char[] label = Arrays.copyOf(updated.label, updated.label.length + only.label.length);
+            System.arraycopy(only.label, 0, label, updated.label.length, only.label.length);
+            return node.replaceChild(index, only.withLabel(label));
+        }
+        return node.replaceChild(index, updated);
+    }
+
+    private static int indexOf(final Object[] values, final Object value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A key and one of its values
+     */
+    @Getter
+    public static final class Match<V> {
+        private final String key;
+        private final V value;
+        private final int distance;
+
+        private Match(final String key, final V value, final int distance) {
+            this.key = key;
+            this.value = value;
+            this.distance = distance;
+        }
+    }
+
+    /*
+    Children are sorted by the first character of their labels, which are never empty below the root
+     */
+    private static final class Node {
+        private final char[] label;
+        private final char[] first;
+        private final Node[] children;
+        private final Object[] values;
+
+        private Node(final char[] label, final char[] first, final Node[] children, final Object[] values) {
+            this.label = label;
+            this.first = first;
+            this.children = children;
+            this.values = values;
+        }
+
+        private Node withLabel(final char[] newLabel) {
+            return new Node(newLabel, first, children, values);
+        }
+
+        private Node withChild(final int index, final Node child) {
+            final char[] newFirst = new char[first.length + 1];
+            final Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(first, 0, newFirst, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            newFirst[index] = child.label[0];
+            newChildren[index] = child;
+            System.arraycopy(first, index, newFirst, index + 1, first.length - index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+            return new Node(label, newFirst, newChildren, values);
+        }
+
+        private Node replaceChild(final int index, final Node child) {
+            final Node[] newChildren = children.clone();
+            newChildren[index] = child;
+            final char[] newFirst;
+            if (first[index] == child.label[0]) {
+                newFirst = first;
+            } else {
+                newFirst = first.clone();
+                newFirst[index] = child.label[0];
+            }
+            return new Node(label, newFirst, newChildren, values);
+        }
+
+        private Node withoutChild(final int index) {
+            final char[] newFirst = new char[first.length - 1];
+            final Node[] newChildren = new Node[children.length - 1];
+            System.arraycopy(first, 0, newFirst, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(first, index + 1, newFirst, index, newFirst.length - index);
+            System.arraycopy(children, index + 1, newChildren, index, newChildren.length - index);
+            return new Node(label, newFirst, newChildren, values);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.proofpoint.wikisystem.util;
+
+/**
+ * Immutable text held as a balanced tree of chunks. Inserting, deleting or replacing a range costs O(log n) plus the
+ * size of the edit: only the nodes on the paths to the range boundaries are rebuilt, everything else is shared with
+ * the rope the edit was made on. Old versions of a document therefore cost only the chunks an edit touched.
+ * <p>
+ * The tree is kept balanced like an AVL tree, by joining along the spine of the taller side, and adjacent small
+ * chunks are merged when they meet so many small edits do not fragment the text.
+ */
+public final class Rope {
+
+    /*
+    Chunks are split to at most this many characters when a rope is built, and merged up to it when joined
+     */
+    static final int MAX_LEAF = 1024;
+
+    private static final Rope EMPTY = new Rope("", null, null);
+
+    /*
+    Leaf text, null for inner nodes
+     */
+    private final String text;
+    private final Rope left;
+    private final Rope right;
+    private final int length;
+    private final int height;
+    /*
+    Whole text, built on first use
+     */
+    private volatile String flattened;
+
+    private Rope(final String text, final Rope left, final Rope right) {
+        this.text = text;
+        this.left = left;
+        this.right = right;
+        if (text != null) {
+            this.length = text.length();
+            this.height = 0;
+            this.flattened = text;
+        } else {
+            this.length = left.length + right.length;
+            this.height = Math.max(left.height, right.height) + 1;
+        }
+    }
+
+    public static Rope empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Builds a balanced rope in O(n)
+     */
+    public static Rope of(final CharSequence text) {
+        if (text.length() == 0) {
+            return EMPTY;
+        }
+        return build(text, 0, text.length());
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public char charAt(final int index) {
+        checkIndex(index, length - 1);
+        Rope node = this;
+        int offset = index;
+        while (node.text == null) {
+            if (offset < node.left.length) {
+                node = node.left;
+            } else {
+                offset -= node.left.length;
+                node = node.right;
+            }
+        }
+        return node.text.charAt(offset);
+    }
+
+    /**
+     * @return the characters from start inclusive to end exclusive, in O(log n + end - start)
+     */
+    public String substring(final int start, final int end) {
+        checkRange(start, end);
+        final StringBuilder output = new StringBuilder(end - start);
+        appendRange(this, start, end, output);
+        return output.toString();
+    }
+
+    /**
+     * @return index of the first c at or after fromIndex, -1 if there is none. Costs O(log n) plus the distance
+     * searched.
+     */
+    public int indexOf(final char c, final int fromIndex) {
+        return indexOf(this, c, Math.max(fromIndex, 0));
+    }
+
+    /**
+     * @return index of the last c at or before fromIndex, -1 if there is none
+     */
+    public int lastIndexOf(final char c, final int fromIndex) {
+        return lastIndexOf(this, c, Math.min(fromIndex, length - 1));
+    }
+
+    public Rope concat(final Rope other) {
+        return join(this, other);
+    }
+
+    public Rope insert(final int index, final CharSequence inserted) {
+        return replace(index, index, inserted);
+    }
+
+    public Rope delete(final int start, final int end) {
+        return replace(start, end, "");
+    }
+
+    /**
+     * Replaces the characters from start inclusive to end exclusive
+     */
+    public Rope replace(final int start, final int end, final CharSequence replacement) {
+        checkRange(start, end);
+        final Rope head = prefix(this, start);
+        final Rope tail = suffix(this, end);
+        return join(join(head, of(replacement)), tail);
+    }
+
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public String toString() {
+        String output = flattened;
+        if (output == null) {
+            final StringBuilder builder = new StringBuilder(length);
+            appendRange(this, 0, length, builder);
+            output = builder.toString();
+            flattened = output;
+        }
+        return output;
+    }
+
+    private static Rope build(final CharSequence text, final int start, final int end) {
+        if (end - start <= MAX_LEAF) {
+            return new Rope(text.subSequence(start, end).toString(), null, null);
+        }
+        // Halves on chunk boundaries, so every leaf but the last is full
+        final int chunks = (end - start + MAX_LEAF - 1) / MAX_LEAF;
+        final int middle = start + (chunks / 2) * MAX_LEAF;
+        return new Rope(null, build(text, start, middle), build(text, middle, end));
+    }
+
+    /*
+    First count characters
+     */
+    private static Rope prefix(final Rope node, final int count) {
+        if (count == 0) {
+            return EMPTY;
+        }
+        if (count == node.length) {
+            return node;
+        }
+        if (node.text != null) {
+            return new Rope(node.text.substring(0, count), null, null);
+        }
+        if (count <= node.left.length) {
+            return prefix(node.left, count);
+        }
+        return join(node.left, prefix(node.right, count - node.left.length));
+    }
+
+    /*
+    Characters from start to the end
+     */
+    private static Rope suffix(final Rope node, final int start) {
+        if (start == 0) {
+            return node;
+        }
+        if (start == node.length) {
+            return EMPTY;
+        }
+        if (node.text != null) {
+            return new Rope(node.text.substring(start), null, null);
+        }
+        if (start >= node.left.length) {
+            return suffix(node.right, start - node.left.length);
+        }
+        return join(suffix(node.left, start), node.right);
+    }
+
+    /*
+    Concatenation that keeps the heights of siblings within one of each other. Descends the spine of the taller rope
+    to a subtree as tall as the shorter one, so it costs the difference in heights.
+     */
+    private static Rope join(final Rope left, final Rope right) {
+        if (left.length == 0) {
+            return right;
+        }
+        if (right.length == 0) {
+            return left;
+        }
+        if (left.text != null && right.text != null && left.length + right.length <= MAX_LEAF) {
+            return new Rope(left.text + right.text, null, null);
+        }
+        if (left.height > right.height + 1) {
+            return balance(left.left, join(left.right, right));
+        }
+        if (right.height > left.height + 1) {
+            return balance(join(left, right.left), right.right);
+        }
+        if (left.text == null && right.text != null && left.right.text != null
+                && left.right.length + right.length <= MAX_LEAF) {
+            // Small trailing chunks are absorbed rather than stacked
+            return balance(left.left, new Rope(left.right.text + right.text, null, null));
+        }
+        if (right.text == null && left.text != null && right.left.text != null
+                && left.length + right.left.length <= MAX_LEAF) {
+            return balance(new Rope(left.text + right.left.text, null, null), right.right);
+        }
+        return new Rope(null, left, right);
+    }
+
+    /*
+    Node over two subtrees whose heights differ by two at most, rotated so they differ by one at most
+     */
+    private static Rope balance(final Rope left, final Rope right) {
+        if (left.height > right.height + 1) {
+            if (left.left.height >= left.right.height) {
+                return new Rope(null, left.left, new Rope(null, left.right, right));
+            }
+            return new Rope(null, new Rope(null, left.left, left.right.left),
+                    new Rope(null, left.right.right, right));
+        }
+        if (right.height > left.height + 1) {
+            if (right.right.height >= right.left.height) {
+                return new Rope(null, new Rope(null, left, right.left), right.right);
+            }
+            return new Rope(null, new Rope(null, left, right.left.left),
+                    new Rope(null, right.left.right, right.right));
+        }
+        return new Rope(null, left, right);
+    }
+
+    private static int indexOf(final Rope node, final char c, final int from) {
+        if (from >= node.length) {
+            return -1;
+        }
+        if (node.text != null) {
+            return node.text.indexOf(c, from);
+        }
+        if (from < node.left.length) {
+            final int found = indexOf(node.left, c, from);
+            if (found >= 0) {
+                return found;
+            }
+        }
+        final int found = indexOf(node.right, c, Math.max(from - node.left.length, 0));
+        return found < 0 ? -1 : found + node.left.length;
+    }
+
+    private static int lastIndexOf(final Rope node, final char c, final int from) {
+        if (from < 0) {
+            return -1;
+        }
+        if (node.text != null) {
+            return node.text.lastIndexOf(c, from);
+        }
+        if (from >= node.left.length) {
+            final int found = lastIndexOf(node.right, c, from - node.left.length);
+            if (found >= 0) {
+                return found + node.left.length;
+            }
+        }
+        return lastIndexOf(node.left, c, Math.min(from, node.left.length - 1));
+    }
+
+    private static void appendRange(final Rope node, final int start, final int end, final StringBuilder output) {
+        if (start >= end) {
+            return;
+        }
+        if (node.text != null) {
+            output.append(node.text, start, end);
+            return;
+        }
+        final String whole = node.flattened;
+        if (whole != null) {
+            output.append(whole, start, end);
+            return;
+        }
+        final int split = node.left.length;
+        if (start < split) {
+            appendRange(node.left, start, Math.min(end, split), output);
+        }
+        if (end > split) {
+            appendRange(node.right, Math.max(start, split) - split, end - split, output);
+        }
+    }
+
+    private void checkRange(final int start, final int end) {
+        if (start < 0 || end < start || end > length) {
+            throw new IndexOutOfBoundsException("Range " + start + " to " + end + " outside of 0 to " + length);
+        }
+    }
+
+    private void checkIndex(final int index, final int last) {
+        if (index < 0 || index > last) {
+            throw new IndexOutOfBoundsException("Index " + index + " outside of 0 to " + last);
+        }
+    }
+}
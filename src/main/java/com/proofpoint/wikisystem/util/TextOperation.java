@@ -0,0 +1,268 @@
+package com.proofpoint.wikisystem.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An edit of a whole text as a sequence of components, each retaining, inserting or deleting characters at the
+ * current position, for operational transformation. Two operations made concurrently on the same text are
+ * transformed against each other so that applying either one and then the other's transformed counterpart gives the
+ * same text, which lets editors apply their own edits at once and merge the others' as they arrive.
+ * <p>
+ * Components are written as in ot.js: a positive number retains that many characters, a negative number deletes
+ * that many and a string is inserted. Adjacent components of a kind are merged and an insert always precedes a
+ * delete at the same position, so equal edits have equal components.
+ */
+public final class TextOperation {
+
+    /*
+    Integer retains or deletes, by sign, String inserts
+     */
+    private final List<Object> components = new ArrayList<>();
+    private int baseLength;
+    private int targetLength;
+
+    /**
+     * @return the operation that turns before into after by replacing what lies between their common prefix and
+     * suffix
+     */
+    public static TextOperation between(final CharSequence before, final CharSequence after) {
+        final int shorter = Math.min(before.length(), after.length());
+        int prefix = 0;
+        while (prefix < shorter && before.charAt(prefix) == after.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < shorter - prefix
+                && before.charAt(before.length() - 1 - suffix) == after.charAt(after.length() - 1 - suffix)) {
+            suffix++;
+        }
+        return new TextOperation()
+                .retain(prefix)
+                .insert(after.subSequence(prefix, after.length() - suffix).toString())
+                .delete(before.length() - suffix - prefix)
+                .retain(suffix);
+    }
+
+    /**
+     * @throws IllegalArgumentException if json is not an array of non-zero integers and strings
+     */
+    public static TextOperation fromJson(final JsonNode json) {
+        if (json == null || !json.isArray()) {
+            throw new IllegalArgumentException("An operation is an array of components");
+        }
+        final TextOperation operation = new TextOperation();
+        for (JsonNode component : json) {
+            if (component.isTextual()) {
+                operation.insert(component.asText());
+            } else if (component.isInt() && component.asInt() > 0) {
+                operation.retain(component.asInt());
+            } else if (component.isInt() && component.asInt() < 0) {
+                operation.delete(-component.asInt());
+            } else {
+                throw new IllegalArgumentException("Invalid component " + component);
+            }
+        }
+        return operation;
+    }
+
+    public TextOperation retain(final int count) {
+        checkCount(count);
+        if (count == 0) {
+            return this;
+        }
+        baseLength += count;
+        targetLength += count;
+        final int last = components.size() - 1;
+        if (last >= 0 && isRetain(components.get(last))) {
+            components.set(last, (Integer) components.get(last) + count);
+        } else {
+            components.add(count);
+        }
+        return this;
+    }
+
+    public TextOperation insert(final String text) {
+        if (text.isEmpty()) {
+            return this;
+        }
+        targetLength += text.length();
+        final int last = components.size() - 1;
+        if (last >= 0 && isInsert(components.get(last))) {
+            components.set(last, components.get(last) + text);
+        } else if (last >= 0 && isDelete(components.get(last))) {
+            // Inserts go before deletes at the same position, which may meet an earlier insert there
+            if (last >= 1 && isInsert(components.get(last - 1))) {
+                components.set(last - 1, components.get(last - 1) + text);
+            } else {
+                components.add(last, text);
+            }
+        } else {
+            components.add(text);
+        }
+        return this;
+    }
+
+    public TextOperation delete(final int count) {
+        checkCount(count);
+        if (count == 0) {
+            return this;
+        }
+        baseLength += count;
+        final int last = components.size() - 1;
+        if (last >= 0 && isDelete(components.get(last))) {
+            components.set(last, (Integer) components.get(last) - count);
+        } else {
+            components.add(-count);
+        }
+        return this;
+    }
+
+    /**
+     * @return length of the text the operation applies to
+     */
+    public int getBaseLength() {
+        return baseLength;
+    }
+
+    /**
+     * @return length of the text the operation produces
+     */
+    public int getTargetLength() {
+        return targetLength;
+    }
+
+    public boolean isNoop() {
+        return components.isEmpty() || (components.size() == 1 && isRetain(components.get(0)));
+    }
+
+    /**
+     * @return the components in their JSON form, integers and strings
+     */
+    public List<Object> toJson() {
+        return Collections.unmodifiableList(components);
+    }
+
+    /**
+     * Applies the operation in O(k log n) for k components, sharing everything it retains with text
+     *
+     * @throws IllegalArgumentException if the operation does not span the whole text
+     */
+    public Rope apply(final Rope text) {
+        if (text.length() != baseLength) {
+            throw new IllegalArgumentException("Operation spans " + baseLength + " characters, the text has "
+                    + text.length());
+        }
+        Rope output = text;
+        int position = 0;
+        for (Object component : components) {
+            if (isInsert(component)) {
+                final String inserted = (String) component;
+                output = output.insert(position, inserted);
+                position += inserted.length();
+            } else if (isRetain(component)) {
+                position += (Integer) component;
+            } else {
+                output = output.delete(position, position - (Integer) component);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Transforms two operations made concurrently on the same text. Where both insert at the same position, first's
+     * insert ends up before second's.
+     *
+     * @return first' and second' such that applying first then second' equals applying second then first'
+     * @throws IllegalArgumentException if the operations do not apply to texts of the same length
+     */
+    public static TextOperation[] transform(final TextOperation first, final TextOperation second) {
+        if (first.baseLength != second.baseLength) {
+            throw new IllegalArgumentException("Operations span " + first.baseLength + " and " + second.baseLength
+                    + " characters");
+        }
+        final TextOperation firstPrime = new TextOperation();
+        final TextOperation secondPrime = new TextOperation();
+        int i = 0;
+        int j = 0;
+        Object a = next(first, i++);
+        Object b = next(second, j++);
+        while (a != null || b != null) {
+            if (isInsert(a)) {
+                firstPrime.insert((String) a);
+                secondPrime.retain(((String) a).length());
+                a = next(first, i++);
+                continue;
+            }
+            if (isInsert(b)) {
+                firstPrime.retain(((String) b).length());
+                secondPrime.insert((String) b);
+                b = next(second, j++);
+                continue;
+            }
+            // Both are retains or deletes, and both span the same number of characters overall
+            final int aCount = Math.abs((Integer) a);
+            final int bCount = Math.abs((Integer) b);
+            final int common = Math.min(aCount, bCount);
+            if (isRetain(a) && isRetain(b)) {
+                firstPrime.retain(common);
+                secondPrime.retain(common);
+            } else if (isDelete(a) && isRetain(b)) {
+                firstPrime.delete(common);
+            } else if (isRetain(a) && isDelete(b)) {
+                secondPrime.delete(common);
+            }
+            // Characters both delete are simply gone on either side
+            a = aCount > common ? shorten((Integer) a, common) : next(first, i++);
+            b = bCount > common ? shorten((Integer) b, common) : next(second, j++);
+        }
+        return new TextOperation[]{firstPrime, secondPrime};
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        return other instanceof TextOperation && components.equals(((TextOperation) other).components);
+    }
+
+    @Override
+    public int hashCode() {
+        return components.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return components.toString();
+    }
+
+    private static Object next(final TextOperation operation, final int index) {
+        return index < operation.components.size() ? operation.components.get(index) : null;
+    }
+
+    /*
+    The retain or delete with count fewer characters
+     */
+    private static Integer shorten(final Integer component, final int count) {
+        return component > 0 ? component - count : component + count;
+    }
+
+    private static boolean isRetain(final Object component) {
+        return component instanceof Integer && (Integer) component > 0;
+    }
+
+    private static boolean isDelete(final Object component) {
+        return component instanceof Integer && (Integer) component < 0;
+    }
+
+    private static boolean isInsert(final Object component) {
+        return component instanceof String;
+    }
+
+    private static void checkCount(final int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Negative count " + count);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.proofpoint.wikisystem.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel. Time is cut into ticks; level 0 has one slot per tick, and each higher level has slots
+ * as wide as a whole turn of the level below. A timeout is put in the lowest level whose current turn contains its
+ * deadline, and moves down one level each time the wheel reaches its slot, so scheduling and firing cost O(1) each
+ * however many timeouts are pending. Deadlines are rounded up to the next tick.
+ * <p>
+ * There is no cancellation: callers record the deadline in the item and ignore items that fire after being
+ * superseded.
+ */
+public final class TimingWheel<T> {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private final long tickMillis;
+    private final int levels;
+
+    /*
+    wheels[level][slot]
+     */
+    private final ArrayDeque<Timeout<T>>[][] wheels;
+
+    /*
+    Deadlines beyond the reach of the top level, looked at again each time the top level turns
+     */
+    private final ArrayDeque<Timeout<T>> overflow = new ArrayDeque<>();
+
+    private long currentTick;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public TimingWheel(final long tickMillis, final int levels, final long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.levels = levels;
+        this.wheels = new ArrayDeque[levels][SLOTS];
+        for (int level = 0; level < levels; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                wheels[level][slot] = new ArrayDeque<>();
+            }
+        }
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    /**
+     * Schedules the item to fire once the wheel is advanced to deadlineMillis or later. Deadlines in the past fire on
+     * the next tick.
+     */
+    public synchronized void schedule(final T item, final long deadlineMillis) {
+        final long deadlineTick = Math.max(currentTick + 1, (deadlineMillis + tickMillis - 1) / tickMillis);
+        place(new Timeout<>(item, deadlineTick));
+        size++;
+    }
+
+    /**
+     * Moves the wheel forward to nowMillis.
+     *
+     * @return items whose deadline has passed, in deadline order
+     */
+    public synchronized List<T> advance(final long nowMillis) {
+        final long target = nowMillis / tickMillis;
+        final List<T> expired = new ArrayList<>();
+        if (size == 0) {
+            currentTick = Math.max(currentTick, target);
+            return expired;
+        }
+        while (currentTick < target && size > 0) {
+            currentTick++;
+            cascade();
+            final ArrayDeque<Timeout<T>> slot = wheels[0][(int) (currentTick & SLOT_MASK)];
+            while (!slot.isEmpty()) {
+                expired.add(slot.poll().item);
+                size--;
+            }
+        }
+        currentTick = Math.max(currentTick, target);
+        return expired;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /*
+    At the start of a turn of a level, the slot of the level above that the turn covers is spread over the levels
+    below. Higher levels first, so their timeouts can land in a slot cascaded next.
+     */
+    private void cascade() {
+        if ((currentTick & ((1L << (SLOT_BITS * levels)) - 1)) == 0) {
+            redistribute(overflow);
+        }
+        for (int level = levels - 1; level > 0; level--) {
+            if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                redistribute(wheels[level][(int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK)]);
+            }
+        }
+    }
+
+    private void redistribute(final ArrayDeque<Timeout<T>> timeouts) {
+        final int count = timeouts.size();
+        for (int i = 0; i < count; i++) {
+            place(timeouts.poll());
+        }
+    }
+
+    /*
+    A timeout goes to the lowest level whose current turn holds its deadline: the slot it lands in is then reached
+    in this turn, at or before the deadline
+     */
+    private void place(final Timeout<T> timeout) {
+        for (int level = 0; level < levels; level++) {
+            final int shift = SLOT_BITS * (level + 1);
+            if ((timeout.deadlineTick >>> shift) == (currentTick >>> shift)) {
+                wheels[level][(int) ((timeout.deadlineTick >>> (SLOT_BITS * level)) & SLOT_MASK)].add(timeout);
+                return;
+            }
+        }
+        overflow.add(timeout);
+    }
+
+    private static final class Timeout<T> {
+        private final T item;
+        private final long deadlineTick;
+
+        private Timeout(final T item, final long deadlineTick) {
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+}
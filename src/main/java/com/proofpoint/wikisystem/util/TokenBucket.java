@@ -0,0 +1,63 @@
+package com.proofpoint.wikisystem.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket kept as a single theoretical arrival time (the generic cell rate algorithm), so taking a token is one
+ * compare-and-set and the bucket needs no lock and no refill timer. A full bucket is indistinguishable from a new one,
+ * which is what lets idle buckets be dropped without losing anything.
+ */
+public final class TokenBucket {
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+
+    /*
+    Time at which the bucket would be full again if no more tokens were taken
+     */
+    private final AtomicLong fullAt;
+
+    /**
+     * @param ratePerSecond tokens added per second
+     * @param burst         tokens the bucket holds when full
+     */
+    public TokenBucket(final double ratePerSecond, final int burst, final long nowNanos) {
+        if (ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+        this.toleranceNanos = intervalNanos * (burst - 1);
+        this.fullAt = new AtomicLong(nowNanos);
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @return 0 if a token was taken, otherwise nanoseconds until one will be available
+     */
+    public long tryAcquire(final long nowNanos) {
+        while (true) {
+            final long current = fullAt.get();
+            final long next = Math.max(current, nowNanos) + intervalNanos;
+            final long wait = next - nowNanos - toleranceNanos - intervalNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Returns a token taken by {@link #tryAcquire(long)} that ended up unused
+     */
+    public void refund() {
+        fullAt.addAndGet(-intervalNanos);
+    }
+
+    public boolean isFull(final long nowNanos) {
+        return fullAt.get() <= nowNanos;
+    }
+}
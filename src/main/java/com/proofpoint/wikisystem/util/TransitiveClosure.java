@@ -0,0 +1,164 @@
+package com.proofpoint.wikisystem.util;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Membership edges between members and the groups containing them, where a group may itself be a member of other
+ * groups, together with the materialized set of every group each member belongs to directly or transitively.
+ * Lookups of that set are a single map read and never wait for writers. Adding an edge only extends the sets below
+ * it, stopping at members that already had them; removing one recomputes just the members below it. Edges that would
+ * close a cycle are refused.
+ *
+ * @param <M> members, including groups
+ * @param <G> groups
+ */
+public final class TransitiveClosure<M, G extends M> {
+
+    /*
+    Direct edges in both directions, guarded by this
+     */
+    private final Map<M, Set<G>> groupsOf = new HashMap<>();
+    private final Map<M, Set<M>> membersOf = new HashMap<>();
+
+    /*
+    Member to the immutable set of every group it belongs to, replaced as a whole on change
+     */
+    private final Map<M, Set<G>> closure = new ConcurrentHashMap<>();
+
+    /**
+     * @return every group the member belongs to, directly or through other groups
+     */
+    public Set<G> getAncestors(final M member) {
+        if (member == null) {
+            return Collections.emptySet();
+        }
+        return closure.getOrDefault(member, Collections.emptySet());
+    }
+
+    public synchronized Set<G> getGroups(final M member) {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(groupsOf.getOrDefault(member, Collections.emptySet())));
+    }
+
+    /**
+     * @return true if adding member to group would make a group contain itself
+     */
+    public boolean wouldCycle(final M member, final G group) {
+        return member == group || getAncestors(group).contains(member);
+    }
+
+    /**
+     * @return false if the edge already existed
+     * @throws IllegalArgumentException if the edge would close a cycle
+     */
+    public synchronized boolean addEdge(final M member, final G group) {
+        if (wouldCycle(member, group)) {
+            throw new IllegalArgumentException("Adding " + member + " to " + group + " would create a cycle");
+        }
+        if (!groupsOf.computeIfAbsent(member, key -> new LinkedHashSet<>()).add(group)) {
+            return false;
+        }
+        membersOf.computeIfAbsent(group, key -> new LinkedHashSet<>()).add(member);
+
+        final Set<G> added = new LinkedHashSet<>(getAncestors(group));
+        added.add(group);
+        final Deque<M> pending = new ArrayDeque<>();
+        pending.push(member);
+        while (!pending.isEmpty()) {
+            final M current = pending.pop();
+            final Set<G> ancestors = getAncestors(current);
+            // Members below already reach everything their group reaches
+            if (ancestors.containsAll(added)) {
+                continue;
+            }
+            final Set<G> extended = new LinkedHashSet<>(ancestors);
+            extended.addAll(added);
+            closure.put(current, Collections.unmodifiableSet(extended));
+            pending.addAll(membersOf.getOrDefault(current, Collections.emptySet()));
+        }
+        return true;
+    }
+
+    /**
+     * @return false if there was no such edge
+     */
+    public synchronized boolean removeEdge(final M member, final G group) {
+        final Set<G> groups = groupsOf.get(member);
+        if (groups == null || !groups.remove(group)) {
+            return false;
+        }
+        if (groups.isEmpty()) {
+            groupsOf.remove(member);
+        }
+        final Set<M> members = membersOf.get(group);
+        members.remove(member);
+        if (members.isEmpty()) {
+            membersOf.remove(group);
+        }
+        recompute(member);
+        return true;
+    }
+
+    /**
+     * Removes the member or group together with every edge to or from it
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void remove(final M node) {
+        for (G group : new HashSet<>(groupsOf.getOrDefault(node, Collections.emptySet()))) {
+            removeEdge(node, group);
+        }
+        for (M member : new HashSet<>(membersOf.getOrDefault(node, Collections.emptySet()))) {
+            removeEdge(member, (G) node);
+        }
+        closure.remove(node);
+    }
+
+    /*
+    Recomputes the closure of the member and of everything below it from their direct groups. Groups outside that
+    set are unaffected by the change, so their closure can be used as is.
+     */
+    private void recompute(final M member) {
+        final Set<M> affected = new LinkedHashSet<>();
+        final Deque<M> pending = new ArrayDeque<>();
+        pending.push(member);
+        while (!pending.isEmpty()) {
+            final M current = pending.pop();
+            if (affected.add(current)) {
+                pending.addAll(membersOf.getOrDefault(current, Collections.emptySet()));
+            }
+        }
+        final Map<M, Set<G>> computed = new HashMap<>();
+        for (M current : affected) {
+            compute(current, affected, computed);
+        }
+        for (Map.Entry<M, Set<G>> entry : computed.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                closure.remove(entry.getKey());
+            } else {
+                closure.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private Set<G> compute(final M member, final Set<M> affected, final Map<M, Set<G>> computed) {
+        final Set<G> known = computed.get(member);
+        if (known != null) {
+            return known;
+        }
+        final Set<G> ancestors = new LinkedHashSet<>();
+        for (G group : groupsOf.getOrDefault(member, Collections.emptySet())) {
+            ancestors.add(group);
+            ancestors.addAll(affected.contains(group) ? compute(group, affected, computed) : getAncestors(group));
+        }
+        final Set<G> output = Collections.unmodifiableSet(ancestors);
+        computed.put(member, output);
+        return output;
+    }
+}
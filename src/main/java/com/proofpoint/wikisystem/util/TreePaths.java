@@ -0,0 +1,145 @@
+package com.proofpoint.wikisystem.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Materialized paths of a forest: for every node the immutable list of its ancestors from the root down to the node
+ * itself. A breadcrumb is a single map read, and whether one node lies above another is decided in constant time by
+ * looking at the other's path at the first one's depth. Lookups never wait for writers.
+ * <p>
+ * A node may name a parent that is not in the forest (yet); it is then a root until the parent is added. Adding,
+ * moving or removing a node relabels just the subtree below it. Moves that would put a node below itself are refused.
+ *
+ * @param <K> node ids
+ */
+public final class TreePaths<K> {
+
+    /*
+    Parent links in both directions, guarded by this. Children are kept by parent id even while the parent is absent.
+     */
+    private final Map<K, K> parentOf = new HashMap<>();
+    private final Map<K, Set<K>> childrenOf = new HashMap<>();
+
+    /*
+    Node to its immutable path, replaced as a whole on change
+     */
+    private final Map<K, List<K>> paths = new ConcurrentHashMap<>();
+
+    /**
+     * @return the node's ancestors from its root down to the node itself, empty if the node is not in the forest
+     */
+    public List<K> getPath(final K node) {
+        if (node == null) {
+            return Collections.emptyList();
+        }
+        return paths.getOrDefault(node, Collections.emptyList());
+    }
+
+    /**
+     * @return true if ancestor lies above node, strictly
+     */
+    public boolean isAncestor(final K ancestor, final K node) {
+        final List<K> ancestorPath = getPath(ancestor);
+        final List<K> path = getPath(node);
+        final int depth = ancestorPath.size() - 1;
+        return depth >= 0 && depth < path.size() - 1 && path.get(depth).equals(ancestor);
+    }
+
+    public boolean contains(final K node) {
+        return node != null && paths.containsKey(node);
+    }
+
+    public int size() {
+        return paths.size();
+    }
+
+    /**
+     * @return true if placing node below parent would make it its own ancestor
+     */
+    public synchronized boolean wouldCycle(final K node, final K parent) {
+        // Follows the parent links rather than the paths, which also covers parents that are not added yet
+        for (K current = parent; current != null; current = parentOf.get(current)) {
+            if (current.equals(node)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds a node, or moves it with its subtree when it is already in the forest
+     *
+     * @param parent null for a root
+     * @throws IllegalArgumentException if the node would end up below itself
+     */
+    public synchronized void put(final K node, final K parent) {
+        if (wouldCycle(node, parent)) {
+            throw new IllegalArgumentException("Moving " + node + " below " + parent + " would create a cycle");
+        }
+        if (paths.containsKey(node) && Objects.equals(parentOf.get(node), parent)) {
+            return;
+        }
+        unlink(node);
+        if (parent != null) {
+            parentOf.put(node, parent);
+            childrenOf.computeIfAbsent(parent, key -> new LinkedHashSet<>()).add(node);
+        }
+        final List<K> parentPath = getPath(parent);
+        final List<K> path = new ArrayList<>(parentPath.size() + 1);
+        path.addAll(parentPath);
+        path.add(node);
+        relabel(node, path);
+    }
+
+    /**
+     * Removes a node. Its children keep naming it as their parent and become roots until it is added again.
+     */
+    public synchronized void remove(final K node) {
+        if (paths.remove(node) == null) {
+            return;
+        }
+        unlink(node);
+        for (K child : childrenOf.getOrDefault(node, Collections.emptySet())) {
+            relabel(child, Collections.singletonList(child));
+        }
+    }
+
+    private void unlink(final K node) {
+        final K previous = parentOf.remove(node);
+        if (previous != null) {
+            final Set<K> siblings = childrenOf.get(previous);
+            siblings.remove(node);
+            if (siblings.isEmpty()) {
+                childrenOf.remove(previous);
+            }
+        }
+    }
+
+    /*
+    Gives the node the path and its descendants the paths below it, parents before children
+     */
+    private void relabel(final K node, final List<K> path) {
+        final List<K> pending = new ArrayList<>();
+        paths.put(node, Collections.unmodifiableList(path));
+        pending.add(node);
+        for (int i = 0; i < pending.size(); i++) {
+            final K current = pending.get(i);
+            final List<K> currentPath = paths.get(current);
+            for (K child : childrenOf.getOrDefault(current, Collections.emptySet())) {
+                final List<K> childPath = new ArrayList<>(currentPath.size() + 1);
+                childPath.addAll(currentPath);
+                childPath.add(child);
+                paths.put(child, Collections.unmodifiableList(childPath));
+                pending.add(child);
+            }
+        }
+    }
+}
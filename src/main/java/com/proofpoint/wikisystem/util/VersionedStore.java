@@ -0,0 +1,90 @@
+package com.proofpoint.wikisystem.util;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Map from key to a chain of immutable versions, newest first. A version is visible to readers at its epoch and
+ * later ones, a null value marks the key as deleted. Reads never lock: they follow the chain from the head to the
+ * newest version not newer than their epoch. Writes and pruning must be done by one thread at a time.
+ */
+public final class VersionedStore<K, V> {
+
+    private final Map<K, Version<V>> heads = new ConcurrentHashMap<>();
+
+    /**
+     * @param value null to delete the key as of the epoch
+     * @return true if the key now has older versions that may need pruning
+     */
+    public boolean put(final K key, final V value, final long epoch) {
+        final Version<V> previous = heads.get(key);
+        if (previous == null && value == null) {
+            return false;
+        }
+        heads.put(key, new Version<>(epoch, value, previous));
+        return previous != null || value == null;
+    }
+
+    /**
+     * @return the value as of the epoch, or null if the key did not exist then
+     */
+    public V get(final K key, final long epoch) {
+        Version<V> version = heads.get(key);
+        while (version != null && version.epoch > epoch) {
+            version = version.previous;
+        }
+        return version == null ? null : version.value;
+    }
+
+    public V getLatest(final K key) {
+        final Version<V> version = heads.get(key);
+        return version == null ? null : version.value;
+    }
+
+    /**
+     * Drops the versions of the key that no reader at oldestEpoch or later can see.
+     *
+     * @return true if the key is down to a single live version
+     */
+    public boolean prune(final K key, final long oldestEpoch) {
+        final Version<V> head = heads.get(key);
+        if (head == null) {
+            return true;
+        }
+        Version<V> version = head;
+        while (version.epoch > oldestEpoch && version.previous != null) {
+            version = version.previous;
+        }
+        version.previous = null;
+        if (head.value == null && head.epoch <= oldestEpoch) {
+            heads.remove(key, head);
+            return true;
+        }
+        return head.previous == null && head.value != null;
+    }
+
+    /**
+     * @return live view of the keys that have at least one version, tombstones included
+     */
+    public Set<K> keys() {
+        return Collections.unmodifiableSet(heads.keySet());
+    }
+
+    public int size() {
+        return heads.size();
+    }
+
+    private static final class Version<V> {
+        private final long epoch;
+        private final V value;
+        private volatile Version<V> previous;
+
+        private Version(final long epoch, final V value, final Version<V> previous) {
+            this.epoch = epoch;
+            this.value = value;
+            this.previous = previous;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.proofpoint.wikisystem.util;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Small wiki markup dialect: markdown style headings, lists, quotes, rules, fenced code, emphasis and inline code,
+ * external links written [text](http://...) and internal page links written [[PageID]] or [[PageID|label]].
+ * Content is rendered block by block; blocks are separated by blank lines and a fenced code block is one block.
+ */
+public final class WikiMarkup {
+
+    /*
+    Bump whenever the generated HTML changes, so cached output from the previous renderer is not reused
+     */
+    public static final int RENDERER_VERSION = 1;
+
+    public static final String PAGE_LINK_PREFIX = "/wikisystem/page/render?pageId=";
+
+    private static final String FENCE = "```";
+    private static final Pattern WIKI_LINK = Pattern.compile("\\[\\[([^\\]|\\n]+)(?:\\|([^\\]\\n]*))?]]");
+    private static final Pattern INLINE_TOKEN = Pattern.compile(
+            "(`[^`\\n]+`)|(\\[\\[[^\\]\\n]+]])|\\[([^\\]\\n]+)]\\((https?://[^)\\s]+)\\)");
+    private static final Pattern HEADING = Pattern.compile("^(#{1,6})\\s+(.*)$");
+    private static final Pattern RULE = Pattern.compile("^(-{3,}|\\*{3,})\\s*$");
+    private static final Pattern UNORDERED_ITEM = Pattern.compile("^[-*]\\s+(.*)$");
+    private static final Pattern ORDERED_ITEM = Pattern.compile("^\\d+\\.\\s+(.*)$");
+    private static final Pattern QUOTE = Pattern.compile("^>\\s?(.*)$");
+    private static final Pattern BOLD = Pattern.compile("\\*\\*(.+?)\\*\\*");
+    private static final Pattern ITALIC = Pattern.compile("\\*(.+?)\\*");
+
+    private WikiMarkup() {
+    }
+
+    public static List<String> splitBlocks(final String content) {
+        final List<String> blocks = new ArrayList<>();
+        if (content == null) {
+            return blocks;
+        }
+        final String[] lines = content.replace("\r\n", "\n").split("\n", -1);
+        final StringBuilder block = new StringBuilder();
+        boolean inFence = false;
+        for (String line : lines) {
+            if (inFence) {
+                block.append('\n').append(line);
+                if (line.trim().startsWith(FENCE)) {
+                    inFence = false;
+                    blocks.add(block.toString());
+                    block.setLength(0);
+                }
+            } else if (line.trim().startsWith(FENCE)) {
+                addBlock(blocks, block);
+                block.append(line);
+                inFence = true;
+            } else if (line.trim().isEmpty()) {
+                addBlock(blocks, block);
+            } else {
+                if (block.length() > 0) {
+                    block.append('\n');
+                }
+                block.append(line);
+            }
+        }
+        addBlock(blocks, block);
+        return blocks;
+    }
+
+    /**
+     * @return targets of the internal page links in text, in order of first appearance
+     */
+    public static Set<String> extractLinks(final String text) {
+        final Set<String> links = new LinkedHashSet<>();
+        if (text != null) {
+            final Matcher matcher = WIKI_LINK.matcher(text);
+            while (matcher.find()) {
+                links.add(matcher.group(1).trim());
+            }
+        }
+        return links;
+    }
+
+    public static String renderBlock(final String block, final Predicate<String> pageExists) {
+        final StringBuilder html = new StringBuilder();
+        if (block.trim().startsWith(FENCE)) {
+            final int bodyStart = block.indexOf('\n');
+            String body = bodyStart < 0 ? "" : block.substring(bodyStart + 1);
+            final int fenceEnd = body.lastIndexOf(FENCE);
+            if (fenceEnd >= 0 && body.substring(fenceEnd).trim().equals(FENCE)) {
+                body = body.substring(0, fenceEnd);
+            }
+            return html.append("<pre><code>").append(escape(body)).append("</code></pre>\n").toString();
+        }
+
+        String listTag = null;
+        final StringBuilder paragraph = new StringBuilder();
+        final StringBuilder quote = new StringBuilder();
+        for (String line : block.split("\n")) {
+            Matcher matcher;
+            if ((matcher = HEADING.matcher(line)).matches()) {
+                listTag = closeAll(html, listTag, paragraph, quote);
+                final int level = matcher.group(1).length();
+                html.append("<h").append(level).append('>').append(renderInline(matcher.group(2), pageExists))
+                        .append("</h").append(level).append(">\n");
+            } else if (RULE.matcher(line).matches()) {
+                listTag = closeAll(html, listTag, paragraph, quote);
+                html.append("<hr/>\n");
+            } else if ((matcher = UNORDERED_ITEM.matcher(line)).matches() || (matcher = ORDERED_ITEM.matcher(line)).matches()) {
+                final String tag = matcher.pattern() == UNORDERED_ITEM ? "ul" : "ol";
+                closeAll(html, null, paragraph, quote);
+                if (!tag.equals(listTag)) {
+                    closeList(html, listTag);
+                    html.append('<').append(tag).append(">\n");
+                    listTag = tag;
+                }
+                html.append("<li>").append(renderInline(matcher.group(1), pageExists)).append("</li>\n");
+            } else if ((matcher = QUOTE.matcher(line)).matches()) {
+                listTag = closeAll(html, listTag, paragraph, null);
+                appendLine(quote, renderInline(matcher.group(1), pageExists));
+            } else {
+                listTag = closeAll(html, listTag, null, quote);
+                appendLine(paragraph, renderInline(line, pageExists));
+            }
+        }
+        closeAll(html, listTag, paragraph, quote);
+        return html.toString();
+    }
+
+    private static String renderInline(final String text, final Predicate<String> pageExists) {
+        final StringBuilder html = new StringBuilder();
+        final Matcher matcher = INLINE_TOKEN.matcher(text);
+        int position = 0;
+        while (matcher.find()) {
+            html.append(formatText(text.substring(position, matcher.start())));
+            if (matcher.group(1) != null) {
+                final String code = matcher.group(1);
+                html.append("<code>").append(escape(code.substring(1, code.length() - 1))).append("</code>");
+            } else if (matcher.group(2) != null) {
+                html.append(renderPageLink(matcher.group(2), pageExists));
+            } else {
+                html.append("<a href=\"").append(escape(matcher.group(4))).append("\" class=\"external-link\">")
+                        .append(escape(matcher.group(3))).append("</a>");
+            }
+            position = matcher.end();
+        }
+        return html.append(formatText(text.substring(position))).toString();
+    }
+
+    private static String renderPageLink(final String link, final Predicate<String> pageExists) {
+        final Matcher matcher = WIKI_LINK.matcher(link);
+        if (!matcher.matches()) {
+            return escape(link);
+        }
+        final String target = matcher.group(1).trim();
+        final String label = matcher.group(2) == null || matcher.group(2).trim().isEmpty() ? target : matcher.group(2).trim();
+        final String cssClass = pageExists.test(target) ? "wiki-link" : "wiki-link missing";
+        return "<a href=\"" + PAGE_LINK_PREFIX + escape(urlEncode(target)) + "\" class=\"" + cssClass + "\">"
+                + escape(label) + "</a>";
+    }
+
+    private static String formatText(final String text) {
+        String html = escape(text);
+        html = BOLD.matcher(html).replaceAll("<strong>$1</strong>");
+        return ITALIC.matcher(html).replaceAll("<em>$1</em>");
+    }
+
+    private static String closeAll(final StringBuilder html, final String listTag, final StringBuilder paragraph,
+                                   final StringBuilder quote) {
+        if (paragraph != null && paragraph.length() > 0) {
+            html.append("<p>").append(paragraph).append("</p>\n");
+            paragraph.setLength(0);
+        }
+        if (quote != null && quote.length() > 0) {
+            html.append("<blockquote>").append(quote).append("</blockquote>\n");
+            quote.setLength(0);
+        }
+        closeList(html, listTag);
+        return null;
+    }
+
+    private static void closeList(final StringBuilder html, final String listTag) {
+        if (listTag != null) {
+            html.append("</").append(listTag).append(">\n");
+        }
+    }
+
+    private static void appendLine(final StringBuilder builder, final String line) {
+        if (builder.length() > 0) {
+            builder.append('\n');
+        }
+        builder.append(line);
+    }
+
+    private static void addBlock(final List<String> blocks, final StringBuilder block) {
+        if (block.length() > 0) {
+            blocks.add(block.toString());
+            block.setLength(0);
+        }
+    }
+
+    private static String urlEncode(final String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String escape(final String text) {
+        final StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    escaped.append("&amp;");
+                    break;
+                case '<':
+                    escaped.append("&lt;");
+                    break;
+                case '>':
+                    escaped.append("&gt;");
+                    break;
+                case '"':
+                    escaped.append("&quot;");
+                    break;
+                case '\'':
+                    escaped.append("&#39;");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
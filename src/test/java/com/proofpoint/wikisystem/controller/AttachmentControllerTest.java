@@ -1,8 +1,10 @@
 package com.proofpoint.wikisystem.controller;
 
-import com.proofpoint.wikisystem.model.Attachment;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.proofpoint.wikisystem.payload.CreateAttachmentDto;
 import com.proofpoint.wikisystem.service.AttachmentService;
+import com.proofpoint.wikisystem.service.ReadCoalescingService;
 import com.proofpoint.wikisystem.service.UserService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -10,6 +12,7 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import static org.mockito.Mockito.doThrow;
 import static com.proofpoint.wikisystem.util.TestConstants.*;
@@ -34,19 +37,27 @@ public class AttachmentControllerTest {
     @Mock
     UserService userService;
 
+    private final ObjectMapper mapper = new ObjectMapper();
+
     @BeforeEach
     void setup() {
         MockitoAnnotations.initMocks(this);
+        final ReadCoalescingService readCoalescingService = new ReadCoalescingService();
+        ReflectionTestUtils.setField(readCoalescingService, "objectMapper", mapper);
+        ReflectionTestUtils.setField(readCoalescingService, "cacheMaxBytes", 1024L * 1024L);
+        readCoalescingService.init();
+        ReflectionTestUtils.setField(attachmentController, "readCoalescingService", readCoalescingService);
     }
 
     @Test
-    final void testRead_HappyCase() {
-        when(attachmentService.accessAttachment(FILE_NAME, REQUESTER_ID, true)).thenReturn(ATTACHMENT);
-        ResponseEntity<Attachment> output = attachmentController.read(FILE_NAME, REQUESTER_ID, INDV_USER_TRUE);
+    final void testRead_HappyCase() throws Exception {
+        when(attachmentService.accessAttachment(null, FILE_NAME, REQUESTER_ID, true)).thenReturn(ATTACHMENT);
+        ResponseEntity<byte[]> output = attachmentController.read(null, FILE_NAME, REQUESTER_ID, INDV_USER_TRUE);
         assertNotNull(output);
         assertEquals(200, output.getStatusCode().value());
-        assertEquals("Sample.txt", Objects.requireNonNull(output.getBody()).getFilename());
-        assertEquals("Random data not important", output.getBody().getContents());
+        final JsonNode body = mapper.readTree(Objects.requireNonNull(output.getBody()));
+        assertEquals("Sample.txt", body.path("filename").textValue());
+        assertEquals("Random data not important", body.path("contents").textValue());
     }
 
     @Test
@@ -86,7 +97,7 @@ public class AttachmentControllerTest {
         createAttachmentDto.setOwnerId(USER_ID);
 
         when(userService.read(USER_ID)).thenReturn(OWNER);
-        doThrow(new RuntimeException("Dummy Exception")).when(attachmentService).create(FILE_NAME, FILE_CONTENT, OWNER, createAttachmentDto.getAccessMap());
+        doThrow(new RuntimeException("Dummy Exception")).when(attachmentService).create(null, FILE_NAME, FILE_CONTENT, OWNER, createAttachmentDto.getAccessMap(), false);
         ResponseEntity<String> response = attachmentController.create(createAttachmentDto);
 
         assertEquals(400, response.getStatusCode().value());
@@ -0,0 +1,182 @@
+package com.proofpoint.wikisystem.repository;
+
+import com.proofpoint.wikisystem.model.AccessType;
+import com.proofpoint.wikisystem.model.Attachment;
+import com.proofpoint.wikisystem.model.Page;
+import com.proofpoint.wikisystem.model.Team;
+import com.proofpoint.wikisystem.model.User;
+import com.proofpoint.wikisystem.service.VersionService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.UUID;
+
+import static com.proofpoint.wikisystem.util.TestConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JdbcRepositoryTest {
+
+    private static final Long EXPIRES_AT = 4_102_444_800_000L;
+
+    private String url;
+    private VersionService versionService;
+    private JdbcStore store;
+
+    private JdbcUserRepository userRepository;
+    private JdbcTeamRepository teamRepository;
+    private JdbcPageRepository pageRepository;
+    private JdbcAttachmentRepository attachmentRepository;
+
+    @BeforeEach
+    void setup() {
+        url = "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        versionService = new VersionService();
+        store = newStore(url, versionService);
+        open();
+    }
+
+    @AfterEach
+    void teardown() {
+        store.shutdown();
+    }
+
+    @Test
+    final void testEntitiesSurviveReload() {
+        final User owner = User.Builder.newInstance().withID(USER_ID).withUsername("owner").build();
+        final User member = User.Builder.newInstance().withID(ADDITIONAL_USER_ID).build();
+        final Team team = Team.Builder.newInstance().withID(TEAM_ID).withIsAdmin(true).build();
+        team.addMember(member);
+        final Team subteam = Team.Builder.newInstance().withID("Sub" + TEAM_ID).build();
+        team.getSubteams().add(subteam);
+        final Page parent = Page.Builder.newInstance().withPageID(PARENT_PAGE_ID).withOwner(owner).withContent(PAGE_CONTENT).build();
+        parent.putGrant(team, AccessType.READ_WRITE);
+        final Page child = Page.Builder.newInstance().withPageID(PAGE_ID).withParentPageID(PARENT_PAGE_ID)
+                .withRootPageID(PARENT_PAGE_ID).withOwner(owner).build();
+        child.putGrant(team, AccessType.READ_WRITE);
+        parent.addInheritor(team, child.getComponentKey());
+        final Attachment attachment = Attachment.Builder.newInstance().withPageID(PAGE_ID).withFilename(FILE_NAME)
+                .withContents(FILE_CONTENT).withOwner(owner).build();
+        attachment.putGrant(member, AccessType.READ_ONLY);
+        attachment.setExpiry(member, EXPIRES_AT);
+        final Attachment shared = Attachment.Builder.newInstance().withFilename(FILE_NAME).withOwner(owner).build();
+
+        versionService.begin();
+        try {
+            userRepository.save(owner);
+            userRepository.save(member);
+            teamRepository.save(subteam);
+            teamRepository.save(team);
+            pageRepository.save(parent);
+            pageRepository.save(child);
+            attachmentRepository.save(attachment);
+            attachmentRepository.save(shared);
+        } finally {
+            versionService.commit();
+        }
+
+        open();
+        final User loadedMember = userRepository.findById(ADDITIONAL_USER_ID);
+        final Team loadedTeam = teamRepository.findById(TEAM_ID);
+        assertEquals("owner", userRepository.findById(USER_ID).getUsername());
+        assertTrue(loadedTeam.isAdmin());
+        assertSame(loadedMember, loadedTeam.getMembers().get(0));
+        assertSame(teamRepository.findById("Sub" + TEAM_ID), loadedTeam.getSubteams().get(0));
+
+        final Page loadedParent = pageRepository.findById(PARENT_PAGE_ID);
+        final Page loadedChild = pageRepository.findById(PAGE_ID);
+        assertEquals(PAGE_CONTENT, loadedParent.getContent());
+        assertSame(userRepository.findById(USER_ID), loadedChild.getOwner());
+        assertEquals(PARENT_PAGE_ID, loadedChild.getRootPageID());
+        assertEquals(AccessType.READ_WRITE, loadedChild.getAccessType(loadedTeam));
+        assertEquals(Collections.singleton(loadedChild.getComponentKey()), loadedParent.getInheritors(loadedTeam));
+        assertEquals(Collections.singleton(PAGE_ID), pageRepository.findChildIds(PARENT_PAGE_ID));
+
+        final Attachment loadedAttachment = attachmentRepository.find(PAGE_ID, FILE_NAME);
+        assertEquals(FILE_CONTENT, loadedAttachment.getContents());
+        assertEquals(AccessType.READ_ONLY, loadedAttachment.getAccessType(loadedMember));
+        assertEquals(EXPIRES_AT, loadedAttachment.getExpiry(loadedMember));
+        assertNull(loadedChild.getExpiry(loadedTeam));
+        assertSame(loadedAttachment, loadedChild.getAttachments().get(0));
+        assertNotNull(attachmentRepository.find(null, FILE_NAME));
+    }
+
+    @Test
+    final void testDeletesArePersisted() {
+        final User owner = User.Builder.newInstance().withID(USER_ID).build();
+        final Page page = Page.Builder.newInstance().withPageID(PAGE_ID).withOwner(owner).build();
+        page.putGrant(owner, AccessType.READ_ONLY);
+        userRepository.save(owner);
+        pageRepository.save(page);
+
+        pageRepository.delete(PAGE_ID);
+        open();
+        assertNull(pageRepository.findById(PAGE_ID));
+        assertNotNull(userRepository.findById(USER_ID));
+        final int[] grants = {0};
+        store.query("SELECT COUNT(*) FROM grants", row -> grants[0] = row.getInt(1));
+        assertEquals(0, grants[0]);
+    }
+
+    @Test
+    final void testChangesOfOneWriteAreFlushedOnce() {
+        final User owner = User.Builder.newInstance().withID(USER_ID).build();
+        userRepository.save(owner);
+        final long before = store.getFlushCount();
+
+        versionService.begin();
+        try {
+            for (int i = 0; i < 10; i++) {
+                final Page page = Page.Builder.newInstance().withPageID(PAGE_ID + i).withOwner(owner).build();
+                pageRepository.save(page);
+                page.setContent(PAGE_CONTENT);
+                pageRepository.save(page);
+            }
+            assertEquals(before, store.getFlushCount());
+        } finally {
+            versionService.commit();
+        }
+
+        assertEquals(before + 1, store.getFlushCount());
+        open();
+        assertEquals(10, pageRepository.findAll().size());
+        assertEquals(PAGE_CONTENT, pageRepository.findById(PAGE_ID + 3).getContent());
+    }
+
+    /*
+    Fresh repositories over the same database, as after a restart
+     */
+    private void open() {
+        userRepository = new JdbcUserRepository();
+        teamRepository = new JdbcTeamRepository();
+        pageRepository = new JdbcPageRepository();
+        attachmentRepository = new JdbcAttachmentRepository();
+        ReflectionTestUtils.setField(userRepository, "store", store);
+        ReflectionTestUtils.setField(teamRepository, "store", store);
+        ReflectionTestUtils.setField(teamRepository, "userRepository", userRepository);
+        ReflectionTestUtils.setField(pageRepository, "store", store);
+        ReflectionTestUtils.setField(pageRepository, "userRepository", userRepository);
+        ReflectionTestUtils.setField(pageRepository, "teamRepository", teamRepository);
+        ReflectionTestUtils.setField(attachmentRepository, "store", store);
+        ReflectionTestUtils.setField(attachmentRepository, "userRepository", userRepository);
+        ReflectionTestUtils.setField(attachmentRepository, "teamRepository", teamRepository);
+        ReflectionTestUtils.setField(attachmentRepository, "pageRepository", pageRepository);
+        userRepository.load();
+        teamRepository.load();
+        pageRepository.load();
+        attachmentRepository.load();
+    }
+
+    static JdbcStore newStore(final String url, final VersionService versionService) {
+        final JdbcStore store = new JdbcStore();
+        ReflectionTestUtils.setField(store, "url", url);
+        ReflectionTestUtils.setField(store, "username", "sa");
+        ReflectionTestUtils.setField(store, "password", "");
+        ReflectionTestUtils.setField(store, "poolSize", 2);
+        ReflectionTestUtils.setField(store, "versionService", versionService);
+        store.init();
+        return store;
+    }
+}
@@ -0,0 +1,144 @@
+package com.proofpoint.wikisystem.repository;
+
+import com.proofpoint.wikisystem.model.AccessType;
+import com.proofpoint.wikisystem.model.Attachment;
+import com.proofpoint.wikisystem.model.Page;
+import com.proofpoint.wikisystem.model.Team;
+import com.proofpoint.wikisystem.model.User;
+import com.proofpoint.wikisystem.service.VersionService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Same workloads against the in-memory and the JDBC repositories. Run with {@code mvn test -Dbenchmark=true
+ * -Dtest=StorageBenchmarkTest}; sizes can be changed with -Dbenchmark.pages and -Dbenchmark.batch.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class StorageBenchmarkTest {
+
+    private static final int PAGES = Integer.getInteger("benchmark.pages", 20_000);
+    private static final int BATCH = Integer.getInteger("benchmark.batch", 50);
+    private static final int FANOUT = 10;
+    private static final int USERS = 200;
+
+    @Test
+    final void testInMemory() {
+        run("memory", new VersionService(), new InMemoryUserRepository(), new InMemoryTeamRepository(),
+                new InMemoryPageRepository(), new InMemoryAttachmentRepository());
+    }
+
+    @Test
+    final void testJdbc() {
+        final VersionService versionService = new VersionService();
+        final JdbcStore store = JdbcRepositoryTest.newStore(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", versionService);
+        try {
+            final JdbcUserRepository userRepository = new JdbcUserRepository();
+            final JdbcTeamRepository teamRepository = new JdbcTeamRepository();
+            final JdbcPageRepository pageRepository = new JdbcPageRepository();
+            final JdbcAttachmentRepository attachmentRepository = new JdbcAttachmentRepository();
+            ReflectionTestUtils.setField(userRepository, "store", store);
+            ReflectionTestUtils.setField(teamRepository, "store", store);
+            ReflectionTestUtils.setField(pageRepository, "store", store);
+            ReflectionTestUtils.setField(attachmentRepository, "store", store);
+            run("jdbc", versionService, userRepository, teamRepository, pageRepository, attachmentRepository);
+            System.out.printf("jdbc: %d flushes for %d queued rows%n", store.getFlushCount(), store.getRowsQueued());
+        } finally {
+            store.shutdown();
+        }
+    }
+
+    private void run(final String backend, final VersionService versionService, final UserRepository userRepository,
+                     final TeamRepository teamRepository, final PageRepository pageRepository,
+                     final AttachmentRepository attachmentRepository) {
+        final List<User> users = new ArrayList<>(USERS);
+        final Team team = Team.Builder.newInstance().withID("team").build();
+        versionService.begin();
+        try {
+            for (int i = 0; i < USERS; i++) {
+                final User user = User.Builder.newInstance().withID("user" + i).build();
+                users.add(user);
+                userRepository.save(user);
+                team.addMember(user);
+            }
+            teamRepository.save(team);
+        } finally {
+            versionService.commit();
+        }
+
+        final Random random = new Random(42);
+        long start = System.nanoTime();
+        for (int i = 0; i < PAGES; i += BATCH) {
+            versionService.begin();
+            try {
+                for (int j = i; j < Math.min(PAGES, i + BATCH); j++) {
+                    final Page page = Page.Builder.newInstance().withPageID("page" + j)
+                            .withParentPageID(j == 0 ? null : "page" + (j - 1) / FANOUT)
+                            .withOwner(users.get(random.nextInt(USERS))).withContent("content " + j).build();
+                    page.putGrant(team, AccessType.READ_ONLY);
+                    page.putGrant(users.get(random.nextInt(USERS)), AccessType.READ_WRITE);
+                    pageRepository.save(page);
+                    final Attachment attachment = Attachment.Builder.newInstance().withPageID(page.getPageID())
+                            .withFilename("file").withOwner(page.getOwner()).withContents("contents " + j).build();
+                    attachmentRepository.save(attachment);
+                }
+            } finally {
+                versionService.commit();
+            }
+        }
+        report(backend, "create page + attachment", PAGES, start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < PAGES; i += BATCH) {
+            versionService.begin();
+            try {
+                for (int j = i; j < Math.min(PAGES, i + BATCH); j++) {
+                    final Page page = pageRepository.findById("page" + random.nextInt(PAGES));
+                    page.setContent("updated " + j);
+                    pageRepository.save(page);
+                }
+            } finally {
+                versionService.commit();
+            }
+        }
+        report(backend, "update page", PAGES, start);
+
+        start = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < PAGES; i++) {
+            final String pageID = "page" + random.nextInt(PAGES);
+            if (pageRepository.findById(pageID) != null) {
+                found += pageRepository.findChildIds(pageID).size() + attachmentRepository.findByPage(pageID).size();
+            }
+        }
+        report(backend, "read page, children, attachments", PAGES, start);
+        assertTrue(found > 0);
+
+        start = System.nanoTime();
+        for (int i = PAGES - 1; i >= PAGES / 2; i--) {
+            versionService.begin();
+            try {
+                attachmentRepository.deleteByPage("page" + i);
+                pageRepository.delete("page" + i);
+            } finally {
+                versionService.commit();
+            }
+        }
+        report(backend, "delete page + attachments", PAGES - PAGES / 2, start);
+        assertEquals(PAGES / 2, pageRepository.findAll().size());
+    }
+
+    private void report(final String backend, final String workload, final int operations, final long start) {
+        final double millis = (System.nanoTime() - start) / 1_000_000.0;
+        System.out.printf("%-6s %-34s %8d ops %10.1f ms %12.0f ops/s%n", backend, workload, operations, millis,
+                operations / (millis / 1000));
+    }
+}
@@ -0,0 +1,310 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.exceptions.AccessDeniedException;
+import com.proofpoint.wikisystem.model.AccessType;
+import com.proofpoint.wikisystem.model.AuditType;
+import com.proofpoint.wikisystem.model.EventType;
+import com.proofpoint.wikisystem.model.Page;
+import com.proofpoint.wikisystem.model.Team;
+import com.proofpoint.wikisystem.payload.AccessCheckDto;
+import com.proofpoint.wikisystem.payload.AccessCheckResultDto;
+import com.proofpoint.wikisystem.payload.BatchAccessCheckDto;
+import com.proofpoint.wikisystem.payload.CreateAccessDto;
+import com.proofpoint.wikisystem.payload.DeleteAccessDto;
+import com.proofpoint.wikisystem.payload.TransferOwnershipDto;
+import com.proofpoint.wikisystem.payload.UpdateAccessDto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static com.proofpoint.wikisystem.util.TestConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AccessServiceTest {
+
+    private static final String CHILD_PAGE_ID = "Page102";
+    private static final String GRANDCHILD_PAGE_ID = "Page103";
+
+    @InjectMocks
+    private AccessService accessService;
+
+    @Mock
+    private PageService pageService;
+
+    @Mock
+    private AttachmentService attachmentService;
+
+    @Mock
+    private UserService userService;
+
+    @Mock
+    private TeamService teamService;
+
+    @Mock
+    private ChangeEventService changeEventService;
+
+    @Mock
+    private AuditService auditService;
+
+    @Mock
+    private AclIndexService aclIndexService;
+
+    @Mock
+    private GrantExpiryService grantExpiryService;
+
+    @Spy
+    private VersionService versionService = new VersionService();
+
+    private Page parent;
+    private Page child;
+    private Page grandchild;
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.initMocks(this);
+        parent = Page.Builder.newInstance().withPageID(PARENT_PAGE_ID).withOwner(PARENT_OWNER).build();
+        child = Page.Builder.newInstance().withPageID(CHILD_PAGE_ID).withParentPageID(PARENT_PAGE_ID).withOwner(PARENT_OWNER).build();
+        grandchild = Page.Builder.newInstance().withPageID(GRANDCHILD_PAGE_ID).withParentPageID(CHILD_PAGE_ID).withOwner(PARENT_OWNER).build();
+
+        // Same shape PageService.inheritAccess leaves behind for a two level hierarchy
+        parent.putGrant(OWNER, AccessType.READ_ONLY);
+        child.putGrant(OWNER, AccessType.READ_ONLY);
+        parent.addInheritor(OWNER, child.getComponentKey());
+        grandchild.putGrant(OWNER, AccessType.READ_ONLY);
+        child.addInheritor(OWNER, grandchild.getComponentKey());
+
+        // Batch checks read committed versions rather than the live pages
+        versionService.begin();
+        versionService.touch(parent);
+        versionService.touch(child);
+        versionService.touch(grandchild);
+        versionService.commit();
+
+        when(pageService.read(PARENT_PAGE_ID)).thenReturn(parent);
+        when(pageService.read(CHILD_PAGE_ID)).thenReturn(child);
+        when(pageService.read(GRANDCHILD_PAGE_ID)).thenReturn(grandchild);
+        when(userService.read(USER_ID)).thenReturn(OWNER);
+    }
+
+    @Test
+    final void testTransferOwnership_MovesOwnedComponentsAndRepublishes() {
+        when(aclIndexService.getOwnedComponents(PARENT_OWNER)).thenReturn(new TreeSet<>(Arrays.asList(
+                parent.getComponentKey(), child.getComponentKey(), grandchild.getComponentKey(), "PAGE:Gone")));
+
+        assertEquals(3, accessService.transferOwnership(PARENT_OWNER, OWNER, USER_ID));
+
+        for (Page page : Arrays.asList(parent, child, grandchild)) {
+            assertTrue(page.isOwnedBy(USER_ID));
+            verify(aclIndexService).changeOwner(page, PARENT_OWNER, OWNER);
+            verify(auditService).recordOwnerChange(page, USER_ID, OWNER);
+            verify(changeEventService).publish(EventType.PAGE_UPDATED, page.getPageID(), USER_ID);
+        }
+        try (VersionService.Snapshot snapshot = versionService.pin()) {
+            assertTrue(versionService.readPage(snapshot, CHILD_PAGE_ID).isOwnedBy(USER_ID));
+        }
+        assertEquals(0, accessService.transferOwnership(OWNER, OWNER, USER_ID));
+    }
+
+    @Test
+    final void testTransferOwnership_OnlyPreviousOwnerOrAdminMayRequest() {
+        final Team admins = Team.Builder.newInstance().withID(TEAM_ID).withIsAdmin(true).build();
+        when(userService.read(PARENT_USER_ID)).thenReturn(PARENT_OWNER);
+        when(userService.read(ADDITIONAL_USER_ID)).thenReturn(ADDITIONAL_OWNER);
+        when(aclIndexService.getOwnedComponents(PARENT_OWNER)).thenReturn(new TreeSet<>(
+                Collections.singletonList(parent.getComponentKey())));
+
+        // Neither the previous owner nor an admin, even though it is the user receiving the components
+        final TransferOwnershipDto transfer = new TransferOwnershipDto();
+        transfer.setFromUserId(PARENT_USER_ID);
+        transfer.setToUserId(USER_ID);
+        transfer.setRequesterId(USER_ID);
+        assertThrows(AccessDeniedException.class, () -> accessService.transferOwnership(transfer));
+        transfer.setRequesterId(null);
+        assertThrows(AccessDeniedException.class, () -> accessService.transferOwnership(transfer));
+        assertTrue(parent.isOwnedBy(PARENT_USER_ID));
+        verify(auditService, never()).recordOwnerChange(any(), any(), any());
+
+        when(teamService.getEffectiveTeams(ADDITIONAL_OWNER)).thenReturn(Collections.singleton(admins));
+        transfer.setRequesterId(ADDITIONAL_USER_ID);
+        assertEquals(1, accessService.transferOwnership(transfer));
+        assertTrue(parent.isOwnedBy(USER_ID));
+        verify(auditService).recordOwnerChange(parent, ADDITIONAL_USER_ID, OWNER);
+    }
+
+    @Test
+    final void testRepublish_ComponentsShowingTheCollaboratorGetNewVersions() {
+        when(aclIndexService.getGrants(OWNER)).thenReturn(new TreeMap<>(
+                Collections.singletonMap(child.getComponentKey(), AccessType.READ_ONLY)));
+        when(aclIndexService.getOwnedComponents(OWNER)).thenReturn(new TreeSet<>(
+                Collections.singleton(grandchild.getComponentKey())));
+        final long published;
+        try (VersionService.Snapshot snapshot = versionService.pin()) {
+            published = versionService.readPage(snapshot, PARENT_PAGE_ID).getVersion();
+        }
+
+        versionService.begin();
+        try {
+            accessService.republish(OWNER);
+        } finally {
+            versionService.commit();
+        }
+
+        try (VersionService.Snapshot snapshot = versionService.pin()) {
+            assertEquals(published, versionService.readPage(snapshot, PARENT_PAGE_ID).getVersion());
+            assertNotEquals(published, versionService.readPage(snapshot, CHILD_PAGE_ID).getVersion());
+            assertNotEquals(published, versionService.readPage(snapshot, GRANDCHILD_PAGE_ID).getVersion());
+        }
+    }
+
+    @Test
+    final void testAssignAccess_RegrantDoesNotDuplicate() {
+        final CreateAccessDto createAccessDto = new CreateAccessDto();
+        createAccessDto.setComponentId(PARENT_PAGE_ID);
+        createAccessDto.setCollaboratorId(USER_ID);
+        createAccessDto.setAccessType("READ_ONLY");
+        createAccessDto.setPage(true);
+        createAccessDto.setIndividualUser(true);
+
+        accessService.assignAccess(createAccessDto);
+
+        assertEquals(1, parent.getAccessMap().get(AccessType.READ_ONLY).size());
+        assertEquals(AccessType.READ_ONLY, parent.getAccessType(OWNER));
+    }
+
+    @Test
+    final void testRevokeAccess_PropagatesToInheritingPages() {
+        final DeleteAccessDto deleteAccessDto = new DeleteAccessDto();
+        deleteAccessDto.setComponentId(PARENT_PAGE_ID);
+        deleteAccessDto.setCollaboratorId(USER_ID);
+        deleteAccessDto.setPage(true);
+        deleteAccessDto.setIndividualUser(true);
+        deleteAccessDto.setRequesterId(ADDITIONAL_USER_ID);
+
+        assertEquals(3, accessService.revokeAccess(deleteAccessDto));
+        assertNull(parent.getAccessType(OWNER));
+        assertNull(child.getAccessType(OWNER));
+        assertNull(grandchild.getAccessType(OWNER));
+        assertFalse(parent.getAccessMap().get(AccessType.READ_ONLY).contains(OWNER));
+        verify(auditService).recordAclChange(AuditType.REVOKE, grandchild, ADDITIONAL_USER_ID, OWNER, null);
+    }
+
+    @Test
+    final void testRevokeAccess_ExplicitGrantOnChildIsKept() {
+        accessService.assignAccess(child, AccessType.READ_ONLY, OWNER, null, USER_ID);
+
+        assertEquals(1, accessService.revokeAccess(parent, OWNER, USER_ID));
+        assertNull(parent.getAccessType(OWNER));
+        assertEquals(AccessType.READ_ONLY, child.getAccessType(OWNER));
+        assertEquals(AccessType.READ_ONLY, grandchild.getAccessType(OWNER));
+    }
+
+    @Test
+    final void testChangeAccessLevel_PropagatesToInheritingPages() {
+        final UpdateAccessDto updateAccessDto = new UpdateAccessDto();
+        updateAccessDto.setComponentId(PARENT_PAGE_ID);
+        updateAccessDto.setCollaboratorId(USER_ID);
+        updateAccessDto.setAccessType("READ_WRITE");
+        updateAccessDto.setPage(true);
+        updateAccessDto.setIndividualUser(true);
+
+        assertEquals(3, accessService.changeAccessLevel(updateAccessDto));
+        assertEquals(AccessType.READ_WRITE, grandchild.getAccessType(OWNER));
+        assertTrue(child.getAccessMap().get(AccessType.READ_WRITE).contains(OWNER));
+        assertFalse(child.getAccessMap().get(AccessType.READ_ONLY).contains(OWNER));
+    }
+
+    @Test
+    final void testChangeAccessLevel_NoExistingGrant() {
+        final UpdateAccessDto updateAccessDto = new UpdateAccessDto();
+        updateAccessDto.setComponentId(PARENT_PAGE_ID);
+        updateAccessDto.setCollaboratorId(USER_ID);
+        updateAccessDto.setAccessType("READ_WRITE");
+        updateAccessDto.setPage(true);
+        updateAccessDto.setIndividualUser(true);
+        accessService.revokeAccess(parent, OWNER, USER_ID);
+
+        assertThrows(IllegalArgumentException.class, () -> accessService.changeAccessLevel(updateAccessDto));
+    }
+
+    @Test
+    final void testExpireAccess_RemovesGrantAndInheritedGrants() {
+        final long expiresAt = System.currentTimeMillis() + 60_000;
+        accessService.assignAccess(parent, AccessType.READ_ONLY, OWNER, expiresAt, USER_ID);
+
+        verify(grantExpiryService).schedule(parent, OWNER, expiresAt);
+        assertEquals(expiresAt, grandchild.getExpiry(OWNER));
+        assertEquals(0, accessService.expireAccess(parent.getComponentKey(), OWNER, expiresAt - 1));
+        assertEquals(3, accessService.expireAccess(parent.getComponentKey(), OWNER, expiresAt));
+        assertNull(grandchild.getAccessType(OWNER));
+        assertTrue(parent.getExpiries().isEmpty());
+        verify(auditService).recordAclChange(AuditType.EXPIRE, grandchild, null, OWNER, null);
+    }
+
+    @Test
+    final void testCheckAccess_ExpiredGrantIsRefusedBeforeRemoval() {
+        parent.setExpiry(OWNER, System.currentTimeMillis() - 1);
+        versionService.begin();
+        versionService.touch(parent);
+        versionService.commit();
+        final BatchAccessCheckDto batchAccessCheckDto = new BatchAccessCheckDto();
+        batchAccessCheckDto.setRequesterId(USER_ID);
+        batchAccessCheckDto.setIndividualUser(true);
+        batchAccessCheckDto.setChecks(Arrays.asList(check(PARENT_PAGE_ID, "READ"), check(CHILD_PAGE_ID, "READ")));
+
+        final List<AccessCheckResultDto> results = accessService.checkAccess(batchAccessCheckDto);
+
+        assertFalse(results.get(0).isAllowed());
+        assertTrue(results.get(1).isAllowed());
+    }
+
+    @Test
+    final void testCheckAccess_EvaluatesEachPair() {
+        final BatchAccessCheckDto batchAccessCheckDto = new BatchAccessCheckDto();
+        batchAccessCheckDto.setRequesterId(USER_ID);
+        batchAccessCheckDto.setIndividualUser(true);
+        batchAccessCheckDto.setChecks(Arrays.asList(
+                check(PARENT_PAGE_ID, "READ"),
+                check(PARENT_PAGE_ID, "UPDATE"),
+                check("UnknownPage", "READ"),
+                check(PARENT_PAGE_ID, "PUBLISH")));
+
+        final List<AccessCheckResultDto> results = accessService.checkAccess(batchAccessCheckDto);
+
+        assertEquals(4, results.size());
+        assertTrue(results.get(0).isAllowed());
+        assertFalse(results.get(1).isAllowed());
+        assertFalse(results.get(2).isAllowed());
+        assertFalse(results.get(3).isAllowed());
+    }
+
+    @Test
+    final void testCheckAccess_OwnerIsAllowed() {
+        final BatchAccessCheckDto batchAccessCheckDto = new BatchAccessCheckDto();
+        batchAccessCheckDto.setRequesterId(PARENT_USER_ID);
+        batchAccessCheckDto.setIndividualUser(true);
+        batchAccessCheckDto.setChecks(Collections.singletonList(check(CHILD_PAGE_ID, "DELETE")));
+
+        assertTrue(accessService.checkAccess(batchAccessCheckDto).get(0).isAllowed());
+    }
+
+    private AccessCheckDto check(final String pageId, final String action) {
+        final AccessCheckDto accessCheckDto = new AccessCheckDto();
+        accessCheckDto.setComponentId(pageId);
+        accessCheckDto.setPage(true);
+        accessCheckDto.setAction(action);
+        return accessCheckDto;
+    }
+}
@@ -0,0 +1,109 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.model.AccessType;
+import com.proofpoint.wikisystem.model.ComponentType;
+import com.proofpoint.wikisystem.model.Page;
+import com.proofpoint.wikisystem.payload.AccessibleComponentsDto;
+import com.proofpoint.wikisystem.util.Action;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static com.proofpoint.wikisystem.util.Constants.authorizedActionsMap;
+import static com.proofpoint.wikisystem.util.TestConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class AclIndexServiceTest {
+
+    private AclIndexService aclIndexService;
+
+    @BeforeEach
+    void setup() {
+        aclIndexService = new AclIndexService();
+    }
+
+    private Page page(final String pageID) {
+        return Page.Builder.newInstance().withPageID(pageID).withOwner(PARENT_OWNER).build();
+    }
+
+    @Test
+    final void testListAccessible_MergesTeamGrantsAndOwnership() {
+        final Page direct = page("A");
+        final Page viaTeam = page("B");
+        final Page owned = Page.Builder.newInstance().withPageID("C").withOwner(OWNER).build();
+        aclIndexService.indexGrant(direct, OWNER, AccessType.READ_ONLY);
+        aclIndexService.indexGrant(viaTeam, TEAM, AccessType.READ_WRITE);
+        aclIndexService.indexComponent(owned);
+
+        final AccessibleComponentsDto output = aclIndexService.listAccessible(OWNER, Collections.singleton(TEAM),
+                authorizedActionsMap.get(Action.READ), null, 10);
+
+        assertEquals(3, output.getComponents().size());
+        assertEquals("A", output.getComponents().get(0).getComponentId());
+        assertEquals(ComponentType.PAGE, output.getComponents().get(0).getComponentType());
+        assertEquals(TEAM_ID, output.getComponents().get(1).getVia());
+        assertEquals(AclIndexService.VIA_OWNER, output.getComponents().get(2).getVia());
+        assertNull(output.getNextCursor());
+    }
+
+    @Test
+    final void testListAccessible_SkipsExpiredGrantsNotYetSwept() {
+        final Page expired = page("A");
+        final Page expiring = page("B");
+        final Page teamExpired = page("C");
+        expired.putGrant(OWNER, AccessType.READ_WRITE);
+        expired.setExpiry(OWNER, System.currentTimeMillis() - 1000);
+        expiring.putGrant(OWNER, AccessType.READ_ONLY);
+        expiring.setExpiry(OWNER, System.currentTimeMillis() + 60000);
+        teamExpired.putGrant(TEAM, AccessType.READ_ONLY);
+        teamExpired.setExpiry(TEAM, System.currentTimeMillis() - 1000);
+        aclIndexService.indexGrant(expired, OWNER, AccessType.READ_WRITE);
+        aclIndexService.indexGrant(expiring, OWNER, AccessType.READ_ONLY);
+        aclIndexService.indexGrant(teamExpired, TEAM, AccessType.READ_ONLY);
+
+        final AccessibleComponentsDto output = aclIndexService.listAccessible(OWNER, Collections.singleton(TEAM),
+                authorizedActionsMap.get(Action.READ), null, 10);
+        assertEquals(1, output.getComponents().size());
+        assertEquals("B", output.getComponents().get(0).getComponentId());
+
+        // Renewing the grant makes it permanent again
+        expired.setExpiry(OWNER, null);
+        aclIndexService.indexGrant(expired, OWNER, AccessType.READ_WRITE);
+        assertEquals(2, aclIndexService.listAccessible(OWNER, Collections.emptySet(),
+                authorizedActionsMap.get(Action.READ), null, 10).getComponents().size());
+    }
+
+    @Test
+    final void testListAccessible_FiltersByActionAndPaginates() {
+        aclIndexService.indexGrant(page("A"), OWNER, AccessType.READ_WRITE);
+        aclIndexService.indexGrant(page("B"), OWNER, AccessType.READ_ONLY);
+        aclIndexService.indexGrant(page("C"), OWNER, AccessType.READ_WRITE);
+        aclIndexService.indexGrant(page("D"), OWNER, AccessType.READ_WRITE);
+
+        final AccessibleComponentsDto first = aclIndexService.listAccessible(OWNER, Collections.emptySet(),
+                authorizedActionsMap.get(Action.UPDATE), null, 2);
+        assertEquals(2, first.getComponents().size());
+        assertEquals("A", first.getComponents().get(0).getComponentId());
+        assertEquals("C", first.getComponents().get(1).getComponentId());
+
+        final AccessibleComponentsDto second = aclIndexService.listAccessible(OWNER, Collections.emptySet(),
+                authorizedActionsMap.get(Action.UPDATE), first.getNextCursor(), 2);
+        assertEquals(1, second.getComponents().size());
+        assertEquals("D", second.getComponents().get(0).getComponentId());
+        assertNull(second.getNextCursor());
+    }
+
+    @Test
+    final void testUnindexComponent_RemovesGrantsAndOwnership() {
+        final Page page = Page.Builder.newInstance().withPageID("A").withOwner(OWNER).build();
+        page.putGrant(ADDITIONAL_OWNER, AccessType.READ_ONLY);
+        aclIndexService.indexComponent(page);
+
+        aclIndexService.unindexComponent(page);
+
+        assertTrue(aclIndexService.getGrants(ADDITIONAL_OWNER).isEmpty());
+        assertTrue(aclIndexService.getOwnedComponents(OWNER).isEmpty());
+    }
+}
@@ -0,0 +1,96 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.model.RequestClass;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+
+import static com.proofpoint.wikisystem.util.TestConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+public class AdmissionServiceTest {
+
+    @InjectMocks
+    private AdmissionService admissionService;
+
+    @Mock
+    private UserService userService;
+
+    @Mock
+    private TeamService teamService;
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.initMocks(this);
+        ReflectionTestUtils.setField(admissionService, "readRate", 0.001);
+        ReflectionTestUtils.setField(admissionService, "readBurst", 2);
+        ReflectionTestUtils.setField(admissionService, "writeRate", 0.001);
+        ReflectionTestUtils.setField(admissionService, "writeBurst", 1);
+        ReflectionTestUtils.setField(admissionService, "bulkRate", 0.001);
+        ReflectionTestUtils.setField(admissionService, "bulkBurst", 1);
+        ReflectionTestUtils.setField(admissionService, "teamMultiplier", 2);
+        ReflectionTestUtils.setField(admissionService, "minConcurrency", 1);
+        ReflectionTestUtils.setField(admissionService, "maxConcurrency", 1);
+        ReflectionTestUtils.setField(admissionService, "initialConcurrency", 1);
+        admissionService.init();
+    }
+
+    @Test
+    final void testAdmit_BudgetsArePerRequesterAndClass() {
+        assertEquals(0, admissionService.admit(USER_ID, false, RequestClass.READ));
+        assertEquals(0, admissionService.admit(USER_ID, false, RequestClass.READ));
+        assertTrue(admissionService.admit(USER_ID, false, RequestClass.READ) > 0);
+
+        assertEquals(0, admissionService.admit(USER_ID, false, RequestClass.WRITE));
+        assertEquals(0, admissionService.admit(PARENT_USER_ID, false, RequestClass.READ));
+        assertEquals(1, admissionService.getStatus().getRateLimited());
+    }
+
+    @Test
+    final void testAdmit_TeamsGetLargerBudget() {
+        assertEquals(0, admissionService.admit(TEAM_ID, true, RequestClass.WRITE));
+        assertEquals(0, admissionService.admit(TEAM_ID, true, RequestClass.WRITE));
+        assertTrue(admissionService.admit(TEAM_ID, true, RequestClass.WRITE) > 0);
+    }
+
+    @Test
+    final void testAdmit_MembersShareTheirTeamsBudget() {
+        when(userService.read(USER_ID)).thenReturn(OWNER);
+        when(userService.read(PARENT_USER_ID)).thenReturn(PARENT_OWNER);
+        when(userService.read(ADDITIONAL_USER_ID)).thenReturn(ADDITIONAL_OWNER);
+        when(teamService.getEffectiveTeams(any())).thenReturn(Collections.singleton(TEAM));
+
+        assertEquals(0, admissionService.admit(USER_ID, false, RequestClass.WRITE));
+        assertEquals(0, admissionService.admit(PARENT_USER_ID, false, RequestClass.WRITE));
+        assertTrue(admissionService.admit(ADDITIONAL_USER_ID, false, RequestClass.WRITE) > 0);
+
+        // The refused request was not charged to the member's own budget either
+        when(teamService.getEffectiveTeams(ADDITIONAL_OWNER)).thenReturn(Collections.emptySet());
+        assertEquals(0, admissionService.admit(ADDITIONAL_USER_ID, false, RequestClass.WRITE));
+    }
+
+    @Test
+    final void testEvictIdleBuckets_KeepsBucketsInUse() {
+        admissionService.admit(USER_ID, false, RequestClass.READ);
+        assertEquals(1, admissionService.getStatus().getBuckets());
+
+        admissionService.evictIdleBuckets();
+        assertEquals(1, admissionService.getStatus().getBuckets());
+    }
+
+    @Test
+    final void testTryEnter_ShedsAboveConcurrencyLimit() {
+        assertTrue(admissionService.tryEnter());
+        assertFalse(admissionService.tryEnter());
+        admissionService.exit(System.nanoTime());
+        assertTrue(admissionService.tryEnter());
+        assertEquals(1, admissionService.getStatus().getShed());
+    }
+}
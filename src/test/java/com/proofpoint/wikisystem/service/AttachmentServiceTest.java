@@ -2,14 +2,19 @@ package com.proofpoint.wikisystem.service;
 
 import com.proofpoint.wikisystem.exceptions.AccessDeniedException;
 import com.proofpoint.wikisystem.exceptions.AttachmentNotFoundException;
+import com.proofpoint.wikisystem.model.AccessType;
 import com.proofpoint.wikisystem.model.Attachment;
+import com.proofpoint.wikisystem.model.Page;
 import com.proofpoint.wikisystem.model.User;
 import com.proofpoint.wikisystem.payload.UpdateComponentDto;
+import com.proofpoint.wikisystem.repository.AttachmentRepository;
+import com.proofpoint.wikisystem.repository.InMemoryAttachmentRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -36,9 +41,31 @@ public class AttachmentServiceTest {
     @Mock
     AccessService accessService;
 
+    @Mock
+    PageService pageService;
+
+    @Mock
+    ChangeEventService changeEventService;
+
+    @Mock
+    AuditService auditService;
+
+    @Mock
+    AclIndexService aclIndexService;
+
+    @Mock
+    HotKeyService hotKeyService;
+
+    @Spy
+    VersionService versionService = new VersionService();
+
+    @Spy
+    AttachmentRepository attachmentRepository = new InMemoryAttachmentRepository();
+
     @BeforeEach
     void setup() {
         MockitoAnnotations.initMocks(this);
+        ACCESS_MAP.clear();
     }
 
 
@@ -137,4 +164,46 @@ public class AttachmentServiceTest {
 
     }
 
+    @Test
+    final void testCreate_SameFilenameOnTwoPages() throws Exception {
+        final Page page = Page.Builder.newInstance().withPageID(PARENT_PAGE_ID).withOwner(OWNER).build();
+        final Page otherPage = Page.Builder.newInstance().withPageID(PAGE_ID).withOwner(OWNER).build();
+        when(pageService.read(PARENT_PAGE_ID)).thenReturn(page);
+        when(pageService.read(PAGE_ID)).thenReturn(otherPage);
+
+        attachmentService.create(PARENT_PAGE_ID, FILE_NAME, FILE_CONTENT, OWNER, null, false);
+        attachmentService.create(PAGE_ID, FILE_NAME, UPDATED_FILE_CONTENT, OWNER, null, false);
+
+        assertEquals(FILE_CONTENT, attachmentService.read(PARENT_PAGE_ID, FILE_NAME).getContents());
+        assertEquals(UPDATED_FILE_CONTENT, attachmentService.read(PAGE_ID + "/" + FILE_NAME).getContents());
+        assertEquals(1, otherPage.getAttachments().size());
+        assertEquals(1, attachmentService.listAttachments(PAGE_ID, OWNER.getId(), true).size());
+    }
+
+    @Test
+    final void testCreate_InheritsAccessFromPage() throws Exception {
+        final Page page = Page.Builder.newInstance().withPageID(PAGE_ID).withOwner(PARENT_OWNER).build();
+        page.putGrant(ADDITIONAL_OWNER, AccessType.READ_ONLY);
+        when(pageService.read(PAGE_ID)).thenReturn(page);
+        when(userService.read(ADDITIONAL_USER_ID)).thenReturn(ADDITIONAL_OWNER);
+
+        attachmentService.create(PAGE_ID, FILE_NAME, FILE_CONTENT, OWNER, null, true);
+
+        final Attachment attachment = attachmentService.accessAttachment(PAGE_ID, FILE_NAME, ADDITIONAL_USER_ID, true);
+        assertEquals(AccessType.READ_WRITE, attachment.getAccessType(PARENT_OWNER));
+        assertTrue(page.getInheritors(ADDITIONAL_OWNER).contains(attachment.getComponentKey()));
+    }
+
+    @Test
+    final void testDeleteAllForPage() throws Exception {
+        final Page page = Page.Builder.newInstance().withPageID(PAGE_ID).withOwner(OWNER).build();
+        when(pageService.read(PAGE_ID)).thenReturn(page);
+        attachmentService.create(PAGE_ID, FILE_NAME, FILE_CONTENT, OWNER, null, false);
+        attachmentService.create(PAGE_ID, "Other.txt", FILE_CONTENT, OWNER, null, false);
+
+        assertEquals(2, attachmentService.deleteAllForPage(PAGE_ID, OWNER.getId()));
+        assertThrows(AttachmentNotFoundException.class, () -> attachmentService.read(PAGE_ID, FILE_NAME));
+        assertTrue(attachmentService.listAttachments(PAGE_ID, OWNER.getId(), true).isEmpty());
+    }
+
 }
@@ -0,0 +1,140 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.model.AccessType;
+import com.proofpoint.wikisystem.model.AuditRecord;
+import com.proofpoint.wikisystem.model.AuditType;
+import com.proofpoint.wikisystem.model.Page;
+import com.proofpoint.wikisystem.util.Action;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.proofpoint.wikisystem.util.TestConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AuditServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private AuditService auditService;
+
+    @AfterEach
+    void teardown() {
+        auditService.shutdown();
+    }
+
+    @Test
+    final void testQuery_FiltersByRequesterComponentAndTime() throws Exception {
+        auditService = open(1 << 20, 100);
+        final Page page = Page.Builder.newInstance().withPageID(PAGE_ID).withOwner(OWNER).build();
+        auditService.recordDecision(Action.READ, page.getComponentKey(), USER_ID, false, true);
+        auditService.recordDecision(Action.UPDATE, page.getComponentKey(), ADDITIONAL_USER_ID, false, false);
+        auditService.recordAclChange(AuditType.GRANT, page, PARENT_USER_ID, TEAM, AccessType.READ_ONLY);
+        auditService.recordDecision(Action.READ, "PAGE:other", USER_ID, false, true);
+
+        final List<AuditRecord> byRequester = auditService.query(USER_ID, null, null, null, 10);
+        assertEquals(2, byRequester.size());
+        assertEquals("PAGE:other", byRequester.get(0).getComponentKey());
+
+        final List<AuditRecord> byComponent = auditService.query(null, page.getComponentKey(), null, null, 10);
+        assertEquals(3, byComponent.size());
+        final AuditRecord grant = byComponent.stream().filter(record -> record.getType() == AuditType.GRANT)
+                .findFirst().orElseThrow(AssertionError::new);
+        assertEquals(TEAM_ID, grant.getSubjectId());
+        assertTrue(grant.isSubjectTeam());
+        assertEquals(AccessType.READ_ONLY, grant.getAccessType());
+        assertEquals(AuditType.GRANT, auditService.query(PARENT_USER_ID, null, null, null, 10).get(0).getType());
+        final AuditRecord denied = auditService.query(ADDITIONAL_USER_ID, null, null, null, 10).get(0);
+        assertEquals(Action.UPDATE, denied.getAction());
+        assertFalse(denied.isAllowed());
+
+        final long now = System.currentTimeMillis();
+        assertTrue(auditService.query(null, null, now + 1, null, 10).isEmpty());
+        assertEquals(4, auditService.query(null, null, now - 60_000, now + 1, 10).size());
+        assertEquals(1, auditService.query(null, null, null, null, 1).size());
+        assertEquals(4, auditService.getStatus().getRecordsWritten());
+    }
+
+    @Test
+    final void testReopen_FindsRecordsInRotatedSegments() throws Exception {
+        auditService = open(512, 100);
+        for (int i = 0; i < 200; i++) {
+            auditService.recordDecision(Action.READ, "PAGE:page" + (i % 20), "user" + (i % 7), false, i % 2 == 0);
+            if (i % 50 == 49) {
+                auditService.flush();
+            }
+        }
+        auditService.shutdown();
+
+        auditService = open(512, 100);
+        assertTrue(auditService.getStatus().getSegments() > 10);
+        assertEquals(200, auditService.query(null, null, null, null, 1000).size());
+        final List<AuditRecord> records = auditService.query("user3", "PAGE:page5", null, null, 1000);
+        assertFalse(records.isEmpty());
+        for (AuditRecord record : records) {
+            assertEquals("user3", record.getRequesterId());
+            assertEquals("PAGE:page5", record.getComponentKey());
+        }
+    }
+
+    @Test
+    final void testReopen_CutsOffTornTail() throws Exception {
+        auditService = open(1 << 20, 100);
+        for (int i = 0; i < 10; i++) {
+            auditService.recordDecision(Action.READ, "PAGE:page" + i, USER_ID, false, true);
+        }
+        auditService.shutdown();
+        // A crash in the middle of a write leaves part of a frame behind
+        Files.write(lastSegment(), new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        auditService = open(1 << 20, 100);
+        auditService.recordDecision(Action.DELETE, "PAGE:page0", USER_ID, false, false);
+        assertEquals(11, auditService.query(USER_ID, null, null, null, 100).size());
+        auditService.shutdown();
+
+        auditService = open(1 << 20, 100);
+        assertEquals(11, auditService.query(USER_ID, null, null, null, 100).size());
+    }
+
+    @Test
+    final void testRecord_DropsWhenFlusherFallsBehind() throws Exception {
+        auditService = open(1 << 20, 5);
+        for (int i = 0; i < 8; i++) {
+            auditService.recordDecision(Action.READ, "PAGE:page", USER_ID, false, true);
+        }
+
+        assertEquals(3, auditService.getStatus().getRecordsDropped());
+        assertEquals(5, auditService.query(null, null, null, null, 100).size());
+    }
+
+    private AuditService open(final long segmentMaxBytes, final long maxPendingRecords) {
+        final AuditService service = new AuditService();
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "directory", directory.toString());
+        ReflectionTestUtils.setField(service, "segmentMaxBytes", segmentMaxBytes);
+        // Flushed by the tests themselves
+        ReflectionTestUtils.setField(service, "flushIntervalMs", 60_000L);
+        ReflectionTestUtils.setField(service, "bufferRecords", 16);
+        ReflectionTestUtils.setField(service, "maxPendingRecords", maxPendingRecords);
+        service.init();
+        return service;
+    }
+
+    private Path lastSegment() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            final List<Path> segments = files.filter(file -> file.toString().endsWith(".seg")).sorted()
+                    .collect(Collectors.toList());
+            return segments.get(segments.size() - 1);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.model.ChangeEvent;
+import com.proofpoint.wikisystem.model.EventType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.proofpoint.wikisystem.util.TestConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class ChangeEventServiceTest {
+
+    private ChangeEventService changeEventService;
+
+    @BeforeEach
+    void setup() {
+        changeEventService = new ChangeEventService();
+        ReflectionTestUtils.setField(changeEventService, "capacity", 4);
+        ReflectionTestUtils.setField(changeEventService, "batchSize", 16);
+        ReflectionTestUtils.setField(changeEventService, "dispatchIntervalMs", 1000L);
+        changeEventService.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        changeEventService.shutdown();
+    }
+
+    @Test
+    final void testRead_ReturnsEventsInSequenceOrder() {
+        changeEventService.publish(EventType.PAGE_CREATED, PAGE_ID, USER_ID);
+        changeEventService.publish(EventType.PAGE_UPDATED, PAGE_ID, USER_ID);
+
+        final List<ChangeEvent> events = new ArrayList<>();
+        final long next = changeEventService.read(1, 10, events);
+
+        assertEquals(3, next);
+        assertEquals(2, events.size());
+        assertEquals(1, events.get(0).getSequence());
+        assertEquals(EventType.PAGE_CREATED, events.get(0).getType());
+        assertEquals(EventType.PAGE_UPDATED, events.get(1).getType());
+        assertEquals(PAGE_ID, events.get(1).getEntityId());
+    }
+
+    @Test
+    final void testRead_ResumesFromCursor() {
+        changeEventService.publish(EventType.USER_CREATED, USER_ID, null);
+        final List<ChangeEvent> events = new ArrayList<>();
+        long next = changeEventService.read(1, 10, events);
+
+        changeEventService.publish(EventType.USER_DELETED, USER_ID, null);
+        events.clear();
+        next = changeEventService.read(next, 10, events);
+
+        assertEquals(3, next);
+        assertEquals(1, events.size());
+        assertEquals(EventType.USER_DELETED, events.get(0).getType());
+    }
+
+    @Test
+    final void testRead_LaggingReaderGetsDroppedMarker() {
+        for (int i = 0; i < 6; i++) {
+            changeEventService.publish(EventType.PAGE_UPDATED, PAGE_ID + i, USER_ID);
+        }
+
+        final List<ChangeEvent> events = new ArrayList<>();
+        final long next = changeEventService.read(1, 10, events);
+
+        assertEquals(7, next);
+        assertEquals(EventType.EVENTS_DROPPED, events.get(0).getType());
+        assertEquals("1", events.get(0).getDetails().get("firstDropped"));
+        assertEquals("2", events.get(0).getDetails().get("lastDropped"));
+        assertEquals(5, events.size());
+        assertEquals(3, events.get(1).getSequence());
+    }
+
+    @Test
+    final void testDispatch_FailingSubscriberIsDroppedWithoutStoppingOthers() throws Exception {
+        final SseEmitter failing = mock(SseEmitter.class);
+        final SseEmitter healthy = mock(SseEmitter.class);
+        doThrow(new IllegalArgumentException("Dummy Exception"))
+                .when(failing).send(any(SseEmitter.SseEventBuilder.class));
+        changeEventService.subscribe(failing, 0L);
+        changeEventService.subscribe(healthy, 0L);
+        changeEventService.publish(EventType.PAGE_CREATED, PAGE_ID, USER_ID);
+
+        ReflectionTestUtils.invokeMethod(changeEventService, "dispatch");
+
+        assertEquals(1, changeEventService.getSubscriberCount());
+        verify(failing).completeWithError(any(IllegalArgumentException.class));
+        verify(healthy).send(any(SseEmitter.SseEventBuilder.class));
+    }
+}
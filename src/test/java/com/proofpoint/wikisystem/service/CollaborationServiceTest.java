@@ -0,0 +1,186 @@
+package com.proofpoint.wikisystem.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.proofpoint.wikisystem.exceptions.AccessDeniedException;
+import com.proofpoint.wikisystem.model.Page;
+import com.proofpoint.wikisystem.util.Action;
+import com.proofpoint.wikisystem.util.Rope;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import static com.proofpoint.wikisystem.util.TestConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class CollaborationServiceTest {
+
+    private static final String READER_ID = "Reader101";
+
+    @InjectMocks
+    private CollaborationService collaborationService;
+
+    @Mock
+    private PageService pageService;
+
+    @Mock
+    private ReplicationService replicationService;
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
+
+    private Page page;
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.initMocks(this);
+        ReflectionTestUtils.setField(collaborationService, "enabled", true);
+        ReflectionTestUtils.setField(collaborationService, "historySize", 100);
+        ReflectionTestUtils.setField(collaborationService, "maxParticipants", 10);
+
+        page = Page.Builder.newInstance().withPageID(PAGE_ID).withOwner(OWNER).withContent("Hello world").build();
+        when(pageService.read(PAGE_ID)).thenReturn(page);
+        when(pageService.accessPage(eq(PAGE_ID), any(), anyBoolean())).thenReturn(page);
+        when(pageService.isAuthorized(eq(Action.UPDATE), eq(PAGE_ID), any(), anyBoolean())).thenReturn(true);
+        when(pageService.isAuthorized(Action.UPDATE, PAGE_ID, READER_ID, true)).thenReturn(false);
+        when(pageService.checkpoint(eq(PAGE_ID), any(), any())).thenAnswer(invocation -> {
+            final UnaryOperator<Rope> merge = invocation.getArgument(1);
+            final Rope saved = merge.apply(page.getContentRope());
+            page.setContentRope(saved);
+            return saved;
+        });
+    }
+
+    @Test
+    final void testSubmit_TransformsConcurrentOperationsAndBroadcastsThemTogether() throws Exception {
+        final RecordingParticipant first = join(USER_ID);
+        final RecordingParticipant second = join(ADDITIONAL_USER_ID);
+        final RecordingParticipant reader = join(READER_ID);
+        assertEquals("Hello world", frame(first, 0).get("content").asText());
+        assertFalse(frame(reader, 0).get("canEdit").asBoolean());
+
+        // Both made against revision 0
+        collaborationService.submit(first, "{\"type\": \"op\", \"revision\": 0, \"operation\": [\"Big \", 11]}");
+        collaborationService.submit(second, "{\"type\": \"op\", \"revision\": 0, \"operation\": [11, \"!\"]}");
+        collaborationService.submit(reader, "{\"type\": \"op\", \"revision\": 0, \"operation\": [\"x\", 11]}");
+        assertEquals("error", frame(reader, 1).get("type").asText());
+        collaborationService.flushAll();
+
+        for (RecordingParticipant participant : new RecordingParticipant[]{first, second, reader}) {
+            final JsonNode ops = frame(participant, participant.frames.size() - 1).get("ops");
+            assertEquals(2, ops.size());
+            assertEquals(1, ops.get(0).get("revision").asLong());
+            assertEquals(first.getId(), ops.get(0).get("author").asText());
+            assertEquals("[15,\"!\"]", ops.get(1).get("operation").toString());
+        }
+
+        collaborationService.checkpointAll();
+        assertEquals("Big Hello world!", page.getContent());
+        verify(pageService).checkpoint(eq(PAGE_ID), any(), eq(ADDITIONAL_USER_ID));
+
+        // The last one to leave saves and closes the session
+        collaborationService.leave(first);
+        collaborationService.leave(second);
+        collaborationService.leave(reader);
+        assertEquals(0, collaborationService.getSessionCount());
+    }
+
+    @Test
+    final void testCheckpoint_MergesContentSavedMeanwhile() throws Exception {
+        final RecordingParticipant editor = join(USER_ID);
+        collaborationService.submit(editor, "{\"type\": \"op\", \"revision\": 0, \"operation\": [11, \"!\"]}");
+        page.setContent("Hello brave world");
+
+        collaborationService.checkpointAll();
+        collaborationService.flushAll();
+
+        assertEquals("Hello brave world!", page.getContent());
+        final JsonNode ops = frame(editor, 1).get("ops");
+        assertEquals(CollaborationService.PAGE_AUTHOR, ops.get(1).get("author").asText());
+        assertEquals("[6,\"brave \",6]", ops.get(1).get("operation").toString());
+
+        // An operation from before the merge is transformed past it
+        collaborationService.submit(editor, "{\"type\": \"op\", \"revision\": 1, \"operation\": [-5, 7]}");
+        collaborationService.checkpointAll();
+        assertEquals(" brave world!", page.getContent());
+    }
+
+    @Test
+    final void testCheckpoint_ResetSurvivesAParticipantLeavingMidway() throws Exception {
+        ReflectionTestUtils.setField(collaborationService, "historySize", 1);
+        final RecordingParticipant leaving = new RecordingParticipant(ADDITIONAL_USER_ID) {
+            @Override
+            protected void send(final String frame) {
+                super.send(frame);
+                if (frame.contains("\"reset\"")) {
+                    collaborationService.leave(this);
+                }
+            }
+        };
+        collaborationService.join(PAGE_ID, leaving);
+        final RecordingParticipant editor = join(USER_ID);
+        collaborationService.submit(editor, "{\"type\": \"op\", \"revision\": 0, \"operation\": [11, \"!\"]}");
+        collaborationService.submit(editor, "{\"type\": \"op\", \"revision\": 1, \"operation\": [12, \"?\"]}");
+        page.setContent("Hello brave world");
+
+        // The revision saved last has left the history, so the stored content replaces the session's text
+        collaborationService.checkpointAll();
+
+        final JsonNode reset = frame(editor, editor.frames.size() - 1);
+        assertEquals("reset", reset.get("type").asText());
+        assertEquals("Hello brave world", reset.get("content").asText());
+        assertEquals(1, collaborationService.getSessionCount());
+    }
+
+    @Test
+    final void testJoin_RefusesUnreadablePagesAndFollowers() {
+        when(pageService.accessPage(PAGE_ID, READER_ID, true)).thenReturn(null);
+        assertThrows(AccessDeniedException.class,
+                () -> collaborationService.join(PAGE_ID, new RecordingParticipant(READER_ID)));
+
+        when(replicationService.isFollower()).thenReturn(true);
+        assertThrows(IllegalStateException.class,
+                () -> collaborationService.join(PAGE_ID, new RecordingParticipant(USER_ID)));
+        assertEquals(0, collaborationService.getSessionCount());
+    }
+
+    private RecordingParticipant join(final String requesterId) {
+        final RecordingParticipant participant = new RecordingParticipant(requesterId);
+        collaborationService.join(PAGE_ID, participant);
+        return participant;
+    }
+
+    private JsonNode frame(final RecordingParticipant participant, final int index) throws Exception {
+        return objectMapper.readTree(participant.frames.get(index));
+    }
+
+    private static class RecordingParticipant extends CollaborationService.Participant {
+        private final List<String> frames = new ArrayList<>();
+
+        private RecordingParticipant(final String requesterId) {
+            super(requesterId, true);
+        }
+
+        @Override
+        protected void send(final String frame) {
+            frames.add(frame);
+        }
+
+        @Override
+        protected void close(final String reason) {
+            frames.add(reason);
+        }
+    }
+}
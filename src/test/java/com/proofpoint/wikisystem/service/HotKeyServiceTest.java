@@ -0,0 +1,96 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.model.Page;
+import com.proofpoint.wikisystem.payload.HotComponentDto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.proofpoint.wikisystem.util.TestConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class HotKeyServiceTest {
+
+    @TempDir
+    Path directory;
+
+    @InjectMocks
+    private HotKeyService hotKeyService;
+
+    @Mock
+    private ReadCoalescingService readCoalescingService;
+
+    @Mock
+    private RenderService renderService;
+
+    @Spy
+    private VersionService versionService = new VersionService();
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.initMocks(this);
+        ReflectionTestUtils.setField(hotKeyService, "enabled", true);
+        ReflectionTestUtils.setField(hotKeyService, "topK", 2);
+        ReflectionTestUtils.setField(hotKeyService, "sketchWidth", 1024);
+        ReflectionTestUtils.setField(hotKeyService, "sketchDepth", 4);
+        ReflectionTestUtils.setField(hotKeyService, "decayIntervalMs", 60_000L);
+        ReflectionTestUtils.setField(hotKeyService, "file", directory.resolve("hot.tsv").toString());
+        ReflectionTestUtils.setField(hotKeyService, "warmup", true);
+        hotKeyService.init();
+    }
+
+    @AfterEach
+    void teardown() {
+        hotKeyService.shutdown();
+    }
+
+    @Test
+    final void testGetHotComponents_HottestFirst() {
+        for (int i = 0; i < 5; i++) {
+            hotKeyService.recordRead("PAGE:a");
+        }
+        for (int i = 0; i < 3; i++) {
+            hotKeyService.recordRead("ATTACHMENT:b");
+        }
+        hotKeyService.recordRead("PAGE:c");
+
+        final List<HotComponentDto> hot = hotKeyService.getHotComponents(10);
+        assertEquals(2, hot.size());
+        assertEquals("PAGE:a", hot.get(0).getComponentKey());
+        assertEquals(5, hot.get(0).getEstimatedReads());
+        assertEquals("ATTACHMENT:b", hot.get(1).getComponentKey());
+    }
+
+    @Test
+    final void testRestart_RestoresTopAndWarmsExistingPages() {
+        final Page page = Page.Builder.newInstance().withPageID(PAGE_ID).withOwner(OWNER).build();
+        versionService.begin();
+        versionService.touch(page);
+        versionService.commit();
+        for (int i = 0; i < 4; i++) {
+            hotKeyService.recordRead(page.getComponentKey());
+        }
+        hotKeyService.recordRead("PAGE:gone");
+        hotKeyService.shutdown();
+
+        hotKeyService.init();
+        hotKeyService.afterSingletonsInstantiated();
+
+        final List<HotComponentDto> hot = hotKeyService.getHotComponents(10);
+        assertEquals(page.getComponentKey(), hot.get(0).getComponentKey());
+        assertEquals(4, hot.get(0).getEstimatedReads());
+        verify(readCoalescingService, times(1)).toJson(any());
+        verify(renderService, times(1)).warmUp(any(), any());
+    }
+}
@@ -0,0 +1,80 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.model.Page;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.proofpoint.wikisystem.util.TestConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+public class LinkIndexServiceTest {
+
+    @InjectMocks
+    private LinkIndexService linkIndexService;
+
+    @Mock
+    private PageService pageService;
+
+    private final Set<String> pages = new HashSet<>();
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.initMocks(this);
+        when(pageService.read(anyString())).thenAnswer(invocation -> pages.contains(invocation.<String>getArgument(0))
+                ? Page.Builder.newInstance().withPageID(invocation.getArgument(0)).build() : null);
+    }
+
+    @Test
+    final void testIndexPage_AppliesOnlyChangedLinks() {
+        create("Home", "[[Guide]] and [[Faq|questions]]");
+        create("Guide", "Back to [[Home]]");
+
+        assertEquals(Collections.singleton("Home"), linkIndexService.getBacklinks("Guide"));
+        assertEquals(Collections.singleton("Home"), linkIndexService.getBacklinks("Faq"));
+        assertEquals(Collections.singleton("Faq"), linkIndexService.getMissingTargets());
+
+        linkIndexService.indexPage("Home", "[[Guide]] and [[Roadmap]]");
+        assertTrue(linkIndexService.getBacklinks("Faq").isEmpty());
+        assertEquals(Collections.singleton("Roadmap"), linkIndexService.getMissingTargets());
+        assertEquals(new HashSet<>(Arrays.asList("Guide", "Roadmap")), linkIndexService.getLinks("Home"));
+    }
+
+    @Test
+    final void testCreateAndDelete_MoveTargetsInAndOutOfMissing() {
+        create("Home", "[[Guide]]");
+        create("Notes", "[[Guide]]");
+        assertTrue(linkIndexService.isMissing("Guide"));
+
+        create("Guide", "no links");
+        assertFalse(linkIndexService.isMissing("Guide"));
+
+        pages.remove("Guide");
+        linkIndexService.unindexPage("Guide");
+        assertTrue(linkIndexService.isMissing("Guide"));
+        assertEquals(new HashSet<>(Arrays.asList("Home", "Notes")), linkIndexService.getBacklinks("Guide"));
+
+        // Deleting every page that links to it leaves nothing to report
+        pages.remove("Home");
+        linkIndexService.unindexPage("Home");
+        pages.remove("Notes");
+        linkIndexService.unindexPage("Notes");
+        assertFalse(linkIndexService.isMissing("Guide"));
+        assertTrue(linkIndexService.getBacklinks("Guide").isEmpty());
+        assertTrue(linkIndexService.getLinks("Home").isEmpty());
+    }
+
+    private void create(final String pageID, final String content) {
+        pages.add(pageID);
+        linkIndexService.indexPage(pageID, content);
+    }
+}
@@ -1,18 +1,43 @@
 package com.proofpoint.wikisystem.service;
 
+import com.proofpoint.wikisystem.exceptions.AccessDeniedException;
+import com.proofpoint.wikisystem.exceptions.PageAlreadyExistsException;
+import com.proofpoint.wikisystem.exceptions.VersionConflictException;
 import com.proofpoint.wikisystem.model.AccessType;
+import com.proofpoint.wikisystem.model.ComponentType;
 import com.proofpoint.wikisystem.model.Page;
+import com.proofpoint.wikisystem.model.Team;
+import com.proofpoint.wikisystem.payload.ContentEditDto;
+import com.proofpoint.wikisystem.payload.PageSummaryDto;
+import com.proofpoint.wikisystem.payload.PageViewDto;
+import com.proofpoint.wikisystem.payload.PatchComponentDto;
+import com.proofpoint.wikisystem.repository.InMemoryPageRepository;
+import com.proofpoint.wikisystem.repository.PageRepository;
+import com.proofpoint.wikisystem.util.Action;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 import static com.proofpoint.wikisystem.util.TestConstants.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class PageServiceTest {
@@ -29,6 +54,30 @@ public class PageServiceTest {
     @Mock
     private TeamService teamService;
 
+    @Mock
+    private AttachmentService attachmentService;
+
+    @Mock
+    private ChangeEventService changeEventService;
+
+    @Mock
+    private AuditService auditService;
+
+    @Mock
+    private AclIndexService aclIndexService;
+
+    @Mock
+    private LinkIndexService linkIndexService;
+
+    @Mock
+    private HotKeyService hotKeyService;
+
+    @Spy
+    private VersionService versionService = new VersionService();
+
+    @Spy
+    private PageRepository pageRepository = new InMemoryPageRepository();
+
 
 
     @BeforeEach
@@ -68,6 +117,165 @@ public class PageServiceTest {
     }
 
 
+    @Test
+    public void testCreate_ExistingIdIsRefusedAndIndexKept() throws Exception {
+        final AclIndexService index = new AclIndexService();
+        ReflectionTestUtils.setField(pageService, "aclIndexService", index);
+        pageService.create(PAGE_ID, null, OWNER, PAGE_CONTENT, null);
+        final Page page = pageService.read(PAGE_ID);
+
+        assertThrows(PageAlreadyExistsException.class,
+                () -> pageService.create(PAGE_ID, null, ADDITIONAL_OWNER, "Replacement", null));
+        assertSame(page, pageService.read(PAGE_ID));
+        assertEquals(Collections.singleton(page.getComponentKey()), index.getOwnedComponents(OWNER));
+        assertTrue(index.getOwnedComponents(ADDITIONAL_OWNER).isEmpty());
+    }
+
+    @Test
+    public void testAccessPage_ThroughNestedTeam() throws Exception {
+        final Team parentTeam = Team.Builder.newInstance().withID("ParentTeam101").build();
+        when(userService.read(ADDITIONAL_USER_ID)).thenReturn(ADDITIONAL_OWNER);
+        pageService.create(PAGE_ID, null, OWNER, PAGE_CONTENT, null);
+        versionService.begin();
+        pageService.read(PAGE_ID).putGrant(parentTeam, AccessType.READ_ONLY);
+        versionService.touch(pageService.read(PAGE_ID));
+        versionService.commit();
+
+        assertNull(pageService.accessPage(PAGE_ID, ADDITIONAL_USER_ID, true));
+        // Member of a team nested in the team holding the grant
+        when(teamService.getEffectiveTeams(ADDITIONAL_OWNER)).thenReturn(new HashSet<>(Arrays.asList(TEAM, parentTeam)));
+        assertNotNull(pageService.accessPage(PAGE_ID, ADDITIONAL_USER_ID, true));
+    }
+
+    @Test
+    public void testAccessPage_AuditsEveryDecision() throws Exception {
+        when(userService.read(ADDITIONAL_USER_ID)).thenReturn(ADDITIONAL_OWNER);
+        pageService.create(PAGE_ID, null, OWNER, PAGE_CONTENT, null);
+        final String componentKey = pageService.read(PAGE_ID).getComponentKey();
+
+        assertNull(pageService.accessPage(PAGE_ID, ADDITIONAL_USER_ID, true));
+        assertNotNull(pageService.accessPage(PAGE_ID, USER_ID, true));
+
+        verify(auditService).recordDecision(Action.READ, componentKey, ADDITIONAL_USER_ID, false, false);
+        verify(auditService).recordDecision(Action.READ, componentKey, USER_ID, false, true);
+    }
+
+    @Test
+    public void testBreadcrumbs_FollowCreateMoveAndDelete() throws Exception {
+        pageService.create(PARENT_PAGE_ID, null, OWNER, PAGE_CONTENT, null);
+        pageService.create(PAGE_ID, PARENT_PAGE_ID, OWNER, PAGE_CONTENT, null);
+        pageService.create("Page102", PAGE_ID, OWNER, PAGE_CONTENT, null);
+        assertEquals(Arrays.asList(PARENT_PAGE_ID, PAGE_ID, "Page102"), pageService.getBreadcrumbs("Page102"));
+        assertTrue(pageService.isAncestor(PARENT_PAGE_ID, "Page102"));
+        assertFalse(pageService.isAncestor("Page102", PARENT_PAGE_ID));
+        assertThrows(Exception.class, () -> pageService.create(PARENT_PAGE_ID, "Page102", OWNER, PAGE_CONTENT, null));
+
+        // A replicated page that changed parent takes its subtree along
+        pageService.create("Page601", null, OWNER, PAGE_CONTENT, null);
+        pageService.applyReplica(PAGE_ID, "Page601", PARENT_PAGE_ID, OWNER, PAGE_CONTENT, Collections.emptyMap(),
+                Collections.emptyMap());
+        assertEquals(Arrays.asList("Page601", PAGE_ID, "Page102"), pageService.getBreadcrumbs("Page102"));
+        assertFalse(pageService.isAncestor(PARENT_PAGE_ID, "Page102"));
+
+        // Children of a page deleted on its own become roots
+        assertTrue(pageService.delete(PAGE_ID, USER_ID, true));
+        assertEquals(Collections.singletonList("Page102"), pageService.getBreadcrumbs("Page102"));
+        assertTrue(pageService.getBreadcrumbs(PAGE_ID).isEmpty());
+        assertFalse(pageService.isAncestor("Page601", "Page102"));
+    }
+
+    @Test
+    public void testBacklinks_OnlyReadableSources() throws Exception {
+        when(userService.read(ADDITIONAL_USER_ID)).thenReturn(ADDITIONAL_OWNER);
+        pageService.create(PAGE_ID, null, OWNER, "See [[" + PARENT_PAGE_ID + "]]", null);
+        pageService.create("Page102", null, ADDITIONAL_OWNER, "Also [[" + PARENT_PAGE_ID + "]]", null);
+        verify(linkIndexService).indexPage(PAGE_ID, "See [[" + PARENT_PAGE_ID + "]]");
+        when(linkIndexService.getBacklinks(PARENT_PAGE_ID)).thenReturn(new TreeSet<>(Arrays.asList(PAGE_ID, "Page102")));
+
+        assertEquals(Collections.singletonList("Page102"), pageService.getBacklinks(PARENT_PAGE_ID, ADDITIONAL_USER_ID, true));
+        assertEquals(Collections.singletonList(PAGE_ID), pageService.getBacklinks(PARENT_PAGE_ID, USER_ID, true));
+    }
+
+    @Test
+    public void testReadViews_ResolvesRequesterOnceAndFiltersUnreadable() throws Exception {
+        when(userService.read(ADDITIONAL_USER_ID)).thenReturn(ADDITIONAL_OWNER);
+        when(userService.read(PARENT_USER_ID)).thenReturn(PARENT_OWNER);
+        pageService.create(PARENT_PAGE_ID, null, PARENT_OWNER, PAGE_CONTENT, null);
+        pageService.create(PAGE_ID, PARENT_PAGE_ID, OWNER, PAGE_CONTENT, null);
+        pageService.create("Page102", PARENT_PAGE_ID, ADDITIONAL_OWNER, PAGE_CONTENT, null);
+        clearInvocations(userService);
+
+        final List<PageViewDto> views = new ArrayList<>();
+        pageService.readViews(Arrays.asList(PARENT_PAGE_ID, "Page102", "Missing"), ADDITIONAL_USER_ID, true, views::add);
+        verify(userService, times(1)).read(ADDITIONAL_USER_ID);
+        assertEquals(3, views.size());
+        assertFalse(views.get(0).isFound());
+        assertNull(views.get(0).getContent());
+        assertTrue(views.get(1).isFound());
+        assertEquals(PAGE_CONTENT, views.get(1).getContent());
+        assertEquals(ADDITIONAL_USER_ID, views.get(1).getOwner().getUserId());
+        assertEquals(Arrays.asList(PARENT_PAGE_ID, "Page102"), views.get(1).getBreadcrumb());
+        assertTrue(views.get(1).getChildren().isEmpty());
+        assertFalse(views.get(2).isFound());
+        verify(hotKeyService, never()).recordRead(ComponentType.PAGE.keyOf(PARENT_PAGE_ID));
+        verify(hotKeyService).recordRead(ComponentType.PAGE.keyOf("Page102"));
+
+        final PageViewDto parent = pageService.readView(PARENT_PAGE_ID, PARENT_USER_ID, true);
+        assertEquals(new HashSet<>(Arrays.asList(PAGE_ID, "Page102")),
+                parent.getChildren().stream().map(PageSummaryDto::getPageId).collect(Collectors.toSet()));
+        assertNull(pageService.readView(PAGE_ID, ADDITIONAL_USER_ID, true));
+    }
+
+    @Test
+    public void testPatch_AppliesEditsAgainstBaseVersion() throws Exception {
+        pageService.create(PAGE_ID, null, OWNER, "Hello wrold\nSee [[Old]] here", null);
+        clearInvocations(linkIndexService);
+        final long base;
+        try (VersionService.Snapshot snapshot = versionService.pin()) {
+            base = versionService.readPage(snapshot, PAGE_ID).getVersion();
+        }
+
+        final long patched = pageService.patch(PAGE_ID, patchOf(base, edit(6, 5, "world"), edit(11, 0, "!")));
+        assertEquals("Hello world!\nSee [[Old]] here", pageService.read(PAGE_ID).getContent());
+        verify(linkIndexService, never()).indexPage(any(), any());
+        try (VersionService.Snapshot snapshot = versionService.pin()) {
+            assertEquals(patched, versionService.readPage(snapshot, PAGE_ID).getVersion());
+        }
+
+        final VersionConflictException conflict = assertThrows(VersionConflictException.class,
+                () -> pageService.patch(PAGE_ID, patchOf(base, edit(0, 0, "x"))));
+        assertEquals(patched, conflict.getCurrentVersion());
+        assertThrows(IllegalArgumentException.class,
+                () -> pageService.patch(PAGE_ID, patchOf(patched, edit(0, 0, "x"), edit(30, 5, ""))));
+        assertEquals("Hello world!\nSee [[Old]] here", pageService.read(PAGE_ID).getContent());
+
+        final long relinked = pageService.patch(PAGE_ID, patchOf(patched, edit(19, 3, "New")));
+        verify(linkIndexService).indexPage(PAGE_ID, "Hello world!\nSee [[New]] here");
+        assertThrows(IllegalArgumentException.class, () -> pageService.patch(PAGE_ID, patchOf(0, edit(0, 0, "x"))));
+        assertThrows(AccessDeniedException.class, () -> {
+            final PatchComponentDto other = patchOf(relinked, edit(0, 0, "x"));
+            other.setRequesterId(ADDITIONAL_USER_ID);
+            pageService.patch(PAGE_ID, other);
+        });
+    }
+
+    private static PatchComponentDto patchOf(final long baseVersion, final ContentEditDto... edits) {
+        final PatchComponentDto patch = new PatchComponentDto();
+        patch.setRequesterId(USER_ID);
+        patch.setIsIndividualUser("true");
+        patch.setBaseVersion(baseVersion);
+        patch.setEdits(Arrays.asList(edits));
+        return patch;
+    }
+
+    private static ContentEditDto edit(final int offset, final int deleteLength, final String text) {
+        final ContentEditDto edit = new ContentEditDto();
+        edit.setOffset(offset);
+        edit.setDeleteLength(deleteLength);
+        edit.setText(text);
+        return edit;
+    }
+
     @Test
     public void testCreate_FailureCase() throws Exception {
         when(userService.read(USER_ID)).thenReturn(OWNER);
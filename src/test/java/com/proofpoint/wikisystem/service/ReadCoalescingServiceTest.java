@@ -0,0 +1,99 @@
+package com.proofpoint.wikisystem.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.proofpoint.wikisystem.model.Page;
+import com.proofpoint.wikisystem.util.SingleFlight;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.proofpoint.wikisystem.util.TestConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReadCoalescingServiceTest {
+
+    private ReadCoalescingService readCoalescingService;
+
+    @BeforeEach
+    void setup() {
+        readCoalescingService = new ReadCoalescingService();
+        ReflectionTestUtils.setField(readCoalescingService, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(readCoalescingService, "cacheMaxBytes", 1024L * 1024L);
+        readCoalescingService.init();
+    }
+
+    private Page page(final String content, final long version) {
+        final Page page = Page.Builder.newInstance().withPageID(PAGE_ID).withOwner(OWNER).withContent(content).build();
+        page.setVersion(version);
+        return page;
+    }
+
+    @Test
+    final void testToJson_SameVersionSharesBody() {
+        final byte[] first = readCoalescingService.toJson(page(PAGE_CONTENT, 3));
+        final byte[] second = readCoalescingService.toJson(page(PAGE_CONTENT, 3));
+        final byte[] edited = readCoalescingService.toJson(page("Edited", 4));
+
+        assertSame(first, second);
+        assertTrue(new String(edited).contains("Edited"));
+        assertEquals(2, readCoalescingService.getStatus().getSerializations());
+        assertEquals(1, readCoalescingService.getStatus().getShared());
+        assertFalse(new String(first).contains("version"));
+    }
+
+    @Test
+    final void testToJson_LiveComponentIsNotShared() {
+        readCoalescingService.toJson(page(PAGE_CONTENT, 0));
+        readCoalescingService.toJson(page(PAGE_CONTENT, 0));
+
+        assertEquals(0, readCoalescingService.getStatus().getShared());
+        assertEquals(0, readCoalescingService.getStatus().getCachedBytes());
+    }
+
+    @Test
+    final void testSingleFlight_ConcurrentCallersShareOneLoad() throws Exception {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final Future<String> leader = executor.submit(() -> singleFlight.execute(PAGE_ID, () -> {
+                loads.incrementAndGet();
+                loading.countDown();
+                awaitQuietly(release);
+                return PAGE_CONTENT;
+            }));
+            loading.await(5, TimeUnit.SECONDS);
+            final Future<String> follower = executor.submit(() -> singleFlight.execute(PAGE_ID, () -> {
+                loads.incrementAndGet();
+                return "second load";
+            }));
+            while (singleFlight.getCoalesced() == 0) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            assertEquals(PAGE_CONTENT, leader.get(5, TimeUnit.SECONDS));
+            assertEquals(PAGE_CONTENT, follower.get(5, TimeUnit.SECONDS));
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void awaitQuietly(final CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
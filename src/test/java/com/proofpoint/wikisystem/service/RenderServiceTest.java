@@ -0,0 +1,96 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.model.Page;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.proofpoint.wikisystem.util.TestConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+public class RenderServiceTest {
+
+    @InjectMocks
+    private RenderService renderService;
+
+    @Mock
+    private PageService pageService;
+
+    @Spy
+    private VersionService versionService = new VersionService();
+
+    /*
+    Pages USER_ID may read
+     */
+    private final Set<String> readable = new HashSet<>();
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.initMocks(this);
+        ReflectionTestUtils.setField(renderService, "cacheMaxBytes", 1024L * 1024L);
+        renderService.init();
+        when(pageService.readerIn(any(), eq(USER_ID), eq(true))).thenReturn(readable::contains);
+        when(pageService.readerIn(any(), eq(ADDITIONAL_USER_ID), eq(true))).thenReturn(pageID -> false);
+    }
+
+    private String render(final Page page) {
+        return renderService.render(page, USER_ID, true);
+    }
+
+    private Page page(final String content) {
+        return Page.Builder.newInstance().withPageID(PAGE_ID).withOwner(OWNER).withContent(content).build();
+    }
+
+    @Test
+    final void testRender_MarkupAndLinks() {
+        readable.add(PARENT_PAGE_ID);
+
+        final String html = render(page("# Title\n\nSee [[" + PARENT_PAGE_ID + "|parent]] and [[Missing]] <b>\n\n- one\n- **two**"));
+
+        assertTrue(html.contains("<h1>Title</h1>"));
+        assertTrue(html.contains("<a href=\"/wikisystem/page/render?pageId=Page501\" class=\"wiki-link\">parent</a>"));
+        assertTrue(html.contains("class=\"wiki-link missing\">Missing</a>"));
+        assertTrue(html.contains("&lt;b&gt;"));
+        assertTrue(html.contains("<ul>\n<li>one</li>\n<li><strong>two</strong></li>\n</ul>"));
+    }
+
+    @Test
+    final void testRender_OnlyChangedBlockIsRerendered() {
+        render(page("First paragraph\n\nSecond paragraph"));
+        assertEquals(2, renderService.getBlockCache().getMisses());
+
+        render(page("First paragraph\n\nSecond paragraph, edited"));
+        assertEquals(3, renderService.getBlockCache().getMisses());
+        assertEquals(1, renderService.getBlockCache().getHits());
+    }
+
+    @Test
+    final void testRender_LinkTargetCreationInvalidatesBlock() {
+        final Page page = page("Go to [[" + PARENT_PAGE_ID + "]]");
+        assertTrue(render(page).contains("missing"));
+
+        readable.add(PARENT_PAGE_ID);
+        assertFalse(render(page).contains("missing"));
+    }
+
+    @Test
+    final void testRender_UnreadableLinkTargetLooksMissing() {
+        readable.add(PARENT_PAGE_ID);
+        final Page page = page("Go to [[" + PARENT_PAGE_ID + "]]");
+
+        assertFalse(render(page).contains("missing"));
+        assertTrue(renderService.render(page, ADDITIONAL_USER_ID, true).contains("missing"));
+        assertEquals(2, renderService.getBlockCache().getMisses());
+        assertFalse(render(page).contains("missing"));
+    }
+}
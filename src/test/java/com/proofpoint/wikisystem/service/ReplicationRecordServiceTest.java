@@ -0,0 +1,155 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.model.AccessType;
+import com.proofpoint.wikisystem.model.ChangeEvent;
+import com.proofpoint.wikisystem.model.Collaborator;
+import com.proofpoint.wikisystem.model.EventType;
+import com.proofpoint.wikisystem.model.Page;
+import com.proofpoint.wikisystem.model.ReplicationRecordType;
+import com.proofpoint.wikisystem.payload.ReplicationRecordDto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.proofpoint.wikisystem.util.TestConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReplicationRecordServiceTest {
+
+    private static final String CHILD_PAGE_ID = "Page102";
+
+    @InjectMocks
+    private ReplicationRecordService replicationRecordService;
+
+    @Mock
+    private UserService userService;
+
+    @Mock
+    private TeamService teamService;
+
+    @Mock
+    private PageService pageService;
+
+    @Mock
+    private AttachmentService attachmentService;
+
+    @Spy
+    private VersionService versionService = new VersionService();
+
+    private Page parent;
+    private Page child;
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.initMocks(this);
+        parent = Page.Builder.newInstance().withPageID(PARENT_PAGE_ID).withOwner(PARENT_OWNER).withContent(PAGE_CONTENT).build();
+        parent.putGrant(OWNER, AccessType.READ_ONLY);
+        parent.putGrant(TEAM, AccessType.READ_WRITE);
+        child = Page.Builder.newInstance().withPageID(CHILD_PAGE_ID).withParentPageID(PARENT_PAGE_ID).withOwner(PARENT_OWNER).build();
+        // Records are read from published versions, never from the live pages
+        versionService.begin();
+        versionService.touch(parent);
+        versionService.touch(child);
+        versionService.commit();
+        when(userService.read(USER_ID)).thenReturn(OWNER);
+        when(userService.read(PARENT_USER_ID)).thenReturn(PARENT_OWNER);
+        when(teamService.read(TEAM_ID)).thenReturn(TEAM);
+    }
+
+    private ChangeEvent event(final EventType type, final String entityId) {
+        return ChangeEvent.Builder.newInstance().withSequence(7).withType(type).withEntityId(entityId).build();
+    }
+
+    @Test
+    final void testRecordsFor_PageCarriesStateAndGrants() {
+        final List<ReplicationRecordDto> records = replicationRecordService.recordsFor(event(EventType.PAGE_UPDATED, PARENT_PAGE_ID));
+
+        assertEquals(1, records.size());
+        final ReplicationRecordDto record = records.get(0);
+        assertEquals(ReplicationRecordType.PAGE, record.getType());
+        assertEquals(7, record.getSequence());
+        assertEquals(PAGE_CONTENT, record.getContent());
+        assertEquals(PARENT_USER_ID, record.getOwnerId());
+        assertEquals(Collections.singletonList(USER_ID), record.getUserGrants().get(AccessType.READ_ONLY));
+        assertEquals(Collections.singletonList(TEAM_ID), record.getTeamGrants().get(AccessType.READ_WRITE));
+    }
+
+    @Test
+    final void testRecordsFor_DeletedEntityIsTombstone() {
+        final List<ReplicationRecordDto> records = replicationRecordService.recordsFor(event(EventType.USER_DELETED, ADDITIONAL_USER_ID));
+
+        assertEquals(1, records.size());
+        assertEquals(ReplicationRecordType.USER, records.get(0).getType());
+        assertTrue(records.get(0).isDeleted());
+    }
+
+    @Test
+    final void testRecordsFor_PageAccessChangeShipsSubtree() {
+        final ChangeEvent event = ChangeEvent.Builder.newInstance().withSequence(9).withType(EventType.ACCESS_REVOKED)
+                .withEntityId(PARENT_PAGE_ID).withDetail("isPage", "true").build();
+
+        final List<ReplicationRecordDto> records = replicationRecordService.recordsFor(event);
+
+        assertEquals(2, records.size());
+        assertEquals(PARENT_PAGE_ID, records.get(0).getId());
+        assertEquals(CHILD_PAGE_ID, records.get(1).getId());
+        assertEquals(PARENT_PAGE_ID, records.get(1).getPageId());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    final void testApply_PageResolvesCollaborators() {
+        final ReplicationRecordDto record = replicationRecordService.recordsFor(event(EventType.PAGE_CREATED, PARENT_PAGE_ID)).get(0);
+
+        replicationRecordService.apply(record);
+
+        final ArgumentCaptor<Map<AccessType, List<Collaborator>>> accessMap = ArgumentCaptor.forClass(Map.class);
+        verify(pageService).applyReplica(eq(PARENT_PAGE_ID), eq(null), eq(PARENT_PAGE_ID), eq(PARENT_OWNER), eq(PAGE_CONTENT), accessMap.capture(),
+                any());
+        assertEquals(Collections.singletonList(OWNER), accessMap.getValue().get(AccessType.READ_ONLY));
+        assertEquals(Collections.singletonList(TEAM), accessMap.getValue().get(AccessType.READ_WRITE));
+        assertTrue(accessMap.getValue().get(AccessType.NO_ACCESS).isEmpty());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    final void testApply_ArchivedPageRestoresInheritors() {
+        final ReplicationRecordDto record = replicationRecordService.pageRecord(parent,
+                Collections.singletonMap(TEAM, Collections.singleton("PAGE:" + CHILD_PAGE_ID)));
+        assertEquals(Collections.singletonList("PAGE:" + CHILD_PAGE_ID), record.getTeamInheritors().get(TEAM_ID));
+        when(pageService.applyReplica(any(), any(), any(), any(), any(), any(), any())).thenReturn(parent);
+
+        replicationRecordService.apply(record);
+
+        final ArgumentCaptor<Map<Collaborator, Set<String>>> edges = ArgumentCaptor.forClass(Map.class);
+        verify(pageService).applyInheritors(eq(parent), edges.capture());
+        assertEquals(Collections.singleton("PAGE:" + CHILD_PAGE_ID), edges.getValue().get(TEAM));
+    }
+
+    @Test
+    final void testApply_Tombstone() {
+        final ReplicationRecordDto record = new ReplicationRecordDto();
+        record.setType(ReplicationRecordType.ATTACHMENT);
+        record.setId(PAGE_ID + "/" + FILE_NAME);
+        record.setDeleted(true);
+
+        replicationRecordService.apply(record);
+
+        verify(attachmentService).removeReplica(PAGE_ID + "/" + FILE_NAME);
+        verify(attachmentService, never()).applyReplica(any(), any(), any(), any(), any(), any());
+    }
+}
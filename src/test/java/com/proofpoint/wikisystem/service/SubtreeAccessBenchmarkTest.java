@@ -0,0 +1,99 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.model.AccessType;
+import com.proofpoint.wikisystem.model.Collaborator;
+import com.proofpoint.wikisystem.model.Component;
+import com.proofpoint.wikisystem.model.Page;
+import com.proofpoint.wikisystem.model.Team;
+import com.proofpoint.wikisystem.model.User;
+import com.proofpoint.wikisystem.repository.InMemoryPageRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Subtree grant and revoke over a large in-memory tree. Run with {@code mvn test -Dbenchmark=true
+ * -Dtest=SubtreeAccessBenchmarkTest}; the size can be changed with -Dbenchmark.pages and -Dbenchmark.fanout.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class SubtreeAccessBenchmarkTest {
+
+    private static final int PAGES = Integer.getInteger("benchmark.pages", 500_000);
+    private static final int FANOUT = Integer.getInteger("benchmark.fanout", 10);
+
+    @Test
+    final void testSubtreeGrantAndRevoke() {
+        final InMemoryPageRepository pageRepository = new InMemoryPageRepository();
+        final VersionService versionService = new VersionService();
+        final User owner = User.Builder.newInstance().withID("owner").build();
+        final Team team = Team.Builder.newInstance().withID("docs").build();
+        versionService.begin();
+        try {
+            for (int i = 0; i < PAGES; i++) {
+                final Page page = Page.Builder.newInstance().withPageID("page" + i)
+                        .withParentPageID(i == 0 ? null : "page" + (i - 1) / FANOUT).withRootPageID("page0")
+                        .withOwner(owner).build();
+                pageRepository.save(page);
+                versionService.touch(page);
+            }
+        } finally {
+            versionService.commit();
+        }
+
+        final PageService pageService = new PageService() {
+            @Override
+            public Page read(final String pageID) {
+                return pageRepository.findById(pageID);
+            }
+
+            @Override
+            public Set<String> getChildren(final String pageID) {
+                return pageRepository.findChildIds(pageID);
+            }
+        };
+        final AccessService accessService = new AccessService() {
+            @Override
+            void persist(final Component component) {
+                versionService.touch(component);
+                pageRepository.save((Page) component);
+            }
+
+            @Override
+            void detachFromParent(final Component component, final Collaborator collaborator) {
+            }
+        };
+        final SubtreeAccessService subtreeAccessService = new SubtreeAccessService();
+        ReflectionTestUtils.setField(subtreeAccessService, "accessService", accessService);
+        ReflectionTestUtils.setField(subtreeAccessService, "pageService", pageService);
+        ReflectionTestUtils.setField(subtreeAccessService, "aclIndexService", new AclIndexService());
+        ReflectionTestUtils.setField(subtreeAccessService, "changeEventService", mock(ChangeEventService.class));
+        ReflectionTestUtils.setField(subtreeAccessService, "versionService", versionService);
+        // Never opened, so recording is a no-op
+        ReflectionTestUtils.setField(subtreeAccessService, "auditService", new AuditService());
+        ReflectionTestUtils.setField(subtreeAccessService, "retainedOperations", 10);
+        subtreeAccessService.init();
+        try {
+            final Page root = pageRepository.findById("page0");
+            long start = System.nanoTime();
+            assertEquals(PAGES, subtreeAccessService.apply(root, team, AccessType.READ_ONLY, null));
+            report("grant", start);
+            assertEquals(AccessType.READ_ONLY, pageRepository.findById("page" + (PAGES - 1)).getAccessType(team));
+
+            start = System.nanoTime();
+            assertEquals(PAGES, subtreeAccessService.apply(root, team, null, null));
+            report("revoke", start);
+        } finally {
+            subtreeAccessService.shutdown();
+        }
+    }
+
+    private void report(final String operation, final long start) {
+        final double millis = (System.nanoTime() - start) / 1_000_000.0;
+        System.out.printf("subtree %-8s %8d pages %10.1f ms %12.0f pages/s%n", operation, PAGES, millis, PAGES / (millis / 1000));
+    }
+}
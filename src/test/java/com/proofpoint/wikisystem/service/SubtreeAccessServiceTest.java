@@ -0,0 +1,171 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.model.AccessType;
+import com.proofpoint.wikisystem.model.Attachment;
+import com.proofpoint.wikisystem.model.OperationState;
+import com.proofpoint.wikisystem.model.Page;
+import com.proofpoint.wikisystem.payload.SubtreeAccessDto;
+import com.proofpoint.wikisystem.payload.SubtreeOperationDto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static com.proofpoint.wikisystem.util.TestConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class SubtreeAccessServiceTest {
+
+    private static final int FANOUT = 4;
+    private static final int DEPTH = 3;
+
+    @InjectMocks
+    private SubtreeAccessService subtreeAccessService;
+
+    @Mock
+    private AccessService accessService;
+
+    @Mock
+    private PageService pageService;
+
+    @Mock
+    private UserService userService;
+
+    @Mock
+    private TeamService teamService;
+
+    @Mock
+    private ChangeEventService changeEventService;
+
+    @Mock
+    private AuditService auditService;
+
+    @Spy
+    private AclIndexService aclIndexService = new AclIndexService();
+
+    @Spy
+    private VersionService versionService = new VersionService();
+
+    private final Map<String, Page> pages = new HashMap<>();
+    private final Map<String, Set<String>> children = new HashMap<>();
+    private Page root;
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.initMocks(this);
+        ReflectionTestUtils.setField(subtreeAccessService, "parallelism", 4);
+        ReflectionTestUtils.setField(subtreeAccessService, "retainedOperations", 10);
+        subtreeAccessService.init();
+
+        root = addPage(PARENT_PAGE_ID, null);
+        addChildren(root, 1);
+        when(pageService.read(anyString())).thenAnswer(invocation -> pages.get(invocation.<String>getArgument(0)));
+        when(pageService.getChildren(anyString())).thenAnswer(
+                invocation -> children.getOrDefault(invocation.<String>getArgument(0), new LinkedHashSet<>()));
+        when(userService.read(USER_ID)).thenReturn(OWNER);
+        doAnswer(invocation -> {
+            versionService.touch(invocation.getArgument(0));
+            return null;
+        }).when(accessService).persist(any());
+    }
+
+    @AfterEach
+    void teardown() {
+        subtreeAccessService.shutdown();
+    }
+
+    @Test
+    final void testGrant_ReachesEveryPageAndAttachmentInOneCommit() {
+        final Page leaf = pages.get(PARENT_PAGE_ID + "-1-1-1");
+        leaf.putGrant(OWNER, AccessType.READ_WRITE);
+        leaf.setExpiry(OWNER, System.currentTimeMillis() + 60_000);
+        final long epoch = versionService.getEpoch();
+
+        // 85 pages with one attachment each
+        assertEquals(170, subtreeAccessService.apply(root, OWNER, AccessType.READ_ONLY, USER_ID));
+
+        assertEquals(epoch + 1, versionService.getEpoch());
+        for (Page page : pages.values()) {
+            assertEquals(AccessType.READ_ONLY, page.getAccessType(OWNER));
+            assertEquals(AccessType.READ_ONLY, page.getAttachments().get(0).getAccessType(OWNER));
+            assertTrue(page.getInheritors(OWNER).contains(page.getAttachments().get(0).getComponentKey()));
+            for (String childPageID : children.getOrDefault(page.getPageID(), new LinkedHashSet<>())) {
+                assertTrue(page.getInheritors(OWNER).contains(pages.get(childPageID).getComponentKey()));
+            }
+        }
+        assertNull(leaf.getExpiry(OWNER));
+        assertEquals(170, aclIndexService.getGrants(OWNER).size());
+        verify(accessService, times(170)).persist(any());
+        verify(accessService).detachFromParent(root, OWNER);
+    }
+
+    @Test
+    final void testRevoke_RemovesGrantsAndInheritanceEdges() {
+        subtreeAccessService.apply(root, OWNER, AccessType.READ_ONLY, USER_ID);
+
+        assertEquals(170, subtreeAccessService.apply(root, OWNER, null, USER_ID));
+
+        for (Page page : pages.values()) {
+            assertNull(page.getAccessType(OWNER));
+            assertNull(page.getAttachments().get(0).getAccessType(OWNER));
+            assertTrue(page.getInheritors(OWNER).isEmpty());
+        }
+        assertTrue(aclIndexService.getGrants(OWNER).isEmpty());
+        assertEquals(0, subtreeAccessService.apply(root, OWNER, null, USER_ID));
+    }
+
+    @Test
+    final void testGrant_ReportsProgressUntilCompleted() throws InterruptedException {
+        final SubtreeAccessDto subtreeAccessDto = new SubtreeAccessDto();
+        subtreeAccessDto.setRootPageId(PARENT_PAGE_ID);
+        subtreeAccessDto.setCollaboratorId(USER_ID);
+        subtreeAccessDto.setIndividualUser(true);
+        subtreeAccessDto.setAccessType("READ_WRITE");
+
+        final SubtreeOperationDto queued = subtreeAccessService.grant(subtreeAccessDto);
+        SubtreeOperationDto operation = subtreeAccessService.getOperation(queued.getOperationId());
+        for (int i = 0; i < 100 && operation.getState() != OperationState.COMPLETED; i++) {
+            Thread.sleep(20);
+            operation = subtreeAccessService.getOperation(queued.getOperationId());
+        }
+
+        assertEquals(OperationState.COMPLETED, operation.getState());
+        assertEquals(85, operation.getPagesVisited());
+        assertEquals(170, operation.getComponentsChanged());
+        assertNotNull(operation.getFinishedAt());
+        assertNull(subtreeAccessService.getOperation("unknown"));
+    }
+
+    private void addChildren(final Page parent, final int level) {
+        if (level > DEPTH) {
+            return;
+        }
+        for (int i = 1; i <= FANOUT; i++) {
+            addChildren(addPage(parent.getPageID() + "-" + i, parent.getPageID()), level + 1);
+        }
+    }
+
+    private Page addPage(final String pageID, final String parentPageID) {
+        final Page page = Page.Builder.newInstance().withPageID(pageID).withParentPageID(parentPageID)
+                .withOwner(PARENT_OWNER).build();
+        page.addAttachment(Attachment.Builder.newInstance().withPageID(pageID).withFilename(FILE_NAME)
+                .withOwner(PARENT_OWNER).build());
+        pages.put(pageID, page);
+        if (parentPageID != null) {
+            children.computeIfAbsent(parentPageID, key -> new LinkedHashSet<>()).add(pageID);
+        }
+        return page;
+    }
+}
@@ -0,0 +1,106 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.exceptions.AccessDeniedException;
+import com.proofpoint.wikisystem.model.EventType;
+import com.proofpoint.wikisystem.model.Page;
+import com.proofpoint.wikisystem.repository.InMemoryUserRepository;
+import com.proofpoint.wikisystem.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static com.proofpoint.wikisystem.util.TestConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class UserServiceTest {
+
+    @InjectMocks
+    private UserService userService;
+
+    @Spy
+    private UserRepository userRepository = new InMemoryUserRepository();
+
+    @Spy
+    private VersionService versionService = new VersionService();
+
+    @Spy
+    private AclIndexService aclIndexService = new AclIndexService();
+
+    @Spy
+    private AccessService accessService = new AccessService();
+
+    @Mock
+    private TeamService teamService;
+
+    @Mock
+    private ChangeEventService changeEventService;
+
+    @Mock
+    private PageService pageService;
+
+    @Mock
+    private AuditService auditService;
+
+    private Page page;
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.initMocks(this);
+        ReflectionTestUtils.setField(accessService, "aclIndexService", aclIndexService);
+        ReflectionTestUtils.setField(accessService, "versionService", versionService);
+        ReflectionTestUtils.setField(accessService, "pageService", pageService);
+        ReflectionTestUtils.setField(accessService, "teamService", teamService);
+        ReflectionTestUtils.setField(accessService, "auditService", auditService);
+        ReflectionTestUtils.setField(accessService, "changeEventService", changeEventService);
+
+        userRepository.save(OWNER);
+        userRepository.save(PARENT_OWNER);
+        userRepository.save(ADDITIONAL_OWNER);
+        page = Page.Builder.newInstance().withPageID(PAGE_ID).withOwner(PARENT_OWNER).build();
+        aclIndexService.indexComponent(page);
+        when(pageService.read(PAGE_ID)).thenReturn(page);
+    }
+
+    @Test
+    final void testDelete_TransfersOwnedComponentsInTheSameWrite() {
+        final long epoch = versionService.getEpoch();
+
+        assertTrue(userService.delete(PARENT_USER_ID, USER_ID, PARENT_USER_ID));
+
+        // One commit for the transfer and the deletion together
+        assertEquals(epoch + 1, versionService.getEpoch());
+        try (VersionService.Snapshot snapshot = versionService.pin()) {
+            assertTrue(versionService.readPage(snapshot, PAGE_ID).isOwnedBy(USER_ID));
+        }
+        assertNull(userRepository.findById(PARENT_USER_ID));
+        assertTrue(aclIndexService.getOwnedComponents(PARENT_OWNER).isEmpty());
+        assertTrue(aclIndexService.getOwnedComponents(OWNER).contains(page.getComponentKey()));
+        verify(auditService).recordOwnerChange(page, PARENT_USER_ID, OWNER);
+        verify(changeEventService).publish(EventType.PAGE_UPDATED, PAGE_ID, PARENT_USER_ID);
+        verify(changeEventService).publish(EventType.USER_DELETED, PARENT_USER_ID, PARENT_USER_ID);
+    }
+
+    @Test
+    final void testDelete_RefusesToOrphanOrHandOverWithoutAuthority() {
+        // Owns a page, so it needs someone to hand it to
+        assertThrows(IllegalArgumentException.class, () -> userService.delete(PARENT_USER_ID, null, PARENT_USER_ID));
+        assertThrows(IllegalArgumentException.class,
+                () -> userService.delete(PARENT_USER_ID, PARENT_USER_ID, PARENT_USER_ID));
+        // Neither the user nor an admin
+        assertThrows(AccessDeniedException.class,
+                () -> userService.delete(PARENT_USER_ID, ADDITIONAL_USER_ID, ADDITIONAL_USER_ID));
+
+        assertSame(PARENT_OWNER, userRepository.findById(PARENT_USER_ID));
+        assertTrue(page.isOwnedBy(PARENT_USER_ID));
+        verify(changeEventService, never()).publish(eq(EventType.USER_DELETED), any(), any());
+
+        // Users owning nothing need no new owner
+        assertTrue(userService.delete(ADDITIONAL_USER_ID, null, null));
+        assertNull(userRepository.findById(ADDITIONAL_USER_ID));
+    }
+}
@@ -0,0 +1,123 @@
+package com.proofpoint.wikisystem.service;
+
+import com.proofpoint.wikisystem.model.AccessType;
+import com.proofpoint.wikisystem.model.Attachment;
+import com.proofpoint.wikisystem.model.Component;
+import com.proofpoint.wikisystem.model.Page;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static com.proofpoint.wikisystem.util.TestConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VersionServiceTest {
+
+    private VersionService versionService;
+    private Page page;
+
+    @BeforeEach
+    void setup() {
+        versionService = new VersionService();
+        page = Page.Builder.newInstance().withPageID(PAGE_ID).withOwner(OWNER).withContent(PAGE_CONTENT).build();
+        write(page);
+    }
+
+    @Test
+    final void testPinnedSnapshotDoesNotSeeLaterCommits() {
+        try (VersionService.Snapshot before = versionService.pin()) {
+            page.setContent("Edited");
+            page.putGrant(TEAM, AccessType.READ_WRITE);
+            write(page);
+
+            final Page old = versionService.readPage(before, PAGE_ID);
+            assertEquals(PAGE_CONTENT, old.getContent());
+            assertNull(old.getAccessType(TEAM));
+            try (VersionService.Snapshot after = versionService.pin()) {
+                assertEquals("Edited", versionService.readPage(after, PAGE_ID).getContent());
+                assertEquals(AccessType.READ_WRITE, versionService.readPage(after, PAGE_ID).getAccessType(TEAM));
+            }
+        }
+    }
+
+    @Test
+    final void testOldVersionsReclaimedOnceUnpinned() {
+        final VersionService.Snapshot snapshot = versionService.pin();
+        page.setContent("Edited");
+        write(page);
+        assertEquals(1, versionService.getRetainedVersionCount());
+
+        snapshot.close();
+        assertEquals(0, versionService.getPinnedCount());
+        assertEquals(0, versionService.getRetainedVersionCount());
+    }
+
+    @Test
+    final void testRemovedComponentStaysVisibleToOlderSnapshot() {
+        try (VersionService.Snapshot before = versionService.pin()) {
+            versionService.begin();
+            versionService.remove(page);
+            versionService.commit();
+
+            assertNotNull(versionService.readPage(before, PAGE_ID));
+            try (VersionService.Snapshot after = versionService.pin()) {
+                assertNull(versionService.readPage(after, PAGE_ID));
+                assertTrue(versionService.listPages(after).isEmpty());
+            }
+        }
+        assertEquals(0, versionService.getRetainedVersionCount());
+    }
+
+    @Test
+    final void testAttachmentAndItsPageCommitTogether() {
+        final Attachment attachment = Attachment.Builder.newInstance().withPageID(PAGE_ID).withFilename(FILE_NAME)
+                .withContents(FILE_CONTENT).withOwner(OWNER).build();
+        try (VersionService.Snapshot before = versionService.pin()) {
+            write(attachment);
+
+            assertTrue(versionService.listAttachments(before, PAGE_ID).isEmpty());
+            assertNull(versionService.readPage(before, PAGE_ID).getAttachments());
+            try (VersionService.Snapshot after = versionService.pin()) {
+                assertEquals(1, versionService.listAttachments(after, PAGE_ID).size());
+                assertEquals(FILE_CONTENT, versionService.readPage(after, PAGE_ID).getAttachments().get(0).getContents());
+                assertEquals(FILE_CONTENT, versionService.readAttachment(after, attachment.getComponentId()).getContents());
+            }
+        }
+    }
+
+    @Test
+    final void testChangesOutsideWriteAreRejected() {
+        assertThrows(IllegalStateException.class, () -> versionService.touch(page));
+        assertThrows(IllegalStateException.class, () -> versionService.commit());
+    }
+
+    @Test
+    final void testChildrenAndPathFollowTheSnapshot() {
+        final Page parent = Page.Builder.newInstance().withPageID(PARENT_PAGE_ID).withOwner(OWNER).build();
+        page.setParentPageID(PARENT_PAGE_ID);
+        versionService.begin();
+        versionService.touch(parent);
+        versionService.touch(page);
+        versionService.commit();
+
+        try (VersionService.Snapshot before = versionService.pin()) {
+            page.setParentPageID(null);
+            write(page);
+
+            assertEquals(Collections.singleton(PAGE_ID), versionService.listChildren(before, PARENT_PAGE_ID));
+            assertEquals(Arrays.asList(PARENT_PAGE_ID, PAGE_ID), versionService.getPath(before, PAGE_ID));
+            try (VersionService.Snapshot after = versionService.pin()) {
+                assertTrue(versionService.listChildren(after, PARENT_PAGE_ID).isEmpty());
+                assertEquals(Collections.singletonList(PAGE_ID), versionService.getPath(after, PAGE_ID));
+            }
+        }
+    }
+
+    private void write(final Component component) {
+        versionService.begin();
+        versionService.touch(component);
+        versionService.commit();
+    }
+}
@@ -0,0 +1,83 @@
+package com.proofpoint.wikisystem.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GzipBlocksTest {
+
+    @Test
+    final void testReadBlock_ReturnsBlocksInOrder() throws IOException {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        archive.write(GzipBlocks.compress(bytes("first\n"), 6, -1, deflater));
+        archive.write(GzipBlocks.compress(new byte[0], 0, 3, deflater));
+        final byte[] random = new byte[100_000];
+        new Random(7).nextBytes(random);
+        archive.write(GzipBlocks.compress(random, random.length, 12, deflater));
+        deflater.end();
+
+        final InputStream in = new ByteArrayInputStream(archive.toByteArray());
+        final GzipBlocks.Block first = GzipBlocks.readBlock(in);
+        assertEquals(-1, first.getPartition());
+        assertArrayEquals(bytes("first\n"), first.inflate());
+        final GzipBlocks.Block empty = GzipBlocks.readBlock(in);
+        assertEquals(3, empty.getPartition());
+        assertEquals(0, empty.inflate().length);
+        final GzipBlocks.Block last = GzipBlocks.readBlock(in);
+        assertEquals(12, last.getPartition());
+        assertArrayEquals(random, last.inflate());
+        assertNull(GzipBlocks.readBlock(in));
+    }
+
+    @Test
+    final void testCompress_ConcatenationIsPlainGzip() throws IOException {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        for (int i = 0; i < 3; i++) {
+            final byte[] line = bytes("line " + i + "\n");
+            archive.write(GzipBlocks.compress(line, line.length, i, deflater));
+        }
+        deflater.end();
+
+        final ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(archive.toByteArray()))) {
+            final byte[] buffer = new byte[256];
+            for (int count = in.read(buffer); count != -1; count = in.read(buffer)) {
+                plain.write(buffer, 0, count);
+            }
+        }
+        assertEquals("line 0\nline 1\nline 2\n", new String(plain.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    final void testInflate_DetectsCorruption() throws IOException {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        final byte[] data = bytes("some content that is long enough to be compressed into several bytes\n");
+        final byte[] member = GzipBlocks.compress(data, data.length, 0, deflater);
+        deflater.end();
+
+        final byte[] badChecksum = member.clone();
+        badChecksum[badChecksum.length - 8] ^= 1;
+        assertThrows(IOException.class, () -> GzipBlocks.readBlock(new ByteArrayInputStream(badChecksum)).inflate());
+
+        final byte[] truncated = new byte[member.length - 3];
+        System.arraycopy(member, 0, truncated, 0, truncated.length);
+        assertThrows(IOException.class, () -> GzipBlocks.readBlock(new ByteArrayInputStream(truncated)));
+
+        assertThrows(IOException.class, () -> GzipBlocks.readBlock(new ByteArrayInputStream(bytes("plain text"))));
+    }
+
+    private static byte[] bytes(final String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,55 @@
+package com.proofpoint.wikisystem.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HashRingTest {
+
+    private static final int KEYS = 10000;
+
+    @Test
+    final void testNodeFor_IndependentOfInsertionOrder() {
+        final HashRing first = new HashRing(Arrays.asList("node1", "node2", "node3"), 64);
+        final HashRing second = new HashRing(Arrays.asList("node3", "node1"), 64).withNode("node2");
+
+        for (int i = 0; i < KEYS; i++) {
+            assertEquals(first.nodeFor("Page" + i), second.nodeFor("Page" + i));
+        }
+    }
+
+    @Test
+    final void testWithNode_OnlyMovesKeysToNewNode() {
+        final HashRing before = new HashRing(Arrays.asList("node1", "node2", "node3"), 128);
+        final HashRing after = before.withNode("node4");
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            final String owner = after.nodeFor("Page" + i);
+            if (!owner.equals(before.nodeFor("Page" + i))) {
+                assertEquals("node4", owner);
+                moved++;
+            }
+        }
+        assertTrue(moved > KEYS / 8 && moved < KEYS / 3, "moved " + moved);
+    }
+
+    @Test
+    final void testNodeFor_SpreadsKeys() {
+        final HashRing ring = new HashRing(Arrays.asList("node1", "node2", "node3", "node4"), 128);
+
+        final Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.nodeFor("Page" + i), 1, Integer::sum);
+        }
+        assertEquals(4, counts.size());
+        for (int count : counts.values()) {
+            assertTrue(count > KEYS / 8, "count " + count);
+        }
+        assertNull(new HashRing(Arrays.asList(), 128).nodeFor("Page1"));
+    }
+}
@@ -0,0 +1,76 @@
+package com.proofpoint.wikisystem.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HeavyHittersTest {
+
+    @Test
+    final void testEstimate_NeverBelowTrueCount() {
+        final CountMinSketch sketch = new CountMinSketch(1024, 4);
+        final int[] counts = new int[5000];
+        final Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            final int key = random.nextInt(counts.length);
+            counts[key]++;
+            sketch.add("key" + key, 1);
+        }
+        long overestimate = 0;
+        for (int key = 0; key < counts.length; key++) {
+            final long estimate = sketch.estimate("key" + key);
+            assertTrue(estimate >= counts[key]);
+            overestimate += estimate - counts[key];
+        }
+        // About total / width per key for a sketch this small
+        assertTrue(overestimate / counts.length < 100_000 / 1024);
+
+        sketch.halve();
+        assertTrue(sketch.estimate("key0") >= counts[0] / 2);
+    }
+
+    @Test
+    final void testTop_FindsSkewedKeysAmongNoise() {
+        final HeavyHitters<String> hitters = new HeavyHitters<>(3, 4096, 4);
+        final Random random = new Random(7);
+        for (int i = 0; i < 50_000; i++) {
+            final int roll = random.nextInt(10);
+            if (roll < 3) {
+                hitters.add("hot");
+            } else if (roll < 5) {
+                hitters.add("warm");
+            } else if (roll < 6) {
+                hitters.add("mild");
+            } else {
+                hitters.add("cold" + random.nextInt(10_000));
+            }
+        }
+        final List<Map.Entry<String, Long>> top = hitters.top(3);
+        assertEquals(3, top.size());
+        assertEquals("hot", top.get(0).getKey());
+        assertEquals("warm", top.get(1).getKey());
+        assertEquals("mild", top.get(2).getKey());
+        assertEquals(1, hitters.top(1).size());
+    }
+
+    @Test
+    final void testDecay_NewHotKeysDisplaceOldOnes() {
+        final HeavyHitters<String> hitters = new HeavyHitters<>(2, 1024, 4);
+        for (int i = 0; i < 1000; i++) {
+            hitters.add("old" + (i % 2));
+        }
+        for (int round = 0; round < 5; round++) {
+            hitters.decay();
+            for (int i = 0; i < 200; i++) {
+                hitters.add("new" + (i % 2));
+            }
+        }
+        assertEquals(2, hitters.top(2).stream().filter(entry -> entry.getKey().startsWith("new"))
+                .collect(Collectors.toList()).size());
+    }
+}
@@ -0,0 +1,133 @@
+package com.proofpoint.wikisystem.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PrefixTrieTest {
+
+    @Test
+    final void testWithPrefix_KeyOrderFilterAndLimit() {
+        final PrefixTrie<String> trie = new PrefixTrie<>();
+        for (String key : Arrays.asList("team", "tea", "teapot", "ten", "apple", "te")) {
+            trie.add(key, key);
+        }
+        assertFalse(trie.add("tea", "tea"));
+        assertEquals(6, trie.size());
+
+        assertEquals(Arrays.asList("te", "tea", "team", "teapot", "ten"), keys(trie.withPrefix("te", 10, value -> true)));
+        assertEquals(Arrays.asList("team", "teapot"), keys(trie.withPrefix("tea", 10, value -> value.length() > 3)));
+        assertEquals(Arrays.asList("te", "tea"), keys(trie.withPrefix("t", 2, value -> true)));
+        assertEquals(Collections.singletonList("teapot"), keys(trie.withPrefix("teap", 10, value -> true)));
+        assertTrue(trie.withPrefix("tex", 10, value -> true).isEmpty());
+        assertEquals(6, trie.withPrefix("", 10, value -> true).size());
+    }
+
+    @Test
+    final void testRemove_KeepsOtherKeysAndValues() {
+        final PrefixTrie<String> trie = new PrefixTrie<>();
+        trie.add("report.pdf", "Page1/report.pdf");
+        trie.add("report.pdf", "Page2/report.pdf");
+        trie.add("report.docx", "Page1/report.docx");
+        trie.add("rep", "rep");
+
+        assertTrue(trie.remove("report.pdf", "Page1/report.pdf"));
+        assertFalse(trie.remove("report.pdf", "Page1/report.pdf"));
+        assertFalse(trie.remove("repo", "rep"));
+        assertEquals(Arrays.asList("Page1/report.docx", "Page2/report.pdf"), values(trie.withPrefix("report", 10, value -> true)));
+
+        assertTrue(trie.remove("rep", "rep"));
+        assertTrue(trie.remove("report.pdf", "Page2/report.pdf"));
+        assertEquals(Collections.singletonList("Page1/report.docx"), values(trie.withPrefix("r", 10, value -> true)));
+        assertEquals(1, trie.size());
+    }
+
+    @Test
+    final void testWithinEdits_ClosestFirst() {
+        final PrefixTrie<String> trie = new PrefixTrie<>();
+        for (String key : Arrays.asList("release-notes", "release-note", "relase-notes", "roadmap", "release-plans")) {
+            trie.add(key, key);
+        }
+
+        final List<PrefixTrie.Match<String>> matches = trie.withinEdits("release-notes", 2, 10, value -> true);
+        assertEquals(Arrays.asList("release-notes", "relase-notes", "release-note"), keys(matches));
+        assertEquals(Arrays.asList(0, 1, 1), matches.stream().map(PrefixTrie.Match::getDistance).collect(Collectors.toList()));
+        assertEquals(Collections.singletonList("relase-notes"),
+                keys(trie.withinEdits("release-notes", 1, 10, value -> !value.equals("release-notes") && !value.equals("release-note"))));
+        assertTrue(trie.withinEdits("roadmapping", 2, 10, value -> true).isEmpty());
+    }
+
+    @Test
+    final void testRandomKeys_MatchBruteForce() {
+        final Random random = new Random(11);
+        final PrefixTrie<String> trie = new PrefixTrie<>();
+        final TreeSet<String> expected = new TreeSet<>();
+        for (int i = 0; i < 5000; i++) {
+            final String key = randomKey(random);
+            if (random.nextInt(4) == 0 && !expected.isEmpty()) {
+                final String removed = expected.first();
+                assertTrue(trie.remove(removed, removed));
+                expected.remove(removed);
+            }
+            assertEquals(expected.add(key), trie.add(key, key));
+        }
+        assertEquals(expected.size(), trie.size());
+
+        for (int i = 0; i < 200; i++) {
+            final String query = randomKey(random);
+            final String prefix = query.substring(0, Math.min(2, query.length()));
+            assertEquals(expected.stream().filter(key -> key.startsWith(prefix)).collect(Collectors.toList()),
+                    keys(trie.withPrefix(prefix, Integer.MAX_VALUE, value -> true)));
+
+            final List<String> within = new ArrayList<>();
+            for (int distance = 0; distance <= 2; distance++) {
+                for (String key : expected) {
+                    if (levenshtein(query, key) == distance) {
+                        within.add(key);
+                    }
+                }
+            }
+            assertEquals(within, keys(trie.withinEdits(query, 2, Integer.MAX_VALUE, value -> true)));
+        }
+    }
+
+    private static String randomKey(final Random random) {
+        final char[] key = new char[1 + random.nextInt(6)];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (char) ('a' + random.nextInt(4));
+        }
+        return new String(key);
+    }
+
+    private static int levenshtein(final String a, final String b) {
+        int[] row = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            row[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            final int[] next = new int[row.length];
+            next[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                next[j] = Math.min(row[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1), Math.min(row[j], next[j - 1]) + 1);
+            }
+            row = next;
+        }
+        return row[b.length()];
+    }
+
+    private static List<String> keys(final List<PrefixTrie.Match<String>> matches) {
+        return matches.stream().map(PrefixTrie.Match::getKey).collect(Collectors.toList());
+    }
+
+    private static List<String> values(final List<PrefixTrie.Match<String>> matches) {
+        return matches.stream().map(PrefixTrie.Match::getValue).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,71 @@
+package com.proofpoint.wikisystem.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RopeTest {
+
+    @Test
+    final void testReplace_MatchesStringBuilderUnderRandomEdits() {
+        final Random random = new Random(11);
+        final StringBuilder expected = new StringBuilder(randomText(random, 20_000));
+        Rope rope = Rope.of(expected);
+        for (int i = 0; i < 5_000; i++) {
+            final int start = random.nextInt(expected.length() + 1);
+            final int end = Math.min(expected.length(), start + random.nextInt(random.nextInt(10) == 0 ? 3000 : 20));
+            final String text = randomText(random, random.nextInt(random.nextInt(10) == 0 ? 3000 : 20));
+            expected.replace(start, end, text);
+            rope = rope.replace(start, end, text);
+            assertEquals(expected.length(), rope.length());
+        }
+        assertEquals(expected.toString(), rope.toString());
+        final int start = expected.length() / 3;
+        assertEquals(expected.substring(start, start + 500), rope.substring(start, start + 500));
+        assertEquals(expected.charAt(start), rope.charAt(start));
+        // Balanced: height stays logarithmic in the number of chunks
+        assertTrue(rope.height() <= 2 * (32 - Integer.numberOfLeadingZeros(expected.length() / 16 + 1)) + 2);
+    }
+
+    @Test
+    final void testReplace_LeavesOriginalUnchanged() {
+        final String text = randomText(new Random(3), 100_000);
+        final Rope original = Rope.of(text);
+        final Rope edited = original.insert(50_000, "typo").delete(10, 20);
+
+        assertEquals(text, original.toString());
+        assertEquals(text.substring(0, 10) + text.substring(20, 50_000) + "typo" + text.substring(50_000),
+                edited.toString());
+        assertEquals(original.height(), edited.height(), 1);
+    }
+
+    @Test
+    final void testIndexOf_FindsAcrossChunks() {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            text.append('a');
+        }
+        text.setCharAt(100, '\n');
+        text.setCharAt(2500, '\n');
+        final Rope rope = Rope.of(text);
+
+        assertEquals(100, rope.indexOf('\n', 0));
+        assertEquals(2500, rope.indexOf('\n', 101));
+        assertEquals(-1, rope.indexOf('\n', 2501));
+        assertEquals(2500, rope.lastIndexOf('\n', 2999));
+        assertEquals(100, rope.lastIndexOf('\n', 2499));
+        assertEquals(-1, rope.lastIndexOf('\n', 99));
+        assertEquals(-1, rope.lastIndexOf('\n', -1));
+        assertThrows(IndexOutOfBoundsException.class, () -> rope.replace(10, 3001, ""));
+    }
+
+    private static String randomText(final Random random, final int length) {
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = random.nextInt(40) == 0 ? '\n' : (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+}
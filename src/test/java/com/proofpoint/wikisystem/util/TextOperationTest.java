@@ -0,0 +1,88 @@
+package com.proofpoint.wikisystem.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TextOperationTest {
+
+    @Test
+    final void testTransform_ConvergesUnderRandomConcurrentOperations() {
+        final Random random = new Random(5);
+        for (int i = 0; i < 2_000; i++) {
+            final Rope text = Rope.of(randomText(random, random.nextInt(50)));
+            final TextOperation first = randomOperation(random, text.length());
+            final TextOperation second = randomOperation(random, text.length());
+
+            final TextOperation[] transformed = TextOperation.transform(first, second);
+            assertEquals(transformed[1].apply(first.apply(text)).toString(),
+                    transformed[0].apply(second.apply(text)).toString(), first + " against " + second);
+        }
+    }
+
+    @Test
+    final void testTransform_FirstInsertGoesBeforeSecondAtSamePosition() {
+        final Rope text = Rope.of("abc");
+        final TextOperation first = new TextOperation().retain(1).insert("X").retain(2);
+        final TextOperation second = new TextOperation().retain(1).insert("Y").delete(1).retain(1);
+
+        final TextOperation[] transformed = TextOperation.transform(first, second);
+        assertEquals("aXYc", transformed[0].apply(second.apply(text)).toString());
+        assertEquals("aXYc", transformed[1].apply(first.apply(text)).toString());
+        assertThrows(IllegalArgumentException.class,
+                () -> TextOperation.transform(first, new TextOperation().retain(4)));
+    }
+
+    @Test
+    final void testBetween_ReplacesOnlyTheDifference() throws Exception {
+        final TextOperation operation = TextOperation.between("Hello world", "Hello brave new world");
+
+        assertEquals(Arrays.asList(6, "brave new ", 5), operation.toJson());
+        assertEquals("Hello brave new world", operation.apply(Rope.of("Hello world")).toString());
+        assertTrue(TextOperation.between("same", "same").isNoop());
+
+        final ObjectMapper mapper = new ObjectMapper();
+        final TextOperation parsed = TextOperation.fromJson(mapper.readTree("[2, \"xy\", -3, 1]"));
+        assertEquals(Arrays.asList(2, "xy", -3, 1), parsed.toJson());
+        assertEquals(6, parsed.getBaseLength());
+        assertEquals(5, parsed.getTargetLength());
+        assertThrows(IllegalArgumentException.class, () -> TextOperation.fromJson(mapper.readTree("[0]")));
+        assertThrows(IllegalArgumentException.class, () -> parsed.apply(Rope.of("short")));
+    }
+
+    private static TextOperation randomOperation(final Random random, final int length) {
+        final TextOperation operation = new TextOperation();
+        int left = length;
+        while (left > 0) {
+            final int count = 1 + random.nextInt(Math.min(left, 5));
+            switch (random.nextInt(3)) {
+                case 0:
+                    operation.retain(count);
+                    left -= count;
+                    break;
+                case 1:
+                    operation.delete(count);
+                    left -= count;
+                    break;
+                default:
+                    operation.insert(randomText(random, count));
+            }
+        }
+        if (random.nextBoolean()) {
+            operation.insert(randomText(random, 3));
+        }
+        return operation;
+    }
+
+    private static String randomText(final Random random, final int length) {
+        final StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('a' + random.nextInt(4)));
+        }
+        return text.toString();
+    }
+}
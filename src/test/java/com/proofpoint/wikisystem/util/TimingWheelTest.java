@@ -0,0 +1,63 @@
+package com.proofpoint.wikisystem.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimingWheelTest {
+
+    @Test
+    final void testItemsFireAtTheirDeadline() {
+        final TimingWheel<String> wheel = new TimingWheel<>(10, 3, 0);
+        wheel.schedule("b", 50);
+        wheel.schedule("a", 25);
+        wheel.schedule("c", 50);
+
+        assertTrue(wheel.advance(20).isEmpty());
+        assertEquals(Collections.singletonList("a"), wheel.advance(30));
+        assertTrue(wheel.advance(49).isEmpty());
+        assertEquals(Arrays.asList("b", "c"), wheel.advance(50));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    final void testPastDeadlineFiresOnNextTick() {
+        final TimingWheel<String> wheel = new TimingWheel<>(10, 3, 1000);
+        wheel.schedule("late", 0);
+
+        assertTrue(wheel.advance(1005).isEmpty());
+        assertEquals(Collections.singletonList("late"), wheel.advance(1010));
+    }
+
+    @Test
+    final void testDistantDeadlinesCascadeInOrder() {
+        // 2 levels of 64 ticks reach 4096 ticks, later deadlines wait in the overflow list
+        final TimingWheel<Long> wheel = new TimingWheel<>(1, 2, 0);
+        final Random random = new Random(7);
+        final List<Long> deadlines = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            final long deadline = 1 + random.nextInt(20_000);
+            deadlines.add(deadline);
+            wheel.schedule(deadline, deadline);
+        }
+        Collections.sort(deadlines);
+
+        final List<Long> fired = new ArrayList<>();
+        for (long now = 0; now <= 20_000; now += 1 + random.nextInt(300)) {
+            for (Long deadline : wheel.advance(now)) {
+                assertTrue(deadline <= now);
+                assertTrue(fired.isEmpty() || fired.get(fired.size() - 1) <= deadline);
+                fired.add(deadline);
+            }
+            assertTrue(fired.size() == deadlines.size() || deadlines.get(fired.size()) > now);
+        }
+        fired.addAll(wheel.advance(20_000));
+        assertEquals(deadlines, fired);
+    }
+}
@@ -0,0 +1,54 @@
+package com.proofpoint.wikisystem.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    final void testTryAcquire_BurstThenRate() {
+        final TokenBucket bucket = new TokenBucket(10, 3, 0);
+
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(SECOND / 10, bucket.tryAcquire(0));
+
+        assertEquals(0, bucket.tryAcquire(SECOND / 10));
+        assertTrue(bucket.tryAcquire(SECOND / 10) > 0);
+    }
+
+    @Test
+    final void testIsFull_AfterRefill() {
+        final TokenBucket bucket = new TokenBucket(10, 3, 0);
+        bucket.tryAcquire(0);
+        bucket.tryAcquire(0);
+
+        assertFalse(bucket.isFull(SECOND / 10));
+        assertTrue(bucket.isFull(SECOND / 5));
+    }
+
+    @Test
+    final void testConcurrencyLimiter_ShrinksOnSlowRequestsAndGrowsBack() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 4, 2, 100, 0);
+
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(1, limiter.getRejected());
+
+        limiter.release(500, 1);
+        limiter.release(500, 2);
+        assertEquals(1, limiter.getLimit());
+
+        assertTrue(limiter.tryAcquire());
+        limiter.release(10, 3);
+        assertEquals(2, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+}
@@ -0,0 +1,68 @@
+package com.proofpoint.wikisystem.util;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransitiveClosureTest {
+
+    private TransitiveClosure<String, String> closure;
+
+    @BeforeEach
+    void setup() {
+        closure = new TransitiveClosure<>();
+        // alice -> dev -> eng -> company, dev -> oncall
+        closure.addEdge("alice", "dev");
+        closure.addEdge("dev", "eng");
+        closure.addEdge("eng", "company");
+        closure.addEdge("dev", "oncall");
+    }
+
+    @Test
+    final void testAncestorsIncludeNestedTeams() {
+        assertEquals(new HashSet<>(Arrays.asList("dev", "eng", "company", "oncall")), closure.getAncestors("alice"));
+        assertEquals(new HashSet<>(Arrays.asList("eng", "company", "oncall")), closure.getAncestors("dev"));
+        assertEquals(Collections.singleton("dev"), closure.getGroups("alice"));
+        assertTrue(closure.getAncestors("bob").isEmpty());
+    }
+
+    @Test
+    final void testEdgeAddedAboveReachesMembersBelow() {
+        closure.addEdge("company", "holding");
+        assertTrue(closure.getAncestors("alice").contains("holding"));
+        assertTrue(closure.getAncestors("dev").contains("holding"));
+    }
+
+    @Test
+    final void testCyclesAreRefused() {
+        assertThrows(IllegalArgumentException.class, () -> closure.addEdge("company", "dev"));
+        assertThrows(IllegalArgumentException.class, () -> closure.addEdge("eng", "eng"));
+        assertFalse(closure.getAncestors("company").contains("dev"));
+        assertFalse(closure.addEdge("dev", "eng"));
+    }
+
+    @Test
+    final void testRemovingEdgeKeepsOtherPaths() {
+        // Second path from dev to company
+        closure.addEdge("oncall", "company");
+        closure.removeEdge("eng", "company");
+        assertEquals(new HashSet<>(Arrays.asList("dev", "eng", "oncall", "company")), closure.getAncestors("alice"));
+
+        closure.removeEdge("oncall", "company");
+        assertEquals(new HashSet<>(Arrays.asList("dev", "eng", "oncall")), closure.getAncestors("alice"));
+        assertTrue(closure.getAncestors("eng").isEmpty());
+    }
+
+    @Test
+    final void testRemovingGroupDetachesItsMembers() {
+        closure.remove("eng");
+        assertEquals(new HashSet<>(Arrays.asList("dev", "oncall")), closure.getAncestors("alice"));
+        assertTrue(closure.getAncestors("eng").isEmpty());
+        assertEquals(Collections.singleton("oncall"), closure.getGroups("dev"));
+    }
+}
@@ -0,0 +1,75 @@
+package com.proofpoint.wikisystem.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TreePathsTest {
+
+    @Test
+    final void testPut_LabelsPathsAndAncestors() {
+        final TreePaths<String> tree = new TreePaths<>();
+        tree.put("root", null);
+        tree.put("a", "root");
+        tree.put("b", "a");
+        tree.put("c", "root");
+
+        assertEquals(Arrays.asList("root", "a", "b"), tree.getPath("b"));
+        assertTrue(tree.isAncestor("root", "b"));
+        assertTrue(tree.isAncestor("a", "b"));
+        assertFalse(tree.isAncestor("b", "b"));
+        assertFalse(tree.isAncestor("c", "b"));
+        assertFalse(tree.isAncestor("b", "a"));
+        assertFalse(tree.isAncestor("unknown", "b"));
+        assertTrue(tree.getPath("unknown").isEmpty());
+    }
+
+    @Test
+    final void testPut_MovesSubtree() {
+        final TreePaths<String> tree = new TreePaths<>();
+        tree.put("root", null);
+        tree.put("a", "root");
+        tree.put("b", "a");
+        tree.put("other", null);
+
+        tree.put("a", "other");
+
+        assertEquals(Arrays.asList("other", "a", "b"), tree.getPath("b"));
+        assertFalse(tree.isAncestor("root", "b"));
+        assertTrue(tree.isAncestor("other", "b"));
+        assertThrows(IllegalArgumentException.class, () -> tree.put("other", "b"));
+        assertThrows(IllegalArgumentException.class, () -> tree.put("a", "a"));
+    }
+
+    @Test
+    final void testRemove_OrphansChildrenUntilParentReturns() {
+        final TreePaths<String> tree = new TreePaths<>();
+        tree.put("root", null);
+        tree.put("a", "root");
+        tree.put("b", "a");
+
+        tree.remove("a");
+        assertEquals(Collections.singletonList("b"), tree.getPath("b"));
+        assertFalse(tree.contains("a"));
+
+        tree.put("a", "root");
+        assertEquals(Arrays.asList("root", "a", "b"), tree.getPath("b"));
+    }
+
+    @Test
+    final void testPut_ChildBeforeParent() {
+        final TreePaths<String> tree = new TreePaths<>();
+        tree.put("b", "a");
+        assertEquals(Collections.singletonList("b"), tree.getPath("b"));
+        // The parent named by its child cannot be placed below it
+        assertThrows(IllegalArgumentException.class, () -> tree.put("a", "b"));
+
+        tree.put("a", "root");
+        tree.put("root", null);
+        assertEquals(Arrays.asList("root", "a", "b"), tree.getPath("b"));
+        assertEquals(3, tree.size());
+    }
+}